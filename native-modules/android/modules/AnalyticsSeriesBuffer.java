@@ -0,0 +1,375 @@
+package com.nostix;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Fixed-size ring buffer of analytics samples from startAnalyticsGraph, kept as primitive
+ * arrays: one shared {@code long[]} of timestamps and one {@code double[]} per series.
+ * Samples are only recorded here; the graph pulls a window downsampled with
+ * Largest-Triangle-Three-Buckets to the number of points it can draw.
+ * <p>
+ * A sample is the JSON string the lib posts: an object whose numeric members are the
+ * series ({@code {"rpm": 1200, "temp": "41.5"}}), an object or array of objects of the
+ * form {@code {"name": ..., "value": ...}}, or an array of numbers that go to series
+ * {@code s0, s1, ...} by position. A series that is missing from a sample gets NaN for
+ * that row and the row is skipped when the series is downsampled. A sample with no
+ * numeric value is still kept as {@code lastSample}, so the graph can show the raw payload.
+ * A sample is parsed whole before its row is written, so one that fails part way leaves
+ * the buffered rows untouched.
+ */
+public class AnalyticsSeriesBuffer {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    private static final int MAX_SERIES = 32;
+
+    public interface SampleListener {
+        void onSample(String series, long timeInMillis, double value);
+    }
+
+    private static class Series {
+        final String name;
+        final double[] values;
+
+        Series(String name, int capacity) {
+            this.name = name;
+            this.values = new double[capacity];
+            Arrays.fill(values, Double.NaN);
+        }
+    }
+
+    private final int capacity;
+    private final long[] timestamps;
+    private final List<Series> series = new ArrayList<>();
+    // Next row to write; rows [head - size, head) modulo capacity are valid
+    private int head;
+    private int size;
+    private long version;
+    private long totalSamples;
+    private long unparsedSamples;
+    private String lastSample;
+    private SampleListener sampleListener;
+    // Values of the sample being parsed, written to a row once all of it parsed
+    private final List<String> pendingNames = new ArrayList<>();
+    private double[] pendingValues = new double[MAX_SERIES];
+
+    public AnalyticsSeriesBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public AnalyticsSeriesBuffer(int capacity) {
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+    }
+
+    /**
+     * Receives every parsed value, e.g. to record the full-rate stream.
+     */
+    public synchronized void setSampleListener(SampleListener sampleListener) {
+        this.sampleListener = sampleListener;
+    }
+
+    public synchronized void clear() {
+        series.clear();
+        head = 0;
+        size = 0;
+        totalSamples = 0;
+        unparsedSamples = 0;
+        lastSample = null;
+        version++;
+    }
+
+    /**
+     * Parse one sample and append it as a row stamped with the wall clock time.
+     */
+    public synchronized void record(String sample) {
+        lastSample = sample;
+        if (sample == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        pendingNames.clear();
+        try {
+            Object payload = new JSONTokener(sample.trim()).nextValue();
+            if (payload instanceof JSONArray) {
+                JSONArray array = (JSONArray) payload;
+                for (int i = 0; i < array.length(); i++) {
+                    Object item = array.get(i);
+                    if (item instanceof JSONObject) {
+                        putNamedValue((JSONObject) item);
+                    } else {
+                        putValue("s" + i, item);
+                    }
+                }
+            } else if (payload instanceof JSONObject) {
+                JSONObject object = (JSONObject) payload;
+                if (object.has("name") && object.has("value")) {
+                    putNamedValue(object);
+                } else {
+                    Iterator<String> keys = object.keys();
+                    while (keys.hasNext()) {
+                        String key = keys.next();
+                        putValue(key, object.get(key));
+                    }
+                }
+            } else {
+                putValue("s0", payload);
+            }
+        } catch (JSONException e) {
+            pendingNames.clear();
+        }
+        int row = head;
+        if (!writeRow(row, now)) {
+            unparsedSamples++;
+            // Nothing to plot, but the window still carries the raw payload
+            version++;
+            return;
+        }
+        timestamps[row] = now;
+        head = (head + 1) % capacity;
+        if (size < capacity) {
+            size++;
+        }
+        totalSamples++;
+        version++;
+    }
+
+    /**
+     * Samples from the last {@code windowMillis} (or the whole buffer if {@code <= 0}),
+     * each series downsampled to at most {@code maxPoints}. If nothing was recorded since
+     * {@code sinceVersion} only {@code {changed: false, version}} is returned.
+     */
+    public synchronized WritableMap getWindow(double windowMillis, int maxPoints, double sinceVersion) {
+        WritableMap window = new WritableNativeMap();
+        window.putDouble("version", version);
+        if (sinceVersion >= 0 && (long) sinceVersion == version) {
+            window.putBoolean("changed", false);
+            return window;
+        }
+        window.putBoolean("changed", true);
+        window.putDouble("totalSamples", totalSamples);
+        window.putDouble("unparsedSamples", unparsedSamples);
+        window.putInt("bufferedSamples", size);
+        window.putInt("capacity", capacity);
+        if (lastSample != null) {
+            window.putString("lastSample", lastSample);
+        } else {
+            window.putNull("lastSample");
+        }
+
+        int start = head - size;
+        if (start < 0) {
+            start += capacity;
+        }
+        int count = size;
+        if (windowMillis > 0 && size > 0) {
+            int newest = (head - 1 + capacity) % capacity;
+            long from = timestamps[newest] - (long) windowMillis;
+            // Rows are in time order, so skip from the oldest until inside the window
+            while (count > 0 && timestamps[start] < from) {
+                start = (start + 1) % capacity;
+                count--;
+            }
+        }
+
+        long[] x = new long[count];
+        double[] y = new double[count];
+        WritableArray seriesArray = new WritableNativeArray();
+        for (Series item : series) {
+            int points = 0;
+            for (int i = 0; i < count; i++) {
+                int row = (start + i) % capacity;
+                double value = item.values[row];
+                if (!Double.isNaN(value)) {
+                    x[points] = timestamps[row];
+                    y[points] = value;
+                    points++;
+                }
+            }
+            int[] selected = largestTriangleThreeBuckets(x, y, points, maxPoints);
+            WritableArray t = new WritableNativeArray();
+            WritableArray v = new WritableNativeArray();
+            for (int index : selected) {
+                t.pushDouble(x[index]);
+                v.pushDouble(y[index]);
+            }
+            WritableMap seriesItem = new WritableNativeMap();
+            seriesItem.putString("name", item.name);
+            seriesItem.putArray("t", t);
+            seriesItem.putArray("v", v);
+            seriesItem.putInt("rawPoints", points);
+            if (points > 0) {
+                seriesItem.putDouble("last", y[points - 1]);
+            } else {
+                seriesItem.putNull("last");
+            }
+            seriesArray.pushMap(seriesItem);
+        }
+        window.putArray("series", seriesArray);
+        return window;
+    }
+
+    /**
+     * Indices of the points kept by Largest-Triangle-Three-Buckets. The first and last
+     * points are always kept; every bucket in between keeps the point forming the largest
+     * triangle with the previously kept point and the average of the next bucket.
+     */
+    static int[] largestTriangleThreeBuckets(long[] x, double[] y, int length, int threshold) {
+        if (threshold >= length) {
+            int[] all = new int[length];
+            for (int i = 0; i < length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        if (threshold < 3) {
+            return threshold <= 0 ? new int[0] : threshold == 1 ? new int[] { length - 1 } : new int[] { 0, length - 1 };
+        }
+        int[] selected = new int[threshold];
+        int selectedCount = 0;
+        double bucketSize = (double) (length - 2) / (threshold - 2);
+        int a = 0;
+        selected[selectedCount++] = a;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int rangeStart = (int) Math.floor(bucket * bucketSize) + 1;
+            int rangeEnd = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+
+            // The last bucket is averaged against the final point alone
+            int nextStart = bucket == threshold - 3 ? length - 1 : rangeEnd;
+            int nextEnd = bucket == threshold - 3 ? length
+                    : Math.min((int) Math.floor((bucket + 2) * bucketSize) + 1, length);
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageX += x[i];
+                averageY += y[i];
+            }
+            int nextCount = nextEnd - nextStart;
+            averageX /= nextCount;
+            averageY /= nextCount;
+
+            double maxArea = -1;
+            int maxIndex = rangeStart;
+            double pointAX = x[a];
+            double pointAY = y[a];
+            for (int i = rangeStart; i < rangeEnd; i++) {
+                double area = Math.abs((pointAX - averageX) * (y[i] - pointAY)
+                        - (pointAX - x[i]) * (averageY - pointAY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxIndex = i;
+                }
+            }
+            selected[selectedCount++] = maxIndex;
+            a = maxIndex;
+        }
+        selected[selectedCount] = length - 1;
+        return selected;
+    }
+
+    private Series getOrCreateSeries(String name) {
+        for (Series item : series) {
+            if (item.name.equals(name)) {
+                return item;
+            }
+        }
+        if (series.size() >= MAX_SERIES) {
+            return null;
+        }
+        Series created = new Series(name, capacity);
+        series.add(created);
+        return created;
+    }
+
+    /**
+     * Values of {@code name} in the buffered rows, oldest first; NaN where a row has none.
+     */
+    synchronized double[] getBufferedValues(String name) {
+        double[] buffered = new double[size];
+        Arrays.fill(buffered, Double.NaN);
+        for (Series item : series) {
+            if (item.name.equals(name)) {
+                for (int i = 0; i < size; i++) {
+                    buffered[i] = item.values[(head - size + i + capacity) % capacity];
+                }
+            }
+        }
+        return buffered;
+    }
+
+    /**
+     * Write the parsed values to {@code row}, clearing what the row held before.
+     *
+     * @return false if no value has a series to go to; the row is left as it was
+     */
+    private boolean writeRow(int row, long now) {
+        Series[] targets = new Series[pendingNames.size()];
+        boolean hasValue = false;
+        for (int i = 0; i < targets.length; i++) {
+            String name = pendingNames.get(i);
+            if (sampleListener != null) {
+                sampleListener.onSample(name, now, pendingValues[i]);
+            }
+            targets[i] = getOrCreateSeries(name);
+            hasValue |= targets[i] != null;
+        }
+        if (!hasValue) {
+            return false;
+        }
+        for (Series item : series) {
+            item.values[row] = Double.NaN;
+        }
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i] != null) {
+                targets[i].values[row] = pendingValues[i];
+            }
+        }
+        return true;
+    }
+
+    private void putNamedValue(JSONObject item) throws JSONException {
+        putValue(item.optString("name", null), item.get("value"));
+    }
+
+    /**
+     * Keep a number, or a string holding only a number; anything else is ignored.
+     */
+    private void putValue(String name, Object value) {
+        if (name == null || name.isEmpty()) {
+            return;
+        }
+        double number;
+        if (value instanceof Number) {
+            number = ((Number) value).doubleValue();
+        } else if (value instanceof String) {
+            try {
+                number = Double.parseDouble(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return;
+            }
+        } else {
+            return;
+        }
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            return;
+        }
+        int index = pendingNames.size();
+        if (index == pendingValues.length) {
+            pendingValues = Arrays.copyOf(pendingValues, index * 2);
+        }
+        pendingNames.add(name);
+        pendingValues[index] = number;
+    }
+}
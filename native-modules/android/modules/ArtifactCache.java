@@ -0,0 +1,461 @@
+package com.nostix;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Content-addressed store for the downloaded hex and XML files, shared by all vehicles.
+ * <p>
+ * Every file is stored once under {@code BALCache/objects/<sha256>}; the index maps each
+ * download URL to the hash and ETag of what it returned and keeps when each object was
+ * last used. {@link #materialize} hashes the freshly downloaded files in parallel, links
+ * them into the store and hard links every cached artifact the download skipped back
+ * into the download folder, which {@link DirectorySync} then mirrors into balDownload.
+ * When the store grows past its size bound, the least recently used objects not needed
+ * by the current vehicle are evicted.
+ * <p>
+ * A URL is never trusted on the strength of the index alone: a download is only stored
+ * if a HEAD request answers 2xx with a Content-Length equal to the file's size and the
+ * file is not an HTML error page, and a cached URL is only reported as skippable if a
+ * fresh HEAD still matches its ETag, or its size when the server sends no ETag. Firmware
+ * republished under the same URL is therefore downloaded again.
+ */
+public class ArtifactCache {
+
+    private static final String TAG = "ArtifactCache";
+
+    public static final String CACHE_DIR = "BALCache";
+    public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_WORKERS = 4;
+    private static final int HEAD_TIMEOUT_MILLIS = 5000;
+    private static final int SNIFF_BYTES = 256;
+
+    /**
+     * A file of the download folder and the URL it comes from.
+     */
+    public static class Artifact {
+        final String url;
+        final String fileName;
+
+        public Artifact(String url, String fileName) {
+            this.url = url;
+            this.fileName = fileName;
+        }
+    }
+
+    public static class Result {
+        public int stored;
+        public int reused;
+        public int missing;
+        public int rejected;
+        public int evicted;
+    }
+
+    private static class UrlEntry {
+        final String hash;
+        final String etag;
+
+        UrlEntry(String hash, String etag) {
+            this.hash = hash;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * What a HEAD request said about a URL; length is -1 if the server did not send it.
+     */
+    private static class Remote {
+        final String etag;
+        final long length;
+
+        Remote(String etag, long length) {
+            this.etag = etag;
+            this.length = length;
+        }
+    }
+
+    private static class CachedObject {
+        final String hash;
+        final long size;
+        long lastUsed;
+
+        CachedObject(String hash, long size, long lastUsed) {
+            this.hash = hash;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private final File objectsDir;
+    private final File indexFile;
+    private final long maxBytes;
+    private final Map<String, UrlEntry> entriesByUrl = new HashMap<>();
+    private final Map<String, CachedObject> objects = new HashMap<>();
+    private boolean isLoaded;
+
+    public ArtifactCache(File dataDir, long maxBytes) {
+        File dir = new File(dataDir, CACHE_DIR);
+        this.objectsDir = new File(dir, "objects");
+        this.indexFile = new File(dir, "index");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Blocking: revalidates each stored URL with a HEAD request, in parallel.
+     *
+     * @return the URLs whose artifact is in the store and unchanged on the server, so
+     *         their download can be skipped
+     */
+    public List<String> getCached(List<String> urls) throws IOException {
+        final List<String> candidates = new ArrayList<>();
+        final List<UrlEntry> entries = new ArrayList<>();
+        final List<Long> sizes = new ArrayList<>();
+        synchronized (this) {
+            load();
+            for (String url : urls) {
+                CachedObject object = getObject(url);
+                if (object != null && !candidates.contains(url)) {
+                    candidates.add(url);
+                    entries.add(entriesByUrl.get(url));
+                    sizes.add(object.size);
+                }
+            }
+        }
+        List<Callable<Remote>> heads = new ArrayList<>();
+        for (final String url : candidates) {
+            heads.add(new Callable<Remote>() {
+                @Override
+                public Remote call() {
+                    return head(url);
+                }
+            });
+        }
+        List<Remote> remotes = runAll(heads);
+        List<String> cached = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (isUnchanged(entries.get(i), sizes.get(i), remotes.get(i))) {
+                cached.add(candidates.get(i));
+            } else {
+                Log.d(TAG, "getCached: " + candidates.get(i) + " changed or not verifiable, downloading again");
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Store what was downloaded into {@code folder} and link in the cached artifacts that
+     * were not downloaded. Blocking.
+     */
+    public synchronized Result materialize(File folder, List<Artifact> artifacts) throws IOException {
+        load();
+        if (!objectsDir.exists() && !objectsDir.mkdirs()) {
+            throw new IOException("Unable to create " + objectsDir);
+        }
+        Result result = new Result();
+        final List<Artifact> downloaded = new ArrayList<>();
+        final List<File> downloadedFiles = new ArrayList<>();
+        for (Artifact artifact : artifacts) {
+            File file = new File(folder, artifact.fileName);
+            if (file.isFile()) {
+                downloaded.add(artifact);
+                downloadedFiles.add(file);
+            }
+        }
+
+        List<Callable<String>> hashJobs = new ArrayList<>();
+        List<Callable<Remote>> headJobs = new ArrayList<>();
+        for (int i = 0; i < downloaded.size(); i++) {
+            final File file = downloadedFiles.get(i);
+            final String url = downloaded.get(i).url;
+            hashJobs.add(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return DirectorySync.hash(file, new byte[BUFFER_SIZE]);
+                }
+            });
+            headJobs.add(new Callable<Remote>() {
+                @Override
+                public Remote call() {
+                    return head(url);
+                }
+            });
+        }
+        List<String> hashes = runAll(hashJobs);
+        List<Remote> remotes = runAll(headJobs);
+        long now = System.currentTimeMillis();
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < downloaded.size(); i++) {
+            File file = downloadedFiles.get(i);
+            String hash = hashes.get(i);
+            Remote remote = remotes.get(i);
+            if (remote == null || remote.length != file.length() || isHtml(file)) {
+                // Truncated, an error page or not verifiable: used as is, but never cached
+                Log.d(TAG, "materialize: not caching " + downloaded.get(i).url);
+                entriesByUrl.remove(downloaded.get(i).url);
+                result.rejected++;
+                continue;
+            }
+            CachedObject object = objects.get(hash);
+            File objectFile = new File(objectsDir, hash);
+            if (object == null || !objectFile.isFile()) {
+                // Keep the download in place and give the store its own link to it
+                link(file, objectFile);
+                object = new CachedObject(hash, file.length(), now);
+                objects.put(hash, object);
+                result.stored++;
+            }
+            object.lastUsed = now;
+            entriesByUrl.put(downloaded.get(i).url, new UrlEntry(hash, remote.etag));
+            used.add(hash);
+        }
+
+        for (Artifact artifact : artifacts) {
+            File file = new File(folder, artifact.fileName);
+            if (file.isFile()) {
+                continue;
+            }
+            CachedObject object = getObject(artifact.url);
+            if (object == null) {
+                result.missing++;
+                continue;
+            }
+            link(new File(objectsDir, object.hash), file);
+            object.lastUsed = now;
+            used.add(object.hash);
+            result.reused++;
+        }
+
+        result.evicted = evict(used);
+        writeIndex();
+        return result;
+    }
+
+    private CachedObject getObject(String url) {
+        UrlEntry entry = entriesByUrl.get(url);
+        if (entry == null) {
+            return null;
+        }
+        CachedObject object = objects.get(entry.hash);
+        if (object == null || new File(objectsDir, entry.hash).length() != object.size) {
+            return null;
+        }
+        return object;
+    }
+
+    private static boolean isUnchanged(UrlEntry entry, long size, Remote remote) {
+        if (remote == null) {
+            return false;
+        }
+        if (remote.length >= 0 && remote.length != size) {
+            return false;
+        }
+        if (remote.etag != null && entry.etag != null) {
+            return remote.etag.equals(entry.etag);
+        }
+        // No ETag to compare: only a matching size vouches for the cached copy
+        return remote.length >= 0;
+    }
+
+    /**
+     * @return the ETag and Content-Length of a 2xx HEAD response, or null if the request
+     *         failed or was answered otherwise
+     */
+    private static Remote head(String url) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(HEAD_TIMEOUT_MILLIS);
+            connection.setReadTimeout(HEAD_TIMEOUT_MILLIS);
+            // The length of the stored bytes, not of a compressed transfer
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            int status = connection.getResponseCode();
+            if (status < 200 || status >= 300) {
+                return null;
+            }
+            return new Remote(connection.getHeaderField("ETag"), connection.getContentLengthLong());
+        } catch (IOException | ClassCastException e) {
+            Log.d(TAG, "head: " + e.getMessage());
+            return null;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    // Servers answer missing files with an HTML page and a 200
+    private static boolean isHtml(File file) {
+        byte[] bytes = new byte[SNIFF_BYTES];
+        int length;
+        try (InputStream input = new FileInputStream(file)) {
+            length = Math.max(input.read(bytes), 0);
+        } catch (IOException e) {
+            return true;
+        }
+        String start = new String(bytes, 0, length, StandardCharsets.UTF_8).trim().toLowerCase(Locale.US);
+        return start.startsWith("<!doctype html") || start.startsWith("<html");
+    }
+
+    private static <T> List<T> runAll(List<Callable<T>> jobs) throws IOException {
+        List<T> results = new ArrayList<>();
+        if (jobs.isEmpty()) {
+            return results;
+        }
+        int workers = Math.max(1, Math.min(Math.min(MAX_WORKERS, jobs.size()), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (Callable<T> job : jobs) {
+                futures.add(executor.submit(job));
+            }
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(String.valueOf(cause));
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    private static void link(File source, File target) throws IOException {
+        target.delete();
+        try {
+            Os.link(source.getAbsolutePath(), target.getAbsolutePath());
+        } catch (ErrnoException e) {
+            // File system without hard links
+            DirectorySync.transfer(source, target);
+        }
+    }
+
+    /**
+     * Delete the least recently used objects, except {@code used}, until the store fits.
+     *
+     * @return number of objects deleted
+     */
+    private int evict(Set<String> used) {
+        long total = 0;
+        for (CachedObject object : objects.values()) {
+            total += object.size;
+        }
+        if (total <= maxBytes) {
+            return 0;
+        }
+        List<CachedObject> candidates = new ArrayList<>();
+        for (CachedObject object : objects.values()) {
+            if (!used.contains(object.hash)) {
+                candidates.add(object);
+            }
+        }
+        Collections.sort(candidates, new Comparator<CachedObject>() {
+            @Override
+            public int compare(CachedObject a, CachedObject b) {
+                return Long.compare(a.lastUsed, b.lastUsed);
+            }
+        });
+        Set<String> evicted = new HashSet<>();
+        for (CachedObject object : candidates) {
+            if (total <= maxBytes) {
+                break;
+            }
+            new File(objectsDir, object.hash).delete();
+            objects.remove(object.hash);
+            evicted.add(object.hash);
+            total -= object.size;
+        }
+        Iterator<UrlEntry> entries = entriesByUrl.values().iterator();
+        while (entries.hasNext()) {
+            if (evicted.contains(entries.next().hash)) {
+                entries.remove();
+            }
+        }
+        if (!evicted.isEmpty()) {
+            Log.d(TAG, "evict: deleted " + evicted.size() + " objects, " + total + " bytes left");
+        }
+        return evicted.size();
+    }
+
+    private void load() {
+        if (isLoaded) {
+            return;
+        }
+        isLoaded = true;
+        if (!indexFile.exists()) {
+            // Objects without an index can never be found again
+            LogStore.deleteRecursive(objectsDir);
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(indexFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length == 4 && fields[0].equals("O")) {
+                    objects.put(fields[1], new CachedObject(fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+                } else if (fields.length >= 3 && fields[0].equals("U")) {
+                    // Written without an ETag by older versions, or when the server sent none
+                    entriesByUrl.put(fields[1], new UrlEntry(fields[2], fields.length == 4 ? fields[3] : null));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.d(TAG, "load: " + e.getMessage());
+            objects.clear();
+            entriesByUrl.clear();
+        }
+    }
+
+    private void writeIndex() {
+        File partial = new File(indexFile.getAbsolutePath() + ".part");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(partial))) {
+            for (CachedObject object : objects.values()) {
+                writer.write("O\t" + object.hash + "\t" + object.size + "\t" + object.lastUsed + "\n");
+            }
+            for (Map.Entry<String, UrlEntry> entry : entriesByUrl.entrySet()) {
+                UrlEntry urlEntry = entry.getValue();
+                writer.write("U\t" + entry.getKey() + "\t" + urlEntry.hash
+                        + (urlEntry.etag != null ? "\t" + urlEntry.etag : "") + "\n");
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "writeIndex: " + e.getMessage());
+            partial.delete();
+            return;
+        }
+        if (!partial.renameTo(indexFile)) {
+            partial.delete();
+        }
+    }
+}
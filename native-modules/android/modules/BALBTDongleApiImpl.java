@@ -25,11 +25,53 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class BALBTDongleApiImpl {
 
+    private static final int LOG_ERROR_CODE = NativeLog.event("TAG", Log.DEBUG, "handleRes: {r}");
+    private static final int LOG_READ_PARAMETER_LIST = NativeLog.event("balBTDongleLib", Log.DEBUG,
+            "getListOfReadParameter: {0} parameters");
+
+    private static final long PARSE_TIMEOUT_SECONDS = 60;
+    // Connecting waits for the dongle handshake
+    private static final long CONNECT_DEADLINE_MILLIS = 30000;
+    // The lib returns the LiveData of a request or transfer as soon as it is sent
+    private static final long START_DEADLINE_MILLIS = 10000;
+    private static final long FLASH_START_DEADLINE_MILLIS = 30000;
+    private static final long STOP_DEADLINE_MILLIS = 5000;
+    // Request/response calls answer when the dongle does; they never had a limit
+    private static final long NO_DEADLINE = DongleCommandScheduler.NO_DEADLINE;
+
+    private static final int INTERACTIVE = DongleCommandScheduler.LANE_INTERACTIVE;
+    private static final int FLASHING = DongleCommandScheduler.LANE_FLASHING;
+    private static final int BACKGROUND = DongleCommandScheduler.LANE_BACKGROUND;
+
+    // Shared by all lib instances; parses run one at a time, in order
+    private static final ExecutorService parseExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EcuRecordsParser");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     BALBTDongleLib balBTDongleLib;
+    private Future<ArrayList<ECURecord>> pendingEcuRecords;
     LiveData liveDataOfDTD;
+    private String packageDir;
+    private EcuMetadataCache metadataCache = new EcuMetadataCache(null);
+    // Every call that reaches the link goes through here, one at a time
+    private final DongleCommandScheduler scheduler = new DongleCommandScheduler("DongleCommands");
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     public BALBTDongleApiImpl(InputStream mInputStream, OutputStream mOutputStream) {
         try {
@@ -51,38 +93,79 @@ public class BALBTDongleApiImpl {
         return balBTDongleLib.isConnected();
     }
 
-    public boolean initBTDongleComm(String bt_dongle_name) {
-        boolean BTDongleComm = balBTDongleLib.initBTDongleComm(bt_dongle_name);
-        return BTDongleComm;
+    public boolean initBTDongleComm(final String bt_dongle_name) {
+        return scheduler.call(INTERACTIVE, "initBTDongleComm", CONNECT_DEADLINE_MILLIS, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return balBTDongleLib.initBTDongleComm(bt_dongle_name);
+            }
+        });
     }
 
     public void setPackageDir(Context context) throws Exception {
         String packageDir = context.getDataDir().getAbsolutePath();
         this.balBTDongleLib.setPackageDir(packageDir);
+        this.packageDir = packageDir;
+        this.metadataCache = new EcuMetadataCache(new File(packageDir, "balDownload"));
     }
 
     public LiveData<String> readVIN() {
-        LiveData<String> liveReadVinData = balBTDongleLib.readVIN();
-        return liveReadVinData;
+        return scheduler.call(INTERACTIVE, "readVIN", START_DEADLINE_MILLIS, new Callable<LiveData<String>>() {
+            @Override
+            public LiveData<String> call() {
+                return balBTDongleLib.readVIN();
+            }
+        });
     }
 
     public void initShutdown() {
-		balBTDongleLib.initShutdown();
+        // Whatever is queued would reach a dongle that is shutting down
+        scheduler.callUrgent("initShutdown", DongleCommandScheduler.LANE_INTERACTIVE, STOP_DEADLINE_MILLIS,
+                new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        balBTDongleLib.initShutdown();
+                        return null;
+                    }
+                });
     }
-    public void startSelfFlash(ECURecord ecuRecord) {
-        balBTDongleLib.startSelfFlash(ecuRecord);
+
+    public void startSelfFlash(final ECURecord ecuRecord) {
+        scheduler.call(FLASHING, "startSelfFlash", NO_DEADLINE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                balBTDongleLib.startSelfFlash(ecuRecord);
+                return null;
+            }
+        });
     }
+
     public void checkIsDongleStuckInBoot() {
-        balBTDongleLib.checkIsDongleStuckInBoot();
+        scheduler.call(INTERACTIVE, "checkIsDongleStuckInBoot", NO_DEADLINE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                balBTDongleLib.checkIsDongleStuckInBoot();
+                return null;
+            }
+        });
     }
+
     public boolean isDonglePhase3() {
-        return balBTDongleLib.isDonglePhase3();
-        
+        return scheduler.call(INTERACTIVE, "isDonglePhase3", NO_DEADLINE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return balBTDongleLib.isDonglePhase3();
+            }
+        });
     }
-    
+
     public String readVin() {
-        String liveReadVinData = balBTDongleLib.readVin();
-        return liveReadVinData;
+        return scheduler.call(INTERACTIVE, "readVin", NO_DEADLINE, new Callable<String>() {
+            @Override
+            public String call() {
+                return balBTDongleLib.readVin();
+            }
+        });
     }
 
     public boolean isValidVin(@NonNull String vin) {
@@ -93,39 +176,89 @@ public class BALBTDongleApiImpl {
         return balBTDongleLib.validateVIN(vin);
     }
 
-    public LiveData<FlashingUpdateModel> writeVIN(String vin, ECURecord ecuRecord) {
-        return balBTDongleLib.writeVIN(vin, ecuRecord);
+    public LiveData<FlashingUpdateModel> writeVIN(final String vin, final ECURecord ecuRecord) {
+        return scheduler.call(FLASHING, "writeVIN", FLASH_START_DEADLINE_MILLIS,
+                new Callable<LiveData<FlashingUpdateModel>>() {
+                    @Override
+                    public LiveData<FlashingUpdateModel> call() {
+                        return balBTDongleLib.writeVIN(vin, ecuRecord);
+                    }
+                });
     }
-    public LiveData<FlashingUpdateModel> writeProgConst(ECURecord ecuRecord) {
-        return balBTDongleLib.writeProgConst( ecuRecord);
+
+    public LiveData<FlashingUpdateModel> writeProgConst(final ECURecord ecuRecord) {
+        return scheduler.call(FLASHING, "writeProgConst", FLASH_START_DEADLINE_MILLIS,
+                new Callable<LiveData<FlashingUpdateModel>>() {
+                    @Override
+                    public LiveData<FlashingUpdateModel> call() {
+                        return balBTDongleLib.writeProgConst(ecuRecord);
+                    }
+                });
     }
 
     public boolean validateBIN(@NonNull String bin) {
         return balBTDongleLib.validateBIN(bin);
     }
     
-    public LiveData<FlashingUpdateModel> writeBIN(String bin, ECURecord ecuRecord) {
-        return balBTDongleLib.writeBIN(bin, ecuRecord);
+    public LiveData<FlashingUpdateModel> writeBIN(final String bin, final ECURecord ecuRecord) {
+        return scheduler.call(FLASHING, "writeBIN", FLASH_START_DEADLINE_MILLIS,
+                new Callable<LiveData<FlashingUpdateModel>>() {
+                    @Override
+                    public LiveData<FlashingUpdateModel> call() {
+                        return balBTDongleLib.writeBIN(bin, ecuRecord);
+                    }
+                });
     }
 
-    public ArrayList<ECURecord> getEcuRecords(@NonNull String ecuRecordsJson) {
-        ArrayList<ECURecord> ecuRecordList = balBTDongleLib.getEcuRecords(ecuRecordsJson);
-        return ecuRecordList;
+    /**
+     * Parse the ECU records on the parser thread. Until it is done, {@link #getEcuRecord}
+     * waits for it, so callers may go on as soon as this returns.
+     */
+    public synchronized Future<ArrayList<ECURecord>> parseEcuRecords(@NonNull final String ecuRecordsJson) {
+        pendingEcuRecords = parseExecutor.submit(new Callable<ArrayList<ECURecord>>() {
+            @Override
+            public ArrayList<ECURecord> call() {
+                return balBTDongleLib.getEcuRecords(ecuRecordsJson);
+            }
+        });
+        return pendingEcuRecords;
     }
 
     public ECURecord getEcuRecord(int pos) {
+        awaitEcuRecords();
         ECURecord ecuRecord = balBTDongleLib.getEcuRecord(pos);
         return ecuRecord;
     }
 
+    private void awaitEcuRecords() {
+        Future<ArrayList<ECURecord>> pending;
+        synchronized (this) {
+            pending = pendingEcuRecords;
+        }
+        if (pending == null || pending.isDone()) {
+            return;
+        }
+        try {
+            pending.get(PARSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // The lib reports the missing record itself
+            Log.d("balBTDongleLib", "awaitEcuRecords: " + e.getMessage());
+        }
+    }
+
     public void handleRes(ArrayList<ErrorCodeModel> data) {
+        if (!NativeLog.isLoggable(LOG_ERROR_CODE)) {
+            return;
+        }
         for (ErrorCodeModel errorDID : data) {
-            Log.d("TAG", "handleRes: " + errorDID.toString());
+            NativeLog.log(LOG_ERROR_CODE, String.valueOf(errorDID));
         }
     }
 
     public void subscribe(ECURecord ecuRecord) {
-        liveDataOfDTD = balBTDongleLib.scanDtcErrorCode(ecuRecord);
+        liveDataOfDTD = scanDtcErrorCode(ecuRecord);
         new Handler(Looper.getMainLooper()).post(new Runnable() {
             @Override
             public void run() {
@@ -137,23 +270,33 @@ public class BALBTDongleApiImpl {
         });
     }
 
-    public LiveData<ArrayList<ErrorCodeModel>> scanDtcErrorCode(ECURecord ecuRecord) {
-        LiveData<ArrayList<ErrorCodeModel>> errorCodeList = balBTDongleLib.scanDtcErrorCode(ecuRecord);
-        return errorCodeList;
+    public LiveData<ArrayList<ErrorCodeModel>> scanDtcErrorCode(final ECURecord ecuRecord) {
+        return scheduler.call(INTERACTIVE, "scanDtcErrorCode", START_DEADLINE_MILLIS,
+                new Callable<LiveData<ArrayList<ErrorCodeModel>>>() {
+                    @Override
+                    public LiveData<ArrayList<ErrorCodeModel>> call() {
+                        return balBTDongleLib.scanDtcErrorCode(ecuRecord);
+                    }
+                });
     }
 
-    public LiveData<String> clearErrorCode(ECURecord ecuRecord, String errorCodeType) {
-        LiveData<String> clrErrCode = null;
+    public LiveData<String> clearErrorCode(final ECURecord ecuRecord, String errorCodeType) {
+        final DtcStatusType dtcStatusType;
         if (errorCodeType.equals("Current")) {
-            clrErrCode = balBTDongleLib.clearErrorCode(ecuRecord, DtcStatusType.Active);
-
+            dtcStatusType = DtcStatusType.Active;
         } else if (errorCodeType.equals("History")) {
-            clrErrCode = balBTDongleLib.clearErrorCode(ecuRecord, DtcStatusType.InActive);
+            dtcStatusType = DtcStatusType.InActive;
         } else if (errorCodeType.equals("Both")) {
-            clrErrCode = balBTDongleLib.clearErrorCode(ecuRecord, DtcStatusType.Both);
+            dtcStatusType = DtcStatusType.Both;
+        } else {
+            return null;
         }
-
-        return clrErrCode;
+        return scheduler.call(INTERACTIVE, "clearErrorCode", START_DEADLINE_MILLIS, new Callable<LiveData<String>>() {
+            @Override
+            public LiveData<String> call() {
+                return balBTDongleLib.clearErrorCode(ecuRecord, dtcStatusType);
+            }
+        });
     }
 
     // public LiveData<String> clearDTCStaus(ECURecord ecuRecord) {
@@ -161,63 +304,126 @@ public class BALBTDongleApiImpl {
     // return status;
     // }
 
-    public ArrayList<String> getDIDGroups(ECURecord ecuRecord) {
-        ArrayList<String> didGroups = balBTDongleLib.getDIDGroups(ecuRecord);
-        return didGroups;
+    public ArrayList<String> getDIDGroups(final ECURecord ecuRecord) {
+        return metadataCache.get("getDIDGroups", ecuRecord, new EcuMetadataCache.Loader<String>() {
+            @Override
+            public ArrayList<String> load() {
+                return balBTDongleLib.getDIDGroups(ecuRecord);
+            }
+        });
     }
 
-    public ArrayList<ReadParameterModel> getListOfReadParameter(ECURecord ecuRecord, String groupName) {
-        ArrayList<ReadParameterModel> readParameterList = balBTDongleLib.getListOfReadParameter(ecuRecord, groupName);
-        for (ReadParameterModel r : readParameterList) {
-            Log.d("balBTDongleLib", "getListOfReadParameter: " + r.toString());
-
-        }
-        Log.d("balBTDongleLib", "getListOfReadParameter: " + readParameterList);
+    // Not memoized: the lib keeps updating the values of the returned models while the group is polled
+    public ArrayList<ReadParameterModel> getListOfReadParameter(final ECURecord ecuRecord, final String groupName) {
+        ArrayList<ReadParameterModel> readParameterList = scheduler.call(INTERACTIVE, "getListOfReadParameter",
+                NO_DEADLINE, new Callable<ArrayList<ReadParameterModel>>() {
+                    @Override
+                    public ArrayList<ReadParameterModel> call() {
+                        return balBTDongleLib.getListOfReadParameter(ecuRecord, groupName);
+                    }
+                });
+        NativeLog.log(LOG_READ_PARAMETER_LIST, readParameterList.size());
         return readParameterList;
     }
 
     public LiveData<String> startAnalyticsGraph() {
-        LiveData<String> srtAnaGraph = balBTDongleLib.startAnalyticsGraph();
-        return srtAnaGraph;
+        return scheduler.call(BACKGROUND, "startAnalyticsGraph", START_DEADLINE_MILLIS,
+                new Callable<LiveData<String>>() {
+                    @Override
+                    public LiveData<String> call() {
+                        return balBTDongleLib.startAnalyticsGraph();
+                    }
+                });
     }
 
-    public LiveData<String> startActuatorRoutines(ECURecord ecuRecord, Routine routine, int i) {
-        LiveData<String> srtActuRoutines = balBTDongleLib.startActuatorRoutines(ecuRecord, routine, i);
-        return srtActuRoutines;
+    public LiveData<String> startActuatorRoutines(final ECURecord ecuRecord, final Routine routine, final int i) {
+        return scheduler.call(INTERACTIVE, "startActuatorRoutines", START_DEADLINE_MILLIS,
+                new Callable<LiveData<String>>() {
+                    @Override
+                    public LiveData<String> call() {
+                        return balBTDongleLib.startActuatorRoutines(ecuRecord, routine, i);
+                    }
+                });
     }
 
     public LiveData<String> updateBootLoader() {
-        LiveData<String> updateBoot = balBTDongleLib.updateBootLoader();
-        return updateBoot;
+        return scheduler.call(FLASHING, "updateBootLoader", FLASH_START_DEADLINE_MILLIS,
+                new Callable<LiveData<String>>() {
+                    @Override
+                    public LiveData<String> call() {
+                        return balBTDongleLib.updateBootLoader();
+                    }
+                });
     }
 
-    public List<ReadParameterModel> getWriteParameter(ECURecord ecuRecord) {
-        return balBTDongleLib.getListOfWritableDidParameter(ecuRecord);
+    // Not memoized, same as getListOfReadParameter
+    public List<ReadParameterModel> getWriteParameter(final ECURecord ecuRecord) {
+        return scheduler.call(INTERACTIVE, "getWriteParameter", NO_DEADLINE, new Callable<List<ReadParameterModel>>() {
+            @Override
+            public List<ReadParameterModel> call() {
+                return balBTDongleLib.getListOfWritableDidParameter(ecuRecord);
+            }
+        });
     }
 
-    public void writeDidParameter(ECURecord ecuRecord, ReadParameterModel readParameterModel, int pos) {
-
-        balBTDongleLib.writeDidParameter(ecuRecord, readParameterModel, pos);
+    public void writeDidParameter(final ECURecord ecuRecord, final ReadParameterModel readParameterModel,
+            final int pos) {
+        scheduler.call(INTERACTIVE, "writeDidParameter", NO_DEADLINE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                balBTDongleLib.writeDidParameter(ecuRecord, readParameterModel, pos);
+                return null;
+            }
+        });
     }
 
-    public void resetConfig(ECURecord ecuRecord) {
-        balBTDongleLib.resetConfig(ecuRecord);
+    public void resetConfig(final ECURecord ecuRecord) {
+        scheduler.call(INTERACTIVE, "resetConfig", NO_DEADLINE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                balBTDongleLib.resetConfig(ecuRecord);
+                return null;
+            }
+        });
     }
 
-    public void getUDSParameter(ECURecord ecuRecord) {
-        balBTDongleLib.getUDSParameter(ecuRecord);
+    public void getUDSParameter(final ECURecord ecuRecord) {
+        scheduler.call(INTERACTIVE, "getUDSParameter", NO_DEADLINE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                balBTDongleLib.getUDSParameter(ecuRecord);
+                return null;
+            }
+        });
     }
 
-    public boolean isBootUpdateRequired(ECURecord ecuRecord) {
-        return balBTDongleLib.isBootUpdateRequired(ecuRecord);
+    public boolean isBootUpdateRequired(final ECURecord ecuRecord) {
+        return scheduler.call(INTERACTIVE, "isBootUpdateRequired", NO_DEADLINE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return balBTDongleLib.isBootUpdateRequired(ecuRecord);
+            }
+        });
     }
 
-    public LiveData<FlashingUpdateModel> getBootFlashingUpdate(ECURecord ecuRecord) {
-        return balBTDongleLib.getBootFlashingUpdate(ecuRecord);
+    public LiveData<FlashingUpdateModel> getBootFlashingUpdate(final ECURecord ecuRecord) {
+        return scheduler.call(FLASHING, "getBootFlashingUpdate", FLASH_START_DEADLINE_MILLIS,
+                new Callable<LiveData<FlashingUpdateModel>>() {
+                    @Override
+                    public LiveData<FlashingUpdateModel> call() {
+                        return balBTDongleLib.getBootFlashingUpdate(ecuRecord);
+                    }
+                });
     }
 
-    public LiveData<FlashingUpdateModel> getFlashingUpdate(ECURecord ecuRecord) {
-        return balBTDongleLib.getFlashingUpdate(ecuRecord);
+    public LiveData<FlashingUpdateModel> getFlashingUpdate(final ECURecord ecuRecord) {
+        return scheduler.call(FLASHING, "getFlashingUpdate", FLASH_START_DEADLINE_MILLIS,
+                new Callable<LiveData<FlashingUpdateModel>>() {
+                    @Override
+                    public LiveData<FlashingUpdateModel> call() {
+                        return balBTDongleLib.getFlashingUpdate(ecuRecord);
+                    }
+                });
     }
 
     public LiveData<String> updateUIDataUpdated() {
@@ -226,54 +432,196 @@ public class BALBTDongleApiImpl {
         return balBTDongleLib.updateUIDataUpdated();
     }
 
-    public ArrayList<Routine> displayListActuatorRoutines(ECURecord ecuRecord) {
-        return balBTDongleLib.displayListActuatorRoutines(ecuRecord);
+    public ArrayList<Routine> displayListActuatorRoutines(final ECURecord ecuRecord) {
+        return metadataCache.get("displayListActuatorRoutines", ecuRecord, new EcuMetadataCache.Loader<Routine>() {
+            @Override
+            public ArrayList<Routine> load() {
+                return balBTDongleLib.displayListActuatorRoutines(ecuRecord);
+            }
+        });
+    }
+
+    public EcuMetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    public DongleCommandScheduler getScheduler() {
+        return scheduler;
     }
 
-    public void readEcuBasicnfo(ECURecord ecuRecord) {
+    public void readEcuBasicnfo(final ECURecord ecuRecord) {
         BLog.e("readEcuBasicnfo func");
-        balBTDongleLib.readEcuBasicnfo(ecuRecord);
+        scheduler.call(INTERACTIVE, "readEcuBasicnfo", NO_DEADLINE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                balBTDongleLib.readEcuBasicnfo(ecuRecord);
+                return null;
+            }
+        });
     }
 
-    public void saveAppLog(ECURecord ecuRecord) {
-        balBTDongleLib.saveAppLog(ecuRecord);
+    public void saveAppLog(final ECURecord ecuRecord) {
+        scheduler.call(BACKGROUND, "saveAppLog", NO_DEADLINE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                balBTDongleLib.saveAppLog(ecuRecord);
+                return null;
+            }
+        });
     }
 
     public void saveAppLog() {
-        balBTDongleLib.saveAppLog();
+        scheduler.call(BACKGROUND, "saveAppLog", NO_DEADLINE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                balBTDongleLib.saveAppLog();
+                return null;
+            }
+        });
     }
 
     public List<File> getListOfBalFailLogFiles() {
-        return getListOfBalFailLogFiles();
+        if (packageDir == null) {
+            return new ArrayList<>();
+        }
+        return LogStore.listFiles(new File(packageDir, LogStore.LIB_LOG_DIR));
     }
 
     public List<File> getListOfBalAppLogFiles() {
-        return getListOfBalAppLogFiles();
+        if (packageDir == null) {
+            return new ArrayList<>();
+        }
+        return LogStore.listFiles(new File(packageDir, LogStore.APP_LOG_DIR));
     }
 
     public void resetConfig() {
-        balBTDongleLib.resetConfig();
+        scheduler.call(INTERACTIVE, "resetConfig", NO_DEADLINE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                balBTDongleLib.resetConfig();
+                return null;
+            }
+        });
     }
 
+    /**
+     * Stop the lib and the scheduler; this instance is not used afterwards.
+     */
     public void stop() {
-        balBTDongleLib.stop();
+        try {
+            scheduler.callUrgent("stop", DongleCommandScheduler.LANE_INTERACTIVE, STOP_DEADLINE_MILLIS,
+                    new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            balBTDongleLib.stop();
+                            return null;
+                        }
+                    });
+        } catch (DongleCommandScheduler.DeadlineExceededException e) {
+            // The consumer is stuck in a command; stopping the lib from here is what releases it
+            Log.d("balBTDongleLib", "stop: " + e.getMessage());
+            balBTDongleLib.stop();
+        } finally {
+            scheduler.shutdown();
+        }
     }
 
     public void setClientInfo(String applicationName, String applicationId, String versionName, int versionCode) {
         balBTDongleLib.setClientInfo(applicationName, applicationId, versionName, versionCode);
     }
 
-    public boolean stopFlashing(ECURecord ecuRecord) {
-        return balBTDongleLib.stopFlashing(ecuRecord);
+    public boolean stopFlashing(final ECURecord ecuRecord) {
+        try {
+            // Queued flashing and background commands belong to the operation being stopped
+            return scheduler.callUrgent("stopFlashing", FLASHING, STOP_DEADLINE_MILLIS, new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return balBTDongleLib.stopFlashing(ecuRecord);
+                }
+            });
+        } catch (DongleCommandScheduler.DeadlineExceededException e) {
+            // Same as stop: the command the consumer is stuck in may be the one to stop
+            Log.d("balBTDongleLib", "stopFlashing: " + e.getMessage());
+            return balBTDongleLib.stopFlashing(ecuRecord);
+        }
+    }
+
+    /**
+     * {@link #stopFlashing} for watchdog callbacks, which must not wait for the command
+     * thread. If the command thread is stuck, the lib is stopped from the main thread.
+     */
+    public void stopFlashingAsync(final ECURecord ecuRecord) {
+        scheduler.enqueueUrgent("stopFlashing", FLASHING, STOP_DEADLINE_MILLIS, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return balBTDongleLib.stopFlashing(ecuRecord);
+            }
+        }, onMainThread(new DongleCommandScheduler.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean isStopped) {
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.d("balBTDongleLib", "stopFlashingAsync: " + e.getMessage());
+                if (e instanceof DongleCommandScheduler.DeadlineExceededException) {
+                    balBTDongleLib.stopFlashing(ecuRecord);
+                }
+            }
+        }));
     }
-    public LiveData<String> startEEDump(ECURecord ecuRecord){
 
-        return balBTDongleLib.startEEDump(ecuRecord);
+    /**
+     * Run {@code callable} on the command thread without waiting for it, for main-thread
+     * observers and watchdog callbacks. The API calls it makes run in place;
+     * {@code callback} is called on the main thread.
+     */
+    public <T> void runAsync(String name, long deadlineMillis, Callable<T> callable,
+            DongleCommandScheduler.Callback<T> callback) {
+        scheduler.enqueue(INTERACTIVE, name, deadlineMillis, callable, onMainThread(callback));
     }
-    
+
+    private <T> DongleCommandScheduler.Callback<T> onMainThread(final DongleCommandScheduler.Callback<T> callback) {
+        return new DongleCommandScheduler.Callback<T>() {
+            @Override
+            public void onResult(final T result) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(result);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(final Exception e) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onError(e);
+                    }
+                });
+            }
+        };
+    }
+
+    public LiveData<String> startEEDump(final ECURecord ecuRecord) {
+        return scheduler.call(FLASHING, "startEEDump", FLASH_START_DEADLINE_MILLIS, new Callable<LiveData<String>>() {
+            @Override
+            public LiveData<String> call() {
+                return balBTDongleLib.startEEDump(ecuRecord);
+            }
+        });
+    }
+
     // add read bin data method
-    public LiveData<String> readBinData(ECURecord ecuRecordOfBMS, ECURecord ecuRecordOfVCU) {
-        return balBTDongleLib.readBinData(ecuRecordOfBMS, ecuRecordOfVCU);
+    public LiveData<String> readBinData(final ECURecord ecuRecordOfBMS, final ECURecord ecuRecordOfVCU) {
+        return scheduler.call(FLASHING, "readBinData", FLASH_START_DEADLINE_MILLIS, new Callable<LiveData<String>>() {
+            @Override
+            public LiveData<String> call() {
+                return balBTDongleLib.readBinData(ecuRecordOfBMS, ecuRecordOfVCU);
+            }
+        });
     }
 
     // add method to get the version info
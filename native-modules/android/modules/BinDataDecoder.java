@@ -0,0 +1,168 @@
+package com.nostix;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Native end of readBinData. The response is one of:
+ * <ul>
+ * <li>a JSON object whose {@code BinUploadData} field holds {@code {bin, status}}, either
+ * as an object or as a JSON encoded string (kind {@code bin});</li>
+ * <li>a JSON object without it: no VCU or BMS record (kind {@code noRecord});</li>
+ * <li>an ECU negative response such as {@code S22#31} (kind {@code nrc});</li>
+ * <li>anything else (kind {@code unknown}), or unparsable JSON (kind {@code invalid}).</li>
+ * </ul>
+ * The response is read with a streaming {@link JsonReader} that only keeps the BIN
+ * fields and skips everything else, and the raw response is written to
+ * {@code BALBinData/bin_<time>_<n>.json}. JS gets the decoded fields and that file's path
+ * instead of the whole response.
+ */
+public class BinDataDecoder {
+
+    private static final String TAG = "BinDataDecoder";
+
+    public static final String BIN_DATA_DIR = "BALBinData";
+    private static final String BIN_UPLOAD_DATA = "BinUploadData";
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final Pattern NRC_PATTERN = Pattern.compile("S[0-9A-F]{2}#[0-9A-F]{2}", Pattern.CASE_INSENSITIVE);
+
+    private final File dir;
+    // Keeps names unique when responses arrive within the same millisecond
+    private int sequence;
+
+    public BinDataDecoder(File dataDir) {
+        this.dir = new File(dataDir, BIN_DATA_DIR);
+    }
+
+    /**
+     * Decode and persist one response. Blocking; run it off the main thread.
+     */
+    public synchronized WritableMap decode(String response) {
+        WritableMap summary = new WritableNativeMap();
+        String trimmed = response.trim();
+        if (trimmed.startsWith("{")) {
+            decodeJson(trimmed, summary);
+        } else if (NRC_PATTERN.matcher(trimmed).find()) {
+            summary.putString("kind", "nrc");
+            summary.putString("nrc", trimmed);
+        } else {
+            summary.putString("kind", "unknown");
+        }
+        summary.putDouble("rawLength", response.length());
+        File file = persist(response);
+        if (file != null) {
+            summary.putString("rawPath", file.getAbsolutePath());
+        } else {
+            summary.putNull("rawPath");
+        }
+        return summary;
+    }
+
+    private static void decodeJson(String json, WritableMap summary) {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            boolean isFound = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!isFound && BIN_UPLOAD_DATA.equals(reader.nextName())) {
+                    isFound = readBinUploadData(reader, summary);
+                } else if (isFound) {
+                    // Nothing after BinUploadData is needed
+                    reader.nextName();
+                    reader.skipValue();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (!isFound) {
+                summary.putString("kind", "noRecord");
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            Log.d(TAG, "decodeJson: " + e.getMessage());
+            summary.putString("kind", "invalid");
+            summary.putString("error", String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * @return false if the field is empty, which the screen treats as no record
+     */
+    private static boolean readBinUploadData(JsonReader reader, WritableMap summary) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return false;
+        }
+        if (token == JsonToken.STRING) {
+            String inner = reader.nextString();
+            if (inner.isEmpty()) {
+                return false;
+            }
+            try (JsonReader innerReader = new JsonReader(new StringReader(inner))) {
+                readBinRecord(innerReader, summary);
+            }
+            return true;
+        }
+        readBinRecord(reader, summary);
+        return true;
+    }
+
+    private static void readBinRecord(JsonReader reader, WritableMap summary) throws IOException {
+        String bin = "";
+        Integer status = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("bin".equals(name) && reader.peek() != JsonToken.NULL) {
+                bin = reader.nextString();
+            } else if ("status".equals(name) && reader.peek() != JsonToken.NULL) {
+                status = (int) Double.parseDouble(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        summary.putString("kind", "bin");
+        summary.putString("bin", bin);
+        if (status != null) {
+            summary.putInt("status", status);
+        } else {
+            summary.putNull("status");
+        }
+    }
+
+    private File persist(String response) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.d(TAG, "persist: Unable to create " + dir);
+            return null;
+        }
+        String name = "bin_" + new SimpleDateFormat("yyyyMMdd_HHmmss_SSS", Locale.US).format(new Date()) + "_" + (sequence++) + ".json";
+        File file = new File(dir, name);
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            writer.write(response);
+            return file;
+        } catch (IOException e) {
+            Log.d(TAG, "persist: " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+}
@@ -9,7 +9,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 
-import android.os.CountDownTimer;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
@@ -33,6 +32,8 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableNativeArray;
@@ -45,8 +46,6 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 
 import java.util.ArrayList;
 
@@ -58,6 +57,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class BluetoothCustomModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
 
@@ -65,7 +70,23 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
 
     private static final long ONE_MINUTE_IN_MILLISECONDS = 60000;
     private static final long DEFAULT_TIMEOUT_FOR_FLASHING = 6000;// 45000;
-    private static Integer UPDATE_FRAMES_TIME = 720;// 60;
+    private static final String LOG_TAG = "BluetoothCustomModule";
+    // Hot-path log events, formatted only when the NativeLog ring is dumped
+    private static final int LOG_UPDATE_UI = NativeLog.event(LOG_TAG, Log.DEBUG, "subscribeToUpdateUI: {r}");
+    private static final int LOG_PROGRESS_DONE = NativeLog.event(LOG_TAG, Log.DEBUG,
+            "{r} emitted:{0},dropped:{1}");
+    private static final int LOG_READ_BIN_RESPONSE = NativeLog.event(LOG_TAG, Log.DEBUG,
+            "readBinDataObserver: Response received - length={0}");
+    private static final int LOG_ACTUATOR_SEQUENCE = NativeLog.event(LOG_TAG, Log.DEBUG,
+            "getAllActuators: {r}");
+    private static final int LOG_OPERATION_CANCELLED = NativeLog.event(LOG_TAG, Log.DEBUG,
+            "cancelOperation: {r}");
+    // A plain decimal number with an optional unit that has no digits ("12.5 V", "-3", "80 %")
+    private static final Pattern NUMERIC_PARAMETER_VALUE = Pattern.compile(
+            "\\s*([-+]?(?:\\d+(?:\\.\\d*)?|\\.\\d+))(?:\\s*[^\\d\\s]+)?\\s*");
+    // Operations a session switch would abandon half way
+    private static final String[] LONG_OPERATIONS = { "eeDump", "readBinData", "actuator", "updateBootLoader",
+            "updateBoot", "updateFlash", "updateWriteVin", "updateWritePC", "updateWriteBin" };
     private final Handler handler = new Handler(Looper.getMainLooper());
     private final String btUUID = "00001101-0000-1000-8000-00805F9B34FB";
     private final ReactContext reactContext;
@@ -73,7 +94,6 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     private final String PARSING_COMPLETE_TAG = "{\"status\":true,\"value\":\"Completed Parsing\"}";
     private final String STARTED_PARSING_TAG = "{\"status\":true,\"value\":\"Started Parsing\"}";
     private final String PARSING_INPROGRESS_TAG = "{\"status\":true,\"value\":\"Parsing in Progress\"}";
-    private boolean isUpdatePerFrame;
 
     public BALBTDongleApiImpl getBalDongleLib() {
         Log.d(TAG, "getBalDongleLib: " + balDongleLib);
@@ -81,29 +101,23 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
         return balDongleLib;
     }
 
-    public void setBalDongleLib(BALBTDongleApiImpl balDongleLib) {
-        this.balDongleLib = balDongleLib;
-    }
-
-    public BALBTDongleApiImpl balDongleLib;
+    // Kept in step with DongleSession by sessionClient
+    public volatile BALBTDongleApiImpl balDongleLib;
+    private final DtcListDiffer dtcListDiffer = new DtcListDiffer();
+    private int errorCodesEcuPos = -1;
+    // Fills in DTC text the lib left empty; null if the ECU's DTC XML has no dictionary
+    private EcuDictionary errorCodesDictionary;
     public Observer<ArrayList<ErrorCodeModel>> errorCodesListObserver = new Observer<ArrayList<ErrorCodeModel>>() {
         @Override
         public void onChanged(ArrayList<ErrorCodeModel> errorCodeModels) {
+            if (operationCanceller.isCancelled("getErrorCodes")) {
+                return;
+            }
             try {
-                WritableArray errorCodeArray = new WritableNativeArray();
-                ArrayList<ErrorCodeModel> tempErrorCodeModels;
                 if (errorCodeModels != null) {
-                    tempErrorCodeModels = (ArrayList) errorCodeModels.clone();
-                    for (ErrorCodeModel errorCode : tempErrorCodeModels) {
-                        WritableMap errorCodeMap = new WritableNativeMap();
-                        errorCodeMap.putString("name", errorCode.getFaultName());
-                        errorCodeMap.putString("text", errorCode.getCode());
-                        errorCodeMap.putString("description", errorCode.getDesc());
-                        errorCodeMap.putString("status", errorCode.getStatus());
-                        errorCodeMap.putString("remedy", errorCode.getDtcRemedy());
-                        errorCodeArray.pushMap(errorCodeMap);
-                    }
-                    onChangeLiveDataSendEvent("getErrorCodes", errorCodeArray);
+                    ArrayList<ErrorCodeModel> tempErrorCodeModels = (ArrayList) errorCodeModels.clone();
+                    onChangeLiveDataSendEvent("getErrorCodes",
+                            dtcListDiffer.diff(errorCodesEcuPos, tempErrorCodeModels, errorCodesDictionary));
                 } else {
                     onChangeLiveDataSendEvent("getErrorCodes", "Error_Out");
                 }
@@ -113,19 +127,34 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
 
         }
     };
+    private final AnalyticsSeriesBuffer analyticsBuffer = new AnalyticsSeriesBuffer();
+    private final SessionRecorder sessionRecorder;
+    private final LogStore logStore;
+    private final HexPreflight hexPreflight;
+    private final EcuRecordSnapshot ecuRecordSnapshot;
+    private final DtcSweep dtcSweep;
+    private final VehicleSnapshotCapture vehicleSnapshotCapture;
+    private final MacroEngine macroEngine;
+    private final OperationCanceller operationCanceller;
+    private final DongleSession.Client sessionClient;
+    // Session the module drives; events sent outside an observer carry it
+    private volatile String sessionId;
+    // Samples are only buffered; the graph pulls downsampled windows with getAnalyticsWindow
     public Observer<String> analyticsGraphObserver = new Observer<String>() {
         @Override
         public void onChanged(String analytics) {
-            if (analytics != null) {
-                onChangeLiveDataSendEvent("analytics", analytics);
-            } else {
-                onChangeLiveDataSendEvent("analytics", "null");
+            if (operationCanceller.isCancelled("analytics")) {
+                return;
             }
+            analyticsBuffer.record(analytics);
         }
     };
     public Observer<String> updateBootObserver = new Observer<String>() {
         @Override
         public void onChanged(String updateBoot) {
+            if (operationCanceller.isCancelled("updateBootLoader")) {
+                return;
+            }
             if (updateBoot != null) {
                 onChangeLiveDataSendEvent("updateBoot", updateBoot);
             } else {
@@ -136,6 +165,9 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     public Observer<String> readVinObserver = new Observer<String>() {
         @Override
         public void onChanged(String vinNumber) {
+            if (operationCanceller.isCancelled("readVin")) {
+                return;
+            }
             if (vinNumber != null) {
                 onChangeLiveDataSendEvent("readVin", vinNumber);
             } else {
@@ -146,6 +178,9 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     public Observer<String> clearCodesObserver = new Observer<String>() {
         @Override
         public void onChanged(String s) {
+            if (operationCanceller.isCancelled("clearCode")) {
+                return;
+            }
             if (s != null) {
                 onChangeLiveDataSendEvent("clearCode", s);
             } else {
@@ -157,8 +192,15 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
 
         @Override
         public void onChanged(String response) {
+            // The lib reports every state change that can touch an ECURecord on this stream
+            ecuRecordSerializer.markAllDirty();
+            vehicleSnapshotCapture.onUpdateUI(response);
+            macroEngine.onUpdateUI(response);
+            if (operationCanceller.onUpdateUI(response)) {
+                return;
+            }
             if (response != null) {
-                Log.d(TAG, "subscribeToUpdateUI: " + response);
+                NativeLog.log(LOG_UPDATE_UI, response);
                 onChangeLiveDataSendEvent("updateUI", response);
             } else {
                 onChangeLiveDataSendEvent("updateUI", "null");
@@ -167,175 +209,133 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     };
     // TimerUtils mainTimer = new TimerUtils();
     TimerUtils subTimer = new TimerUtils();
+    private final EeDumpSink eeDumpSink;
     public Observer<String> dumpObserver = new Observer<String>() {
         @Override
         public void onChanged(String response) {
-            subTimer.resetTimer(DEFAULT_TIMEOUT_FOR_FLASHING, "eeDump", false);
-            onChangeLiveDataSendEvent("eeDump", response);
+            if (operationCanceller.isCancelled("eeDump")) {
+                return;
+            }
+            subTimer.resetTimer(DEFAULT_TIMEOUT_FOR_FLASHING, "eeDump");
+            switch (eeDumpSink.onChunk(response)) {
+                case EeDumpSink.FORWARD:
+                    onChangeLiveDataSendEvent("eeDump", response);
+                    break;
+                case EeDumpSink.KEEPALIVE:
+                    onChangeLiveDataSendEvent("eeDumpProgress", eeDumpSink.getProgress());
+                    break;
+                default:
+                    break;
+            }
         }
     };
     TimerUtilsForActuator actTimer = new TimerUtilsForActuator();
     public Observer<String> actuatorsObserver = new Observer<String>() {
         @Override
         public void onChanged(String s) {
-            if (actTimer.isTimerRunning()) {
-                actTimer.resetTimer(DEFAULT_TIMEOUT_FOR_FLASHING);
-            } else {
-                actTimer.startTimer(DEFAULT_TIMEOUT_FOR_FLASHING);
+            if (operationCanceller.isCancelled("actuator")) {
+                return;
             }
+            actTimer.resetTimer(DEFAULT_TIMEOUT_FOR_FLASHING);
             onChangeLiveDataSendEvent("actuator", s);
         }
     };
-    TimerUtilsWith200Mills parsingTimer = new TimerUtilsWith200Mills();
     MutableLiveData testLiveData;
-    MutableLiveData tempActLiveData = new MutableLiveData<>();
     private long dynamicWaitTime = 6000;
     private Handler mHandlerForReadParameter;
     private Runnable mStatusCheckerForReadReadParameter;
     private Timer readParameterTimer;
-    private Long lastStreamTime = System.currentTimeMillis();// new Date().getTime();
+    private final ProgressChannel writeVinChannel = new ProgressChannel("updateWriteVin", false);
+    private final ProgressChannel writePCChannel = new ProgressChannel("updateWritePC", false);
+    private final ProgressChannel writeBinChannel = new ProgressChannel("updateWriteBin", false);
+    private final ProgressChannel flashChannel = new ProgressChannel("updateFlash", true);
+    private final ProgressChannel flashBootChannel = new ProgressChannel("updateBoot", true);
     public Observer<FlashingUpdateModel> writeVinObserver = new Observer<FlashingUpdateModel>() {
         @Override
         public void onChanged(FlashingUpdateModel response) {
-            long currentTime = System.currentTimeMillis();// new Date().getTime();
-            int millis = (int) Math.abs(currentTime - lastStreamTime);
-            if (millis > UPDATE_FRAMES_TIME || response.getPbFlashingMainProgBar() == 100
-                    || response.getPbFlashingMainProgBar() == -1 || response.getPbFlashingSubProgBar() == 100
-                    || response.getPbFlashingSubProgBar() == -1) {
-                subTimer.resetTimer(DEFAULT_TIMEOUT_FOR_FLASHING, "updateWriteVin", false);
-                WritableMap progressMap = new WritableNativeMap();
-                progressMap.putInt("mainProgress", response.getPbFlashingMainProgBar());
-                progressMap.putInt("subProgress", response.getPbFlashingSubProgBar());
-                progressMap.putString("status", response.getStatus());
-                onChangeLiveDataSendEvent("updateWriteVin", progressMap);
-                lastStreamTime = System.currentTimeMillis();// new Date().getTime();
-                if (response.getPbFlashingMainProgBar() == -1 || response.getPbFlashingSubProgBar() == -1) {
-                    subTimer.stopTimer();
-                }
-            }
+            onWriteProgress(writeVinChannel, response);
         }
     };
     public Observer<FlashingUpdateModel> writePCObserver = new Observer<FlashingUpdateModel>() {
         @Override
         public void onChanged(FlashingUpdateModel response) {
-            long currentTime = System.currentTimeMillis();// new Date().getTime();
-            int millis = (int) Math.abs(currentTime - lastStreamTime);
-            if (millis > UPDATE_FRAMES_TIME || response.getPbFlashingMainProgBar() == 100
-                    || response.getPbFlashingMainProgBar() == -1 || response.getPbFlashingSubProgBar() == 100
-                    || response.getPbFlashingSubProgBar() == -1) {
-                subTimer.resetTimer(DEFAULT_TIMEOUT_FOR_FLASHING, "updateWritePC", false);
-                WritableMap progressMap = new WritableNativeMap();
-                progressMap.putInt("mainProgress", response.getPbFlashingMainProgBar());
-                progressMap.putInt("subProgress", response.getPbFlashingSubProgBar());
-                progressMap.putString("status", response.getStatus());
-                onChangeLiveDataSendEvent("updateWritePC", progressMap);
-                lastStreamTime = System.currentTimeMillis();// new Date().getTime();
-                if (response.getPbFlashingMainProgBar() == -1 || response.getPbFlashingSubProgBar() == -1) {
-                    subTimer.stopTimer();
-                }
-            }
+            onWriteProgress(writePCChannel, response);
         }
     };
     public Observer<FlashingUpdateModel> writeBinObserver = new Observer<FlashingUpdateModel>() {
         @Override
         public void onChanged(FlashingUpdateModel response) {
-            long currentTime = System.currentTimeMillis();// new Date().getTime();
-            int millis = (int) Math.abs(currentTime - lastStreamTime);
-            if (millis > UPDATE_FRAMES_TIME || response.getPbFlashingMainProgBar() == 100
-                    || response.getPbFlashingMainProgBar() == -1 || response.getPbFlashingSubProgBar() == 100
-                    || response.getPbFlashingSubProgBar() == -1) {
-                subTimer.resetTimer(DEFAULT_TIMEOUT_FOR_FLASHING, "updateWriteBin", false);
-                WritableMap progressMap = new WritableNativeMap();
-                progressMap.putInt("mainProgress", response.getPbFlashingMainProgBar());
-                progressMap.putInt("subProgress", response.getPbFlashingSubProgBar());
-                progressMap.putString("status", response.getStatus());
-                onChangeLiveDataSendEvent("updateWriteBin", progressMap);
-                lastStreamTime = System.currentTimeMillis();// new Date().getTime();
-                if (response.getPbFlashingMainProgBar() == -1 || response.getPbFlashingSubProgBar() == -1) {
-                    subTimer.stopTimer();
-                }
-            }
+            onWriteProgress(writeBinChannel, response);
         }
     };
-    FlashingUpdateModel responsePrevious;
     public Observer<FlashingUpdateModel> flashObserver = new Observer<FlashingUpdateModel>() {
         @Override
         public void onChanged(FlashingUpdateModel response) {
-            long currentTime = System.currentTimeMillis();// new Date().getTime();
-            int millis = (int) Math.abs(currentTime - lastStreamTime);
-            if (responsePrevious != null && isUpdatePerFrame) {
-                if (response.getPbFlashingMainProgBar() != responsePrevious.getPbFlashingMainProgBar()
-                        || response.getPbFlashingSubProgBar() != responsePrevious.getPbFlashingSubProgBar()) {
-                    millis = millis + 60;
-                }
-
-            }
-            Log.d(TAG, "Updated on Ui check c:" + response + ",p:" + responsePrevious + ",t:" + millis);
-            try {
-                responsePrevious = (FlashingUpdateModel) response.clone();
-            } catch (Exception e) {
-                Log.d(TAG, "Updated on Ui Exception in clone");
-            }
-            if (millis > UPDATE_FRAMES_TIME || response.getPbFlashingMainProgBar() == 100
-                    || response.getPbFlashingSubProgBar() == 100 || response.getPbFlashingSubProgBar() == -1
-                    || response.getPbFlashingMainProgBar() == -1) {
-
-                // if (subTimer.isTimerRunning()) {
-                subTimer.resetTimer(dynamicWaitTime, "updateFlash", false);
-                Log.d(TAG, "Interval timer re-statrted dwt:" + dynamicWaitTime);
-                // }
-                WritableMap progressMap = new WritableNativeMap();
-                progressMap.putInt("mainProgress", response.getPbFlashingMainProgBar());
-                progressMap.putInt("subProgress", response.getPbFlashingSubProgBar());
-                progressMap.putString("status", response.getStatus());
-                onChangeLiveDataSendEvent("updateFlash", progressMap);
-                lastStreamTime = System.currentTimeMillis();// new Date().getTime();
-                if (response.getPbFlashingMainProgBar() == -1 || response.getPbFlashingSubProgBar() == -1) {
-                    stopAllTimer();
-                }
-            }
-
+            onFlashProgress(flashChannel, response);
         }
     };
     private ECURecord flashingEcuRecord;
     public Observer<FlashingUpdateModel> flashBootObserver = new Observer<FlashingUpdateModel>() {
         @Override
         public void onChanged(FlashingUpdateModel response) {
-            long currentTime = System.currentTimeMillis();// new Date().getTime();
-            int millis = (int) Math.abs(currentTime - lastStreamTime);
+            onFlashProgress(flashBootChannel, response);
+        }
+    };
 
-            if (responsePrevious != null && isUpdatePerFrame) {
-                if (response.getPbFlashingMainProgBar() != responsePrevious.getPbFlashingMainProgBar()
-                        || response.getPbFlashingSubProgBar() != responsePrevious.getPbFlashingSubProgBar()) {
-                    millis = millis + 60;
-                }
-            }
-            Log.d(TAG, "BUpdated on Ui check c:" + response + ",p:" + responsePrevious + ",t:" + millis);
-            try {
-                responsePrevious = (FlashingUpdateModel) response.clone();
-            } catch (Exception e) {
-                Log.d(TAG, "BUpdated on Ui Exception in clone");
-            }
-            if (millis > UPDATE_FRAMES_TIME || response.getPbFlashingMainProgBar() == 100
-                    || response.getPbFlashingSubProgBar() == 100 || response.getPbFlashingSubProgBar() == -1
-                    || response.getPbFlashingMainProgBar() == -1) {
-                // if (subTimer.isTimerRunning()) {
-                subTimer.resetTimer(dynamicWaitTime, "updateBoot", false);
-                Log.d(TAG, "Interval timer re-started dwt:" + dynamicWaitTime);
-                // }
-                WritableMap progressMap = new WritableNativeMap();
-                progressMap.putInt("mainProgress", response.getPbFlashingMainProgBar());
-                progressMap.putInt("subProgress", response.getPbFlashingSubProgBar());
-                progressMap.putString("status", response.getStatus());
-                onChangeLiveDataSendEvent("updateBoot", progressMap);
-                lastStreamTime = System.currentTimeMillis();// new Date().getTime();
-                if (response.getPbFlashingMainProgBar() == -1 || response.getPbFlashingSubProgBar() == -1) {
-                    stopAllTimer();
-                }
-            }
+    private void onWriteProgress(ProgressChannel channel, FlashingUpdateModel response) {
+        if (operationCanceller.isCancelled(channel.getEventName())) {
+            return;
+        }
+        int mainProgress = response.getPbFlashingMainProgBar();
+        int subProgress = response.getPbFlashingSubProgBar();
+        if (!channel.offer(mainProgress, subProgress)) {
+            return;
+        }
+        subTimer.resetTimer(DEFAULT_TIMEOUT_FOR_FLASHING, channel.getEventName());
+        sendProgress(channel, response);
+        if (ProgressChannel.isFailed(mainProgress, subProgress)) {
+            subTimer.stopTimer();
+        }
+        detachIfComplete(channel, mainProgress, subProgress);
+    }
 
+    private void onFlashProgress(ProgressChannel channel, FlashingUpdateModel response) {
+        if (operationCanceller.isCancelled(channel.getEventName())) {
+            return;
         }
-    };
+        int mainProgress = response.getPbFlashingMainProgBar();
+        int subProgress = response.getPbFlashingSubProgBar();
+        if (!channel.offer(mainProgress, subProgress)) {
+            return;
+        }
+        subTimer.resetTimer(dynamicWaitTime, channel.getEventName());
+        sendProgress(channel, response);
+        if (ProgressChannel.isFailed(mainProgress, subProgress)) {
+            stopAllTimer();
+        }
+        detachIfComplete(channel, mainProgress, subProgress);
+    }
+
+    private void detachIfComplete(ProgressChannel channel, int mainProgress, int subProgress) {
+        if (ProgressChannel.isFailed(mainProgress, subProgress) || (mainProgress == 100 && subProgress == 100)) {
+            subscriptions.detach(channel.getEventName());
+            // Flashing and writes change record fields without an updateUI event
+            ecuRecordSerializer.markAllDirty();
+        }
+    }
+
+    private void sendProgress(ProgressChannel channel, FlashingUpdateModel response) {
+        WritableMap progressMap = new WritableNativeMap();
+        progressMap.putInt("mainProgress", response.getPbFlashingMainProgBar());
+        progressMap.putInt("subProgress", response.getPbFlashingSubProgBar());
+        progressMap.putString("status", response.getStatus());
+        onChangeLiveDataSendEvent(channel.getEventName(), progressMap);
+        if (ProgressChannel.isTerminal(response.getPbFlashingMainProgBar(), response.getPbFlashingSubProgBar())) {
+            NativeLog.log(LOG_PROGRESS_DONE, channel.getEmittedCount(), channel.getDroppedCount(),
+                    channel.getEventName());
+        }
+    }
+
     private BluetoothAdapter mAdapter;
     @SuppressLint("MissingPermission")
     private final BroadcastReceiver bluetoothDeviceListener = new BroadcastReceiver() {
@@ -396,8 +396,6 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             }
         }
     };
-    private InputStream mInputStream;
-    private OutputStream mOutputStream;
     private LiveData<String> liveDataOfReadVin;
     private LiveData<String> liveDataOfClearCode;
     private LiveData<ArrayList<ErrorCodeModel>> liveDataOfErrorCodeList;
@@ -412,13 +410,80 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     private LiveData<FlashingUpdateModel> liveDataWriteBin;
     private ArrayList<ReadParameterModel> readParameterList;
     private List<ReadParameterModel> writeParameterList;
+    private final Map<String, ReadParameterModel> writeParameterByDesc = new HashMap<>();
+    private String[] lastWriteParameterValues;
     private ArrayList<Routine> listActuatorRoutines;
+    // Owned by the session, the records it describes outlive this module
+    private volatile EcuRecordSerializer ecuRecordSerializer = DongleSession.getInstance().getEcuRecordSerializer();
+    private final SubscriptionManager subscriptions = new SubscriptionManager();
 
     private LiveData<String> liveDataOfDump;
 
     BluetoothCustomModule(ReactApplicationContext context) {
         super(context);
         this.reactContext = context;
+        context.addLifecycleEventListener(this);
+        sessionRecorder = new SessionRecorder(context.getDataDir());
+        logStore = new LogStore(context.getDataDir());
+        eeDumpSink = new EeDumpSink(context.getDataDir());
+        binDataDecoder = new BinDataDecoder(context.getDataDir());
+        hexPreflight = new HexPreflight(context.getDataDir());
+        ecuRecordSnapshot = new EcuRecordSnapshot(context.getDataDir());
+        dtcSweep = new DtcSweep(subscriptions, dtcListDiffer, context.getDataDir(), new DtcSweep.Listener() {
+            @Override
+            public void onEcuScanned(WritableMap result) {
+                onChangeLiveDataSendEvent("dtcSweep", result);
+            }
+
+            @Override
+            public void onFinished(WritableMap summary) {
+                onChangeLiveDataSendEvent("dtcSweepFinished", summary);
+            }
+        });
+        vehicleSnapshotCapture = new VehicleSnapshotCapture(subscriptions, context.getDataDir());
+        macroEngine = new MacroEngine(subscriptions);
+        operationCanceller = new OperationCanceller(new OperationCanceller.Listener() {
+            @Override
+            public void onCancelled(OperationCanceller.CancellationToken token) {
+                releaseCancelledOperation(token.getOperation());
+            }
+        });
+        sessionClient = new DongleSession.Client() {
+            @Override
+            public void onDongleLibChanged(BALBTDongleApiImpl dongleLib) {
+                if (dongleLib == null) {
+                    // The active session was closed; nothing it delivered is wanted any more
+                    releaseSession();
+                    return;
+                }
+                balDongleLib = dongleLib;
+                subscribeToUpdateUI();
+            }
+
+            @Override
+            public void onReleased() {
+                releaseSession();
+            }
+        };
+        // After a JS reload the connection is still open; pick it up instead of reconnecting
+        sessionId = DongleSession.getActiveId();
+        subscriptions.setSessionId(sessionId);
+        balDongleLib = DongleSession.attach(sessionClient);
+        if (balDongleLib != null) {
+            subscribeToUpdateUI();
+        }
+        logStore.execute(new Runnable() {
+            @Override
+            public void run() {
+                logStore.rotateAll(LogStore.DEFAULT_MAX_BYTES, LogStore.DEFAULT_MAX_AGE_MILLIS);
+            }
+        });
+        analyticsBuffer.setSampleListener(new AnalyticsSeriesBuffer.SampleListener() {
+            @Override
+            public void onSample(String series, long timeInMillis, double value) {
+                sessionRecorder.record("analytics/" + series, timeInMillis, value);
+            }
+        });
     }
 
     @NonNull
@@ -452,15 +517,6 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
         this.mAdapter = BluetoothAdapter.getDefaultAdapter();
     }
 
-    private void deleteRecursive(File fileOrDirectory) {
-        if (fileOrDirectory.isDirectory())
-            for (File child : fileOrDirectory.listFiles()) {
-                child.delete();
-                deleteRecursive(child);
-            }
-        fileOrDirectory.delete();
-    }
-
     @ReactMethod
     public void initIntentFilters() {
         try {
@@ -590,10 +646,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     @SuppressLint("MissingPermission")
     @SuppressWarnings("unused")
     public void balDongleLibStop() {
-        if (this.balDongleLib != null) {
-            this.balDongleLib.stop();
-            this.balDongleLib = null;
-        }
+        DongleSession.getInstance().close();
     }
 
     @ReactMethod
@@ -609,14 +662,10 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
                 bluetoothSocket.connect();
             }
             Log.i("TAG", "connect");
-            this.mInputStream = bluetoothSocket.getInputStream();
-            this.mOutputStream = bluetoothSocket.getOutputStream();
-            if (this.balDongleLib != null) {
-                this.balDongleLib.stop();
-                this.balDongleLib = null;
-            }
-            this.balDongleLib = new BALBTDongleApiImpl(this.mInputStream, this.mOutputStream);
-            subscribeToUpdateUI();
+            // Stops the previous lib and closes its socket; sessionClient subscribes to updateUI
+            this.balDongleLib = DongleSession.getInstance().open(
+                    new BALBTDongleApiImpl(bluetoothSocket.getInputStream(), bluetoothSocket.getOutputStream()),
+                    DongleSession.TRANSPORT_BLUETOOTH, btDevice.getName(), bluetoothSocket);
             this.balDongleLib.setClientInfo("BALNostix+ -" + baseURL, BuildConfig.APPLICATION_ID,
                     BuildConfig.VERSION_NAME, BuildConfig.VERSION_CODE);
             Boolean status = this.balDongleLib.initBTDongleComm(btDevice.getName());
@@ -640,48 +689,55 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
 
     @ReactMethod
     public void initShutDown() {
-        if (balDongleLib == null)
-            this.balDongleLib = USBModule.getBalDongleLib();
         // by this time we know it phase3 and usb or bt so take action accordingly
         subscribeToUpdateUI();
         Log.d(TAG, "initShutDown  -->: " + this.balDongleLib.isConnected());
-        balDongleLib.initShutdown();
+        try {
+            balDongleLib.initShutdown();
+        } catch (Exception e) {
+            Log.d(TAG, "initShutDown: " + e.getMessage());
+        }
     }
 
     @ReactMethod
     public void startSelfFlash(int pos) {
-        if (balDongleLib == null)
-            this.balDongleLib = USBModule.getBalDongleLib();
         subscribeToUpdateUI();
         ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
         Log.d(TAG, "startSelfFlash  -->: " + this.balDongleLib.isConnected());
         BLog.i(TAG + " BtDongleVersionInfo=", BtDongleVersionInfo.getBTAppVersion());
-        balDongleLib.startSelfFlash(ecuRecord);
+        try {
+            balDongleLib.startSelfFlash(ecuRecord);
+        } catch (Exception e) {
+            Log.d(TAG, "startSelfFlash: " + e.getMessage());
+        }
     }
 
     @ReactMethod
     public void checkIsDongleStuckInBoot() {
-        if (balDongleLib == null)
-            this.balDongleLib = USBModule.getBalDongleLib();
         subscribeToUpdateUI();
         Log.d(TAG, "checkIsDongleStuckInBoot  -->: " + this.balDongleLib.isConnected());
-        balDongleLib.checkIsDongleStuckInBoot();
+        try {
+            balDongleLib.checkIsDongleStuckInBoot();
+        } catch (Exception e) {
+            Log.d(TAG, "checkIsDongleStuckInBoot: " + e.getMessage());
+        }
     }
 
     @ReactMethod
     public void isDonglePhase3(Promise promise) {
-        if (balDongleLib == null)
-            this.balDongleLib = USBModule.getBalDongleLib();
-        Boolean res = balDongleLib.isDonglePhase3();
-        Log.d(TAG, "isDonglePhase3  -->: " + this.balDongleLib.isConnected() + "," + res);
-        promise.resolve(res);
+        try {
+            Boolean res = balDongleLib.isDonglePhase3();
+            Log.d(TAG, "isDonglePhase3  -->: " + this.balDongleLib.isConnected() + "," + res);
+            promise.resolve(res);
+        } catch (Exception e) {
+            Log.d(TAG, "isDonglePhase3: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
+        }
     }
 
     @ReactMethod
     public void getDongleVersionInfo(Promise promise) {
 
-        if (balDongleLib == null)
-            this.balDongleLib = USBModule.getBalDongleLib();
         Boolean versionCompRes = !BtDongleVersionInfo.isSmallerVersion;
         BLog.i("getDongleVersionInfo = " + versionCompRes);
 
@@ -691,8 +747,6 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     @ReactMethod
     public void getDongleAppVersion(Promise promise) {
 
-        if (balDongleLib == null)
-            this.balDongleLib = USBModule.getBalDongleLib();
         String btAppVersion = " (" + BtDongleVersionInfo.getBTAppVersion() + " & "
                 + BtDongleVersionInfo.getBTBootLoaderVersion() + ")";
         BLog.i("getDongleVersionInfo = " + btAppVersion);
@@ -704,20 +758,14 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     @SuppressWarnings("unused")
     public void subscribeToReadVin() {
         try {
-            if (balDongleLib == null)
-                this.balDongleLib = USBModule.getBalDongleLib();
             Log.d(TAG, "subscribeToReadVin:: " + (balDongleLib != null));
             liveDataOfReadVin = balDongleLib.readVIN();
             if (liveDataOfReadVin == null) {
                 throw new NullPointerException("readVIN is throwing null");
             }
 
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    liveDataOfReadVin.observeForever(readVinObserver);
-                }
-            });
+            operationCanceller.begin("readVin", -1);
+            subscriptions.attach("readVin", -1, liveDataOfReadVin, readVinObserver);
         } catch (NullPointerException e) {
             Log.d(TAG, "subscribeToReadVin: " + e.getMessage());
         } catch (Exception error) {
@@ -732,14 +780,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataOfReadVin == null) {
                 throw new NullPointerException("Thrown Null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataOfReadVin.hasActiveObservers()) {
-                        liveDataOfReadVin.removeObserver(readVinObserver);
-                    }
-                }
-            });
+            subscriptions.detach("readVin");
         } catch (NullPointerException e) {
             Log.d(TAG, "unsubscribeToReadVin: " + e.getMessage());
         } catch (Exception error) {
@@ -757,12 +798,8 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
                 throw new NullPointerException("clearErrorCode method is throwing null");
             }
 
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    liveDataOfClearCode.observeForever(clearCodesObserver);
-                }
-            });
+            operationCanceller.begin("clearCode", pos);
+            subscriptions.attach("clearCode", pos, liveDataOfClearCode, clearCodesObserver);
         } catch (NullPointerException e) {
             Log.d(TAG, "subscribeToClearCode: " + e.getMessage());
         } catch (Exception error) {
@@ -777,14 +814,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataOfClearCode == null) {
                 throw new NullPointerException("Thrown Null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataOfClearCode.hasActiveObservers()) {
-                        liveDataOfClearCode.removeObserver(clearCodesObserver);
-                    }
-                }
-            });
+            subscriptions.detach("clearCode");
         } catch (NullPointerException e) {
             Log.d(TAG, "unsubscribeToClearCode: " + e.getMessage());
         } catch (Exception e) {
@@ -802,13 +832,10 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataOfDump == null) {
                 throw new NullPointerException("subscribeToDump method is throwing null");
             }
+            eeDumpSink.start(ecuRecord.getCuName());
 
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    liveDataOfDump.observeForever(dumpObserver);
-                }
-            });
+            operationCanceller.begin("eeDump", pos);
+            subscriptions.attach("eeDump", pos, liveDataOfDump, dumpObserver);
         } catch (NullPointerException e) {
             Log.d(TAG, "subscribeToDump: " + e.getMessage());
         } catch (Exception error) {
@@ -823,16 +850,13 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataOfDump == null) {
                 throw new NullPointerException("Thrown Null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataOfDump.hasActiveObservers()) {
-                        liveDataOfDump.removeObserver(dumpObserver);
-                    }
-                    // Call stopFlashing after unsubscribing to halt the dumping process if there's any
-                    stopFlashing();
-                }
-            });
+            subscriptions.detach("eeDump");
+            WritableMap summary = eeDumpSink.finish();
+            if (summary != null) {
+                onChangeLiveDataSendEvent("eeDumpComplete", summary);
+            }
+            // Call stopFlashing after unsubscribing to halt the dumping process if there's any
+            stopFlashing();
         } catch (NullPointerException e) {
             Log.d(TAG, "unsubscribeToDump: " + e.getMessage());
         } catch (Exception e) {
@@ -842,13 +866,38 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
 
     // Read BIN Data Related
     private LiveData<String> liveDataOfReadBinData;
+    private final BinDataDecoder binDataDecoder;
+    // Not the LogStore thread: a log archive running there would hold the summary back
+    // past the screen's response timeout
+    private final ExecutorService binDataExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "BinDataDecoder");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
+    // The response is decoded and saved on binDataExecutor; JS gets the decoded summary
     public Observer<String> readBinDataObserver = new Observer<String>() {
         @Override
-        public void onChanged(String response) {
-            Log.d(TAG, "readBinDataObserver: Response received - " + (response != null ? response.substring(0, Math.min(response.length(), 100)) + "..." : "null"));
-            subTimer.resetTimer(DEFAULT_TIMEOUT_FOR_FLASHING, "readBinData", false);
-            onChangeLiveDataSendEvent("readBinData", response);
+        public void onChanged(final String response) {
+            if (operationCanceller.isCancelled("readBinData")) {
+                return;
+            }
+            NativeLog.log(LOG_READ_BIN_RESPONSE, response != null ? response.length() : -1);
+            subTimer.resetTimer(DEFAULT_TIMEOUT_FOR_FLASHING, "readBinData");
+            if (response == null || response.equals("null")) {
+                onChangeLiveDataSendEvent("readBinData", (WritableMap) null);
+                return;
+            }
+            final String eventSessionId = getEventSessionId();
+            binDataExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onChangeLiveDataSendEvent("readBinData", binDataDecoder.decode(response), eventSessionId);
+                }
+            });
         }
     };
 
@@ -871,13 +920,8 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             }
 
             Log.d(TAG, "subscribeToReadBinData: LiveData initialized, setting up observer");
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    liveDataOfReadBinData.observeForever(readBinDataObserver);
-                    Log.d(TAG, "subscribeToReadBinData: Observer attached successfully");
-                }
-            });
+            operationCanceller.begin("readBinData", posBMS);
+            subscriptions.attach("readBinData", posBMS, liveDataOfReadBinData, readBinDataObserver);
         } catch (NullPointerException e) {
             Log.e(TAG, "subscribeToReadBinData NullPointerException: " + e.getMessage());
         } catch (Exception error) {
@@ -894,17 +938,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataOfReadBinData == null) {
                 throw new NullPointerException("Thrown Null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataOfReadBinData.hasActiveObservers()) {
-                        liveDataOfReadBinData.removeObserver(readBinDataObserver);
-                        Log.d(TAG, "unsubscribeToReadBinData: Observer removed successfully");
-                    } else {
-                        Log.d(TAG, "unsubscribeToReadBinData: No active observers to remove");
-                    }
-                }
-            });
+            subscriptions.detach("readBinData");
         } catch (NullPointerException e) {
             Log.e(TAG, "unsubscribeToReadBinData NullPointerException: " + e.getMessage());
         } catch (Exception e) {
@@ -913,18 +947,12 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     }
 
     public void subscribeToUpdateUI() {
-        unsubscribeToUpdateUI();
         try {
             liveDataUpdateUI = balDongleLib.updateUIDataUpdated();
             if (liveDataUpdateUI == null) {
                 throw new NullPointerException("subscribeToUpdateUI method is throwing null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    liveDataUpdateUI.observeForever(updateUIObserver);
-                }
-            });
+            subscriptions.attach("updateUI", -1, liveDataUpdateUI, updateUIObserver);
         } catch (NullPointerException e) {
             Log.d(TAG, "subscribeToUpdateUI: " + e.getMessage());
         } catch (Exception error) {
@@ -937,16 +965,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataUpdateUI == null) {
                 throw new NullPointerException("Thrown Null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataUpdateUI.hasActiveObservers()) {
-
-                        liveDataUpdateUI.removeObserver(updateUIObserver);
-
-                    }
-                }
-            });
+            subscriptions.detach("updateUI");
         } catch (NullPointerException e) {
             Log.d(TAG, "unsubscribeToUpdateUI: " + e.getMessage());
         } catch (Exception e) {
@@ -960,17 +979,25 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     public void subscribeToErrorCodesList(int pos) {
         try {
             subscribeToUpdateUI();
+            // These scan over the same link
+            dtcSweep.cancel();
+            vehicleSnapshotCapture.cancel();
+            macroEngine.cancel();
             ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
+            errorCodesEcuPos = pos;
+            try {
+                errorCodesDictionary = openDictionary(ecuRecord, "dtcs");
+            } catch (IOException e) {
+                // The dictionary only adds names; scan without it
+                Log.d(TAG, "subscribeToErrorCodesList: " + e.getMessage());
+                errorCodesDictionary = null;
+            }
             liveDataOfErrorCodeList = balDongleLib.scanDtcErrorCode(ecuRecord);
             if (liveDataOfErrorCodeList == null) {
                 throw new NullPointerException("scanDtcErrorCode method is throwing null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    liveDataOfErrorCodeList.observeForever(errorCodesListObserver);
-                }
-            });
+            operationCanceller.begin("getErrorCodes", pos);
+            subscriptions.attach("getErrorCodes", pos, liveDataOfErrorCodeList, errorCodesListObserver);
         } catch (NullPointerException e) {
             Log.d(TAG, "subscribeToErrorCodesList: " + e.getMessage());
         } catch (Exception error) {
@@ -985,14 +1012,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataOfErrorCodeList == null) {
                 throw new NullPointerException("Thrown Null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataOfErrorCodeList.hasActiveObservers()) {
-                        liveDataOfErrorCodeList.removeObserver(errorCodesListObserver);
-                    }
-                }
-            });
+            subscriptions.detach("getErrorCodes");
         } catch (NullPointerException e) {
             Log.d(TAG, "unsubscribeToErrorCodesList: " + e.getMessage());
         } catch (Exception e) {
@@ -1001,6 +1021,158 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
 
     }
 
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void resetDtcDiff(int pos) {
+        dtcListDiffer.reset(pos);
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void scanAllDtcs(ReadableArray positions) {
+        try {
+            int[] ecuPositions = new int[positions.size()];
+            for (int i = 0; i < ecuPositions.length; i++) {
+                ecuPositions[i] = positions.getInt(i);
+            }
+            subscribeToUpdateUI();
+            vehicleSnapshotCapture.cancel();
+            macroEngine.cancel();
+            dtcSweep.start(balDongleLib, ecuPositions, DtcSweep.DEFAULT_TIMEOUT_MILLIS);
+        } catch (Exception e) {
+            Log.d(TAG, "scanAllDtcs: " + e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void cancelDtcSweep() {
+        dtcSweep.cancel();
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void captureVehicleSnapshot(ReadableArray positions, int stepTimeoutMillis, final Promise promise) {
+        try {
+            int[] ecuPositions = new int[positions.size()];
+            for (int i = 0; i < ecuPositions.length; i++) {
+                ecuPositions[i] = positions.getInt(i);
+            }
+            // Basic info is reported on the updateUI stream
+            subscribeToUpdateUI();
+            dtcSweep.cancel();
+            macroEngine.cancel();
+            vehicleSnapshotCapture.start(balDongleLib, ecuPositions,
+                    stepTimeoutMillis > 0 ? stepTimeoutMillis : VehicleSnapshotCapture.DEFAULT_STEP_TIMEOUT_MILLIS,
+                    new VehicleSnapshotCapture.Listener() {
+                        @Override
+                        public void onProgress(WritableMap progress) {
+                            onChangeLiveDataSendEvent("vehicleSnapshotProgress", progress);
+                        }
+
+                        @Override
+                        public void onFinished(WritableMap snapshot) {
+                            promise.resolve(snapshot);
+                        }
+                    });
+        } catch (Exception e) {
+            Log.d(TAG, "captureVehicleSnapshot: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
+        }
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void cancelVehicleSnapshot() {
+        vehicleSnapshotCapture.cancel();
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void runMacro(String macroJson, final Promise promise) {
+        try {
+            // Basic info and DID writes are reported on the updateUI stream
+            subscribeToUpdateUI();
+            dtcSweep.cancel();
+            vehicleSnapshotCapture.cancel();
+            macroEngine.start(balDongleLib, macroJson, new MacroEngine.Listener() {
+                @Override
+                public void onStep(WritableMap step) {
+                    onChangeLiveDataSendEvent("macroStep", step);
+                }
+
+                @Override
+                public void onFinished(WritableMap result) {
+                    promise.resolve(result);
+                }
+            });
+        } catch (JSONException e) {
+            Log.d(TAG, "runMacro: " + e.getMessage());
+            promise.reject("100", "Invalid macro: " + e.getMessage());
+        } catch (Exception e) {
+            Log.d(TAG, "runMacro: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
+        }
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void cancelMacro() {
+        macroEngine.cancel();
+    }
+
+    /**
+     * Abort a subscribeTo* operation on the link, not only its observer. Resolves once
+     * the dongle acknowledged the cancel or {@code timeoutMillis} (0 for the default)
+     * passed; see {@link OperationCanceller}.
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void cancelOperation(String operation, int timeoutMillis, final Promise promise) {
+        try {
+            // The acknowledgement is reported on the updateUI stream
+            subscribeToUpdateUI();
+            operationCanceller.cancel(balDongleLib, operation,
+                    timeoutMillis > 0 ? timeoutMillis : OperationCanceller.DEFAULT_QUIESCE_TIMEOUT_MILLIS,
+                    new OperationCanceller.ResultListener() {
+                        @Override
+                        public void onResult(WritableMap result) {
+                            NativeLog.log(LOG_OPERATION_CANCELLED, result.toString());
+                            promise.resolve(result);
+                        }
+                    });
+        } catch (Exception e) {
+            Log.d(TAG, "cancelOperation: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
+        }
+    }
+
+    private void releaseCancelledOperation(String operation) {
+        subscriptions.detach(operation);
+        switch (operation) {
+            case "actuator":
+                actTimer.stopTimer();
+                break;
+            case "eeDump":
+                subTimer.stopTimer();
+                WritableMap summary = eeDumpSink.finish();
+                if (summary != null) {
+                    onChangeLiveDataSendEvent("eeDumpComplete", summary);
+                }
+                break;
+            case "readBinData":
+            case "updateBoot":
+            case "updateFlash":
+            case "updateWriteVin":
+            case "updateWritePC":
+            case "updateWriteBin":
+                subTimer.stopTimer();
+                break;
+            default:
+                break;
+        }
+    }
+
     @ReactMethod
     public void subscribeToAnalyticsGraph() {
         try {
@@ -1009,12 +1181,9 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataAnalyticsGraph == null) {
                 throw new NullPointerException("startAnalyticsGraph method is throwing null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    liveDataAnalyticsGraph.observeForever(analyticsGraphObserver);
-                }
-            });
+            analyticsBuffer.clear();
+            operationCanceller.begin("analytics", -1);
+            subscriptions.attach("analytics", -1, liveDataAnalyticsGraph, analyticsGraphObserver);
 
         } catch (NullPointerException exception) {
             Log.d(TAG, "subscribeToAnalyticsGraph: " + exception.getMessage());
@@ -1031,14 +1200,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataAnalyticsGraph == null) {
                 throw new NullPointerException("Thrown Null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataAnalyticsGraph.hasActiveObservers()) {
-                        liveDataAnalyticsGraph.removeObserver(analyticsGraphObserver);
-                    }
-                }
-            });
+            subscriptions.detach("analytics");
         } catch (NullPointerException e) {
             Log.d(TAG, "unSubscribeToAnalyticsGraph: " + e.getMessage());
         } catch (Exception e) {
@@ -1046,6 +1208,17 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
         }
     }
 
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getAnalyticsWindow(double windowInMillis, int maxPoints, double sinceVersion, Promise promise) {
+        try {
+            promise.resolve(analyticsBuffer.getWindow(windowInMillis, maxPoints, sinceVersion));
+        } catch (Exception e) {
+            Log.d(TAG, "getAnalyticsWindow: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
+        }
+    }
+
     @ReactMethod
     public void getAllActuators(int pos, Promise promise) {
         try {
@@ -1059,7 +1232,9 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
                 subItem.putString("name", item.getRoutineName());
                 if (item.getListSeq() != null) {
                     subItem.putInt("numberOfSteps", item.getListSeq().size());
-                    BLog.d(item.getListSeq().toString());
+                    if (NativeLog.isLoggable(LOG_ACTUATOR_SEQUENCE)) {
+                        NativeLog.log(LOG_ACTUATOR_SEQUENCE, item.getListSeq().toString());
+                    }
                 } else {
                     subItem.putInt("numberOfSteps", 0);
                 }
@@ -1081,37 +1256,12 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             Routine routine = null;
             routine = listActuatorRoutines.get(index);
             liveDataActuators = balDongleLib.startActuatorRoutines(ecuRecord, routine, index);
-            // liveDataActuators = tempActLiveData;
-            // BLog.d("liveDataActuators has be init" + liveDataActuators);
-            CountDownTimer tempTimer = new CountDownTimer(2000, 100) {
-                @Override
-                public void onTick(long millisUntilFinished) {
-                    tempActLiveData.postValue(
-                            "{\"status\":true,\"message\":\"GottheVCU_Vehicle_Identification_Number:MD2B35300MCD04553"
-                                    + millisUntilFinished
-                                    + "\",\"processStatus\":\"inProgress\",\"RoutinePosOnUI\":0,\"StepNo\":2}");
-                    BLog.d("liveDataActuators  onTick" + millisUntilFinished);
-                }
-
-                @Override
-                public void onFinish() {
-                    tempActLiveData.postValue(
-                            "{\"status\":true,\"message\":\"GottheVCU_Vehicle_Identification_Number:MD2B35300MCD04553"
-                                    + "DONE" + "\",\"processStatus\":\"opopop\",\"RoutinePosOnUI\":0,\"StepNo\":2}");
-                    BLog.d("liveDataActuators  onFinish");
-                }
-            };
-            // tempTimer.start();
             if (liveDataActuators == null) {
                 throw new NullPointerException("startActuatorRoutines method throwing null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    actTimer.startTimer(DEFAULT_TIMEOUT_FOR_FLASHING);
-                    liveDataActuators.observeForever(actuatorsObserver);
-                }
-            });
+            actTimer.resetTimer(DEFAULT_TIMEOUT_FOR_FLASHING);
+            operationCanceller.begin("actuator", pos);
+            subscriptions.attach("actuator", pos, liveDataActuators, actuatorsObserver);
 
         } catch (NullPointerException e) {
             Log.d(TAG, "subscribeToActuator: " + e.getMessage());
@@ -1127,14 +1277,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataActuators == null) {
                 throw new NullPointerException("Thrown Null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataActuators.hasActiveObservers()) {
-                        liveDataActuators.removeObserver(actuatorsObserver);
-                    }
-                }
-            });
+            subscriptions.detach("actuator");
         } catch (NullPointerException e) {
             Log.d(TAG, "unSubscribeToActuator: " + e.getMessage());
         } catch (Exception e) {
@@ -1146,7 +1289,11 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     @ReactMethod
     public void updateBootLoader() {
         subscribeToUpdateUI();
-        balDongleLib.updateBootLoader();
+        try {
+            balDongleLib.updateBootLoader();
+        } catch (Exception e) {
+            Log.d(TAG, "updateBootLoader: " + e.getMessage());
+        }
     }
 
     @ReactMethod
@@ -1157,12 +1304,8 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataUpdateBoot == null) {
                 throw new NullPointerException("updateBootLoader method throwing null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    liveDataUpdateBoot.observeForever(updateBootObserver);
-                }
-            });
+            operationCanceller.begin("updateBootLoader", -1);
+            subscriptions.attach("updateBootLoader", -1, liveDataUpdateBoot, updateBootObserver);
         } catch (NullPointerException e) {
             Log.d(TAG, "subscribeToUpdateBoot: " + e.getMessage());
         } catch (Exception error) {
@@ -1177,14 +1320,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataUpdateBoot == null) {
                 throw new NullPointerException("Thrown Null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataUpdateBoot.hasActiveObservers()) {
-                        liveDataUpdateBoot.removeObserver(updateBootObserver);
-                    }
-                }
-            });
+            subscriptions.detach("updateBootLoader");
         } catch (NullPointerException e) {
             Log.d(TAG, "unSubscribeToUpdateBoot: " + e.getMessage());
         } catch (Exception e) {
@@ -1195,9 +1331,15 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
 
     @ReactMethod
     public void isBootUpdateRequired(int pos, Promise promise) {
-        ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
-        Boolean res = balDongleLib.isBootUpdateRequired(ecuRecord);
-        promise.resolve(res);
+        try {
+            ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
+            Boolean res = balDongleLib.isBootUpdateRequired(ecuRecord);
+            ecuRecordSerializer.markDirty(pos);
+            promise.resolve(res);
+        } catch (Exception e) {
+            Log.d(TAG, "isBootUpdateRequired: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
+        }
     }
 
     @ReactMethod
@@ -1206,22 +1348,17 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
             flashingEcuRecord = ecuRecord;
             dynamicWaitTime = ecuRecord.getTimerToWaitForFlashing();
-            UPDATE_FRAMES_TIME = ecuRecord.getUpdateFrameTime();
-            isUpdatePerFrame = ecuRecord.isUpdatePerFrame();
-            Log.d(TAG, "BdynamicWaitTime: " + dynamicWaitTime + ",UPDATE_FRAMES_TIME: " + UPDATE_FRAMES_TIME
-                    + ",isUpdatePerFrame:" + isUpdatePerFrame);
+            flashBootChannel.configure(ecuRecord);
+            Log.d(TAG, "BdynamicWaitTime: " + dynamicWaitTime + ",UPDATE_FRAMES_TIME: " + ecuRecord.getUpdateFrameTime()
+                    + ",isUpdatePerFrame:" + ecuRecord.isUpdatePerFrame());
 
             liveDataBootStatusUpdate = balDongleLib.getBootFlashingUpdate(ecuRecord);
             if (liveDataBootStatusUpdate == null) {
                 throw new NullPointerException("getBootFlashingUpdate method throwing null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    subTimer.resetTimer(dynamicWaitTime, "updateBoot", false);
-                    liveDataBootStatusUpdate.observeForever(flashBootObserver);
-                }
-            });
+            subTimer.resetTimer(dynamicWaitTime, "updateBoot");
+            operationCanceller.begin("updateBoot", pos);
+            subscriptions.attach("updateBoot", pos, liveDataBootStatusUpdate, flashBootObserver);
         } catch (NullPointerException e) {
             Log.d(TAG, "subscribeToBootFlashingUpdate: " + e.getMessage());
         } catch (Exception error) {
@@ -1237,14 +1374,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataBootStatusUpdate == null) {
                 throw new NullPointerException("Thrown null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataBootStatusUpdate.hasActiveObservers()) {
-                        liveDataBootStatusUpdate.removeObserver(flashBootObserver);
-                    }
-                }
-            });
+            subscriptions.detach("updateBoot");
         } catch (NullPointerException e) {
             Log.d(TAG, "unSubscribeToFlashingBoot: " + e.getMessage());
         } catch (Exception e) {
@@ -1258,22 +1388,17 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
         try {
             ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
             dynamicWaitTime = ecuRecord.getTimerToWaitForFlashing();
-            UPDATE_FRAMES_TIME = ecuRecord.getUpdateFrameTime();
-            isUpdatePerFrame = ecuRecord.isUpdatePerFrame();
-            Log.d(TAG, "dynamicWaitTime: " + dynamicWaitTime + ",UPDATE_FRAMES_TIME: " + UPDATE_FRAMES_TIME
-                    + ",isUpdatePerFrame:" + isUpdatePerFrame);
+            flashChannel.configure(ecuRecord);
+            Log.d(TAG, "dynamicWaitTime: " + dynamicWaitTime + ",UPDATE_FRAMES_TIME: " + ecuRecord.getUpdateFrameTime()
+                    + ",isUpdatePerFrame:" + ecuRecord.isUpdatePerFrame());
             flashingEcuRecord = ecuRecord;
             liveDataFlashing = balDongleLib.getFlashingUpdate(ecuRecord);
             if (liveDataFlashing == null) {
                 throw new NullPointerException("getFlashingUpdate method throwing null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    subTimer.resetTimer(dynamicWaitTime, "updateFlash", false);
-                    liveDataFlashing.observeForever(flashObserver);
-                }
-            });
+            subTimer.resetTimer(dynamicWaitTime, "updateFlash");
+            operationCanceller.begin("updateFlash", pos);
+            subscriptions.attach("updateFlash", pos, liveDataFlashing, flashObserver);
         } catch (NullPointerException e) {
             Log.d(TAG, "subscribeToFlashingUpdate: " + e.getMessage());
         } catch (Exception error) {
@@ -1282,6 +1407,41 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
 
     }
 
+    /**
+     * Check the ECU's app or bootloader hex file before flashing it. Resolves with
+     * {checked: false} if the file cannot be found, so the flash can go ahead as before.
+     *
+     * @param kind "app" or "btl"
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void preflightHexFile(int pos, final String kind, final Promise promise) {
+        final ECURecord ecuRecord;
+        try {
+            ecuRecord = balDongleLib.getEcuRecord(pos);
+        } catch (Exception e) {
+            Log.d(TAG, "preflightHexFile: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
+            return;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String name = "btl".equals(kind) ? ecuRecord.getBtlHexLink() : ecuRecord.getAppHexLink();
+                    File hexFile = new File(name != null ? name : "");
+                    if (!hexFile.isAbsolute()) {
+                        hexFile = new File(new File(reactContext.getDataDir(), "balDownload"), hexFile.getPath());
+                    }
+                    promise.resolve(hexPreflight.check(hexFile));
+                } catch (Exception e) {
+                    Log.d(TAG, "preflightHexFile: " + e.getMessage());
+                    promise.reject("100", "Something went wrong");
+                }
+            }
+        }, "HexPreflight").start();
+    }
+
     @ReactMethod
     @SuppressWarnings("unused")
     public void unSubscribeToFlashingUpdate() {
@@ -1289,14 +1449,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataFlashing == null) {
                 throw new NullPointerException("Thrown null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataFlashing.hasActiveObservers()) {
-                        liveDataFlashing.removeObserver(flashObserver);
-                    }
-                }
-            });
+            subscriptions.detach("updateFlash");
         } catch (NullPointerException e) {
             Log.d(TAG, "unSubscribeToFlashingBoot: " + e.getMessage());
         } catch (Exception e) {
@@ -1310,16 +1463,13 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     public void subscribeToWriteVinUpdate(int pos, String vin) {
         try {
             ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
+            writeVinChannel.configure(ecuRecord);
             liveDataWriteVin = balDongleLib.writeVIN(vin, ecuRecord);
             if (liveDataWriteVin == null) {
                 throw new NullPointerException("subscribeToWriteVinUpdate method throwing null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    liveDataWriteVin.observeForever(writeVinObserver);
-                }
-            });
+            operationCanceller.begin("updateWriteVin", pos);
+            subscriptions.attach("updateWriteVin", pos, liveDataWriteVin, writeVinObserver);
         } catch (NullPointerException e) {
             Log.d(TAG, "subscribeToWriteVinUpdate: " + e.getMessage());
         } catch (Exception error) {
@@ -1335,14 +1485,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataWriteVin == null) {
                 throw new NullPointerException("Thrown null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataWriteVin.hasActiveObservers()) {
-                        liveDataWriteVin.removeObserver(writeVinObserver);
-                    }
-                }
-            });
+            subscriptions.detach("updateWriteVin");
         } catch (NullPointerException e) {
             Log.d(TAG, "unSubscribeToWriteVinUpdate: " + e.getMessage());
         } catch (Exception e) {
@@ -1356,16 +1499,13 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     public void subscribeToWritePCUpdate(int pos) {
         try {
             ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
+            writePCChannel.configure(ecuRecord);
             liveDataWritePC = balDongleLib.writeProgConst(ecuRecord);
             if (liveDataWritePC == null) {
                 throw new NullPointerException("subscribeToWritePCUpdate method throwing null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    liveDataWritePC.observeForever(writePCObserver);
-                }
-            });
+            operationCanceller.begin("updateWritePC", pos);
+            subscriptions.attach("updateWritePC", pos, liveDataWritePC, writePCObserver);
         } catch (NullPointerException e) {
             Log.d(TAG, "subscribeToWritePCUpdate: " + e.getMessage());
         } catch (Exception error) {
@@ -1381,14 +1521,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataWritePC == null) {
                 throw new NullPointerException("Thrown null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataWritePC.hasActiveObservers()) {
-                        liveDataWritePC.removeObserver(writePCObserver);
-                    }
-                }
-            });
+            subscriptions.detach("updateWritePC");
         } catch (NullPointerException e) {
             Log.d(TAG, "unSubscribeToWritePCUpdate: " + e.getMessage());
         } catch (Exception e) {
@@ -1402,16 +1535,13 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     public void subscribeToWriteBinUpdate(int pos, String bin) {
         try {
             ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
+            writeBinChannel.configure(ecuRecord);
             liveDataWriteBin = balDongleLib.writeBIN(bin, ecuRecord);
             if (liveDataWriteBin == null) {
                 throw new NullPointerException("subscribeToWriteBinUpdate method throwing null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    liveDataWriteBin.observeForever(writeBinObserver);
-                }
-            });
+            operationCanceller.begin("updateWriteBin", pos);
+            subscriptions.attach("updateWriteBin", pos, liveDataWriteBin, writeBinObserver);
         } catch (NullPointerException e) {
             Log.d(TAG, "subscribeToWriteBinUpdate: " + e.getMessage());
         } catch (Exception error) {
@@ -1427,14 +1557,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             if (liveDataWriteBin == null) {
                 throw new NullPointerException("Thrown null");
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (liveDataWriteBin.hasActiveObservers()) {
-                        liveDataWriteBin.removeObserver(writeBinObserver);
-                    }
-                }
-            });
+            subscriptions.detach("updateWriteBin");
         } catch (NullPointerException e) {
             Log.d(TAG, "unSubscribeToWriteBinUpdate: " + e.getMessage());
         } catch (Exception e) {
@@ -1445,63 +1568,51 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
 
     @ReactMethod
     @SuppressWarnings("unused")
-    public void getEcuRecords(String ecuRecordJson, String vinNumber, Promise promise) {
-        try {
-            ArrayList<ECURecord> ecuRecordList = balDongleLib.getEcuRecords(ecuRecordJson);
-            WritableArray ecuRecordsArray = new WritableNativeArray();
-            for (int i = 0; i < ecuRecordList.size(); i++) {
-                ECURecord ecuRecord = ecuRecordList.get(i);
-
-                WritableMap ecuRecordItem = new WritableNativeMap();
-                if (ecuRecord != null) {
-                    ecuRecordItem.putString("ecuName", ecuRecord.getCuName());
-                    ecuRecordItem.putInt("index", i);
-                    ecuRecordItem.putBoolean("isErrorCodeEnabled", ecuRecord.isDTC());
-                    ecuRecordItem.putBoolean("isReadParameterEnabled", ecuRecord.isDID());
-                    ecuRecordItem.putBoolean("isWriteParameterEnabled", ecuRecord.isWriteDid());
-                    ecuRecordItem.putBoolean("isReprogramEnabled", ecuRecord.isReprograming());
-                    ecuRecordItem.putBoolean("isUpdateBootEnabled", ecuRecord.isBootReprograming());
-                    ecuRecordItem.putBoolean("isSpecialFunctionEnabled", ecuRecord.isSpecialOperation());
-                    ecuRecordItem.putBoolean("isActuatorEnabled", ecuRecord.isActuatorRoutines());
-                    ecuRecordItem.putBoolean("isAnalyticsEnabled", ecuRecord.isAnalyticsGraph());
-                    ecuRecordItem.putBoolean("isEEDumpOperation", ecuRecord.isEEDumpOperation());
-                    ecuRecordItem.putBoolean("isVinWrite", ecuRecord.isVinWrite());
-                    ecuRecordItem.putBoolean("isBinWrite", ecuRecord.isBinWrite());
-                    ecuRecordItem.putBoolean("isProgConstWriteEnabled", ecuRecord.isProgConstWrite());
-                    ecuRecordItem.putBoolean("isUSBPrograming", ecuRecord.isUSBPrograming());
-                    ecuRecordItem.putString("appHexUrl", ecuRecord.getAppHexURLLink());
-                    ecuRecordItem.putString("didsXmlUrl", ecuRecord.getDidsXmlURLLink());
-                    ecuRecordItem.putString("dtcsXmlUrl", ecuRecord.getDtcsXmlURLLink());
-                    ecuRecordItem.putString("btlHexUrl", ecuRecord.getBtlHexURLLink());
-                    ecuRecordItem.putString("appHexFileName", ecuRecord.getAppHexLink());
-                    ecuRecordItem.putString("didsXmlFileName", ecuRecord.getDidsXmlLink());
-                    ecuRecordItem.putString("dtcsXmlFileName", ecuRecord.getDtcsXmlLink());
-                    ecuRecordItem.putString("btlHexFileName", ecuRecord.getBtlHexLink());
-                    ecuRecordItem.putString("oldHexFileName", ecuRecord.getHexFileName());
-                    ecuRecordItem.putBoolean("isCheckBIOError", ecuRecord.isCheckBIOError());
-                    ecuRecordItem.putString("readParamAutoRefreshShownInGroupName",
-                            ecuRecord.isReadParamAutoRefreshShownInGroup());
-                    ecuRecordItem.putString("vinNumber", vinNumber);
-                    // Motor Related Items
-                    ecuRecordItem.putBoolean("isWriteMotorType", ecuRecord.isWriteMotorType());
-                    ecuRecordItem.putBoolean("isAutomateMotorType", ecuRecord.isAutomateMotorType());
-                    ecuRecordItem.putString("motorTypeId", ecuRecord.getMotorTypeId());
-                    ecuRecordItem.putString("mcuOffsetLearnTriggerId", ecuRecord.getMcuOffsetLearnTriggerId());
-
-                    ecuRecordItem.putInt("dynamicWaitTime", ecuRecord.getTimerToWaitForFlashing());
-                    ecuRecordItem.putInt("updateFrameTime", ecuRecord.getUpdateFrameTime());
-                    ecuRecordItem.putBoolean("isUpdatePerFrame", ecuRecord.isUpdatePerFrame());
-                    ecuRecordItem.putBoolean("isShowUpdatePerFrameTime", ecuRecord.isShowUpdatePerFrameTime());
-                    ecuRecordItem.putBoolean("isForceEachTimeOA", ecuRecord.isForceEachTimeOA());
-                    BLog.i("isForceEachTimeOA = " + ecuRecord.isForceEachTimeOA());
-                    ecuRecordsArray.pushMap(ecuRecordItem);
-                }
-            }
-            promise.resolve(ecuRecordsArray);
+    public void getEcuRecords(final String ecuRecordJson, final String vinNumber, final Promise promise) {
+        final Future<ArrayList<ECURecord>> parsedEcuRecords;
+        try {
+            parsedEcuRecords = balDongleLib.parseEcuRecords(ecuRecordJson);
         } catch (Exception e) {
             Log.d(TAG, "getEcuRecords: " + e);
             promise.reject("100", "Something went wrong");
-        }
+            return;
+        }
+        dtcListDiffer.resetAll();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String hash = EcuRecordSnapshot.hash(ecuRecordJson);
+                    WritableArray reused = ecuRecordSerializer.reuse(hash, vinNumber);
+                    if (reused != null) {
+                        // Serialized by the previous call; the lib keeps parsing in the background
+                        promise.resolve(reused);
+                        return;
+                    }
+                    int fieldCount = EcuRecordSerializer.getFieldCount();
+                    List<Object[]> rows = ecuRecordSnapshot.load(vinNumber, hash, fieldCount);
+                    if (rows != null) {
+                        // Same JSON as last time for this VIN; the lib keeps parsing in the background
+                        promise.resolve(ecuRecordSerializer.restore(rows, vinNumber, hash));
+                        return;
+                    }
+                    ArrayList<ECURecord> ecuRecordList = parsedEcuRecords.get();
+                    ecuRecordSerializer.reset(ecuRecordList, vinNumber, hash);
+                    WritableArray ecuRecordsArray = new WritableNativeArray();
+                    for (int i = 0; i < ecuRecordList.size(); i++) {
+                        ECURecord ecuRecord = ecuRecordList.get(i);
+                        if (ecuRecord != null) {
+                            ecuRecordsArray.pushMap(ecuRecordSerializer.toMap(i, ecuRecord));
+                        }
+                    }
+                    ecuRecordSnapshot.save(vinNumber, hash, ecuRecordSerializer.keepParsedRows(), fieldCount);
+                    promise.resolve(ecuRecordsArray);
+                } catch (Exception e) {
+                    Log.d(TAG, "getEcuRecords: " + e);
+                    promise.reject("100", "Something went wrong");
+                }
+            }
+        }, "getEcuRecords").start();
     }
 
     @ReactMethod
@@ -1511,48 +1622,27 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
             WritableMap ecuRecordItem = new WritableNativeMap();
             if (ecuRecord != null) {
-                ecuRecordItem.putString("ecuName", ecuRecord.getCuName());
-                ecuRecordItem.putInt("index", pos);
-                ecuRecordItem.putBoolean("isErrorCodeEnabled", ecuRecord.isDTC());
-                ecuRecordItem.putBoolean("isReadParameterEnabled", ecuRecord.isDID());
-                ecuRecordItem.putBoolean("isWriteParameterEnabled", ecuRecord.isWriteDid());
-                ecuRecordItem.putBoolean("isReprogramEnabled", ecuRecord.isReprograming());
-                ecuRecordItem.putBoolean("isUpdateBootEnabled", ecuRecord.isBootReprograming());
-                ecuRecordItem.putBoolean("isSpecialFunctionEnabled", ecuRecord.isSpecialOperation());
-                ecuRecordItem.putBoolean("isActuatorEnabled", ecuRecord.isActuatorRoutines());
-                ecuRecordItem.putBoolean("isAnalyticsEnabled", ecuRecord.isAnalyticsGraph());
-                ecuRecordItem.putBoolean("isEEDumpOperation", ecuRecord.isEEDumpOperation());
-                ecuRecordItem.putBoolean("isVinWrite", ecuRecord.isVinWrite());
-                ecuRecordItem.putBoolean("isBinWrite", ecuRecord.isBinWrite());
-                ecuRecordItem.putBoolean("isProgConstWriteEnabled", ecuRecord.isProgConstWrite());
-                ecuRecordItem.putBoolean("isUSBPrograming", ecuRecord.isUSBPrograming());
-                ecuRecordItem.putString("appHexUrl", ecuRecord.getAppHexURLLink());
-                ecuRecordItem.putString("didsXmlUrl", ecuRecord.getDidsXmlURLLink());
-                ecuRecordItem.putString("dtcsXmlUrl", ecuRecord.getDtcsXmlURLLink());
-                ecuRecordItem.putString("btlHexUrl", ecuRecord.getBtlHexURLLink());
-                ecuRecordItem.putString("appHexFileName", ecuRecord.getAppHexLink());
-                ecuRecordItem.putString("didsXmlFileName", ecuRecord.getDidsXmlLink());
-                ecuRecordItem.putString("dtcsXmlFileName", ecuRecord.getDtcsXmlLink());
-                ecuRecordItem.putString("btlHexFileName", ecuRecord.getBtlHexLink());
-                ecuRecordItem.putString("oldHexFileName", ecuRecord.getHexFileName());
-                ecuRecordItem.putBoolean("isCheckBIOError", ecuRecord.isCheckBIOError());
-                ecuRecordItem.putString("readParamAutoRefreshShownInGroupName",
-                        ecuRecord.isReadParamAutoRefreshShownInGroup());
-                ecuRecordItem.putInt("dynamicWaitTime", ecuRecord.getTimerToWaitForFlashing());
-                ecuRecordItem.putInt("updateFrameTime", ecuRecord.getUpdateFrameTime());
-                ecuRecordItem.putBoolean("isUpdatePerFrame", ecuRecord.isUpdatePerFrame());
-                ecuRecordItem.putBoolean("isShowUpdatePerFrameTime", ecuRecord.isShowUpdatePerFrameTime());
-                ecuRecordItem.putBoolean("isForceEachTimeOA", ecuRecord.isForceEachTimeOA());
-                Log.i(TAG, "" + ecuRecord.isWriteMotorType());
-                // Motor Related Items
-                ecuRecordItem.putBoolean("isWriteMotorType", ecuRecord.isWriteMotorType());
-                ecuRecordItem.putBoolean("isAutomateMotorType", ecuRecord.isAutomateMotorType());
-                ecuRecordItem.putString("motorTypeId", ecuRecord.getMotorTypeId());
-                ecuRecordItem.putString("mcuOffsetLearnTriggerId", ecuRecord.getMcuOffsetLearnTriggerId());
+                ecuRecordItem = ecuRecordSerializer.toMap(pos, ecuRecord);
             }
             promise.resolve(ecuRecordItem);
         } catch (Exception e) {
-            Log.d(TAG, "getEcuRecords: " + e);
+            Log.d(TAG, "getUpdatedEcuRecords: " + e);
+            promise.reject("100", "Something went wrong");
+        }
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getEcuRecordChanges(Integer pos, Promise promise) {
+        try {
+            ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
+            WritableMap changes = new WritableNativeMap();
+            if (ecuRecord != null) {
+                changes = ecuRecordSerializer.diff(pos, ecuRecord);
+            }
+            promise.resolve(changes);
+        } catch (Exception e) {
+            Log.d(TAG, "getEcuRecordChanges: " + e);
             promise.reject("100", "Something went wrong");
         }
     }
@@ -1632,8 +1722,13 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             WritableArray readParametersArray = new WritableNativeArray();
             ArrayList<ReadParameterModel> tempReadParameterList;
             tempReadParameterList = (ArrayList) readParameterList.clone();
+            boolean isRecording = sessionRecorder.isRecording();
+            long now = System.currentTimeMillis();
             for (int i = 0; i < tempReadParameterList.size(); i++) {
                 ReadParameterModel singleReadParameter = tempReadParameterList.get(i);
+                if (isRecording) {
+                    recordReadParameter(singleReadParameter, now);
+                }
                 WritableMap readParameter = new WritableNativeMap();
                 readParameter.putString("detail", singleReadParameter.value);
                 readParameter.putString("name", singleReadParameter.Desc);
@@ -1643,6 +1738,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             data.putArray("data", readParametersArray);
             data.putString("name", "readparameters");
             data.putBoolean("success", true);
+            data.putString("sessionId", sessionId);
             sendEvent("readparameters", data);
         } catch (Exception e) {
             Log.d(TAG, "getUpdatedReadParameters: " + e);
@@ -1650,6 +1746,74 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
 
     }
 
+    private void recordReadParameter(ReadParameterModel readParameter, long timeInMillis) {
+        String value = readParameter.value;
+        if (value == null) {
+            return;
+        }
+        // Values are a number optionally followed by a unit ("12.5 V"); anything else
+        // (hex strings, dates, status text) is not recorded
+        Matcher matcher = NUMERIC_PARAMETER_VALUE.matcher(value);
+        if (matcher.matches()) {
+            sessionRecorder.record("param/" + readParameter.Desc, timeInMillis,
+                    Double.parseDouble(matcher.group(1)));
+        }
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void startSessionRecording(Promise promise) {
+        try {
+            promise.resolve(sessionRecorder.start());
+        } catch (Exception e) {
+            Log.d(TAG, "startSessionRecording: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
+        }
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void stopSessionRecording(Promise promise) {
+        promise.resolve(sessionRecorder.stop());
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getRecordedSessions(Promise promise) {
+        try {
+            promise.resolve(sessionRecorder.listSessions());
+        } catch (Exception e) {
+            Log.d(TAG, "getRecordedSessions: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
+        }
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void deleteRecordedSession(String sessionId, Promise promise) {
+        promise.resolve(sessionRecorder.deleteSession(sessionId));
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void exportSessionCsv(final String sessionId, final double fromTime, final double toTime,
+            final Promise promise) {
+        // Decoding hours of samples must not block the bridge thread
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long from = fromTime > 0 ? (long) fromTime : Long.MIN_VALUE;
+                    long to = toTime > 0 ? (long) toTime : Long.MAX_VALUE;
+                    promise.resolve(sessionRecorder.exportCsv(sessionId, from, to).getAbsolutePath());
+                } catch (Exception e) {
+                    Log.d(TAG, "exportSessionCsv: " + e.getMessage());
+                    promise.reject("100", "Something went wrong");
+                }
+            }
+        }, "SessionCsvExport").start();
+    }
+
     @ReactMethod
     @SuppressWarnings("unused")
     public void stopReadParametersTimer() {
@@ -1685,6 +1849,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
         try {
             ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
             balDongleLib.readEcuBasicnfo(ecuRecord);
+            ecuRecordSerializer.markDirty(pos);
         } catch (Exception e) {
             Log.d(TAG, "readEcuBasicnfo: " + e);
         }
@@ -1698,6 +1863,8 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             subscribeToUpdateUI();
             ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
             writeParameterList = balDongleLib.getWriteParameter(ecuRecord);
+            indexWriteParameters();
+            sendWriteParameterSchema();
             // setLivedata();
             // new Thread(new Runnable() {
             // @Override
@@ -1727,29 +1894,35 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
 
     }
 
-    public void getUpdatedWriteParameter() {
+    private void indexWriteParameters() {
+        writeParameterByDesc.clear();
+        for (ReadParameterModel singleParameter : writeParameterList) {
+            writeParameterByDesc.put(singleParameter.Desc, singleParameter);
+        }
+        lastWriteParameterValues = null;
+    }
+
+    // Static metadata of the write parameters, sent once per getWriteParameter call and keyed by didHex.
+    private void sendWriteParameterSchema() {
         try {
-            WritableArray writeParameter = new WritableNativeArray();
+            WritableArray schema = new WritableNativeArray();
             for (int i = 0; i < writeParameterList.size(); i++) {
                 ReadParameterModel singleParameter = writeParameterList.get(i);
-                WritableMap writeParameterMap = new WritableNativeMap();
-                writeParameterMap.putString("description", singleParameter.Desc);
-                writeParameterMap.putString("value", singleParameter.value);
-                writeParameterMap.putString("didHex", singleParameter.didHex);
-                writeParameterMap.putString("newValue", singleParameter.newValueFromUser);
-                writeParameterMap.putString("valueType", singleParameter.dataType.toString());
-                writeParameterMap.putString("maxValue", singleParameter.getMaxValue());
-                writeParameterMap.putString("minValue", singleParameter.getMinValue());
-                writeParameterMap.putBoolean("isCallProPackStatusUploadApi",
+                WritableMap schemaMap = new WritableNativeMap();
+                schemaMap.putString("didHex", singleParameter.didHex);
+                schemaMap.putString("description", singleParameter.Desc);
+                schemaMap.putString("valueType", singleParameter.dataType.toString());
+                schemaMap.putString("maxValue", singleParameter.getMaxValue());
+                schemaMap.putString("minValue", singleParameter.getMinValue());
+                schemaMap.putBoolean("isCallProPackStatusUploadApi",
                         singleParameter.isCallProPackStatusUploadApi());
-
-                writeParameterMap.putBoolean("isRedColorEnable", singleParameter.isRedColorEnable());
-                writeParameterMap.putBoolean("showProgress", singleParameter.isShowProgress());
-                writeParameterMap.putBoolean("isResultRaw", singleParameter.isResultRaw());
-                writeParameterMap.putString("checkDid", singleParameter.getCheckDid());
-                writeParameterMap.putString("resultToPass", singleParameter.getResultToPass());
-                writeParameterMap.putString("resultToFail", singleParameter.getResultToFail());
-                writeParameterMap.putInt("timeoutInMs", singleParameter.getTimeoutInMs());
+                schemaMap.putBoolean("isRedColorEnable", singleParameter.isRedColorEnable());
+                schemaMap.putBoolean("showProgress", singleParameter.isShowProgress());
+                schemaMap.putBoolean("isResultRaw", singleParameter.isResultRaw());
+                schemaMap.putString("checkDid", singleParameter.getCheckDid());
+                schemaMap.putString("resultToPass", singleParameter.getResultToPass());
+                schemaMap.putString("resultToFail", singleParameter.getResultToFail());
+                schemaMap.putInt("timeoutInMs", singleParameter.getTimeoutInMs());
 
                 WritableArray hints = new WritableNativeArray();
                 if (singleParameter.listOfOptionToEnter != null) {
@@ -1757,20 +1930,64 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
                         hints.pushString(hint);
                     }
                 }
-                writeParameterMap.putArray("hint", hints);
+                schemaMap.putArray("hint", hints);
+                schema.pushMap(schemaMap);
+            }
+            WritableMap data = new WritableNativeMap();
+            data.putArray("data", schema);
+            data.putString("name", "writeparameterschema");
+            data.putBoolean("success", true);
+            data.putString("sessionId", sessionId);
+            sendEvent("writeparameterschema", data);
+        } catch (Exception e) {
+            Log.d(TAG, "sendWriteParameterSchema: " + e);
+        }
+    }
+
+    public void getUpdatedWriteParameter() {
+        try {
+            int size = writeParameterList.size();
+            boolean isChanged = lastWriteParameterValues == null || lastWriteParameterValues.length != size * 2;
+            if (isChanged) {
+                lastWriteParameterValues = new String[size * 2];
+            }
+            for (int i = 0; i < size; i++) {
+                ReadParameterModel singleParameter = writeParameterList.get(i);
+                if (!isChanged && (!equalsNullable(lastWriteParameterValues[i * 2], singleParameter.value)
+                        || !equalsNullable(lastWriteParameterValues[i * 2 + 1], singleParameter.newValueFromUser))) {
+                    isChanged = true;
+                }
+                lastWriteParameterValues[i * 2] = singleParameter.value;
+                lastWriteParameterValues[i * 2 + 1] = singleParameter.newValueFromUser;
+            }
+            if (!isChanged) {
+                return;
+            }
+            WritableArray writeParameter = new WritableNativeArray();
+            for (int i = 0; i < size; i++) {
+                ReadParameterModel singleParameter = writeParameterList.get(i);
+                WritableMap writeParameterMap = new WritableNativeMap();
+                writeParameterMap.putString("didHex", singleParameter.didHex);
+                writeParameterMap.putString("value", singleParameter.value);
+                writeParameterMap.putString("newValue", singleParameter.newValueFromUser);
                 writeParameter.pushMap(writeParameterMap);
             }
             WritableMap data = new WritableNativeMap();
             data.putArray("data", writeParameter);
             data.putString("name", "writeparameters");
             data.putBoolean("success", true);
+            data.putString("sessionId", sessionId);
             sendEvent("writeparameters", data);
         } catch (Exception e) {
-            Log.d(TAG, "getUpdatedReadParameters: " + e);
+            Log.d(TAG, "getUpdatedWriteParameter: " + e);
         }
 
     }
 
+    private static boolean equalsNullable(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     @ReactMethod
     @SuppressWarnings("unused")
     public void getWriteDidParameter(int pos, String description, String newValue, Promise promise) {
@@ -1779,13 +1996,9 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
             ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
             // List<ReadParameterModel> writeParameterList =
             // balDongleLib.getWriteParameter(ecuRecord);
-            ReadParameterModel readParameterModel = new ReadParameterModel();
-
-            for (int i = 0; i < writeParameterList.size(); i++) {
-                ReadParameterModel singleParameter = writeParameterList.get(i);
-                if (singleParameter.Desc.equals(description)) {
-                    readParameterModel = singleParameter;
-                }
+            ReadParameterModel readParameterModel = writeParameterByDesc.get(description);
+            if (readParameterModel == null) {
+                readParameterModel = new ReadParameterModel();
             }
             readParameterModel.newValueFromUser = newValue;
             balDongleLib.writeDidParameter(ecuRecord, readParameterModel, pos);
@@ -1802,7 +2015,11 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
         subscribeToUpdateUI();
         ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
         Log.d(TAG, "resetConfig: " + this.balDongleLib.isConnected());
-        balDongleLib.resetConfig(ecuRecord);
+        try {
+            balDongleLib.resetConfig(ecuRecord);
+        } catch (Exception e) {
+            Log.d(TAG, "resetConfig: " + e.getMessage());
+        }
 
     }
 
@@ -1811,6 +2028,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
         try {
             ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
             balDongleLib.getUDSParameter(ecuRecord);
+            ecuRecordSerializer.markDirty(pos);
         } catch (Exception e) {
             Log.d(TAG, "resetConfig: " + e);
         }
@@ -1874,6 +2092,14 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
 
     }
 
+    /**
+     * @return the session of the observer delivering, the active session outside of one
+     */
+    private String getEventSessionId() {
+        String delivering = subscriptions.getDeliveringSessionId();
+        return delivering != null ? delivering : sessionId;
+    }
+
     private void sendEvent(String eventName, WritableMap body) {
         if (reactContext.hasActiveReactInstance()) {
             reactContext.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(eventName, body);
@@ -1885,6 +2111,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     private void onChangeLiveDataSendEvent(String eventName, String s) {
         WritableMap res = new WritableNativeMap();
         res.putString("name", eventName);
+        res.putString("sessionId", getEventSessionId());
         if (s == "null" || s == null) {
             res.putNull("value");
         } else {
@@ -1900,6 +2127,7 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     private void onChangeLiveDataSendEvent(String eventName, WritableArray s) {
         WritableMap res = new WritableNativeMap();
         res.putString("name", eventName);
+        res.putString("sessionId", getEventSessionId());
         if (s == null) {
             res.putNull("value");
         } else {
@@ -1913,8 +2141,13 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     }
 
     private void onChangeLiveDataSendEvent(String eventName, WritableMap s) {
+        onChangeLiveDataSendEvent(eventName, s, getEventSessionId());
+    }
+
+    private void onChangeLiveDataSendEvent(String eventName, WritableMap s, String eventSessionId) {
         WritableMap res = new WritableNativeMap();
         res.putString("name", eventName);
+        res.putString("sessionId", eventSessionId);
         if (s == null) {
             res.putNull("value");
         } else {
@@ -1930,262 +2163,453 @@ public class BluetoothCustomModule extends ReactContextBaseJavaModule implements
     @ReactMethod
     @SuppressWarnings("unused")
     public void deleteBalLogs() {
-        File source = new File(getReactApplicationContext().getDataDir().toString() + "/BALAppLog");
-        deleteRecursive(source);
+        logStore.execute(new Runnable() {
+            @Override
+            public void run() {
+                LogStore.deleteRecursive(logStore.getDir(LogStore.APP_LOG_DIR));
+            }
+        });
     }
 
     @ReactMethod
     @SuppressWarnings("unused")
-    public void setReadParamAutoRefresh(boolean isAutoRefresh, int pos) {
-        ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
-        ecuRecord.setReadParamAutoRefresh(isAutoRefresh);
+    public void getLogIndex(final Promise promise) {
+        logStore.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    promise.resolve(logStore.getIndex());
+                } catch (Exception e) {
+                    Log.d(TAG, "getLogIndex: " + e.getMessage());
+                    promise.reject("100", "Something went wrong");
+                }
+            }
+        });
     }
 
     @ReactMethod
     @SuppressWarnings("unused")
-    public void stopAllTimersFromReact() {
-        // mainTimer.stopTimer();
-        subTimer.stopTimer();
-        parsingTimer.stopTimer();
-        actTimer.stopTimer();
+    public void rotateLogs(final double maxBytes, final double maxAgeInMillis, final Promise promise) {
+        logStore.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int deleted = logStore.rotate(LogStore.APP_LOG_DIR, (long) maxBytes, (long) maxAgeInMillis)
+                            + logStore.rotate(LogStore.LIB_LOG_DIR, (long) maxBytes, (long) maxAgeInMillis);
+                    promise.resolve(deleted);
+                } catch (Exception e) {
+                    Log.d(TAG, "rotateLogs: " + e.getMessage());
+                    promise.reject("100", "Something went wrong");
+                }
+            }
+        });
     }
 
-    @Override
-    public void onHostResume() {
-
+    /**
+     * options: {id, destination, sources: [{path, nestedName?}], deleteSources}
+     * Progress is sent on "archiveProgress"; the promise resolves with the archive path.
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void createArchive(ReadableMap options, final Promise promise) {
+        final String id = options.getString("id");
+        final File destination = new File(options.getString("destination"));
+        final boolean isDeleteSources = options.hasKey("deleteSources") && options.getBoolean("deleteSources");
+        final List<LogStore.ArchivePart> parts = new ArrayList<>();
+        ReadableArray sources = options.getArray("sources");
+        for (int i = 0; sources != null && i < sources.size(); i++) {
+            ReadableMap source = sources.getMap(i);
+            String nestedName = source.hasKey("nestedName") && !source.isNull("nestedName")
+                    ? source.getString("nestedName")
+                    : null;
+            parts.add(new LogStore.ArchivePart(new File(source.getString("path")), nestedName));
+        }
+        logStore.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    logStore.archive(parts, destination, isDeleteSources, new LogStore.ProgressListener() {
+                        @Override
+                        public void onProgress(long bytes, long totalBytes, int files, int totalFiles) {
+                            WritableMap progress = new WritableNativeMap();
+                            progress.putString("id", id);
+                            progress.putDouble("bytes", bytes);
+                            progress.putDouble("totalBytes", totalBytes);
+                            progress.putInt("files", files);
+                            progress.putInt("totalFiles", totalFiles);
+                            sendEvent("archiveProgress", progress);
+                        }
+                    });
+                    promise.resolve(destination.getAbsolutePath());
+                } catch (Exception e) {
+                    Log.d(TAG, "createArchive: " + e.getMessage());
+                    promise.reject("100", "Something went wrong");
+                }
+            }
+        });
     }
 
-    @Override
-    public void onHostPause() {
-
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void setReadParamAutoRefresh(boolean isAutoRefresh, int pos) {
+        ECURecord ecuRecord = balDongleLib.getEcuRecord(pos);
+        ecuRecord.setReadParamAutoRefresh(isAutoRefresh);
+        ecuRecordSerializer.markDirty(pos);
     }
 
-    @Override
-    public void onHostDestroy() {
-        reactContext.unregisterReceiver(bluetoothDeviceListener);
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getProgressStats(Promise promise) {
+        WritableMap stats = new WritableNativeMap();
+        for (ProgressChannel channel : new ProgressChannel[] { flashChannel, flashBootChannel, writeVinChannel,
+                writePCChannel, writeBinChannel }) {
+            stats.putMap(channel.getEventName(), channel.getStats());
+        }
+        promise.resolve(stats);
     }
 
-    private void stopAllTimer() {
-        // mainTimer.stopTimer();
-        subTimer.stopTimer();
-        parsingTimer.stopTimer();
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void dumpNativeLog(Promise promise) {
+        try {
+            // Not rotated here: BALAppLog holds fail logs that are waiting to be uploaded
+            promise.resolve(NativeLog.dumpToFile(reactContext.getDataDir()).getAbsolutePath());
+        } catch (Exception e) {
+            Log.d(TAG, "dumpNativeLog: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
+        }
     }
 
-    public void stopFlashing() {
-        balDongleLib.stopFlashing(flashingEcuRecord);
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void setNativeLogLevel(int minLevel, int logcatLevel) {
+        NativeLog.setMinLevel(minLevel);
+        NativeLog.setLogcatLevel(logcatLevel);
     }
 
-    public class TimerUtils {
-        private CountDownTimer countDownTimer;
-
-        public void startTimer(long durationInMillis, String type, Boolean isStartTimer) {
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void setNativeLogSampling(String tag, int every) {
+        NativeLog.setSampling(tag, every);
+    }
 
-            countDownTimer = new CountDownTimer(durationInMillis, 1000) {
-                @Override
-                public void onTick(long millisUntilFinished) {
-                    if (isStartTimer) {
-                        long millisDone = durationInMillis - millisUntilFinished;
-                        int sec = (int) (millisDone / 1000);
-                        if (sec < 19) {
-                            WritableMap progressMap = new WritableNativeMap();
-                            progressMap.putInt("mainProgress", sec * 5);
-                            progressMap.putInt("subProgress", sec * 5);
-                            progressMap.putString("status", STARTED_PARSING_TAG);
-                            onChangeLiveDataSendEvent(type, progressMap);
-                        }
-                    }
-                }
+    /**
+     * The connection kept by the native side; after a JS reload it is usually still open
+     * and does not need initBalDongle / initBalUSBDongle again.
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getDongleSession(Promise promise) {
+        try {
+            promise.resolve(DongleSession.getInstance().getInfo());
+        } catch (Exception e) {
+            Log.d(TAG, "getDongleSession: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
+        }
+    }
 
-                @Override
-                public void onFinish() {
-                    // Trigger your method here
-                    performActionAfterTimer(type);
-                }
-            };
-            countDownTimer.start();
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getDongleSessions(Promise promise) {
+        try {
+            promise.resolve(DongleSession.listInfo());
+        } catch (Exception e) {
+            Log.d(TAG, "getDongleSessions: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
         }
+    }
 
-        public void resetTimer(long resetDurationInMillis, String type, Boolean isStatTimer) {
-            if (countDownTimer != null) {
-                countDownTimer.cancel();
-                countDownTimer = null;
-            }
-            startTimer(resetDurationInMillis, type, isStatTimer);
+    /**
+     * Drive {@code sessionId} from now on, creating it if needed; initBalDongle and
+     * initBalUSBDongle then connect it. The other sessions stay connected but are not
+     * observed, so this is refused while a long operation runs on the current one.
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void selectDongleSession(String sessionId, Promise promise) {
+        try {
+            if (DongleSession.toId(sessionId).equals(this.sessionId)) {
+                promise.resolve(DongleSession.getInstance().getInfo());
+                return;
+            }
+            String busyOperation = getBusyOperation();
+            if (busyOperation != null) {
+                promise.reject("100", "Operation in progress: " + busyOperation);
+                return;
+            }
+            releaseSession();
+            // ECU positions, parameter lists and routines all belong to the previous vehicle
+            dtcListDiffer.resetAll();
+            errorCodesEcuPos = -1;
+            readParameterList = null;
+            writeParameterList = null;
+            writeParameterByDesc.clear();
+            lastWriteParameterValues = null;
+            listActuatorRoutines = null;
+            DongleSession session = DongleSession.select(sessionId);
+            this.sessionId = session.getId();
+            subscriptions.setSessionId(this.sessionId);
+            ecuRecordSerializer = session.getEcuRecordSerializer();
+            balDongleLib = session.getDongleLib();
+            if (balDongleLib != null) {
+                subscribeToUpdateUI();
+            }
+            promise.resolve(session.getInfo());
+        } catch (Exception e) {
+            Log.d(TAG, "selectDongleSession: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
         }
+    }
 
-        public boolean isTimerRunning() {
-            return countDownTimer != null;
+    /**
+     * Close {@code sessionId}'s connection and drop the session; the active session is
+     * closed like balDongleLibStop and stays selected.
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void closeDongleSession(String sessionId) {
+        try {
+            DongleSession.remove(sessionId);
+        } catch (Exception e) {
+            Log.d(TAG, "closeDongleSession: " + e.getMessage());
         }
+    }
 
-        public void stopTimer() {
-            if (countDownTimer != null) {
-                countDownTimer.cancel();
-                countDownTimer = null;
+    /**
+     * @return the long operation running on the active session, or null
+     */
+    private String getBusyOperation() {
+        for (String operation : LONG_OPERATIONS) {
+            if (subscriptions.isAttached(operation)) {
+                return operation;
             }
         }
-
-        private void performActionAfterTimer(String type) {
-            Log.d(TAG, "performActionAfterTimer: over");
-            stopFlashing();
-            stopAllTimer();
-            WritableMap progressMap = new WritableNativeMap();
-            progressMap.putInt("mainProgress", -1);
-            progressMap.putInt("subProgress", -1);
-            progressMap.putString("status", "Operation Time Out, Please try again");
-            onChangeLiveDataSendEvent(type, progressMap);
+        if (dtcSweep.isRunning()) {
+            return DtcSweep.OPERATION;
         }
+        if (vehicleSnapshotCapture.isRunning()) {
+            return "vehicleSnapshot";
+        }
+        if (macroEngine.isRunning()) {
+            return "macro";
+        }
+        return null;
     }
 
-    public class TimerUtilsForActuator {
-        private CountDownTimer countDownTimer;
-
-        public void startTimer(long durationInMillis) {
-
-            countDownTimer = new CountDownTimer(durationInMillis, 1000) {
-                @Override
-                public void onTick(long millisUntilFinished) {
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getSchedulerStats(Promise promise) {
+        try {
+            promise.resolve(balDongleLib.getScheduler().getStats());
+        } catch (Exception e) {
+            Log.d(TAG, "getSchedulerStats: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
+        }
+    }
 
-                }
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getSubscriptionStats(Promise promise) {
+        promise.resolve(subscriptions.getStats());
+    }
 
-                @Override
-                public void onFinish() {
-                    // Trigger your method here
-                    performActionAfterTimer();
-                }
-            };
-            countDownTimer.start();
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getMetadataCacheStats(Promise promise) {
+        try {
+            promise.resolve(balDongleLib.getMetadataCache().getStats());
+        } catch (Exception e) {
+            Log.d(TAG, "getMetadataCacheStats: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
         }
+    }
 
-        public void resetTimer(long resetDurationInMillis) {
-            if (countDownTimer != null) {
-                countDownTimer.cancel();
-                countDownTimer = null;
-            }
-            startTimer(resetDurationInMillis);
-        }
+    private EcuDictionary openDictionary(ECURecord ecuRecord, String kind) throws IOException {
+        return EcuDictionary.forEcu(reactContext.getDataDir(), ecuRecord, kind);
+    }
 
-        public boolean isTimerRunning() {
-            return countDownTimer != null;
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void lookupDictionary(int pos, String kind, ReadableArray keys, Promise promise) {
+        try {
+            EcuDictionary dictionary = openDictionary(balDongleLib.getEcuRecord(pos), kind);
+            if (dictionary == null) {
+                promise.resolve(null);
+                return;
+            }
+            WritableMap records = new WritableNativeMap();
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.getString(i);
+                records.putArray(key, dictionary.lookup(key));
+            }
+            promise.resolve(records);
+        } catch (Exception e) {
+            Log.d(TAG, "lookupDictionary: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
         }
+    }
 
-        public void stopTimer() {
-            if (countDownTimer != null) {
-                countDownTimer.cancel();
-                countDownTimer = null;
-            }
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getDictionaryGroups(int pos, String kind, Promise promise) {
+        try {
+            EcuDictionary dictionary = openDictionary(balDongleLib.getEcuRecord(pos), kind);
+            promise.resolve(dictionary != null ? dictionary.getGroups() : null);
+        } catch (Exception e) {
+            Log.d(TAG, "getDictionaryGroups: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
         }
+    }
 
-        private void performActionAfterTimer() {
-            onChangeLiveDataSendEvent("actuator",
-                    "{\"status\":false,\"message\":\"Time out\",\"processStatus\":\"Done\",\"RoutinePosOnUI\":0,\"StepNo\":0}");
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void listDictionaryGroup(int pos, String kind, String group, Promise promise) {
+        try {
+            EcuDictionary dictionary = openDictionary(balDongleLib.getEcuRecord(pos), kind);
+            promise.resolve(dictionary != null ? dictionary.listGroup(group) : null);
+        } catch (Exception e) {
+            Log.d(TAG, "listDictionaryGroup: " + e.getMessage());
+            promise.reject("100", "Something went wrong");
         }
     }
 
-    public class TimerUtilsForEEDump {
-        private CountDownTimer countDownTimer;
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void stopAllTimersFromReact() {
+        // mainTimer.stopTimer();
+        subTimer.stopTimer();
+        actTimer.stopTimer();
+    }
 
-        public void startTimer(long durationInMillis) {
+    @Override
+    public void onHostResume() {
 
-            countDownTimer = new CountDownTimer(durationInMillis, 1000) {
-                @Override
-                public void onTick(long millisUntilFinished) {
+    }
 
-                }
+    @Override
+    public void onHostPause() {
 
-                @Override
-                public void onFinish() {
-                    // Trigger your method here
-                    performActionAfterTimer();
-                }
-            };
-            countDownTimer.start();
-        }
+    }
 
-        public void resetTimer(long resetDurationInMillis) {
-            if (countDownTimer != null) {
-                countDownTimer.cancel();
-                countDownTimer = null;
-            }
-            startTimer(resetDurationInMillis);
-        }
+    @Override
+    public void invalidate() {
+        // JS reload or app teardown: the session and its connection stay open
+        DongleSession.detach(sessionClient);
+        releaseSession();
+        binDataExecutor.shutdown();
+        super.invalidate();
+    }
+
+    private void releaseSession() {
+        dtcSweep.cancel();
+        vehicleSnapshotCapture.cancel();
+        macroEngine.cancel();
+        operationCanceller.cancelPending();
+        subTimer.stopTimer();
+        actTimer.stopTimer();
+        stopReadParametersTimer();
+        subscriptions.detachAll();
+        balDongleLib = null;
+    }
 
-        public boolean isTimerRunning() {
-            return countDownTimer != null;
+    @Override
+    public void onHostDestroy() {
+        dtcSweep.cancel();
+        vehicleSnapshotCapture.cancel();
+        macroEngine.cancel();
+        operationCanceller.cancelPending();
+        subscriptions.detachAll();
+        sessionRecorder.stop();
+        try {
+            reactContext.unregisterReceiver(bluetoothDeviceListener);
+        } catch (IllegalArgumentException e) {
+            // initIntentFilters was never called on this instance
+            Log.d(TAG, "onHostDestroy: " + e.getMessage());
         }
+    }
 
-        public void stopTimer() {
-            if (countDownTimer != null) {
-                countDownTimer.cancel();
-                countDownTimer = null;
-            }
-        }
+    private void stopAllTimer() {
+        // mainTimer.stopTimer();
+        subTimer.stopTimer();
+    }
 
-        private void performActionAfterTimer() {
-            onChangeLiveDataSendEvent("eeDump",
-                    "{\"status\":false,\"message\":\"EEDump failed\",\"processStatus\":\"Done\",\"isReadyToUpload\":false,\"StepNo\":0}");
+    public void stopFlashing() {
+        try {
+            balDongleLib.stopFlashing(flashingEcuRecord);
+        } catch (Exception e) {
+            Log.d(TAG, "stopFlashing: " + e.getMessage());
         }
     }
 
-    public class TimerUtilsWith200Mills {
-        private CountDownTimer countDownTimer;
-
-        public void startTimer(long durationInMillis, String type, Boolean isStartTimer) {
-
-            countDownTimer = new CountDownTimer(durationInMillis, 100) {
-                @Override
-                public void onTick(long millisUntilFinished) {
-                    if (isStartTimer) {
-                        long millisDone = durationInMillis - millisUntilFinished;
-                        int cycle = (int) (millisDone / 100);
-                        if (cycle <= 98) {
-                            WritableMap progressMap = new WritableNativeMap();
-                            progressMap.putInt("mainProgress", cycle);
-                            progressMap.putInt("subProgress", cycle);
-                            progressMap.putString("status", STARTED_PARSING_TAG);
-                            onChangeLiveDataSendEvent(type, progressMap);
-                        }
+    /**
+     * Operation deadline for flash, boot, eeDump, readBinData and write operations,
+     * backed by the shared {@link OperationWatchdog}.
+     */
+    public class TimerUtils {
+        private final OperationWatchdog.Deadline deadline = OperationWatchdog.getInstance()
+                .newDeadline(new OperationWatchdog.ExpiryListener() {
+                    @Override
+                    public void onExpired(String type) {
+                        performActionAfterTimer(type);
                     }
-                }
+                });
 
-                @Override
-                public void onFinish() {
-                    // Trigger your method here
-                    performActionAfterTimer(type);
-                }
-            };
-            countDownTimer.start();
-        }
-
-        public void resetTimer(long resetDurationInMillis, String type, Boolean isStatTimer) {
-            if (countDownTimer != null) {
-                countDownTimer.cancel();
-                countDownTimer = null;
-            }
-            startTimer(resetDurationInMillis, type, isStatTimer);
+        public void resetTimer(long resetDurationInMillis, String type) {
+            OperationWatchdog.getInstance().arm(deadline, resetDurationInMillis, type);
         }
 
         public boolean isTimerRunning() {
-            return countDownTimer != null;
+            return OperationWatchdog.getInstance().isArmed(deadline);
         }
 
         public void stopTimer() {
-            if (countDownTimer != null) {
-                countDownTimer.cancel();
-                countDownTimer = null;
-            }
+            OperationWatchdog.getInstance().cancel(deadline);
         }
 
         private void performActionAfterTimer(String type) {
-            stopFlashing();
             Log.d(TAG, "performActionAfterTimer: over");
+            try {
+                // On the watchdog thread, which must not wait for the command thread
+                balDongleLib.stopFlashingAsync(flashingEcuRecord);
+            } catch (Exception e) {
+                Log.d(TAG, "performActionAfterTimer: " + e.getMessage());
+            }
             stopAllTimer();
+            subscriptions.detach(type);
             WritableMap progressMap = new WritableNativeMap();
             progressMap.putInt("mainProgress", -1);
             progressMap.putInt("subProgress", -1);
             progressMap.putString("status", "Operation Time Out, Please try again");
             onChangeLiveDataSendEvent(type, progressMap);
         }
+    }
+
+    public class TimerUtilsForActuator {
+        private final OperationWatchdog.Deadline deadline = OperationWatchdog.getInstance()
+                .newDeadline(new OperationWatchdog.ExpiryListener() {
+                    @Override
+                    public void onExpired(String type) {
+                        performActionAfterTimer();
+                    }
+                });
+
+        public void resetTimer(long resetDurationInMillis) {
+            OperationWatchdog.getInstance().arm(deadline, resetDurationInMillis, "actuator");
+        }
+
+        public boolean isTimerRunning() {
+            return OperationWatchdog.getInstance().isArmed(deadline);
+        }
+
+        public void stopTimer() {
+            OperationWatchdog.getInstance().cancel(deadline);
+        }
 
+        private void performActionAfterTimer() {
+            subscriptions.detach("actuator");
+            onChangeLiveDataSendEvent("actuator",
+                    "{\"status\":false,\"message\":\"Time out\",\"processStatus\":\"Done\",\"RoutinePosOnUI\":0,\"StepNo\":0}");
+        }
     }
 
     // Required methods for NativeEventEmitter
@@ -1,33 +1,45 @@
 package com.nostix;
 
 
-import android.os.Build;
-import android.os.FileUtils;
 import android.provider.Settings;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.RequiresApi;
 
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 
 public class CustomModule extends ReactContextBaseJavaModule {
 
+    private static final String TAG = "CustomModule";
+
     private final ReactContext reactContext;
+    private final DirectorySync downloadSync;
+    private final ArtifactCache artifactCache;
+    private final DictionaryCompiler dictionaryCompiler;
 
     CustomModule(ReactApplicationContext context) {
         super(context);
         this.reactContext = context;
+        this.downloadSync = new DirectorySync(new File(context.getDataDir(), "balDownload"), true);
+        this.artifactCache = new ArtifactCache(context.getDataDir(), ArtifactCache.DEFAULT_MAX_BYTES);
+        this.dictionaryCompiler = new DictionaryCompiler(context.getDataDir());
     }
 
     @NonNull
@@ -37,45 +49,103 @@ public class CustomModule extends ReactContextBaseJavaModule {
     }
 
 
-    @RequiresApi(api = Build.VERSION_CODES.Q)
-    private void copyFile(File source, File destination) throws IOException {
-        FileUtils.copy(new FileInputStream(source), new FileOutputStream(destination));
+    private void sendEvent(String eventName, WritableMap body) {
+        if (reactContext.hasActiveReactInstance()) {
+            reactContext.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(eventName, body);
+        } else {
+            Log.e(TAG, "There is currently no active Catalyst instance");
+        }
     }
 
-    private void deleteRecursive(File fileOrDirectory) {
-        if (fileOrDirectory.isDirectory()) for (File child : fileOrDirectory.listFiles()) {
-            child.delete();
-            deleteRecursive(child);
+    /**
+     * Resolves with the URLs whose artifact is already cached and unchanged on the server,
+     * so their download can be skipped. Revalidating needs a HEAD request per URL, so it
+     * runs off the bridge thread.
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getCachedArtifacts(ReadableArray urls, final Promise promise) {
+        final List<String> list = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            list.add(urls.getString(i));
         }
-        fileOrDirectory.delete();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    WritableArray cached = new WritableNativeArray();
+                    for (String url : artifactCache.getCached(list)) {
+                        cached.pushString(url);
+                    }
+                    promise.resolve(cached);
+                } catch (Exception e) {
+                    Log.d(TAG, "getCachedArtifacts: " + e.getMessage());
+                    promise.reject("100", "Something went wrong");
+                }
+            }
+        }, "getCachedArtifacts").start();
     }
 
+    /**
+     * Cache the downloaded artifacts, link in the cached ones that were not downloaded and
+     * mirror the folder into balDownload; unchanged files are not rewritten.
+     * Emits "copyFilesProgress" after each file and resolves false on failure.
+     *
+     * @param artifacts [{url, fileName}] of the hex and XML files of the vehicle
+     */
     @ReactMethod
-    @RequiresApi(api = Build.VERSION_CODES.Q)
     @SuppressWarnings("unused")
-    public void copyFilesToLocation(String sourcePath, Promise promise) {
-        try {
-            File source = new File(sourcePath);
-            String destinationPath = getReactApplicationContext().getDataDir().toString() + "/balDownload";
-            Log.d("From native side", sourcePath + destinationPath);
-            Log.d("Files", "Path: " + sourcePath);
-            File sourceDirectory = new File(sourcePath);
-            File[] files = sourceDirectory.listFiles();
-            Log.d("Files", "Size: " + files.length);
-            File destinationDirectory = new File(destinationPath);
-            if (destinationDirectory.exists()) {
-                deleteRecursive(destinationDirectory);
-            }
-            destinationDirectory.mkdir();
-            for (int i = 0; i < files.length; i++) {
-                Log.d("Files", "FileName:" + files[i].getName());
-                File destination = new File(destinationPath + "/" + files[i].getName());
-                copyFile(files[i], destination);
+    public void copyFilesToLocation(final String sourcePath, ReadableArray artifacts, final Promise promise) {
+        final List<ArtifactCache.Artifact> list = new ArrayList<>();
+        for (int i = 0; i < artifacts.size(); i++) {
+            ReadableMap artifact = artifacts.getMap(i);
+            list.add(new ArtifactCache.Artifact(artifact.getString("url"), artifact.getString("fileName")));
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Log.d(TAG, "copyFilesToLocation: " + sourcePath);
+                    ArtifactCache.Result cacheResult = artifactCache.materialize(new File(sourcePath), list);
+                    Log.d(TAG, "copyFilesToLocation: cached " + cacheResult.stored + ", reused " + cacheResult.reused
+                            + ", missing " + cacheResult.missing + ", rejected " + cacheResult.rejected
+                            + ", evicted " + cacheResult.evicted);
+                    DirectorySync.Result result = downloadSync.sync(new File(sourcePath),
+                            new DirectorySync.ProgressListener() {
+                                @Override
+                                public void onFile(String name, boolean isSkipped, int files, int totalFiles,
+                                        long bytes, long totalBytes) {
+                                    WritableMap progress = new WritableNativeMap();
+                                    progress.putString("file", name);
+                                    progress.putBoolean("skipped", isSkipped);
+                                    progress.putInt("files", files);
+                                    progress.putInt("totalFiles", totalFiles);
+                                    progress.putDouble("bytes", bytes);
+                                    progress.putDouble("totalBytes", totalBytes);
+                                    sendEvent("copyFilesProgress", progress);
+                                }
+                            });
+                    EcuMetadataCache.invalidateAll();
+                    Log.d(TAG, "copyFilesToLocation: copied " + result.copied + ", skipped " + result.skipped
+                            + ", " + result.bytesCopied + " bytes written");
+                    compileDictionaries();
+                    promise.resolve(true);
+                } catch (IOException exception) {
+                    Log.d(TAG, "copyFilesToLocation: " + exception.getMessage());
+                    promise.resolve(false);
+                }
             }
-            promise.resolve(true);
-        } catch (IOException exception) {
-            Log.d("From native side", exception.getMessage());
-            promise.resolve(false);
+        }, "copyFilesToLocation").start();
+    }
+
+    // The dictionaries only speed up lookups, so a failure here does not fail the copy
+    private void compileDictionaries() {
+        try {
+            DictionaryCompiler.Result result = dictionaryCompiler.compileAll();
+            Log.d(TAG, "compileDictionaries: compiled " + result.compiled + ", up to date " + result.upToDate
+                    + ", failed " + result.failed + ", deleted " + result.deleted);
+        } catch (IOException e) {
+            Log.d(TAG, "compileDictionaries: " + e.getMessage());
         }
     }
 
@@ -89,4 +159,14 @@ public class CustomModule extends ReactContextBaseJavaModule {
             promise.reject("100", "Something went wrong");
         }
     }
+
+    @ReactMethod
+    public void addListener(String eventName) {
+        // Keep: Required for RN built-in Event Emitter support
+    }
+
+    @ReactMethod
+    public void removeListeners(Integer count) {
+        // Keep: Required for RN built-in Event Emitter support
+    }
 }
@@ -0,0 +1,385 @@
+package com.nostix;
+
+import android.util.Log;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles the DID/DTC XML files of balDownload into binary dictionaries that
+ * {@link EcuDictionary} memory maps, so lookups and group listings do not parse XML.
+ * <p>
+ * The compiler does not depend on a particular schema. An element below the root that
+ * has an identifier attribute ({@code id}, {@code did}, {@code dtc}, {@code code}, ...), or
+ * a direct child holding one as text, is a record keyed by that identifier. Attributes and
+ * text of everything beneath it, scaling and enum values included, become the record's
+ * fields in document order, named by their path relative to the record; records are not
+ * nested. A record's group is the {@code name} attribute of its parent element, or the
+ * parent's element name.
+ * <p>
+ * Each XML file gets {@code BALDictionary/<file name>.dict}, written through a
+ * {@code .part} file and a rename. A dictionary records the size and modification time of
+ * its XML file, so {@link #compileAll} only rebuilds the stale ones; dictionaries whose XML
+ * file is gone are deleted.
+ */
+public class DictionaryCompiler {
+
+    private static final String TAG = "DictionaryCompiler";
+
+    public static final String DICTIONARY_DIR = "BALDictionary";
+    public static final String EXTENSION = ".dict";
+    private static final int MAX_WORKERS = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Set<String> KEY_NAMES = new HashSet<>(Arrays.asList(
+            "id", "did", "dtc", "code", "didid", "dtcid", "dtccode", "number"));
+    private static final String[] GROUP_ATTRIBUTES = { "name", "title" };
+
+    public static class Result {
+        public int compiled;
+        public int upToDate;
+        public int failed;
+        public int deleted;
+    }
+
+    private static class Node {
+        final String name;
+        final Node parent;
+        final List<String[]> attributes = new ArrayList<>();
+        final List<Node> children = new ArrayList<>();
+        final StringBuilder text = new StringBuilder();
+
+        Node(String name, Node parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+    }
+
+    private static class Record {
+        final int key;
+        final byte[] keyBytes;
+        final int element;
+        final int group;
+        final int firstField;
+        final int fieldCount;
+
+        Record(int key, byte[] keyBytes, int element, int group, int firstField, int fieldCount) {
+            this.key = key;
+            this.keyBytes = keyBytes;
+            this.element = element;
+            this.group = group;
+            this.firstField = firstField;
+            this.fieldCount = fieldCount;
+        }
+    }
+
+    /**
+     * Strings of one dictionary, each stored once.
+     */
+    private static class StringTable {
+        final Map<String, Integer> ids = new HashMap<>();
+        final List<byte[]> bytes = new ArrayList<>();
+
+        int intern(String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = bytes.size();
+                ids.put(value, id);
+                bytes.add(value.getBytes(StandardCharsets.UTF_8));
+            }
+            return id;
+        }
+    }
+
+    private final File xmlDir;
+    private final File dictionaryDir;
+
+    public DictionaryCompiler(File dataDir) {
+        this.xmlDir = new File(dataDir, "balDownload");
+        this.dictionaryDir = new File(dataDir, DICTIONARY_DIR);
+    }
+
+    /**
+     * @return the dictionary of an ECU record's XML link, whether it exists or not
+     */
+    public static File getDictionaryFile(File dataDir, String xmlLink) {
+        return new File(new File(dataDir, DICTIONARY_DIR), new File(xmlLink).getName() + EXTENSION);
+    }
+
+    /**
+     * Identifiers are compared without case and without a {@code 0x} prefix.
+     */
+    public static String normalizeKey(String key) {
+        String normalized = key.trim().toUpperCase(Locale.US);
+        return normalized.startsWith("0X") ? normalized.substring(2) : normalized;
+    }
+
+    /**
+     * Bring the dictionaries in line with the XML files. Blocking; a file that does not
+     * compile is logged and skipped.
+     */
+    public synchronized Result compileAll() throws IOException {
+        if (!dictionaryDir.exists() && !dictionaryDir.mkdirs()) {
+            throw new IOException("Unable to create " + dictionaryDir);
+        }
+        File[] xmlFiles = xmlDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.toLowerCase(Locale.US).endsWith(".xml");
+            }
+        });
+        if (xmlFiles == null) {
+            xmlFiles = new File[0];
+        }
+        final Result result = new Result();
+        Set<String> expected = new HashSet<>();
+        List<File> stale = new ArrayList<>();
+        for (File xmlFile : xmlFiles) {
+            File dictionary = new File(dictionaryDir, xmlFile.getName() + EXTENSION);
+            expected.add(dictionary.getName());
+            if (isUpToDate(xmlFile, dictionary)) {
+                result.upToDate++;
+            } else {
+                stale.add(xmlFile);
+            }
+        }
+
+        if (!stale.isEmpty()) {
+            int workers = Math.max(1, Math.min(Math.min(MAX_WORKERS, stale.size()), Runtime.getRuntime().availableProcessors()));
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            try {
+                List<Future<Boolean>> futures = new ArrayList<>();
+                for (final File xmlFile : stale) {
+                    futures.add(executor.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            try {
+                                compile(xmlFile, new File(dictionaryDir, xmlFile.getName() + EXTENSION));
+                                return true;
+                            } catch (IOException | XmlPullParserException e) {
+                                Log.d(TAG, "compileAll: " + xmlFile.getName() + ": " + e.getMessage());
+                                return false;
+                            }
+                        }
+                    }));
+                }
+                for (Future<Boolean> future : futures) {
+                    if (future.get()) {
+                        result.compiled++;
+                    } else {
+                        result.failed++;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            } catch (ExecutionException e) {
+                throw new IOException(String.valueOf(e.getCause()));
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        File[] dictionaries = dictionaryDir.listFiles();
+        if (dictionaries != null) {
+            for (File dictionary : dictionaries) {
+                if (!expected.contains(dictionary.getName()) && dictionary.delete()) {
+                    result.deleted++;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean isUpToDate(File xmlFile, File dictionary) {
+        if (!dictionary.isFile()) {
+            return false;
+        }
+        try (DataInputStream input = new DataInputStream(new FileInputStream(dictionary))) {
+            return input.readInt() == EcuDictionary.MAGIC
+                    && input.readInt() == EcuDictionary.VERSION
+                    && input.readLong() == xmlFile.length()
+                    && input.readLong() == xmlFile.lastModified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static void compile(File xmlFile, File dictionary) throws IOException, XmlPullParserException {
+        long length = xmlFile.length();
+        long modified = xmlFile.lastModified();
+        Node root = parse(xmlFile);
+
+        StringTable strings = new StringTable();
+        List<int[]> fields = new ArrayList<>();
+        List<Record> records = new ArrayList<>();
+        if (root != null) {
+            for (Node child : root.children) {
+                collect(child, strings, fields, records);
+            }
+        }
+        // Stable, so records sharing a key stay in document order
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(Record a, Record b) {
+                return EcuDictionary.compareBytes(a.keyBytes, b.keyBytes);
+            }
+        });
+
+        File partial = new File(dictionary.getAbsolutePath() + ".part");
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(partial), BUFFER_SIZE))) {
+            output.writeInt(EcuDictionary.MAGIC);
+            output.writeInt(EcuDictionary.VERSION);
+            output.writeLong(length);
+            output.writeLong(modified);
+            output.writeInt(strings.bytes.size());
+            output.writeInt(records.size());
+            output.writeInt(fields.size());
+            int offset = 0;
+            output.writeInt(offset);
+            for (byte[] value : strings.bytes) {
+                offset += value.length;
+                output.writeInt(offset);
+            }
+            for (byte[] value : strings.bytes) {
+                output.write(value);
+            }
+            for (Record record : records) {
+                output.writeInt(record.key);
+                output.writeInt(record.element);
+                output.writeInt(record.group);
+                output.writeInt(record.firstField);
+                output.writeInt(record.fieldCount);
+            }
+            for (int[] field : fields) {
+                output.writeInt(field[0]);
+                output.writeInt(field[1]);
+            }
+        } catch (IOException e) {
+            partial.delete();
+            throw e;
+        }
+        if (!partial.renameTo(dictionary)) {
+            partial.delete();
+            throw new IOException("Unable to move " + partial);
+        }
+    }
+
+    private static Node parse(File xmlFile) throws IOException, XmlPullParserException {
+        try (InputStream input = new BufferedInputStream(new FileInputStream(xmlFile), BUFFER_SIZE)) {
+            XmlPullParser parser = Xml.newPullParser();
+            // Let the parser take the encoding from the XML declaration
+            parser.setInput(input, null);
+            Node root = null;
+            Node current = null;
+            for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (event == XmlPullParser.START_TAG) {
+                    Node node = new Node(parser.getName(), current);
+                    for (int i = 0; i < parser.getAttributeCount(); i++) {
+                        node.attributes.add(new String[] { parser.getAttributeName(i), parser.getAttributeValue(i) });
+                    }
+                    if (current == null) {
+                        root = node;
+                    } else {
+                        current.children.add(node);
+                    }
+                    current = node;
+                } else if (event == XmlPullParser.TEXT && current != null) {
+                    current.text.append(parser.getText());
+                } else if (event == XmlPullParser.END_TAG && current != null) {
+                    current = current.parent;
+                }
+            }
+            return root;
+        }
+    }
+
+    private static void collect(Node node, StringTable strings, List<int[]> fields, List<Record> records) {
+        String key = getKey(node);
+        if (key == null) {
+            for (Node child : node.children) {
+                collect(child, strings, fields, records);
+            }
+            return;
+        }
+        int firstField = fields.size();
+        addFields(node, "", strings, fields);
+        int keyId = strings.intern(key);
+        records.add(new Record(keyId, strings.bytes.get(keyId), strings.intern(node.name),
+                strings.intern(getGroup(node.parent)), firstField, fields.size() - firstField));
+    }
+
+    private static String getKey(Node node) {
+        for (String[] attribute : node.attributes) {
+            if (KEY_NAMES.contains(attribute[0].toLowerCase(Locale.US))) {
+                String key = normalizeKey(attribute[1]);
+                if (!key.isEmpty()) {
+                    return key;
+                }
+            }
+        }
+        for (Node child : node.children) {
+            if (child.children.isEmpty() && child.attributes.isEmpty()
+                    && KEY_NAMES.contains(child.name.toLowerCase(Locale.US))) {
+                String key = normalizeKey(child.text.toString());
+                if (!key.isEmpty()) {
+                    return key;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getGroup(Node parent) {
+        for (String name : GROUP_ATTRIBUTES) {
+            for (String[] attribute : parent.attributes) {
+                if (name.equalsIgnoreCase(attribute[0]) && !attribute[1].trim().isEmpty()) {
+                    return attribute[1].trim();
+                }
+            }
+        }
+        return parent.name;
+    }
+
+    private static void addFields(Node node, String path, StringTable strings, List<int[]> fields) {
+        for (String[] attribute : node.attributes) {
+            fields.add(new int[] { strings.intern(path + "@" + attribute[0]), strings.intern(attribute[1]) });
+        }
+        String text = node.text.toString().trim();
+        if (!text.isEmpty()) {
+            fields.add(new int[] { strings.intern(path.isEmpty() ? "#text" : path), strings.intern(text) });
+        }
+        for (Node child : node.children) {
+            addFields(child, path.isEmpty() ? child.name : path + "/" + child.name, strings, fields);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.nostix;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mirrors the files of a download folder into a destination folder (balDownload).
+ * <p>
+ * The new content is built in {@code <destination>.staging} and swapped in with two
+ * renames once every file is in place, so the lib never sees a half-copied folder; a
+ * swap interrupted between the renames is rolled back on the next sync. Files are copied
+ * with {@link FileChannel#transferTo} on a small worker pool, or hard linked if the source
+ * folder is thrown away afterwards.
+ * <p>
+ * A manifest next to the destination ({@code <destination>.manifest}) records each
+ * file's size, modification times and SHA-256. A file whose size and hash match the
+ * manifest, and whose destination copy is unchanged since it was written, is hard linked
+ * into the staging folder instead of copied. The source is only hashed when its size
+ * matches and its modification time does not, so re-downloading the same files costs one
+ * read and no writes.
+ */
+public class DirectorySync {
+
+    private static final String TAG = "DirectorySync";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_WORKERS = 4;
+    private static final long AWAIT_SECONDS = 10;
+
+    public interface ProgressListener {
+        void onFile(String name, boolean isSkipped, int files, int totalFiles, long bytes, long totalBytes);
+    }
+
+    public static class Result {
+        public int files;
+        public int copied;
+        public int skipped;
+        public long bytesCopied;
+    }
+
+    private static class Entry {
+        final String name;
+        final long size;
+        final long sourceModified;
+        final long destinationModified;
+        final String hash;
+
+        Entry(String name, long size, long sourceModified, long destinationModified, String hash) {
+            this.name = name;
+            this.size = size;
+            this.sourceModified = sourceModified;
+            this.destinationModified = destinationModified;
+            this.hash = hash;
+        }
+    }
+
+    private final File destination;
+    private final File staging;
+    private final File previous;
+    private final File manifest;
+    private final boolean isLinkSources;
+
+    /**
+     * @param isLinkSources hard link changed files instead of copying them, for a source
+     *                      folder that is discarded after the sync
+     */
+    public DirectorySync(File destination, boolean isLinkSources) {
+        this.destination = destination;
+        this.isLinkSources = isLinkSources;
+        this.staging = new File(destination.getAbsolutePath() + ".staging");
+        this.previous = new File(destination.getAbsolutePath() + ".old");
+        this.manifest = new File(destination.getAbsolutePath() + ".manifest");
+    }
+
+    /**
+     * Replace the destination's content with the files directly under {@code source}.
+     * Blocking; the destination is left as it was if anything fails.
+     */
+    public synchronized Result sync(File source, final ProgressListener listener) throws IOException {
+        recover();
+        File[] children = source.listFiles();
+        if (children == null) {
+            throw new IOException("Unable to list " + source);
+        }
+        final List<File> files = new ArrayList<>();
+        long total = 0;
+        for (File child : children) {
+            if (child.isFile()) {
+                files.add(child);
+                total += child.length();
+            }
+        }
+        final long totalBytes = total;
+        final Map<String, Entry> known = destination.isDirectory() ? readManifest() : new HashMap<String, Entry>();
+
+        LogStore.deleteRecursive(staging);
+        if (!staging.mkdirs()) {
+            throw new IOException("Unable to create " + staging);
+        }
+
+        final Result result = new Result();
+        result.files = files.size();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong bytesCopied = new AtomicLong();
+        int workers = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        List<Future<Entry>> futures = new ArrayList<>();
+        boolean isSwapped = false;
+        try {
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<Entry>() {
+                    @Override
+                    public Entry call() throws IOException {
+                        byte[] buffer = new byte[BUFFER_SIZE];
+                        File target = new File(staging, file.getName());
+                        Entry entry = reuse(file, target, known.get(file.getName()), buffer);
+                        boolean isSkipped = entry != null;
+                        if (entry == null) {
+                            copy(file, target);
+                            if (!target.setLastModified(file.lastModified())) {
+                                Log.d(TAG, "sync: Unable to set time of " + target.getName());
+                            }
+                            entry = new Entry(file.getName(), file.length(), file.lastModified(),
+                                    target.lastModified(), hash(file, buffer));
+                            bytesCopied.addAndGet(file.length());
+                        } else {
+                            skipped.incrementAndGet();
+                        }
+                        long bytesDone = bytes.addAndGet(file.length());
+                        if (listener != null) {
+                            listener.onFile(file.getName(), isSkipped, done.incrementAndGet(), files.size(),
+                                    bytesDone, totalBytes);
+                        }
+                        return entry;
+                    }
+                }));
+            }
+            List<Entry> entries = new ArrayList<>();
+            for (Future<Entry> future : futures) {
+                entries.add(future.get());
+            }
+            swap(entries);
+            isSwapped = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(String.valueOf(cause));
+        } finally {
+            executor.shutdownNow();
+            if (!isSwapped) {
+                // Let running copies stop before removing what they write into
+                awaitQuietly(executor);
+                LogStore.deleteRecursive(staging);
+            }
+        }
+        result.skipped = skipped.get();
+        result.copied = result.files - result.skipped;
+        result.bytesCopied = bytesCopied.get();
+        return result;
+    }
+
+    /**
+     * Link the current copy of {@code file} into {@code target} if it has the same content.
+     *
+     * @return the file's manifest entry, or null if it must be copied
+     */
+    private Entry reuse(File file, File target, Entry entry, byte[] buffer) throws IOException {
+        if (entry == null || file.length() != entry.size) {
+            return null;
+        }
+        File current = new File(destination, entry.name);
+        if (current.length() != entry.size || current.lastModified() != entry.destinationModified) {
+            return null;
+        }
+        String hash = file.lastModified() == entry.sourceModified ? entry.hash : hash(file, buffer);
+        if (!hash.equals(entry.hash)) {
+            return null;
+        }
+        try {
+            Os.link(current.getAbsolutePath(), target.getAbsolutePath());
+        } catch (ErrnoException e) {
+            // File system without hard links, copy the unchanged file instead
+            transfer(current, target);
+            target.setLastModified(current.lastModified());
+        }
+        return new Entry(entry.name, entry.size, file.lastModified(), target.lastModified(), hash);
+    }
+
+    private static void awaitQuietly(ExecutorService executor) {
+        try {
+            executor.awaitTermination(AWAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void copy(File source, File target) throws IOException {
+        if (isLinkSources) {
+            try {
+                Os.link(source.getAbsolutePath(), target.getAbsolutePath());
+                return;
+            } catch (ErrnoException e) {
+                Log.d(TAG, "copy: " + e.getMessage());
+            }
+        }
+        transfer(source, target);
+    }
+
+    static void transfer(File source, File target) throws IOException {
+        try (FileChannel input = new FileInputStream(source).getChannel();
+                FileChannel output = new FileOutputStream(target).getChannel()) {
+            long size = input.size();
+            long position = 0;
+            while (position < size) {
+                position += input.transferTo(position, size - position, output);
+            }
+        }
+    }
+
+    static String hash(File file, byte[] buffer) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            while (channel.read(wrapped) != -1) {
+                digest.update(buffer, 0, wrapped.position());
+                wrapped.clear();
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest()) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    private void swap(List<Entry> entries) throws IOException {
+        // Without a manifest the next sync copies everything, so drop it until the swap is done
+        if (manifest.exists() && !manifest.delete()) {
+            throw new IOException("Unable to delete " + manifest);
+        }
+        LogStore.deleteRecursive(previous);
+        if (destination.exists() && !destination.renameTo(previous)) {
+            throw new IOException("Unable to move " + destination);
+        }
+        if (!staging.renameTo(destination)) {
+            previous.renameTo(destination);
+            throw new IOException("Unable to move " + staging);
+        }
+        LogStore.deleteRecursive(previous);
+        writeManifest(entries);
+    }
+
+    /**
+     * Finish a swap that stopped between its two renames.
+     */
+    private void recover() {
+        if (!destination.exists() && previous.exists() && !previous.renameTo(destination)) {
+            Log.d(TAG, "recover: Unable to restore " + previous);
+        }
+    }
+
+    private Map<String, Entry> readManifest() {
+        Map<String, Entry> entries = new HashMap<>();
+        if (!manifest.exists()) {
+            return entries;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(manifest))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length == 5) {
+                    entries.put(fields[0], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                            Long.parseLong(fields[3]), fields[4]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.d(TAG, "readManifest: " + e.getMessage());
+            entries.clear();
+        }
+        return entries;
+    }
+
+    private void writeManifest(List<Entry> entries) {
+        File partial = new File(manifest.getAbsolutePath() + ".part");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(partial))) {
+            for (Entry entry : entries) {
+                writer.write(entry.name + "\t" + entry.size + "\t" + entry.sourceModified + "\t"
+                        + entry.destinationModified + "\t" + entry.hash + "\n");
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "writeManifest: " + e.getMessage());
+            partial.delete();
+            return;
+        }
+        if (!partial.renameTo(manifest)) {
+            partial.delete();
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package com.nostix;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Serialises every call into the dongle lib on one consumer thread, so calls made at the
+ * same time from React threads, main-looper observers and watchdog timers reach the link
+ * one after the other.
+ * <p>
+ * Commands wait in three lanes; the consumer always takes the oldest command of the
+ * highest-priority lane, so an interactive read queued behind background work runs
+ * next. A running command is never interrupted: preemption only applies to commands
+ * that have not started. An urgent command (stop, stopFlashing) goes to the front and
+ * drops the queued commands of the lanes it makes pointless; their callers get a
+ * {@link CancellationException}.
+ * <p>
+ * Every command has its own deadline covering its wait and its run, or
+ * {@link #NO_DEADLINE}. A command still queued at its deadline is removed; the caller
+ * stops waiting for one still running and the consumer finishes it anyway. Either way
+ * the caller gets a {@link DeadlineExceededException}.
+ * <p>
+ * {@link #call} blocks the caller until the command is done. Main-thread observers and
+ * watchdog callbacks must not block, they {@link #enqueue} instead and get the outcome
+ * through a {@link Callback}; the deadlines of enqueued commands are kept by the shared
+ * {@link OperationWatchdog}.
+ */
+public class DongleCommandScheduler {
+
+    private static final String TAG = "DongleCommandScheduler";
+
+    public static final int LANE_INTERACTIVE = 0;
+    public static final int LANE_FLASHING = 1;
+    public static final int LANE_BACKGROUND = 2;
+    private static final String[] LANE_NAMES = { "interactive", "flashing", "background" };
+    public static final long NO_DEADLINE = 0;
+
+    private static final int STATE_QUEUED = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_DONE = 2;
+    private static final int STATE_DROPPED = 3;
+    private static final int STATE_EXPIRED = 4;
+
+    public static class DeadlineExceededException extends RuntimeException {
+        DeadlineExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Outcome of an enqueued command. Called on the consumer thread, the watchdog thread
+     * or the enqueuing thread; must return quickly.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+
+        /**
+         * @param e what the command threw, a {@link CancellationException} if it was
+         *          preempted or a {@link DeadlineExceededException}
+         */
+        void onError(Exception e);
+    }
+
+    private static final class Command {
+        final String name;
+        final int lane;
+        final Callable<?> callable;
+        final long submittedAt;
+        final long deadlineMillis;
+        final long deadlineAt;
+        // Null for a blocking call
+        final Callback<Object> callback;
+        OperationWatchdog.Deadline watchdogDeadline;
+        int state = STATE_QUEUED;
+        // The enqueuer got its DeadlineExceededException while the command ran
+        boolean isAbandoned;
+        Object result;
+        Exception error;
+
+        Command(String name, int lane, Callable<?> callable, long submittedAt, long deadlineMillis,
+                Callback<Object> callback) {
+            this.name = name;
+            this.lane = lane;
+            this.callable = callable;
+            this.submittedAt = submittedAt;
+            this.deadlineMillis = deadlineMillis;
+            this.deadlineAt = deadlineMillis > 0 ? submittedAt + deadlineMillis : Long.MAX_VALUE;
+            this.callback = callback;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Command>[] queues = new ArrayDeque[LANE_NAMES.length];
+    private final Thread consumer;
+    private Command running;
+    private long runningSince;
+    private boolean isShutdown;
+    // Enqueued commands dropped or expired under the lock; their callbacks run after it
+    private final ArrayList<Command> undelivered = new ArrayList<>();
+
+    // Per lane
+    private final long[] submitted = new long[LANE_NAMES.length];
+    private final long[] completed = new long[LANE_NAMES.length];
+    private final long[] expired = new long[LANE_NAMES.length];
+    private final long[] dropped = new long[LANE_NAMES.length];
+    private final long[] overran = new long[LANE_NAMES.length];
+    private final long[] started = new long[LANE_NAMES.length];
+    private final long[] totalWaitMillis = new long[LANE_NAMES.length];
+    private final long[] maxWaitMillis = new long[LANE_NAMES.length];
+    private final long[] totalRunMillis = new long[LANE_NAMES.length];
+
+    public DongleCommandScheduler(String name) {
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, name);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Run {@code callable} and wait for it.
+     *
+     * @param deadlineMillis the longest the caller waits, or {@link #NO_DEADLINE}
+     */
+    public <T> T call(int lane, String name, long deadlineMillis, Callable<T> callable) {
+        return submit(lane, name, deadlineMillis, -1, callable);
+    }
+
+    /**
+     * Run {@code callable} before everything queued, dropping the queued commands of
+     * {@code dropFromLane} and the lanes below it.
+     */
+    public <T> T callUrgent(String name, int dropFromLane, long deadlineMillis, Callable<T> callable) {
+        return submit(LANE_INTERACTIVE, name, deadlineMillis, dropFromLane, callable);
+    }
+
+    /**
+     * Queue {@code callable} without waiting for it; {@code callback} gets the outcome.
+     */
+    public <T> void enqueue(int lane, String name, long deadlineMillis, Callable<T> callable, Callback<T> callback) {
+        submitAsync(lane, name, deadlineMillis, -1, callable, callback);
+    }
+
+    /**
+     * {@link #callUrgent} without waiting for it.
+     */
+    public <T> void enqueueUrgent(String name, int dropFromLane, long deadlineMillis, Callable<T> callable,
+            Callback<T> callback) {
+        submitAsync(LANE_INTERACTIVE, name, deadlineMillis, dropFromLane, callable, callback);
+    }
+
+    /**
+     * Drop everything queued and let the consumer thread end after the running command.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            isShutdown = true;
+            dropQueued(LANE_INTERACTIVE);
+            notifyAll();
+        }
+        deliverUndelivered();
+    }
+
+    public synchronized WritableMap getStats() {
+        long now = SystemClock.elapsedRealtime();
+        WritableMap lanes = new WritableNativeMap();
+        for (int lane = 0; lane < LANE_NAMES.length; lane++) {
+            WritableMap stats = new WritableNativeMap();
+            stats.putInt("depth", queues[lane].size());
+            stats.putDouble("submitted", submitted[lane]);
+            stats.putDouble("completed", completed[lane]);
+            stats.putDouble("expired", expired[lane]);
+            stats.putDouble("dropped", dropped[lane]);
+            stats.putDouble("overran", overran[lane]);
+            stats.putDouble("averageWaitMillis", started[lane] == 0 ? 0 : (double) totalWaitMillis[lane] / started[lane]);
+            stats.putDouble("maxWaitMillis", maxWaitMillis[lane]);
+            stats.putDouble("averageRunMillis", completed[lane] == 0 ? 0 : (double) totalRunMillis[lane] / completed[lane]);
+            lanes.putMap(LANE_NAMES[lane], stats);
+        }
+        WritableMap stats = new WritableNativeMap();
+        stats.putMap("lanes", lanes);
+        if (running != null) {
+            stats.putString("running", running.name);
+            stats.putString("runningLane", LANE_NAMES[running.lane]);
+            stats.putDouble("runningMillis", now - runningSince);
+        } else {
+            stats.putNull("running");
+            stats.putNull("runningLane");
+            stats.putDouble("runningMillis", 0);
+        }
+        return stats;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T submit(int lane, String name, long deadlineMillis, int dropFromLane, Callable<T> callable) {
+        if (Thread.currentThread() == consumer) {
+            // A command calling into the API again; queueing it would wait on itself
+            try {
+                return callable.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        Command command = new Command(name, lane, callable, SystemClock.elapsedRealtime(), deadlineMillis, null);
+        synchronized (this) {
+            if (isShutdown) {
+                throw new IllegalStateException("Scheduler is shut down, " + name + " not run");
+            }
+            submitted[lane]++;
+            if (dropFromLane >= 0) {
+                dropQueued(dropFromLane);
+                queues[lane].addFirst(command);
+            } else {
+                queues[lane].addLast(command);
+            }
+            notifyAll();
+            try {
+                while (command.state == STATE_QUEUED || command.state == STATE_RUNNING) {
+                    long remaining = command.deadlineAt - SystemClock.elapsedRealtime();
+                    if (remaining <= 0) {
+                        onDeadline(command);
+                        break;
+                    }
+                    wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (command.state == STATE_QUEUED) {
+                    queues[lane].remove(command);
+                    command.state = STATE_DROPPED;
+                    dropped[lane]++;
+                }
+            }
+        }
+        switch (command.state) {
+            case STATE_DONE:
+                if (command.error instanceof RuntimeException) {
+                    throw (RuntimeException) command.error;
+                } else if (command.error != null) {
+                    throw new RuntimeException(command.error);
+                }
+                return (T) command.result;
+            case STATE_DROPPED:
+                throw new CancellationException(name + " was preempted");
+            default:
+                throw new DeadlineExceededException(name + " missed its " + deadlineMillis + " ms deadline");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void submitAsync(int lane, String name, long deadlineMillis, int dropFromLane, Callable<T> callable,
+            Callback<T> callback) {
+        final Command command = new Command(name, lane, callable, SystemClock.elapsedRealtime(), deadlineMillis,
+                (Callback<Object>) callback);
+        synchronized (this) {
+            if (isShutdown) {
+                command.state = STATE_DROPPED;
+                undelivered.add(command);
+            } else {
+                submitted[lane]++;
+                if (dropFromLane >= 0) {
+                    dropQueued(dropFromLane);
+                    queues[lane].addFirst(command);
+                } else {
+                    queues[lane].addLast(command);
+                }
+                if (deadlineMillis > 0) {
+                    command.watchdogDeadline = OperationWatchdog.getInstance()
+                            .newDeadline(new OperationWatchdog.ExpiryListener() {
+                                @Override
+                                public void onExpired(String type) {
+                                    onAsyncDeadline(command);
+                                }
+                            });
+                    OperationWatchdog.getInstance().arm(command.watchdogDeadline, deadlineMillis, name);
+                }
+                notifyAll();
+            }
+        }
+        deliverUndelivered();
+    }
+
+    private void onAsyncDeadline(Command command) {
+        synchronized (this) {
+            if (command.state == STATE_QUEUED) {
+                queues[command.lane].remove(command);
+                command.state = STATE_EXPIRED;
+                expired[command.lane]++;
+            } else if (command.state == STATE_RUNNING && !command.isAbandoned) {
+                // The consumer finishes it, the result is dropped
+                command.isAbandoned = true;
+                overran[command.lane]++;
+                Log.d(TAG, "onAsyncDeadline: " + command.name + " still running");
+            } else {
+                return;
+            }
+        }
+        deliver(command);
+    }
+
+    private void onDeadline(Command command) {
+        if (command.state == STATE_QUEUED) {
+            queues[command.lane].remove(command);
+            command.state = STATE_EXPIRED;
+            expired[command.lane]++;
+        } else {
+            // Still running; the consumer finishes it, nobody waits for the result
+            overran[command.lane]++;
+            Log.d(TAG, "onDeadline: " + command.name + " still running");
+        }
+    }
+
+    private void dropQueued(int fromLane) {
+        for (int lane = fromLane; lane < queues.length; lane++) {
+            for (Command queued : queues[lane]) {
+                queued.state = STATE_DROPPED;
+                dropped[lane]++;
+                if (queued.callback != null) {
+                    undelivered.add(queued);
+                }
+            }
+            queues[lane].clear();
+        }
+    }
+
+    private void deliverUndelivered() {
+        Command[] commands;
+        synchronized (this) {
+            if (undelivered.isEmpty()) {
+                return;
+            }
+            commands = undelivered.toArray(new Command[0]);
+            undelivered.clear();
+        }
+        for (Command command : commands) {
+            deliver(command);
+        }
+    }
+
+    /**
+     * Hand an enqueued command's outcome to its callback; called without the lock.
+     */
+    private void deliver(Command command) {
+        if (command.watchdogDeadline != null) {
+            OperationWatchdog.getInstance().cancel(command.watchdogDeadline);
+        }
+        try {
+            switch (command.state) {
+                case STATE_DROPPED:
+                    command.callback.onError(new CancellationException(command.name + " was preempted"));
+                    break;
+                case STATE_DONE:
+                    if (command.isAbandoned) {
+                        break;
+                    }
+                    if (command.error != null) {
+                        command.callback.onError(command.error);
+                    } else {
+                        command.callback.onResult(command.result);
+                    }
+                    break;
+                default:
+                    // Expired while queued, or abandoned while running
+                    command.callback.onError(new DeadlineExceededException(
+                            command.name + " missed its " + command.deadlineMillis + " ms deadline"));
+            }
+        } catch (Exception e) {
+            Log.d(TAG, "deliver " + command.name + ": " + e.getMessage());
+        }
+    }
+
+    private void consume() {
+        while (true) {
+            Command command;
+            synchronized (this) {
+                while ((command = next()) == null && undelivered.isEmpty()) {
+                    if (isShutdown) {
+                        return;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (command != null) {
+                    long now = SystemClock.elapsedRealtime();
+                    long waitMillis = now - command.submittedAt;
+                    started[command.lane]++;
+                    totalWaitMillis[command.lane] += waitMillis;
+                    maxWaitMillis[command.lane] = Math.max(maxWaitMillis[command.lane], waitMillis);
+                    command.state = STATE_RUNNING;
+                    running = command;
+                    runningSince = now;
+                }
+            }
+            deliverUndelivered();
+            if (command == null) {
+                continue;
+            }
+            Object result = invoke(command);
+            synchronized (this) {
+                command.result = result;
+                command.state = STATE_DONE;
+                completed[command.lane]++;
+                totalRunMillis[command.lane] += SystemClock.elapsedRealtime() - runningSince;
+                running = null;
+                notifyAll();
+            }
+            if (command.callback != null) {
+                deliver(command);
+            }
+        }
+    }
+
+    /**
+     * @return the next command to run, highest-priority lane first; skips expired ones
+     */
+    private Command next() {
+        long now = SystemClock.elapsedRealtime();
+        for (ArrayDeque<Command> queue : queues) {
+            Command command;
+            while ((command = queue.pollFirst()) != null) {
+                if (command.deadlineAt > now) {
+                    return command;
+                }
+                command.state = STATE_EXPIRED;
+                expired[command.lane]++;
+                if (command.callback != null) {
+                    undelivered.add(command);
+                }
+                notifyAll();
+            }
+        }
+        return null;
+    }
+
+    private static Object invoke(Command command) {
+        try {
+            return command.callable.call();
+        } catch (Exception e) {
+            Log.d(TAG, "invoke " + command.name + ": " + e.getMessage());
+            command.error = e;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.nostix;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.bal.balnostix.base.utils.BtDongleVersionInfo;
+import com.bal.balnostix.base.utils.Utils;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide owner of the dongle connections, keyed by session id. A session holds
+ * the transport, the {@link BALBTDongleApiImpl} driving it (with its own transport
+ * threads, command scheduler and the ECU records it parsed) and the
+ * {@link EcuRecordSerializer} snapshot of those records.
+ * <p>
+ * The native modules are recreated with every JS bundle reload, the sessions are not. A
+ * module attaches as the {@link Client} when it is created and gets the active
+ * session's connection straight away, so JS can ask getDongleSession instead of
+ * reconnecting. There is one client at a time: attaching releases the previous one,
+ * which detaches the observers it registered, so a reload can never leave a second set
+ * of observers sending duplicate events.
+ * <p>
+ * Several sessions can be open, one per vehicle, but the client drives only the active
+ * one; the others stay connected without being observed. The sessions are not driven
+ * concurrently: the lib keeps part of each dongle's state in process-wide statics (the
+ * phase 3 flag and the version info read at connect) that its calls read, so selecting a
+ * session saves those for the session left and restores them for the one selected.
+ */
+public class DongleSession {
+
+    private static final String TAG = "DongleSession";
+
+    public static final String DEFAULT_SESSION_ID = "default";
+    public static final String TRANSPORT_BLUETOOTH = "Bluetooth";
+    public static final String TRANSPORT_USB = "USB";
+
+    // Guarded by DongleSession.class
+    private static final Map<String, DongleSession> sessions = new LinkedHashMap<>();
+    private static String activeId = DEFAULT_SESSION_ID;
+    private static Client client;
+    private static int clientCount;
+
+    public interface Client {
+        /**
+         * The active session's connection was opened or closed ({@code dongleLib} is null).
+         */
+        void onDongleLibChanged(BALBTDongleApiImpl dongleLib);
+
+        /**
+         * A newer client attached; stop observing the lib and drop its timers.
+         */
+        void onReleased();
+    }
+
+    private final String id;
+    private final EcuRecordSerializer ecuRecordSerializer = new EcuRecordSerializer();
+    private BALBTDongleApiImpl dongleLib;
+    // Closed when the connection is replaced; null if the transport is owned elsewhere (USB)
+    private Closeable transport;
+    private String transportName;
+    private String deviceName;
+    private long openedAt;
+    private int generation;
+    // The lib's statics for this dongle while another session is active; null until saved
+    private Object[] libGlobals;
+
+    private DongleSession(String id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the active session
+     */
+    public static synchronized DongleSession getInstance() {
+        return get(activeId);
+    }
+
+    public static synchronized DongleSession get(String sessionId) {
+        String key = toId(sessionId);
+        DongleSession session = sessions.get(key);
+        if (session == null) {
+            session = new DongleSession(key);
+            sessions.put(key, session);
+        }
+        return session;
+    }
+
+    public static synchronized String getActiveId() {
+        return activeId;
+    }
+
+    /**
+     * @return the id {@code sessionId} stands for; null and "" stand for the default session
+     */
+    public static String toId(String sessionId) {
+        return sessionId == null || sessionId.isEmpty() ? DEFAULT_SESSION_ID : sessionId;
+    }
+
+    /**
+     * Make {@code sessionId} the active session, creating it if needed. The caller
+     * releases what it observed on the previous session first.
+     */
+    public static DongleSession select(String sessionId) {
+        DongleSession previous;
+        DongleSession selected;
+        synchronized (DongleSession.class) {
+            previous = get(activeId);
+            selected = get(sessionId);
+            activeId = selected.id;
+        }
+        if (previous != selected) {
+            previous.saveLibGlobals();
+            selected.restoreLibGlobals();
+        }
+        return selected;
+    }
+
+    /**
+     * Make {@code newClient} the client, releasing the previous one.
+     *
+     * @return the active session's lib, or null
+     */
+    public static BALBTDongleApiImpl attach(Client newClient) {
+        Client previous;
+        DongleSession active;
+        synchronized (DongleSession.class) {
+            previous = client;
+            client = newClient;
+            clientCount++;
+            active = get(activeId);
+        }
+        if (previous != null && previous != newClient) {
+            try {
+                previous.onReleased();
+            } catch (Exception e) {
+                Log.d(TAG, "attach: " + e.getMessage());
+            }
+        }
+        return active.getDongleLib();
+    }
+
+    /**
+     * Detach {@code oldClient} if it is still the client; the connections stay open.
+     */
+    public static synchronized void detach(Client oldClient) {
+        if (client == oldClient) {
+            client = null;
+        }
+    }
+
+    /**
+     * Close {@code sessionId}'s connection and forget the session. The active session is
+     * only closed, the client keeps driving it.
+     */
+    public static void remove(String sessionId) {
+        DongleSession session;
+        synchronized (DongleSession.class) {
+            String key = toId(sessionId);
+            session = sessions.get(key);
+            if (session == null) {
+                return;
+            }
+            if (!key.equals(activeId)) {
+                sessions.remove(key);
+            }
+        }
+        session.close();
+    }
+
+    /**
+     * @return {@link #getInfo()} of every session, in the order they were created
+     */
+    public static WritableArray listInfo() {
+        List<DongleSession> all;
+        synchronized (DongleSession.class) {
+            all = new ArrayList<>(sessions.values());
+        }
+        WritableArray list = new WritableNativeArray();
+        for (DongleSession session : all) {
+            list.pushMap(session.getInfo());
+        }
+        return list;
+    }
+
+    /**
+     * Replace the connection with {@code newDongleLib}, stopping the previous lib and
+     * closing its transport.
+     *
+     * @param newTransport closed when the connection is replaced, may be null
+     */
+    public BALBTDongleApiImpl open(BALBTDongleApiImpl newDongleLib, String newTransportName, String newDeviceName,
+            Closeable newTransport) {
+        BALBTDongleApiImpl previousLib;
+        Closeable previousTransport;
+        synchronized (this) {
+            previousLib = dongleLib;
+            previousTransport = transport;
+            dongleLib = newDongleLib;
+            transport = newTransport;
+            transportName = newTransportName;
+            deviceName = newDeviceName;
+            openedAt = SystemClock.elapsedRealtime();
+            generation++;
+            libGlobals = null;
+        }
+        shutDown(previousLib, previousTransport);
+        notifyClient(newDongleLib);
+        return newDongleLib;
+    }
+
+    public void close() {
+        BALBTDongleApiImpl previousLib;
+        Closeable previousTransport;
+        synchronized (this) {
+            if (dongleLib == null && transport == null) {
+                return;
+            }
+            previousLib = dongleLib;
+            previousTransport = transport;
+            dongleLib = null;
+            transport = null;
+            transportName = null;
+            deviceName = null;
+            libGlobals = null;
+        }
+        shutDown(previousLib, previousTransport);
+        notifyClient(null);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public synchronized BALBTDongleApiImpl getDongleLib() {
+        return dongleLib;
+    }
+
+    public EcuRecordSerializer getEcuRecordSerializer() {
+        return ecuRecordSerializer;
+    }
+
+    /**
+     * @return {@code {sessionId, active, open, transport, deviceName, connected, openMillis,
+     *         generation, clients}}; generation counts the connections opened in this session,
+     *         clients the modules that attached (one more per JS reload)
+     */
+    public WritableMap getInfo() {
+        boolean isActive;
+        int clients;
+        synchronized (DongleSession.class) {
+            isActive = id.equals(activeId);
+            clients = clientCount;
+        }
+        BALBTDongleApiImpl current;
+        WritableMap info = new WritableNativeMap();
+        info.putString("sessionId", id);
+        info.putBoolean("active", isActive);
+        synchronized (this) {
+            current = dongleLib;
+            info.putBoolean("open", dongleLib != null);
+            info.putString("transport", transportName);
+            info.putString("deviceName", deviceName);
+            info.putDouble("openMillis", dongleLib != null ? SystemClock.elapsedRealtime() - openedAt : 0);
+            info.putInt("generation", generation);
+        }
+        info.putInt("clients", clients);
+        boolean isConnected = false;
+        try {
+            isConnected = current != null && current.isConnected();
+        } catch (Exception e) {
+            Log.d(TAG, "getInfo: " + e.getMessage());
+        }
+        info.putBoolean("connected", isConnected);
+        return info;
+    }
+
+    private synchronized void saveLibGlobals() {
+        if (dongleLib == null) {
+            return;
+        }
+        libGlobals = new Object[] {
+                Utils.getInstance().isDonglePhase3,
+                BtDongleVersionInfo.BTAppVersion,
+                BtDongleVersionInfo.BTOsVersion,
+                BtDongleVersionInfo.BTBootLoaderVersion,
+                BtDongleVersionInfo.BTSoftwarePartNo,
+                BtDongleVersionInfo.BTAssemblyPartNumber,
+                BtDongleVersionInfo.BTBootPartNumberAndRevision,
+                BtDongleVersionInfo.BTHardwareSerialNumber,
+                BtDongleVersionInfo.isSmallerVersion,
+                BtDongleVersionInfo.isCorrectBootLoader,
+                BtDongleVersionInfo.VersionInfoResponse,
+        };
+    }
+
+    private synchronized void restoreLibGlobals() {
+        // A session connected while it was active already wrote its own values
+        if (libGlobals == null) {
+            return;
+        }
+        Utils.getInstance().setIsDonglePhase3((Boolean) libGlobals[0]);
+        BtDongleVersionInfo.BTAppVersion = (String) libGlobals[1];
+        BtDongleVersionInfo.BTOsVersion = (String) libGlobals[2];
+        BtDongleVersionInfo.BTBootLoaderVersion = (String) libGlobals[3];
+        BtDongleVersionInfo.BTSoftwarePartNo = (String) libGlobals[4];
+        BtDongleVersionInfo.BTAssemblyPartNumber = (String) libGlobals[5];
+        BtDongleVersionInfo.BTBootPartNumberAndRevision = (String) libGlobals[6];
+        BtDongleVersionInfo.BTHardwareSerialNumber = (String) libGlobals[7];
+        BtDongleVersionInfo.isSmallerVersion = (Boolean) libGlobals[8];
+        BtDongleVersionInfo.isCorrectBootLoader = (Boolean) libGlobals[9];
+        BtDongleVersionInfo.VersionInfoResponse = (String) libGlobals[10];
+    }
+
+    private void notifyClient(BALBTDongleApiImpl newDongleLib) {
+        Client current;
+        synchronized (DongleSession.class) {
+            if (!id.equals(activeId)) {
+                return;
+            }
+            current = client;
+        }
+        if (current == null) {
+            return;
+        }
+        try {
+            current.onDongleLibChanged(newDongleLib);
+        } catch (Exception e) {
+            Log.d(TAG, "notifyClient: " + e.getMessage());
+        }
+    }
+
+    private static void shutDown(BALBTDongleApiImpl previousLib, Closeable previousTransport) {
+        if (previousLib != null) {
+            try {
+                previousLib.stop();
+            } catch (Exception e) {
+                Log.d(TAG, "shutDown: " + e.getMessage());
+            }
+        }
+        if (previousTransport != null) {
+            try {
+                previousTransport.close();
+            } catch (IOException e) {
+                Log.d(TAG, "shutDown: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.nostix;
+
+import com.bal.balnostix.base.ErrorCodeModel;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns successive DTC lists from scanDtcErrorCode into added/changed/removed entries,
+ * per ECU. Description and remedy text is only sent the first time a code is seen for
+ * that ECU in the session; the JS side keeps it until the session is reset.
+ */
+public class DtcListDiffer {
+
+    private static class EcuState {
+        // code -> last sent {name, status}
+        final Map<String, String[]> current = new LinkedHashMap<>();
+        final Set<String> describedCodes = new HashSet<>();
+        boolean isReset = true;
+    }
+
+    private final Map<Integer, EcuState> states = new HashMap<>();
+
+    public synchronized void reset(int ecuPos) {
+        states.remove(ecuPos);
+    }
+
+    public synchronized void resetAll() {
+        states.clear();
+    }
+
+    /**
+     * @param errorCodeModels a snapshot of the list; only read, never kept
+     * @param dictionary      the ECU's DTC dictionary, consulted for description and remedy
+     *                        text the lib left empty; may be null
+     */
+    public synchronized WritableMap diff(int ecuPos, List<ErrorCodeModel> errorCodeModels, EcuDictionary dictionary) {
+        EcuState state = states.get(ecuPos);
+        if (state == null) {
+            state = new EcuState();
+            states.put(ecuPos, state);
+        }
+        WritableArray added = new WritableNativeArray();
+        WritableArray changed = new WritableNativeArray();
+        WritableArray removed = new WritableNativeArray();
+
+        Set<String> seen = new HashSet<>();
+        for (ErrorCodeModel errorCode : errorCodeModels) {
+            String code = errorCode.getCode();
+            // First occurrence of a code wins, as the screen used to de-duplicate by code
+            if (code == null || !seen.add(code)) {
+                continue;
+            }
+            String name = errorCode.getFaultName();
+            String status = errorCode.getStatus();
+            String[] previous = state.current.get(code);
+            if (previous == null) {
+                WritableMap errorCodeMap = new WritableNativeMap();
+                errorCodeMap.putString("name", name);
+                errorCodeMap.putString("text", code);
+                errorCodeMap.putString("status", status);
+                if (state.describedCodes.add(code)) {
+                    errorCodeMap.putString("description", getText(errorCode.getDesc(), dictionary, code, "desc"));
+                    errorCodeMap.putString("remedy", getText(errorCode.getDtcRemedy(), dictionary, code, "remed"));
+                }
+                added.pushMap(errorCodeMap);
+                state.current.put(code, new String[] { name, status });
+            } else if (!equalsNullable(previous[0], name) || !equalsNullable(previous[1], status)) {
+                WritableMap errorCodeMap = new WritableNativeMap();
+                errorCodeMap.putString("name", name);
+                errorCodeMap.putString("text", code);
+                errorCodeMap.putString("status", status);
+                changed.pushMap(errorCodeMap);
+                previous[0] = name;
+                previous[1] = status;
+            }
+        }
+        Iterator<String> iterator = state.current.keySet().iterator();
+        while (iterator.hasNext()) {
+            String code = iterator.next();
+            if (!seen.contains(code)) {
+                removed.pushString(code);
+                iterator.remove();
+            }
+        }
+
+        WritableMap diff = new WritableNativeMap();
+        diff.putInt("ecuPos", ecuPos);
+        diff.putBoolean("reset", state.isReset);
+        diff.putArray("added", added);
+        diff.putArray("changed", changed);
+        diff.putArray("removed", removed);
+        state.isReset = false;
+        return diff;
+    }
+
+    private static String getText(String text, EcuDictionary dictionary, String code, String hint) {
+        if ((text != null && !text.isEmpty()) || dictionary == null) {
+            return text;
+        }
+        String fromDictionary = dictionary.findText(code, hint);
+        return fromDictionary != null ? fromDictionary : text;
+    }
+
+    private static boolean equalsNullable(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,261 @@
+package com.nostix;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+
+import com.bal.balnostix.base.ECURecord;
+import com.bal.balnostix.base.ErrorCodeModel;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+/**
+ * Scans the DTCs of several ECUs in one call (scanAllDtcs).
+ * <p>
+ * The dongle link carries one request at a time, so ECUs are still scanned one after
+ * the other, but the next scan is started from the previous one's result callback
+ * instead of waiting for JS to ask for it. Scans are queued on the lib's command thread,
+ * the callbacks they start from never wait for it. Each ECU's result is reported as soon as it
+ * arrives, as a {@link DtcListDiffer} diff so it applies to the same JS session as a
+ * single-ECU scan; an ECU that does not answer within the timeout is reported and
+ * skipped. A summary with the aggregated counts ends every sweep, including a cancelled
+ * one. Starting a sweep cancels the one in progress.
+ */
+public class DtcSweep {
+
+    private static final String TAG = "DtcSweep";
+
+    public static final String OPERATION = "dtcSweep";
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    public interface Listener {
+        void onEcuScanned(WritableMap result);
+
+        void onFinished(WritableMap summary);
+    }
+
+    private static class Scan {
+        final ECURecord ecuRecord;
+        final LiveData<ArrayList<ErrorCodeModel>> liveData;
+
+        Scan(ECURecord ecuRecord, LiveData<ArrayList<ErrorCodeModel>> liveData) {
+            this.ecuRecord = ecuRecord;
+            this.liveData = liveData;
+        }
+    }
+
+    private final SubscriptionManager subscriptions;
+    private final DtcListDiffer dtcListDiffer;
+    private final File dataDir;
+    private final Listener listener;
+    private final OperationWatchdog.Deadline deadline = OperationWatchdog.getInstance()
+            .newDeadline(new OperationWatchdog.ExpiryListener() {
+                @Override
+                public void onExpired(String type) {
+                    onTimeout();
+                }
+            });
+
+    private BALBTDongleApiImpl balDongleLib;
+    private int[] positions;
+    private int index;
+    private long timeoutMillis;
+    private boolean isRunning;
+    // Bumped for every ECU scanned, so a late result of a finished scan is ignored
+    private int scanToken;
+    private int currentPos;
+    private String currentEcuName;
+    private EcuDictionary currentDictionary;
+    private long startTime;
+    private int scanned;
+    private int failed;
+    private int timedOut;
+    private int totalCodes;
+    private int ecusWithCodes;
+
+    public DtcSweep(SubscriptionManager subscriptions, DtcListDiffer dtcListDiffer, File dataDir, Listener listener) {
+        this.subscriptions = subscriptions;
+        this.dtcListDiffer = dtcListDiffer;
+        this.dataDir = dataDir;
+        this.listener = listener;
+    }
+
+    public synchronized void start(BALBTDongleApiImpl balDongleLib, int[] positions, long timeoutMillis) {
+        if (isRunning) {
+            finish(true);
+        }
+        this.balDongleLib = balDongleLib;
+        this.positions = positions;
+        this.timeoutMillis = timeoutMillis;
+        index = 0;
+        scanned = 0;
+        failed = 0;
+        timedOut = 0;
+        totalCodes = 0;
+        ecusWithCodes = 0;
+        startTime = SystemClock.elapsedRealtime();
+        isRunning = true;
+        scanNext();
+    }
+
+    public synchronized void cancel() {
+        if (isRunning) {
+            finish(true);
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return isRunning;
+    }
+
+    private void scanNext() {
+        if (index >= positions.length) {
+            finish(false);
+            return;
+        }
+        final int pos = positions[index];
+        final int token = ++scanToken;
+        final BALBTDongleApiImpl lib = balDongleLib;
+        currentPos = pos;
+        currentEcuName = null;
+        currentDictionary = null;
+        // Covers the wait for the command thread as well as the scan
+        OperationWatchdog.getInstance().arm(deadline, timeoutMillis, OPERATION);
+        lib.runAsync(OPERATION, timeoutMillis, new Callable<Scan>() {
+            @Override
+            public Scan call() {
+                ECURecord ecuRecord = lib.getEcuRecord(pos);
+                LiveData<ArrayList<ErrorCodeModel>> liveData = lib.scanDtcErrorCode(ecuRecord);
+                if (liveData == null) {
+                    throw new NullPointerException("scanDtcErrorCode method is throwing null");
+                }
+                return new Scan(ecuRecord, liveData);
+            }
+        }, new DongleCommandScheduler.Callback<Scan>() {
+            @Override
+            public void onResult(Scan scan) {
+                onScanStarted(token, scan);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                onScanFailed(token, e);
+            }
+        });
+    }
+
+    private synchronized void onScanStarted(final int token, Scan scan) {
+        if (!isRunning || token != scanToken) {
+            return;
+        }
+        currentEcuName = scan.ecuRecord.getCuName();
+        currentDictionary = openDictionary(scan.ecuRecord);
+        subscriptions.attach(OPERATION, currentPos, scan.liveData, new Observer<ArrayList<ErrorCodeModel>>() {
+            @Override
+            public void onChanged(ArrayList<ErrorCodeModel> errorCodeModels) {
+                onResult(token, errorCodeModels);
+            }
+        });
+    }
+
+    private synchronized void onScanFailed(int token, Exception e) {
+        if (!isRunning || token != scanToken) {
+            return;
+        }
+        Log.d(TAG, "scanNext: " + e.getMessage());
+        OperationWatchdog.getInstance().cancel(deadline);
+        scanToken++;
+        index++;
+        if (e instanceof DongleCommandScheduler.DeadlineExceededException) {
+            timedOut++;
+            listener.onEcuScanned(newResult(currentPos, null, "timeout"));
+        } else {
+            failed++;
+            listener.onEcuScanned(newResult(currentPos, null, "error"));
+        }
+        scanNext();
+    }
+
+    private synchronized void onResult(int token, ArrayList<ErrorCodeModel> errorCodeModels) {
+        if (!isRunning || token != scanToken) {
+            return;
+        }
+        OperationWatchdog.getInstance().cancel(deadline);
+        subscriptions.detach(OPERATION);
+        index++;
+        WritableMap result;
+        if (errorCodeModels == null) {
+            failed++;
+            result = newResult(currentPos, currentEcuName, "error");
+        } else {
+            // Copy, the lib may keep filling its list
+            ArrayList<ErrorCodeModel> snapshot = new ArrayList<>(errorCodeModels);
+            scanned++;
+            totalCodes += snapshot.size();
+            if (!snapshot.isEmpty()) {
+                ecusWithCodes++;
+            }
+            result = newResult(currentPos, currentEcuName, "ok");
+            result.putInt("count", snapshot.size());
+            result.putMap("diff", dtcListDiffer.diff(currentPos, snapshot, currentDictionary));
+        }
+        listener.onEcuScanned(result);
+        scanNext();
+    }
+
+    private synchronized void onTimeout() {
+        if (!isRunning) {
+            return;
+        }
+        // Ignore whatever the timed out scan still delivers
+        scanToken++;
+        subscriptions.detach(OPERATION);
+        index++;
+        timedOut++;
+        listener.onEcuScanned(newResult(currentPos, currentEcuName, "timeout"));
+        scanNext();
+    }
+
+    private void finish(boolean isCancelled) {
+        OperationWatchdog.getInstance().cancel(deadline);
+        subscriptions.detach(OPERATION);
+        scanToken++;
+        isRunning = false;
+        WritableMap summary = new WritableNativeMap();
+        summary.putInt("requested", positions.length);
+        summary.putInt("scanned", scanned);
+        summary.putInt("failed", failed);
+        summary.putInt("timedOut", timedOut);
+        summary.putInt("totalCodes", totalCodes);
+        summary.putInt("ecusWithCodes", ecusWithCodes);
+        summary.putBoolean("cancelled", isCancelled);
+        summary.putDouble("durationMillis", SystemClock.elapsedRealtime() - startTime);
+        listener.onFinished(summary);
+    }
+
+    private WritableMap newResult(int pos, String ecuName, String status) {
+        WritableMap result = new WritableNativeMap();
+        result.putInt("ecuPos", pos);
+        result.putString("ecuName", ecuName);
+        result.putString("status", status);
+        result.putInt("completed", index);
+        result.putInt("total", positions.length);
+        return result;
+    }
+
+    private EcuDictionary openDictionary(ECURecord ecuRecord) {
+        try {
+            return EcuDictionary.forEcu(dataDir, ecuRecord, "dtcs");
+        } catch (IOException e) {
+            Log.d(TAG, "openDictionary: " + e.getMessage());
+            return null;
+        }
+    }
+}
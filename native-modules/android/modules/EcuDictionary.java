@@ -0,0 +1,264 @@
+package com.nostix;
+
+import com.bal.balnostix.base.ECURecord;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Read-only, memory mapped view of a dictionary written by {@link DictionaryCompiler}.
+ * <p>
+ * Layout, big-endian:
+ * <pre>
+ * int magic, int version, long xml size, long xml modification time,
+ * int stringCount, int recordCount, int fieldCount
+ * int[stringCount + 1]   string offsets into the string data
+ * byte[]                 string data, UTF-8
+ * int[recordCount * 5]   key, element, group, first field, field count; sorted by key bytes
+ * int[fieldCount * 2]    name, value
+ * </pre>
+ * Keys, element names, groups and fields are indexes into the string table. A lookup is
+ * a binary search comparing the key's bytes with the mapped string data; strings are only
+ * decoded for what is returned.
+ */
+public class EcuDictionary {
+
+    static final int MAGIC = 0x42414C44;
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 36;
+    private static final int RECORD_INTS = 5;
+
+    // Keyed by path; reopened when the file is replaced
+    private static final Map<String, EcuDictionary> opened = new HashMap<>();
+
+    private final ByteBuffer buffer;
+    private final long fileLength;
+    private final long fileModified;
+    private final int stringCount;
+    private final int recordCount;
+    private final int offsetsPosition;
+    private final int stringsPosition;
+    private final int recordsPosition;
+    private final int fieldsPosition;
+
+    private EcuDictionary(ByteBuffer buffer, long fileLength, long fileModified) throws IOException {
+        this.buffer = buffer;
+        this.fileLength = fileLength;
+        this.fileModified = fileModified;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a dictionary");
+        }
+        stringCount = buffer.getInt(24);
+        recordCount = buffer.getInt(28);
+        int fieldCount = buffer.getInt(32);
+        offsetsPosition = HEADER_BYTES;
+        stringsPosition = offsetsPosition + 4 * (stringCount + 1);
+        if (stringCount < 0 || recordCount < 0 || fieldCount < 0 || stringsPosition > buffer.capacity()) {
+            throw new IOException("Corrupt dictionary");
+        }
+        recordsPosition = stringsPosition + buffer.getInt(stringsPosition - 4);
+        fieldsPosition = recordsPosition + 4 * RECORD_INTS * recordCount;
+        if ((long) fieldsPosition + 8L * fieldCount != buffer.capacity()) {
+            throw new IOException("Corrupt dictionary");
+        }
+    }
+
+    /**
+     * Map {@code file}, or return the instance already mapped if the file is unchanged.
+     */
+    public static synchronized EcuDictionary open(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        EcuDictionary dictionary = opened.get(path);
+        if (dictionary != null && dictionary.fileLength == file.length()
+                && dictionary.fileModified == file.lastModified()) {
+            return dictionary;
+        }
+        try (FileInputStream input = new FileInputStream(file)) {
+            FileChannel channel = input.getChannel();
+            // The mapping stays valid after the channel is closed
+            dictionary = new EcuDictionary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                    file.length(), file.lastModified());
+        }
+        opened.put(path, dictionary);
+        return dictionary;
+    }
+
+    /**
+     * @param kind "dids" or "dtcs"
+     * @return the ECU's compiled dictionary, or null if it has not been compiled
+     */
+    public static EcuDictionary forEcu(File dataDir, ECURecord ecuRecord, String kind) throws IOException {
+        String link = "dtcs".equals(kind) ? ecuRecord.getDtcsXmlLink() : ecuRecord.getDidsXmlLink();
+        if (link == null || link.isEmpty()) {
+            return null;
+        }
+        File file = DictionaryCompiler.getDictionaryFile(dataDir, link);
+        return file.isFile() ? open(file) : null;
+    }
+
+    /**
+     * @return every record with {@code key}, in document order
+     */
+    public WritableArray lookup(String key) {
+        byte[] keyBytes = DictionaryCompiler.normalizeKey(key).getBytes(StandardCharsets.UTF_8);
+        WritableArray result = new WritableNativeArray();
+        for (int record = findFirst(keyBytes); record < recordCount
+                && compareString(recordInt(record, 0), keyBytes) == 0; record++) {
+            result.pushMap(toMap(record));
+        }
+        return result;
+    }
+
+    /**
+     * @return the value of the first field of {@code key}'s first record whose name
+     *         contains {@code hint} (ignoring case), or null
+     */
+    public String findText(String key, String hint) {
+        byte[] keyBytes = DictionaryCompiler.normalizeKey(key).getBytes(StandardCharsets.UTF_8);
+        int record = findFirst(keyBytes);
+        if (record >= recordCount || compareString(recordInt(record, 0), keyBytes) != 0) {
+            return null;
+        }
+        String lowerHint = hint.toLowerCase(Locale.US);
+        int firstField = recordInt(record, 3);
+        int fieldCount = recordInt(record, 4);
+        for (int field = firstField; field < firstField + fieldCount; field++) {
+            if (getString(fieldInt(field, 0)).toLowerCase(Locale.US).contains(lowerHint)) {
+                return getString(fieldInt(field, 1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return {@code {name, count}} per group, in the order groups first appear in the XML
+     */
+    public WritableArray getGroups() {
+        // String ids are assigned in document order
+        TreeMap<Integer, Integer> counts = new TreeMap<>();
+        for (int record = 0; record < recordCount; record++) {
+            int group = recordInt(record, 2);
+            Integer count = counts.get(group);
+            counts.put(group, count == null ? 1 : count + 1);
+        }
+        WritableArray groups = new WritableNativeArray();
+        for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+            WritableMap group = new WritableNativeMap();
+            group.putString("name", getString(entry.getKey()));
+            group.putInt("count", entry.getValue());
+            groups.pushMap(group);
+        }
+        return groups;
+    }
+
+    /**
+     * @return the records of {@code group}, sorted by key
+     */
+    public WritableArray listGroup(String group) {
+        WritableArray result = new WritableNativeArray();
+        byte[] groupBytes = group.getBytes(StandardCharsets.UTF_8);
+        int groupId = -1;
+        for (int id = 0; id < stringCount; id++) {
+            if (compareString(id, groupBytes) == 0) {
+                groupId = id;
+                break;
+            }
+        }
+        if (groupId < 0) {
+            return result;
+        }
+        for (int record = 0; record < recordCount; record++) {
+            if (recordInt(record, 2) == groupId) {
+                result.pushMap(toMap(record));
+            }
+        }
+        return result;
+    }
+
+    private int findFirst(byte[] keyBytes) {
+        int low = 0;
+        int high = recordCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareString(recordInt(middle, 0), keyBytes) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private WritableMap toMap(int record) {
+        WritableMap map = new WritableNativeMap();
+        map.putString("key", getString(recordInt(record, 0)));
+        map.putString("element", getString(recordInt(record, 1)));
+        map.putString("group", getString(recordInt(record, 2)));
+        WritableArray fields = new WritableNativeArray();
+        int firstField = recordInt(record, 3);
+        int fieldCount = recordInt(record, 4);
+        for (int field = firstField; field < firstField + fieldCount; field++) {
+            WritableMap fieldMap = new WritableNativeMap();
+            fieldMap.putString("name", getString(fieldInt(field, 0)));
+            fieldMap.putString("value", getString(fieldInt(field, 1)));
+            fields.pushMap(fieldMap);
+        }
+        map.putArray("fields", fields);
+        return map;
+    }
+
+    private int recordInt(int record, int index) {
+        return buffer.getInt(recordsPosition + 4 * (RECORD_INTS * record + index));
+    }
+
+    private int fieldInt(int field, int index) {
+        return buffer.getInt(fieldsPosition + 4 * (2 * field + index));
+    }
+
+    private String getString(int id) {
+        int start = buffer.getInt(offsetsPosition + 4 * id);
+        int end = buffer.getInt(offsetsPosition + 4 * (id + 1));
+        byte[] bytes = new byte[end - start];
+        // Read through a duplicate so concurrent lookups do not share a position
+        ByteBuffer view = buffer.duplicate();
+        view.position(stringsPosition + start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int compareString(int id, byte[] other) {
+        int start = stringsPosition + buffer.getInt(offsetsPosition + 4 * id);
+        int length = buffer.getInt(offsetsPosition + 4 * (id + 1)) - buffer.getInt(offsetsPosition + 4 * id);
+        int common = Math.min(length, other.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(start + i) & 0xFF) - (other[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - other.length;
+    }
+
+    static int compareBytes(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+}
@@ -0,0 +1,184 @@
+package com.nostix;
+
+import android.util.Log;
+
+import com.bal.balnostix.base.ECURecord;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memoizes lib calls whose result only depends on an ECU's DID/DTC XML files (DID
+ * groups, actuator routines), so revisiting a screen does not parse the XML again.
+ * <p>
+ * An entry is keyed by the call, the ECU and the identity (path, size, modification
+ * time) of both XML files, and is dropped when {@link #invalidateAll} is called after
+ * copyFilesToLocation replaces the downloaded files. The lib's models (Routine and the
+ * SubSequence/DataIdentifier objects under it) are mutable and get modified by callers
+ * and by the lib, so every element is deep copied on the way in and on every hit:
+ * callers never share an object with the cache or with each other.
+ */
+public class EcuMetadataCache {
+
+    private static final String TAG = "EcuMetadataCache";
+    private static final int MAX_ENTRIES = 128;
+
+    // Bumped when the downloaded files change; shared by every lib instance
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    public interface Loader<T> {
+        ArrayList<T> load();
+    }
+
+    private static class Entry {
+        final String identity;
+        final int generation;
+        final ArrayList<?> value;
+
+        Entry(String identity, int generation, ArrayList<?> value) {
+            this.identity = identity;
+            this.generation = generation;
+            this.value = value;
+        }
+    }
+
+    private final File xmlDir;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long hits;
+    private long misses;
+
+    /**
+     * @param xmlDir folder the ECU records' relative XML links resolve against
+     */
+    public EcuMetadataCache(File xmlDir) {
+        this.xmlDir = xmlDir;
+    }
+
+    public static void invalidateAll() {
+        generation.incrementAndGet();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> ArrayList<T> get(String call, ECURecord ecuRecord, Loader<T> loader) {
+        String key = call + "|" + ecuRecord.getCuName();
+        String identity = identity(ecuRecord.getDidsXmlLink()) + "|" + identity(ecuRecord.getDtcsXmlLink());
+        int current = generation.get();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.generation == current && entry.identity.equals(identity)) {
+                hits++;
+                return (ArrayList<T>) deepCopy(entry.value, new IdentityHashMap<Object, Object>());
+            }
+            misses++;
+        }
+        ArrayList<T> value = loader.load();
+        if (value == null) {
+            return null;
+        }
+        ArrayList<?> copy;
+        try {
+            copy = (ArrayList<?>) deepCopy(value, new IdentityHashMap<Object, Object>());
+        } catch (IllegalStateException e) {
+            // Not copyable, so not cacheable; the caller still gets the fresh value
+            Log.d(TAG, "get: " + e.getMessage());
+            return value;
+        }
+        synchronized (this) {
+            if (entries.size() >= MAX_ENTRIES) {
+                entries.clear();
+            }
+            entries.put(key, new Entry(identity, current, copy));
+        }
+        return value;
+    }
+
+    public synchronized WritableMap getStats() {
+        WritableMap stats = new WritableNativeMap();
+        stats.putDouble("hits", hits);
+        stats.putDouble("misses", misses);
+        stats.putInt("entries", entries.size());
+        stats.putInt("generation", generation.get());
+        return stats;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Copy lists, arrays and lib objects (com.bal.*) field by field. Fields are copied
+     * rather than going through the setters, which parse some values (enum lists,
+     * timeouts) and would not round-trip. Strings, boxed primitives and anything else
+     * are treated as immutable and shared.
+     */
+    static Object deepCopy(Object value, Map<Object, Object> copies) {
+        if (value == null) {
+            return null;
+        }
+        Object copy = copies.get(value);
+        if (copy != null) {
+            return copy;
+        }
+        Class<?> type = value.getClass();
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            ArrayList<Object> listCopy = new ArrayList<>(list.size());
+            copies.put(value, listCopy);
+            for (Object item : list) {
+                listCopy.add(deepCopy(item, copies));
+            }
+            return listCopy;
+        }
+        if (type.isArray()) {
+            int length = Array.getLength(value);
+            Object arrayCopy = Array.newInstance(type.getComponentType(), length);
+            copies.put(value, arrayCopy);
+            for (int i = 0; i < length; i++) {
+                Array.set(arrayCopy, i, type.getComponentType().isPrimitive()
+                        ? Array.get(value, i)
+                        : deepCopy(Array.get(value, i), copies));
+            }
+            return arrayCopy;
+        }
+        if (!type.getName().startsWith("com.bal.")) {
+            return value;
+        }
+        try {
+            copy = type.getDeclaredConstructor().newInstance();
+            copies.put(value, copy);
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    field.set(copy, deepCopy(field.get(value), copies));
+                }
+            }
+            return copy;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("Unable to copy " + type.getName(), e);
+        }
+    }
+
+    private String identity(String link) {
+        if (link == null || link.isEmpty()) {
+            return "-";
+        }
+        File file = new File(link);
+        if (!file.isAbsolute() && xmlDir != null) {
+            file = new File(xmlDir, link);
+        }
+        return file.getPath() + ":" + file.length() + ":" + file.lastModified();
+    }
+}
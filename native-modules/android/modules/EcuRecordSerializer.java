@@ -0,0 +1,259 @@
+package com.nostix;
+
+import com.bal.balnostix.base.ECURecord;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Serializes {@link ECURecord}s for the JS side from one field table.
+ * Each record's field values are cached as a snapshot and only re-read from the
+ * record once it has been marked dirty: by an updateUI event, or by the module after
+ * a lib call that changes record fields without one (UDSParameter, isBootUpdateRequired,
+ * the end of a flash or write). The rows of the freshly parsed records are kept too,
+ * so getEcuRecords for the same ECU JSON and VIN serves them without the getters;
+ * they are what {@link EcuRecordSnapshot} persists. {@link #diff} re-reads a record
+ * and returns only the fields that changed.
+ */
+public class EcuRecordSerializer {
+
+    private static final String[] FIELD_NAMES = {
+            "ecuName",
+            "index",
+            "isErrorCodeEnabled",
+            "isReadParameterEnabled",
+            "isWriteParameterEnabled",
+            "isReprogramEnabled",
+            "isUpdateBootEnabled",
+            "isSpecialFunctionEnabled",
+            "isActuatorEnabled",
+            "isAnalyticsEnabled",
+            "isEEDumpOperation",
+            "isVinWrite",
+            "isBinWrite",
+            "isProgConstWriteEnabled",
+            "isUSBPrograming",
+            "appHexUrl",
+            "didsXmlUrl",
+            "dtcsXmlUrl",
+            "btlHexUrl",
+            "appHexFileName",
+            "didsXmlFileName",
+            "dtcsXmlFileName",
+            "btlHexFileName",
+            "oldHexFileName",
+            "isCheckBIOError",
+            "readParamAutoRefreshShownInGroupName",
+            "vinNumber",
+            // Motor Related Items
+            "isWriteMotorType",
+            "isAutomateMotorType",
+            "motorTypeId",
+            "mcuOffsetLearnTriggerId",
+            "dynamicWaitTime",
+            "updateFrameTime",
+            "isUpdatePerFrame",
+            "isShowUpdatePerFrameTime",
+            "isForceEachTimeOA",
+    };
+
+    private final List<Object[]> snapshots = new ArrayList<>();
+    private final BitSet dirty = new BitSet();
+    private String vinNumber;
+    // Hash of the ECU JSON the records were parsed from, and their rows as parsed
+    private String source;
+    private List<Object[]> parsedRows;
+
+    public synchronized void reset(List<ECURecord> ecuRecordList, String vinNumber, String source) {
+        this.vinNumber = vinNumber;
+        this.source = source;
+        parsedRows = null;
+        snapshots.clear();
+        dirty.clear();
+        for (int i = 0; i < ecuRecordList.size(); i++) {
+            snapshots.add(null);
+        }
+        dirty.set(0, ecuRecordList.size());
+    }
+
+    /**
+     * Take the rows of a persisted snapshot as the current, clean state.
+     *
+     * @return the serialized records, as getEcuRecords sends them
+     */
+    public synchronized WritableArray restore(List<Object[]> rows, String vinNumber, String source) {
+        this.vinNumber = vinNumber;
+        this.source = source;
+        parsedRows = new ArrayList<>(rows);
+        snapshots.clear();
+        dirty.clear();
+        WritableArray ecuRecordsArray = new WritableNativeArray();
+        for (int i = 0; i < rows.size(); i++) {
+            Object[] row = rows.get(i);
+            snapshots.add(row);
+            if (row == null) {
+                // Serialized from the record the first time it is asked for
+                dirty.set(i);
+                continue;
+            }
+            WritableMap ecuRecordItem = new WritableNativeMap();
+            for (int field = 0; field < FIELD_NAMES.length; field++) {
+                putValue(ecuRecordItem, FIELD_NAMES[field], row[field]);
+            }
+            ecuRecordsArray.pushMap(ecuRecordItem);
+        }
+        return ecuRecordsArray;
+    }
+
+    /**
+     * The rows of {@code source} as parsed, if they are the last ones serialized for
+     * {@code vinNumber}. The lib parses the JSON again into fresh records, so the rows
+     * re-read since then no longer apply and are replaced.
+     *
+     * @return the serialized records, as getEcuRecords sends them, or null
+     */
+    public synchronized WritableArray reuse(String source, String vinNumber) {
+        if (parsedRows == null || !source.equals(this.source) || !equalsNullable(vinNumber, this.vinNumber)) {
+            return null;
+        }
+        return restore(parsedRows, vinNumber, source);
+    }
+
+    /**
+     * Keep the current rows as those of the freshly parsed records, once getEcuRecords
+     * serialized them all.
+     *
+     * @return the rows, for {@link EcuRecordSnapshot}
+     */
+    public synchronized List<Object[]> keepParsedRows() {
+        parsedRows = getRows();
+        return parsedRows;
+    }
+
+    /**
+     * @return a copy of the current rows; null for records never serialized
+     */
+    public synchronized List<Object[]> getRows() {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < snapshots.size(); i++) {
+            rows.add(dirty.get(i) ? null : snapshots.get(i));
+        }
+        return rows;
+    }
+
+    public static int getFieldCount() {
+        return FIELD_NAMES.length;
+    }
+
+    public synchronized void markDirty(int pos) {
+        dirty.set(pos);
+    }
+
+    public synchronized void markAllDirty() {
+        dirty.set(0, snapshots.size());
+    }
+
+    /**
+     * Full serialized form of the record, re-read from the record only if dirty.
+     */
+    public synchronized WritableMap toMap(int pos, ECURecord ecuRecord) {
+        Object[] snapshot = refresh(pos, ecuRecord);
+        WritableMap ecuRecordItem = new WritableNativeMap();
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            putValue(ecuRecordItem, FIELD_NAMES[i], snapshot[i]);
+        }
+        return ecuRecordItem;
+    }
+
+    /**
+     * Re-read the record and return only the fields that differ from its cached row,
+     * every field if it has none. Empty if nothing changed.
+     */
+    public synchronized WritableMap diff(int pos, ECURecord ecuRecord) {
+        Object[] previous = pos < snapshots.size() ? snapshots.get(pos) : null;
+        dirty.set(pos);
+        Object[] current = refresh(pos, ecuRecord);
+        WritableMap changes = new WritableNativeMap();
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (previous == null || !equalsNullable(previous[i], current[i])) {
+                putValue(changes, FIELD_NAMES[i], current[i]);
+            }
+        }
+        return changes;
+    }
+
+    private Object[] refresh(int pos, ECURecord ecuRecord) {
+        while (snapshots.size() <= pos) {
+            snapshots.add(null);
+        }
+        Object[] snapshot = snapshots.get(pos);
+        if (snapshot == null || dirty.get(pos)) {
+            snapshot = capture(pos, ecuRecord);
+            snapshots.set(pos, snapshot);
+            dirty.clear(pos);
+        }
+        return snapshot;
+    }
+
+    private Object[] capture(int pos, ECURecord ecuRecord) {
+        return new Object[] {
+                ecuRecord.getCuName(),
+                pos,
+                ecuRecord.isDTC(),
+                ecuRecord.isDID(),
+                ecuRecord.isWriteDid(),
+                ecuRecord.isReprograming(),
+                ecuRecord.isBootReprograming(),
+                ecuRecord.isSpecialOperation(),
+                ecuRecord.isActuatorRoutines(),
+                ecuRecord.isAnalyticsGraph(),
+                ecuRecord.isEEDumpOperation(),
+                ecuRecord.isVinWrite(),
+                ecuRecord.isBinWrite(),
+                ecuRecord.isProgConstWrite(),
+                ecuRecord.isUSBPrograming(),
+                ecuRecord.getAppHexURLLink(),
+                ecuRecord.getDidsXmlURLLink(),
+                ecuRecord.getDtcsXmlURLLink(),
+                ecuRecord.getBtlHexURLLink(),
+                ecuRecord.getAppHexLink(),
+                ecuRecord.getDidsXmlLink(),
+                ecuRecord.getDtcsXmlLink(),
+                ecuRecord.getBtlHexLink(),
+                ecuRecord.getHexFileName(),
+                ecuRecord.isCheckBIOError(),
+                ecuRecord.isReadParamAutoRefreshShownInGroup(),
+                vinNumber,
+                ecuRecord.isWriteMotorType(),
+                ecuRecord.isAutomateMotorType(),
+                ecuRecord.getMotorTypeId(),
+                ecuRecord.getMcuOffsetLearnTriggerId(),
+                ecuRecord.getTimerToWaitForFlashing(),
+                ecuRecord.getUpdateFrameTime(),
+                ecuRecord.isUpdatePerFrame(),
+                ecuRecord.isShowUpdatePerFrameTime(),
+                ecuRecord.isForceEachTimeOA(),
+        };
+    }
+
+    private static void putValue(WritableMap map, String key, Object value) {
+        if (value == null) {
+            map.putNull(key);
+        } else if (value instanceof Boolean) {
+            map.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Integer) {
+            map.putInt(key, (Integer) value);
+        } else {
+            map.putString(key, value.toString());
+        }
+    }
+
+    private static boolean equalsNullable(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,186 @@
+package com.nostix;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persists the serialized ECU records of each VIN ({@link EcuRecordSerializer} rows)
+ * together with the SHA-256 of the FMS JSON they were parsed from, in
+ * {@code BALEcuRecords/<vin>.snapshot}. When the same JSON comes back for the VIN, e.g.
+ * after an app restart, getEcuRecords answers from the memory mapped snapshot instead of
+ * waiting for the lib to parse the JSON again.
+ * <p>
+ * Layout, big-endian: int magic, int version, UTF hash, int field count, int row count,
+ * then per row a byte that is 0 for a null record, followed by its fields as a type byte
+ * and a value (boolean byte, int, or int length and UTF-8 bytes).
+ */
+public class EcuRecordSnapshot {
+
+    private static final String TAG = "EcuRecordSnapshot";
+
+    public static final String SNAPSHOT_DIR = "BALEcuRecords";
+    private static final String EXTENSION = ".snapshot";
+    private static final int MAGIC = 0x42414C45;
+    private static final int VERSION = 1;
+    private static final int MAX_SNAPSHOTS = 32;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_STRING = 3;
+
+    private final File dir;
+
+    public EcuRecordSnapshot(File dataDir) {
+        this.dir = new File(dataDir, SNAPSHOT_DIR);
+    }
+
+    public static String hash(String json) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest(json.getBytes(StandardCharsets.UTF_8))) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the rows saved for {@code vinNumber} from the JSON with {@code hash}, or
+     *         null if there are none or they were saved with a different field table
+     */
+    public synchronized List<Object[]> load(String vinNumber, String hash, int fieldCount) {
+        File file = getFile(vinNumber);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileInputStream input = new FileInputStream(file)) {
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            byte[] savedHash = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(savedHash);
+            if (!hash.equals(new String(savedHash, StandardCharsets.UTF_8)) || buffer.getInt() != fieldCount) {
+                return null;
+            }
+            int rowCount = buffer.getInt();
+            List<Object[]> rows = new ArrayList<>(rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                rows.add(buffer.get() == 0 ? null : readRow(buffer, fieldCount));
+            }
+            // Mark it as recently used so pruning keeps it
+            file.setLastModified(System.currentTimeMillis());
+            return rows;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.d(TAG, "load: " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    public synchronized void save(String vinNumber, String hash, List<Object[]> rows, int fieldCount) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.d(TAG, "save: Unable to create " + dir);
+            return;
+        }
+        File file = getFile(vinNumber);
+        File partial = new File(file.getAbsolutePath() + ".part");
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(partial), BUFFER_SIZE))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(hash);
+            output.writeInt(fieldCount);
+            output.writeInt(rows.size());
+            for (Object[] row : rows) {
+                output.writeByte(row == null ? 0 : 1);
+                if (row != null) {
+                    writeRow(output, row);
+                }
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "save: " + e.getMessage());
+            partial.delete();
+            return;
+        }
+        if (!partial.renameTo(file)) {
+            partial.delete();
+            return;
+        }
+        prune();
+    }
+
+    private File getFile(String vinNumber) {
+        String name = vinNumber == null || vinNumber.isEmpty() ? "_" : vinNumber.replaceAll("[^A-Za-z0-9]", "_");
+        return new File(dir, name + EXTENSION);
+    }
+
+    private static Object[] readRow(ByteBuffer buffer, int fieldCount) {
+        Object[] row = new Object[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            byte type = buffer.get();
+            if (type == TYPE_BOOLEAN) {
+                row[i] = buffer.get() != 0;
+            } else if (type == TYPE_INT) {
+                row[i] = buffer.getInt();
+            } else if (type == TYPE_STRING) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                row[i] = new String(bytes, StandardCharsets.UTF_8);
+            } else if (type != TYPE_NULL) {
+                throw new IllegalArgumentException("Unknown type " + type);
+            }
+        }
+        return row;
+    }
+
+    private static void writeRow(DataOutputStream output, Object[] row) throws IOException {
+        for (Object value : row) {
+            if (value == null) {
+                output.writeByte(TYPE_NULL);
+            } else if (value instanceof Boolean) {
+                output.writeByte(TYPE_BOOLEAN);
+                output.writeByte((Boolean) value ? 1 : 0);
+            } else if (value instanceof Integer) {
+                output.writeByte(TYPE_INT);
+                output.writeInt((Integer) value);
+            } else {
+                byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                output.writeByte(TYPE_STRING);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Keep the most recently used snapshots only.
+     */
+    private void prune() {
+        List<File> files = LogStore.listFiles(dir);
+        for (int i = 0; i < files.size() - MAX_SNAPSHOTS; i++) {
+            files.get(i).delete();
+        }
+    }
+}
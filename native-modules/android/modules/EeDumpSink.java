@@ -0,0 +1,226 @@
+package com.nostix;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Native end of the startEEDump stream. The lib writes the dump itself into EEDUMP and
+ * reports on the LiveData with JSON status chunks; every other chunk used to cross the
+ * bridge only to be dropped by the screen.
+ * <p>
+ * Status chunks are forwarded to JS only when they change the progress (percent and
+ * message), end the dump (failure, NRC, ready to upload), or when nothing was forwarded
+ * for {@value #KEEPALIVE_MILLIS} ms, so the screen's no-response timeout keeps working.
+ * Any other chunk is appended to a raw capture file through a buffered, preallocated
+ * FileChannel with a running CRC32; JS only gets that file's path and checksum once the
+ * dump ends. While only raw chunks arrive, a small progress keepalive (chunk and byte
+ * counts) is due every {@value #KEEPALIVE_MILLIS} ms instead, for the same timeout.
+ */
+public class EeDumpSink {
+
+    private static final String TAG = "EeDumpSink";
+
+    public static final String RAW_DIR = "EEDUMP_RAW";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PREALLOCATE_BYTES = 1024 * 1024;
+    private static final long KEEPALIVE_MILLIS = 5000;
+
+    // What the caller does with a chunk, returned by onChunk
+    public static final int SUPPRESS = 0;
+    public static final int FORWARD = 1;
+    public static final int KEEPALIVE = 2;
+
+    private final File rawDir;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CRC32 checksum = new CRC32();
+
+    private boolean isActive;
+    private File rawFile;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private long position;
+    private long allocated;
+    private int chunks;
+    private int forwarded;
+    private int suppressed;
+    private String lastProgressKey;
+    private long lastForwardTime;
+
+    public EeDumpSink(File dataDir) {
+        this.rawDir = new File(dataDir, RAW_DIR);
+    }
+
+    public synchronized void start(String ecuName) {
+        close();
+        checksum.reset();
+        position = 0;
+        allocated = 0;
+        chunks = 0;
+        forwarded = 0;
+        suppressed = 0;
+        lastProgressKey = null;
+        lastForwardTime = 0;
+        isActive = true;
+        String name = (ecuName != null ? ecuName.replaceAll("[^A-Za-z0-9_-]", "_") : "ecu") + "_"
+                + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".bin";
+        rawFile = new File(rawDir, name);
+    }
+
+    /**
+     * @return {@link #FORWARD} if the chunk must be forwarded to JS, {@link #KEEPALIVE} if
+     *         {@link #getProgress} must be sent instead, else {@link #SUPPRESS}
+     */
+    public synchronized int onChunk(String chunk) {
+        chunks++;
+        if (chunk == null || chunk.toLowerCase(Locale.US).contains("nrc")) {
+            return forward();
+        }
+        if (chunk.isEmpty() || chunk.charAt(0) != '{') {
+            write(chunk);
+            suppressed++;
+            if (SystemClock.elapsedRealtime() - lastForwardTime >= KEEPALIVE_MILLIS) {
+                lastForwardTime = SystemClock.elapsedRealtime();
+                return KEEPALIVE;
+            }
+            return SUPPRESS;
+        }
+        try {
+            JSONObject status = new JSONObject(chunk);
+            if (!status.optBoolean("status") || "upload".equals(status.optString("processStatus"))) {
+                return forward();
+            }
+            String message = status.optString("message", "");
+            String progressKey = status.optInt("EEDumpPercent") + "," + message;
+            boolean isChanged = !progressKey.equals(lastProgressKey) && !message.startsWith("Collected the data");
+            if (isChanged || SystemClock.elapsedRealtime() - lastForwardTime >= KEEPALIVE_MILLIS) {
+                lastProgressKey = progressKey;
+                return forward();
+            }
+        } catch (JSONException e) {
+            // Let the screen report it, as it did when it parsed every chunk
+            return forward();
+        }
+        suppressed++;
+        return SUPPRESS;
+    }
+
+    /**
+     * Keepalive payload for JS: chunks received and raw bytes captured so far.
+     */
+    public synchronized WritableMap getProgress() {
+        WritableMap progress = new WritableNativeMap();
+        progress.putInt("chunks", chunks);
+        progress.putDouble("rawBytes", position + buffer.position());
+        return progress;
+    }
+
+    /**
+     * Flush and close the raw capture.
+     *
+     * @return summary for JS: chunk counts, and the capture file if anything was written;
+     *         null if the sink was not started or is already finished
+     */
+    public synchronized WritableMap finish() {
+        close();
+        if (!isActive) {
+            return null;
+        }
+        isActive = false;
+        WritableMap summary = new WritableNativeMap();
+        summary.putInt("chunks", chunks);
+        summary.putInt("forwarded", forwarded);
+        summary.putInt("suppressed", suppressed);
+        summary.putDouble("rawBytes", position);
+        if (position > 0 && rawFile != null) {
+            summary.putString("rawPath", rawFile.getAbsolutePath());
+            summary.putString("crc32", Long.toHexString(checksum.getValue()));
+        } else {
+            summary.putNull("rawPath");
+            summary.putNull("crc32");
+        }
+        return summary;
+    }
+
+    private int forward() {
+        forwarded++;
+        lastForwardTime = SystemClock.elapsedRealtime();
+        return FORWARD;
+    }
+
+    private void write(String chunk) {
+        if (rawFile == null) {
+            return;
+        }
+        try {
+            if (channel == null) {
+                if (!rawDir.exists() && !rawDir.mkdirs()) {
+                    throw new IOException("Unable to create " + rawDir);
+                }
+                randomAccessFile = new RandomAccessFile(rawFile, "rw");
+                channel = randomAccessFile.getChannel();
+            }
+            byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+            checksum.update(bytes, 0, bytes.length);
+            int offset = 0;
+            while (offset < bytes.length) {
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "write: " + e.getMessage());
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        long end = position + buffer.remaining();
+        if (end > allocated) {
+            // Grow in large steps so the file system can keep the capture contiguous
+            allocated = Math.max(end, allocated + Math.max(allocated, PREALLOCATE_BYTES));
+            randomAccessFile.setLength(allocated);
+        }
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+    }
+
+    private void close() {
+        if (channel == null) {
+            buffer.clear();
+            return;
+        }
+        try {
+            flush();
+            randomAccessFile.setLength(position);
+            channel.force(false);
+            randomAccessFile.close();
+        } catch (IOException e) {
+            Log.d(TAG, "close: " + e.getMessage());
+        }
+        channel = null;
+        randomAccessFile = null;
+        allocated = 0;
+    }
+}
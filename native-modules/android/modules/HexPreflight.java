@@ -0,0 +1,528 @@
+package com.nostix;
+
+import android.util.Log;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Checks an Intel HEX file before it is flashed.
+ * <p>
+ * The file is memory mapped and cut into line-aligned chunks that are parsed in
+ * parallel: every record's syntax and checksum is verified and its data bytes decoded.
+ * A sequential pass then applies the extended segment/linear address records, checks
+ * that the data does not overlap and that the file ends with an end-of-file record, and
+ * writes the data in address order to {@code BALHexImage/<name>.bin} with a CRC32 of the
+ * image. The ranges, CRC and start address go to a {@code <name>.json} sidecar, which is
+ * reused while the hex file's size and modification time are unchanged.
+ */
+public class HexPreflight {
+
+    private static final String TAG = "HexPreflight";
+
+    public static final String IMAGE_DIR = "BALHexImage";
+    private static final int MIN_CHUNK_BYTES = 256 * 1024;
+    private static final int MAX_WORKERS = 4;
+    private static final int MAX_RANGES_REPORTED = 64;
+
+    private static final int TYPE_DATA = 0;
+    private static final int TYPE_EOF = 1;
+    private static final int TYPE_EXTENDED_SEGMENT = 2;
+    private static final int TYPE_START_SEGMENT = 3;
+    private static final int TYPE_EXTENDED_LINEAR = 4;
+    private static final int TYPE_START_LINEAR = 5;
+
+    /**
+     * A line the file was rejected for. {@code line} is 1-based, 0 if not tied to a line.
+     */
+    static class HexFormatException extends Exception {
+        final long line;
+        final String reason;
+
+        HexFormatException(long line, String reason) {
+            super(line > 0 ? "line " + line + ": " + reason : reason);
+            this.line = line;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Records of one chunk. Data bytes of all records are decoded into {@code data}; the
+     * value of address records is kept in {@code addresses}.
+     */
+    private static class Chunk {
+        int count;
+        int lines;
+        byte[] types = new byte[1024];
+        int[] addresses = new int[1024];
+        int[] dataOffsets = new int[1024];
+        int[] lengths = new int[1024];
+        long[] lineNumbers = new long[1024];
+        byte[] data;
+        int dataLength;
+        HexFormatException error;
+
+        void add(int type, int address, int dataOffset, int length, long line) {
+            if (count == types.length) {
+                int size = count * 2;
+                types = Arrays.copyOf(types, size);
+                addresses = Arrays.copyOf(addresses, size);
+                dataOffsets = Arrays.copyOf(dataOffsets, size);
+                lengths = Arrays.copyOf(lengths, size);
+                lineNumbers = Arrays.copyOf(lineNumbers, size);
+            }
+            types[count] = (byte) type;
+            addresses[count] = address;
+            dataOffsets[count] = dataOffset;
+            lengths[count] = length;
+            lineNumbers[count] = line;
+            count++;
+        }
+    }
+
+    private final File imageDir;
+
+    public HexPreflight(File dataDir) {
+        this.imageDir = new File(dataDir, IMAGE_DIR);
+    }
+
+    /**
+     * Check {@code hexFile}. Blocking.
+     *
+     * @return {checked: false} if there is no such file; otherwise {checked: true, valid,
+     *         error, line} and, when valid, the image metadata
+     */
+    public WritableMap check(File hexFile) {
+        WritableMap result = new WritableNativeMap();
+        result.putString("path", hexFile.getAbsolutePath());
+        if (!hexFile.isFile()) {
+            result.putBoolean("checked", false);
+            return result;
+        }
+        result.putBoolean("checked", true);
+        String baseName = hexFile.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        File image = new File(imageDir, baseName + ".bin");
+        File sidecar = new File(imageDir, baseName + ".json");
+        try {
+            JSONObject metadata = readSidecar(sidecar, hexFile, image);
+            boolean isCached = metadata != null;
+            if (metadata == null) {
+                metadata = parse(hexFile, image);
+                writeSidecar(sidecar, metadata);
+            }
+            result.putBoolean("valid", true);
+            result.putBoolean("cached", isCached);
+            putMetadata(result, metadata);
+            result.putString("imagePath", image.getAbsolutePath());
+            result.putString("metadataPath", sidecar.getAbsolutePath());
+        } catch (HexFormatException e) {
+            Log.d(TAG, "check " + hexFile.getName() + ": " + e.getMessage());
+            result.putBoolean("valid", false);
+            result.putString("error", e.getMessage());
+            result.putDouble("line", e.line);
+            image.delete();
+            sidecar.delete();
+        } catch (IOException | JSONException e) {
+            // Not the file's fault, let the flash go ahead as it did before
+            Log.d(TAG, "check: " + e.getMessage());
+            result.putBoolean("checked", false);
+            result.putString("error", e.getMessage());
+        }
+        return result;
+    }
+
+    private JSONObject parse(File hexFile, File image) throws IOException, HexFormatException, JSONException {
+        try (FileInputStream input = new FileInputStream(hexFile); FileChannel channel = input.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new HexFormatException(0, "file too large");
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            List<Chunk> chunks = parseChunks(buffer, (int) size);
+            return build(chunks, hexFile, image);
+        }
+    }
+
+    private static List<Chunk> parseChunks(final MappedByteBuffer buffer, int size)
+            throws IOException, HexFormatException {
+        int workers = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors()));
+        int chunkCount = Math.max(1, Math.min(workers * 2, size / MIN_CHUNK_BYTES));
+        // Cut after a newline so every chunk starts at a record
+        List<int[]> bounds = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= chunkCount && start < size; i++) {
+            int end = i == chunkCount ? size : (int) ((long) size * i / chunkCount);
+            if (end <= start) {
+                continue;
+            }
+            while (end < size && buffer.get(end - 1) != '\n') {
+                end++;
+            }
+            bounds.add(new int[] { start, end });
+            start = end;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, Math.max(1, bounds.size())));
+        List<Chunk> chunks = new ArrayList<>();
+        try {
+            List<Future<Chunk>> futures = new ArrayList<>();
+            for (final int[] bound : bounds) {
+                futures.add(executor.submit(new Callable<Chunk>() {
+                    @Override
+                    public Chunk call() {
+                        // Each worker reads through its own view of the mapping
+                        return parseChunk(buffer.duplicate(), bound[0], bound[1]);
+                    }
+                }));
+            }
+            long lineBase = 0;
+            for (Future<Chunk> future : futures) {
+                Chunk chunk = future.get();
+                if (chunk.error != null) {
+                    throw new HexFormatException(lineBase + chunk.error.line, chunk.error.reason);
+                }
+                for (int i = 0; i < chunk.count; i++) {
+                    chunk.lineNumbers[i] += lineBase;
+                }
+                lineBase += chunk.lines;
+                chunks.add(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(String.valueOf(e.getCause()));
+        } finally {
+            executor.shutdownNow();
+        }
+        return chunks;
+    }
+
+    /**
+     * Parse the records in [start, end). Errors carry the line number within the chunk.
+     */
+    private static Chunk parseChunk(ByteBuffer buffer, int start, int end) {
+        Chunk chunk = new Chunk();
+        chunk.data = new byte[(end - start) / 2 + 1];
+        int position = start;
+        while (position < end) {
+            int lineEnd = position;
+            while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            chunk.lines++;
+            int contentEnd = lineEnd;
+            while (contentEnd > position && (buffer.get(contentEnd - 1) == '\r' || buffer.get(contentEnd - 1) == ' '
+                    || buffer.get(contentEnd - 1) == '\t')) {
+                contentEnd--;
+            }
+            int lineStart = position;
+            while (lineStart < contentEnd && (buffer.get(lineStart) == ' ' || buffer.get(lineStart) == '\t')) {
+                lineStart++;
+            }
+            position = lineEnd + 1;
+            if (lineStart == contentEnd) {
+                continue;
+            }
+            String error = parseRecord(buffer, lineStart, contentEnd, chunk);
+            if (error != null) {
+                chunk.error = new HexFormatException(chunk.lines, error);
+                return chunk;
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * @return an error message, or null if the record was added
+     */
+    private static String parseRecord(ByteBuffer buffer, int start, int end, Chunk chunk) {
+        if (buffer.get(start) != ':') {
+            return "record does not start with ':'";
+        }
+        int digits = end - start - 1;
+        if (digits < 10 || digits % 2 != 0) {
+            return "truncated record";
+        }
+        int length = readByte(buffer, start + 1);
+        if (length < 0) {
+            return "invalid hex digit";
+        }
+        if (digits != 10 + length * 2) {
+            return "record length " + length + " does not match the line";
+        }
+        int addressHigh = readByte(buffer, start + 3);
+        int addressLow = readByte(buffer, start + 5);
+        int type = readByte(buffer, start + 7);
+        if (addressHigh < 0 || addressLow < 0 || type < 0) {
+            return "invalid hex digit";
+        }
+        int sum = length + addressHigh + addressLow + type;
+        int dataOffset = chunk.dataLength;
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            int b = readByte(buffer, start + 9 + i * 2);
+            if (b < 0) {
+                return "invalid hex digit";
+            }
+            sum += b;
+            if (type == TYPE_DATA) {
+                chunk.data[chunk.dataLength++] = (byte) b;
+            } else {
+                value = (value << 8) | b;
+            }
+        }
+        int checksum = readByte(buffer, start + 9 + length * 2);
+        if (checksum < 0) {
+            return "invalid hex digit";
+        }
+        if (((sum + checksum) & 0xFF) != 0) {
+            return "checksum mismatch";
+        }
+        int address = (addressHigh << 8) | addressLow;
+        switch (type) {
+            case TYPE_DATA:
+                chunk.add(type, address, dataOffset, length, chunk.lines);
+                break;
+            case TYPE_EOF:
+                if (length != 0) {
+                    return "end of file record with data";
+                }
+                chunk.add(type, address, 0, 0, chunk.lines);
+                break;
+            case TYPE_EXTENDED_SEGMENT:
+            case TYPE_EXTENDED_LINEAR:
+                if (length != 2) {
+                    return "extended address record must have 2 bytes";
+                }
+                chunk.add(type, value, 0, 0, chunk.lines);
+                break;
+            case TYPE_START_SEGMENT:
+            case TYPE_START_LINEAR:
+                if (length != 4) {
+                    return "start address record must have 4 bytes";
+                }
+                chunk.add(type, value, 0, 0, chunk.lines);
+                break;
+            default:
+                return "unknown record type " + type;
+        }
+        return null;
+    }
+
+    private static int readByte(ByteBuffer buffer, int index) {
+        int high = Character.digit(buffer.get(index), 16);
+        int low = Character.digit(buffer.get(index + 1), 16);
+        return high < 0 || low < 0 ? -1 : (high << 4) | low;
+    }
+
+    /**
+     * Resolve addresses, check the layout and write the image.
+     */
+    private JSONObject build(List<Chunk> chunks, File hexFile, File image)
+            throws IOException, HexFormatException, JSONException {
+        int dataRecords = 0;
+        for (Chunk chunk : chunks) {
+            for (int i = 0; i < chunk.count; i++) {
+                if (chunk.types[i] == TYPE_DATA) {
+                    dataRecords++;
+                }
+            }
+        }
+        // Absolute address and location of every data record, in file order
+        long[] starts = new long[dataRecords];
+        int[] chunkIndexes = new int[dataRecords];
+        int[] recordIndexes = new int[dataRecords];
+        long base = 0;
+        long startAddress = -1;
+        boolean isEnded = false;
+        boolean isSorted = true;
+        int records = 0;
+        int n = 0;
+        for (int c = 0; c < chunks.size(); c++) {
+            Chunk chunk = chunks.get(c);
+            for (int i = 0; i < chunk.count; i++) {
+                records++;
+                if (isEnded) {
+                    throw new HexFormatException(chunk.lineNumbers[i], "record after end of file");
+                }
+                switch (chunk.types[i]) {
+                    case TYPE_DATA:
+                        starts[n] = base + chunk.addresses[i];
+                        chunkIndexes[n] = c;
+                        recordIndexes[n] = i;
+                        if (n > 0 && starts[n] < starts[n - 1]) {
+                            isSorted = false;
+                        }
+                        n++;
+                        break;
+                    case TYPE_EOF:
+                        isEnded = true;
+                        break;
+                    case TYPE_EXTENDED_SEGMENT:
+                        base = (long) chunk.addresses[i] << 4;
+                        break;
+                    case TYPE_EXTENDED_LINEAR:
+                        base = (long) chunk.addresses[i] << 16;
+                        break;
+                    default:
+                        startAddress = chunk.addresses[i] & 0xFFFFFFFFL;
+                        break;
+                }
+            }
+        }
+        if (!isEnded) {
+            throw new HexFormatException(0, "missing end of file record, the file is truncated");
+        }
+        if (dataRecords == 0) {
+            throw new HexFormatException(0, "no data records");
+        }
+
+        Integer[] order = new Integer[dataRecords];
+        for (int i = 0; i < dataRecords; i++) {
+            order[i] = i;
+        }
+        if (!isSorted) {
+            final long[] sortKeys = starts;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(sortKeys[a], sortKeys[b]);
+                }
+            });
+        }
+
+        if (!imageDir.exists() && !imageDir.mkdirs()) {
+            throw new IOException("Unable to create " + imageDir);
+        }
+        File partial = new File(image.getAbsolutePath() + ".part");
+        CRC32 crc = new CRC32();
+        JSONArray ranges = new JSONArray();
+        long rangeStart = -1;
+        long rangeEnd = -1;
+        long dataBytes = 0;
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(partial), 64 * 1024)) {
+            for (int k = 0; k < dataRecords; k++) {
+                int index = order[k];
+                Chunk chunk = chunks.get(chunkIndexes[index]);
+                int record = recordIndexes[index];
+                long start = starts[index];
+                int length = chunk.lengths[record];
+                if (start < rangeEnd) {
+                    throw new HexFormatException(chunk.lineNumbers[record],
+                            "data overlaps address 0x" + Long.toHexString(start));
+                }
+                if (start != rangeEnd) {
+                    if (rangeStart >= 0) {
+                        ranges.put(new JSONArray().put(rangeStart).put(rangeEnd - rangeStart));
+                    }
+                    rangeStart = start;
+                }
+                rangeEnd = start + length;
+                output.write(chunk.data, chunk.dataOffsets[record], length);
+                crc.update(chunk.data, chunk.dataOffsets[record], length);
+                dataBytes += length;
+            }
+            ranges.put(new JSONArray().put(rangeStart).put(rangeEnd - rangeStart));
+        } catch (IOException | HexFormatException e) {
+            partial.delete();
+            throw e;
+        }
+        if (image.exists() && !image.delete() || !partial.renameTo(image)) {
+            partial.delete();
+            throw new IOException("Unable to write " + image);
+        }
+
+        JSONObject metadata = new JSONObject();
+        metadata.put("source", hexFile.getAbsolutePath());
+        metadata.put("sourceSize", hexFile.length());
+        metadata.put("sourceModified", hexFile.lastModified());
+        metadata.put("records", records);
+        metadata.put("dataBytes", dataBytes);
+        metadata.put("crc32", String.format("%08x", crc.getValue()));
+        metadata.put("startAddress", startAddress);
+        metadata.put("ranges", ranges);
+        return metadata;
+    }
+
+    private static JSONObject readSidecar(File sidecar, File hexFile, File image) {
+        if (!sidecar.isFile() || !image.isFile()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[4096];
+        try (Reader reader = new FileReader(sidecar)) {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, read);
+            }
+            JSONObject metadata = new JSONObject(builder.toString());
+            if (metadata.optLong("sourceSize") == hexFile.length()
+                    && metadata.optLong("sourceModified") == hexFile.lastModified()
+                    && hexFile.getAbsolutePath().equals(metadata.optString("source"))) {
+                return metadata;
+            }
+        } catch (IOException | JSONException e) {
+            Log.d(TAG, "readSidecar: " + e.getMessage());
+        }
+        return null;
+    }
+
+    private static void writeSidecar(File sidecar, JSONObject metadata) throws IOException {
+        try (Writer writer = new FileWriter(sidecar)) {
+            writer.write(metadata.toString());
+        }
+    }
+
+    private static void putMetadata(WritableMap result, JSONObject metadata) throws JSONException {
+        result.putDouble("records", metadata.getLong("records"));
+        result.putDouble("dataBytes", metadata.getLong("dataBytes"));
+        result.putString("crc32", metadata.getString("crc32"));
+        long startAddress = metadata.getLong("startAddress");
+        if (startAddress >= 0) {
+            result.putDouble("startAddress", startAddress);
+        } else {
+            result.putNull("startAddress");
+        }
+        JSONArray ranges = metadata.getJSONArray("ranges");
+        result.putInt("rangeCount", ranges.length());
+        WritableArray reported = new WritableNativeArray();
+        for (int i = 0; i < Math.min(ranges.length(), MAX_RANGES_REPORTED); i++) {
+            JSONArray range = ranges.getJSONArray(i);
+            WritableMap item = new WritableNativeMap();
+            item.putDouble("start", range.getLong(0));
+            item.putDouble("length", range.getLong(1));
+            reported.pushMap(item);
+        }
+        result.putArray("ranges", reported);
+    }
+}
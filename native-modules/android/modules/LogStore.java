@@ -0,0 +1,324 @@
+package com.nostix;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Owns the log and dump folders under the app data dir (BALAppLog, BALLog, EEDUMP):
+ * file index, size/age rotation, deletion and upload archives. Deletes and archives
+ * run on one background thread, so the bridge thread never walks or zips a folder.
+ * <p>
+ * Archives are streamed: every file is deflated straight from disk into the zip through
+ * a fixed buffer, and a folder can be packed as a zip nested inside the archive (the
+ * layout the log upload expects) without an intermediate file. The archive is written
+ * to {@code <destination>.part} and renamed when complete.
+ */
+public class LogStore {
+
+    private static final String TAG = "LogStore";
+
+    public static final String APP_LOG_DIR = "BALAppLog";
+    public static final String LIB_LOG_DIR = "BALLog";
+    public static final String EE_DUMP_DIR = "EEDUMP";
+
+    public static final long DEFAULT_MAX_BYTES = 50L * 1024 * 1024;
+    public static final long DEFAULT_MAX_AGE_MILLIS = 14L * 24 * 60 * 60 * 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_MILLIS = 200;
+
+    public interface ProgressListener {
+        void onProgress(long bytes, long totalBytes, int files, int totalFiles);
+    }
+
+    /**
+     * A folder to add to an archive, either as plain entries relative to the folder or,
+     * if {@code nestedName} is set, as one inner zip entry with that name.
+     */
+    public static class ArchivePart {
+        final File source;
+        final String nestedName;
+
+        public ArchivePart(File source, String nestedName) {
+            this.source = source;
+            this.nestedName = nestedName;
+        }
+    }
+
+    private final File dataDir;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    public LogStore(File dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    public File getDir(String name) {
+        return new File(dataDir, name);
+    }
+
+    public void execute(Runnable runnable) {
+        executor.execute(runnable);
+    }
+
+    /**
+     * Files under {@code dir}, recursively, oldest first. Empty if it does not exist.
+     */
+    public static List<File> listFiles(File dir) {
+        List<File> files = new ArrayList<>();
+        collectFiles(dir, files);
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        return files;
+    }
+
+    public WritableMap getIndex() {
+        WritableArray dirs = new WritableNativeArray();
+        for (String name : new String[] { APP_LOG_DIR, LIB_LOG_DIR, EE_DUMP_DIR }) {
+            File dir = getDir(name);
+            WritableArray files = new WritableNativeArray();
+            long bytes = 0;
+            for (File file : listFiles(dir)) {
+                WritableMap item = new WritableNativeMap();
+                item.putString("path", file.getAbsolutePath());
+                item.putDouble("size", file.length());
+                item.putDouble("modified", file.lastModified());
+                files.pushMap(item);
+                bytes += file.length();
+            }
+            WritableMap dirItem = new WritableNativeMap();
+            dirItem.putString("name", name);
+            dirItem.putString("path", dir.getAbsolutePath());
+            dirItem.putDouble("bytes", bytes);
+            dirItem.putArray("files", files);
+            dirs.pushMap(dirItem);
+        }
+        WritableMap index = new WritableNativeMap();
+        index.putArray("dirs", dirs);
+        return index;
+    }
+
+    /**
+     * Delete files older than {@code maxAgeMillis}, then the oldest files until the
+     * folder holds at most {@code maxBytes}.
+     *
+     * @return number of files deleted
+     */
+    public int rotate(String dirName, long maxBytes, long maxAgeMillis) {
+        List<File> files = listFiles(getDir(dirName));
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        long oldestAllowed = System.currentTimeMillis() - maxAgeMillis;
+        int deleted = 0;
+        for (File file : files) {
+            if (total <= maxBytes && file.lastModified() >= oldestAllowed) {
+                break;
+            }
+            long size = file.length();
+            if (file.delete()) {
+                total -= size;
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            Log.d(TAG, "rotate " + dirName + ": deleted " + deleted + " files, " + total + " bytes left");
+        }
+        return deleted;
+    }
+
+    /**
+     * Rotate the folders that are only kept locally. BALAppLog and BALLog are left alone:
+     * whatever is in them has not been uploaded yet (the upload archives and deletes them),
+     * so they are only pruned on request through {@link #rotate}.
+     */
+    public void rotateAll(long maxBytes, long maxAgeMillis) {
+        rotate(EeDumpSink.RAW_DIR, maxBytes, maxAgeMillis);
+        rotate(BinDataDecoder.BIN_DATA_DIR, maxBytes, maxAgeMillis);
+        rotate(HexPreflight.IMAGE_DIR, maxBytes, maxAgeMillis);
+    }
+
+    public static void deleteRecursive(File fileOrDirectory) {
+        File[] children = fileOrDirectory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        fileOrDirectory.delete();
+    }
+
+    /**
+     * Stream {@code parts} into a zip at {@code destination}. Blocking; call it from
+     * {@link #execute}.
+     *
+     * @return number of files archived
+     */
+    public int archive(List<ArchivePart> parts, File destination, boolean isDeleteSources,
+            ProgressListener listener) throws IOException {
+        List<List<File>> partFiles = new ArrayList<>();
+        long totalBytes = 0;
+        int totalFiles = 0;
+        for (ArchivePart part : parts) {
+            List<File> files = listFiles(part.source);
+            partFiles.add(files);
+            totalFiles += files.size();
+            for (File file : files) {
+                totalBytes += file.length();
+            }
+        }
+        File parent = destination.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        File partial = new File(destination.getAbsolutePath() + ".part");
+        Progress progress = new Progress(listener, totalBytes, totalFiles);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (ZipOutputStream zip = new ZipOutputStream(
+                new BufferedOutputStream(new FileOutputStream(partial), BUFFER_SIZE))) {
+            for (int i = 0; i < parts.size(); i++) {
+                ArchivePart part = parts.get(i);
+                List<File> files = partFiles.get(i);
+                if (files.isEmpty()) {
+                    continue;
+                }
+                if (part.nestedName == null) {
+                    writeEntries(zip, part.source, files, buffer, progress);
+                } else {
+                    zip.putNextEntry(new ZipEntry(part.nestedName));
+                    // Finishing the inner zip must not close the outer stream
+                    ZipOutputStream nested = new ZipOutputStream(new FilterOutputStream(zip) {
+                        @Override
+                        public void write(byte[] b, int off, int len) throws IOException {
+                            out.write(b, off, len);
+                        }
+
+                        @Override
+                        public void close() {
+                        }
+                    });
+                    writeEntries(nested, part.source, files, buffer, progress);
+                    nested.finish();
+                    zip.closeEntry();
+                }
+            }
+        } catch (IOException e) {
+            partial.delete();
+            throw e;
+        }
+        if (destination.exists() && !destination.delete()) {
+            partial.delete();
+            throw new IOException("Unable to replace " + destination);
+        }
+        if (!partial.renameTo(destination)) {
+            partial.delete();
+            throw new IOException("Unable to rename " + partial);
+        }
+        progress.report(true);
+        if (isDeleteSources) {
+            for (ArchivePart part : parts) {
+                deleteRecursive(part.source);
+            }
+        }
+        return totalFiles;
+    }
+
+    private static void writeEntries(ZipOutputStream zip, File root, List<File> files, byte[] buffer,
+            Progress progress) throws IOException {
+        String rootPath = root.getAbsolutePath();
+        for (File file : files) {
+            String name = file.getAbsolutePath().substring(rootPath.length() + 1).replace(File.separatorChar, '/');
+            ZipEntry entry = new ZipEntry(name);
+            entry.setTime(file.lastModified());
+            zip.putNextEntry(entry);
+            try (InputStream input = new FileInputStream(file)) {
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    zip.write(buffer, 0, read);
+                    progress.add(read, 0);
+                }
+            }
+            zip.closeEntry();
+            progress.add(0, 1);
+        }
+    }
+
+    private static void collectFiles(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectFiles(child, files);
+            } else {
+                files.add(child);
+            }
+        }
+    }
+
+    private static class Progress {
+        final ProgressListener listener;
+        final long totalBytes;
+        final int totalFiles;
+        long bytes;
+        int files;
+        long lastReport;
+
+        Progress(ProgressListener listener, long totalBytes, int totalFiles) {
+            this.listener = listener;
+            this.totalBytes = totalBytes;
+            this.totalFiles = totalFiles;
+        }
+
+        void add(long addedBytes, int addedFiles) {
+            bytes += addedBytes;
+            files += addedFiles;
+            report(false);
+        }
+
+        void report(boolean isFinal) {
+            if (listener == null) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            if (isFinal || now - lastReport >= PROGRESS_INTERVAL_MILLIS) {
+                lastReport = now;
+                listener.onProgress(bytes, totalBytes, files, totalFiles);
+            }
+        }
+    }
+}
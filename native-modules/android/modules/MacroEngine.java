@@ -0,0 +1,880 @@
+package com.nostix;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+
+import com.bal.balnostix.base.ECURecord;
+import com.bal.balnostix.base.ErrorCodeModel;
+import com.bal.balnostix.base.ReadParameterModel;
+import com.bal.balnostix.base.utils.xmlparse.Routine;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a scripted sequence of dongle operations (runMacro) natively, from the first step
+ * to the last, and reports one summary per step instead of every intermediate event.
+ * <p>
+ * A macro is JSON:
+ * <pre>
+ * {"name": "clear and verify", "timeoutMillis": 10000, "steps": [
+ *   {"id": "clear", "op": "clearDtcs", "ecuPos": 2, "errorCodeType": "Both"},
+ *   {"id": "scan", "op": "scanDtcs", "ecuPos": 2, "retries": 2, "retryDelayMillis": 1000,
+ *    "expect": {"path": "count", "equals": 0}},
+ *   {"op": "writeDid", "ecuPos": 2, "description": "Odometer", "value": "100"},
+ *   {"op": "readDid", "ecuPos": 2, "group": "Vehicle", "description": "Odometer",
+ *    "expect": {"equals": "100"}, "onFailure": "continue"}
+ * ]}
+ * </pre>
+ * Ops are readVin, basicInfo, clearDtcs, scanDtcs, readDid, writeDid ("did" or
+ * "description"), actuator ("index" or "routineId"), bootUpdateRequired and delay
+ * ("millis"). A step ends "ok", "error", "timeout", or "failed" when it answered but its
+ * {@code expect} condition does not hold; it is attempted {@code retries} more times before
+ * {@code onFailure} applies: "abort" (default), "continue", or the id of the step to jump
+ * to. A step whose {@code when} condition does not hold is "skipped".
+ * <p>
+ * A condition reads the result of the step named by {@code step} (the step itself for
+ * expect, the previous step for when), optionally goes down {@code path} (dot separated
+ * keys and array indexes), and checks every one of status, equals, notEquals, lessThan,
+ * greaterThan, contains and matches it carries.
+ * <p>
+ * Steps are chained from each other's callbacks like {@link DtcSweep}; requests are
+ * queued on the lib's command thread, timeouts, delays and polls run on the shared
+ * {@link OperationWatchdog}, and neither waits for the other. A readDid step waits for
+ * the lib to replace the parameter's value and stops the group read with resetConfig when
+ * it ends, as the read screen does.
+ */
+public class MacroEngine {
+
+    private static final String TAG = "MacroEngine";
+
+    public static final String OPERATION = "macro";
+    public static final long DEFAULT_STEP_TIMEOUT_MILLIS = 10000;
+    // Guards against a goto loop that never ends
+    private static final int MAX_EXECUTED_STEPS = 1000;
+    private static final long READ_POLL_MILLIS = 450;
+
+    public static final String STATUS_OK = "ok";
+    public static final String STATUS_ERROR = "error";
+    public static final String STATUS_TIMEOUT = "timeout";
+    public static final String STATUS_FAILED = "failed";
+    public static final String STATUS_SKIPPED = "skipped";
+
+    private static final Set<String> OPS = new HashSet<>(Arrays.asList("readVin", "basicInfo", "clearDtcs",
+            "scanDtcs", "readDid", "writeDid", "actuator", "bootUpdateRequired", "delay"));
+    private static final Set<String> WRITE_OK_RESPONSES = new HashSet<>(Arrays.asList("Rescan",
+            "RescanWriteParam", "ResultPassWriteParam", "SuccessfullyWritten"));
+    private static final Set<String> WRITE_ERROR_RESPONSES = new HashSet<>(Arrays.asList("ResultFailWriteParam",
+            "TimeOutInWriteParam"));
+    private static final Pattern NRC_ERROR = Pattern.compile(".*S[0-9A-F]{2}#[0-9A-F]{2}.*", Pattern.CASE_INSENSITIVE);
+
+    private static final int TIMER_DELAY = 1;
+    private static final int TIMER_RETRY = 2;
+    private static final int TIMER_POLL = 3;
+
+    public interface Listener {
+        void onStep(WritableMap step);
+
+        void onFinished(WritableMap result);
+    }
+
+    private static class Step {
+        final int index;
+        final String id;
+        final String op;
+        final JSONObject spec;
+        final int ecuPos;
+        final long timeoutMillis;
+        final int retries;
+        final long retryDelayMillis;
+        final JSONObject when;
+        final JSONObject expect;
+        final String onFailure;
+
+        Step(int index, JSONObject spec, long defaultTimeoutMillis) throws JSONException {
+            this.index = index;
+            this.spec = spec;
+            id = spec.optString("id", "step" + index);
+            op = spec.getString("op");
+            ecuPos = spec.optInt("ecuPos", -1);
+            timeoutMillis = spec.optLong("timeoutMillis", defaultTimeoutMillis);
+            retries = Math.max(0, spec.optInt("retries", 0));
+            retryDelayMillis = Math.max(0, spec.optLong("retryDelayMillis", 0));
+            when = spec.optJSONObject("when");
+            expect = spec.optJSONObject("expect");
+            onFailure = spec.optString("onFailure", "abort");
+        }
+    }
+
+    /**
+     * What sending a step's request returned, handed from the command thread.
+     */
+    private static class Issued {
+        final LiveData<?> liveData;
+        final Object value;
+        final int actuatorStepCount;
+        // readDid: the parameter's value when the group read was requested
+        final String readBaseline;
+
+        Issued(LiveData<?> liveData, Object value, int actuatorStepCount) {
+            this(liveData, value, actuatorStepCount, null);
+        }
+
+        Issued(LiveData<?> liveData, Object value, int actuatorStepCount, String readBaseline) {
+            this.liveData = liveData;
+            this.value = value;
+            this.actuatorStepCount = actuatorStepCount;
+            this.readBaseline = readBaseline;
+        }
+    }
+
+    private static class StepResult {
+        final String status;
+        final Object value;
+
+        StepResult(String status, Object value) {
+            this.status = status;
+            this.value = value;
+        }
+    }
+
+    private final SubscriptionManager subscriptions;
+    private final OperationWatchdog.Deadline timeout = OperationWatchdog.getInstance()
+            .newDeadline(new OperationWatchdog.ExpiryListener() {
+                @Override
+                public void onExpired(String type) {
+                    onTimeout();
+                }
+            });
+    private final OperationWatchdog.Deadline timer = OperationWatchdog.getInstance()
+            .newDeadline(new OperationWatchdog.ExpiryListener() {
+                @Override
+                public void onExpired(String type) {
+                    onTimer();
+                }
+            });
+
+    private BALBTDongleApiImpl balDongleLib;
+    private Listener listener;
+    private String name;
+    private Step[] steps;
+    private Map<String, Integer> indexById;
+    private final Map<String, StepResult> results = new HashMap<>();
+    private JSONArray summaries;
+    private boolean isRunning;
+    // An operation, delay or poll is outstanding; cleared when it ends
+    private boolean isWaiting;
+    // The current attempt's request left the command thread
+    private boolean isIssued;
+    private boolean isAttemptPending;
+    private int index;
+    private int attempt;
+    // Bumped for every attempt, so a late callback of a finished attempt is ignored
+    private int attemptToken;
+    private int timerPhase;
+    private int executedSteps;
+    private String previousStepId;
+    private ReadParameterModel pollParameter;
+    // The lib model is shared with the screens, so a read is fresh only once its value is no longer this one
+    private String pollBaseline;
+    // ECU whose group read a readDid attempt started, or -1; stopped when the attempt ends
+    private int readEcuPos = -1;
+    private int actuatorStepCount;
+    private long startTime;
+    private long stepStartTime;
+    private int okCount;
+    private int failedCount;
+    private int skippedCount;
+    private String abortedAt;
+
+    public MacroEngine(SubscriptionManager subscriptions) {
+        this.subscriptions = subscriptions;
+    }
+
+    /**
+     * Validate and start {@code macroJson}, cancelling the macro in progress. An invalid
+     * macro throws without touching the one in progress.
+     */
+    public synchronized void start(BALBTDongleApiImpl balDongleLib, String macroJson, Listener listener)
+            throws JSONException {
+        JSONObject macro = new JSONObject(macroJson);
+        long defaultTimeoutMillis = macro.optLong("timeoutMillis", DEFAULT_STEP_TIMEOUT_MILLIS);
+        JSONArray stepsJson = macro.getJSONArray("steps");
+        Step[] parsed = new Step[stepsJson.length()];
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < parsed.length; i++) {
+            parsed[i] = new Step(i, stepsJson.getJSONObject(i), defaultTimeoutMillis);
+            if (!OPS.contains(parsed[i].op)) {
+                throw new JSONException("Unknown op " + parsed[i].op);
+            }
+            if (ids.put(parsed[i].id, i) != null) {
+                throw new JSONException("Duplicate step id " + parsed[i].id);
+            }
+        }
+        for (Step step : parsed) {
+            if (!"abort".equals(step.onFailure) && !"continue".equals(step.onFailure)
+                    && !ids.containsKey(step.onFailure)) {
+                throw new JSONException("Unknown onFailure step " + step.onFailure);
+            }
+        }
+
+        if (isRunning) {
+            finish(true);
+        }
+        this.balDongleLib = balDongleLib;
+        this.listener = listener;
+        name = macro.optString("name", "");
+        steps = parsed;
+        indexById = ids;
+        results.clear();
+        summaries = new JSONArray();
+        index = 0;
+        executedSteps = 0;
+        previousStepId = null;
+        okCount = 0;
+        failedCount = 0;
+        skippedCount = 0;
+        abortedAt = null;
+        isWaiting = false;
+        isAttemptPending = false;
+        startTime = SystemClock.elapsedRealtime();
+        isRunning = true;
+        advance();
+    }
+
+    public synchronized void cancel() {
+        if (isRunning) {
+            finish(true);
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * Updates of the lib's updateUI stream; ends basicInfo and writeDid steps.
+     */
+    public synchronized void onUpdateUI(String response) {
+        if (!isRunning || !isWaiting || !isIssued || response == null) {
+            return;
+        }
+        String op = steps[index].op;
+        String value = getStatus(response);
+        if ("basicInfo".equals(op)) {
+            if ("readEcuBasicnfo".equals(value)) {
+                endAttempt(STATUS_OK, VehicleSnapshotCapture.basicInfoToJson(balDongleLib.getEcuRecord(steps[index].ecuPos)));
+            } else if ("BIOError".equals(value)) {
+                endAttempt(STATUS_ERROR, value);
+            } else {
+                return;
+            }
+        } else if ("writeDid".equals(op)) {
+            if (WRITE_OK_RESPONSES.contains(value)) {
+                endAttempt(STATUS_OK, value);
+            } else if (WRITE_ERROR_RESPONSES.contains(value) || NRC_ERROR.matcher(value).matches()) {
+                endAttempt(STATUS_ERROR, value);
+            } else {
+                return;
+            }
+        } else {
+            return;
+        }
+        advance();
+    }
+
+    /**
+     * Run steps until one waits on a callback or a timer, or the macro ends.
+     */
+    private void advance() {
+        while (isRunning && !isWaiting) {
+            if (isAttemptPending) {
+                isAttemptPending = false;
+                runAttempt(steps[index]);
+                continue;
+            }
+            if (index >= steps.length) {
+                finish(false);
+                return;
+            }
+            if (++executedSteps > MAX_EXECUTED_STEPS) {
+                Log.d(TAG, "advance: Step limit reached at " + steps[index].id);
+                abortedAt = steps[index].id;
+                finish(false);
+                return;
+            }
+            Step step = steps[index];
+            stepStartTime = SystemClock.elapsedRealtime();
+            attempt = 0;
+            if (step.when != null && !evaluate(step.when, previousStepId)) {
+                endStep(step, STATUS_SKIPPED, null);
+                continue;
+            }
+            isAttemptPending = true;
+        }
+    }
+
+    private void runAttempt(final Step step) {
+        attempt++;
+        final int token = ++attemptToken;
+        isIssued = false;
+        if ("delay".equals(step.op)) {
+            try {
+                armTimer(TIMER_DELAY, step.spec.getLong("millis"));
+            } catch (JSONException e) {
+                Log.d(TAG, "runAttempt " + step.id + ": " + e.getMessage());
+                endAttempt(STATUS_ERROR, e.getMessage());
+            }
+            return;
+        }
+        final BALBTDongleApiImpl lib = balDongleLib;
+        if ("readDid".equals(step.op)) {
+            readEcuPos = step.ecuPos;
+        }
+        // Covers the wait for the command thread as well as the answer
+        armTimeout(step);
+        lib.runAsync(OPERATION, step.timeoutMillis, new Callable<Issued>() {
+            @Override
+            public Issued call() throws JSONException {
+                return issue(lib, step);
+            }
+        }, new DongleCommandScheduler.Callback<Issued>() {
+            @Override
+            public void onResult(Issued issued) {
+                onIssued(token, issued);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                onIssueFailed(token, e);
+            }
+        });
+    }
+
+    /**
+     * Send the request of {@code step}; runs on the command thread.
+     */
+    private static Issued issue(BALBTDongleApiImpl lib, Step step) throws JSONException {
+        if ("readVin".equals(step.op)) {
+            LiveData<String> liveData = lib.readVIN();
+            if (liveData == null) {
+                throw new NullPointerException("readVIN is throwing null");
+            }
+            return new Issued(liveData, null, 0);
+        }
+        ECURecord ecuRecord = lib.getEcuRecord(step.ecuPos);
+        if (ecuRecord == null) {
+            throw new NullPointerException("No ECU record at " + step.ecuPos);
+        }
+        switch (step.op) {
+            case "basicInfo":
+                lib.readEcuBasicnfo(ecuRecord);
+                return new Issued(null, null, 0);
+            case "clearDtcs": {
+                LiveData<String> liveData = lib.clearErrorCode(ecuRecord, step.spec.optString("errorCodeType", "Both"));
+                if (liveData == null) {
+                    throw new NullPointerException("clearErrorCode method is throwing null");
+                }
+                return new Issued(liveData, null, 0);
+            }
+            case "scanDtcs": {
+                LiveData<ArrayList<ErrorCodeModel>> liveData = lib.scanDtcErrorCode(ecuRecord);
+                if (liveData == null) {
+                    throw new NullPointerException("scanDtcErrorCode method is throwing null");
+                }
+                return new Issued(liveData, null, 0);
+            }
+            case "readDid": {
+                ReadParameterModel parameter = findParameter(
+                        lib.getListOfReadParameter(ecuRecord, step.spec.getString("group")), step.spec);
+                return new Issued(null, parameter, 0, parameter.value);
+            }
+            case "writeDid": {
+                ReadParameterModel parameter = findParameter(lib.getWriteParameter(ecuRecord), step.spec);
+                parameter.newValueFromUser = step.spec.getString("value");
+                lib.writeDidParameter(ecuRecord, parameter, step.ecuPos);
+                return new Issued(null, null, 0);
+            }
+            case "actuator": {
+                ArrayList<Routine> routines = lib.displayListActuatorRoutines(ecuRecord);
+                int routineIndex = findRoutine(routines, step.spec);
+                Routine routine = routines.get(routineIndex);
+                LiveData<String> liveData = lib.startActuatorRoutines(ecuRecord, routine, routineIndex);
+                if (liveData == null) {
+                    throw new NullPointerException("startActuatorRoutines method throwing null");
+                }
+                return new Issued(liveData, null, routine.getListSeq() == null ? 0 : routine.getListSeq().size());
+            }
+            default:
+                // bootUpdateRequired, answered by the lib without waiting on a callback
+                return new Issued(null, lib.isBootUpdateRequired(ecuRecord), 0);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void onIssued(int token, Issued issued) {
+        if (!isRunning || !isWaiting || token != attemptToken) {
+            return;
+        }
+        isIssued = true;
+        Step step = steps[index];
+        switch (step.op) {
+            case "readDid": {
+                pollParameter = (ReadParameterModel) issued.value;
+                pollBaseline = issued.readBaseline;
+                armTimer(TIMER_POLL, READ_POLL_MILLIS);
+                return;
+            }
+            case "bootUpdateRequired":
+                endAttempt(STATUS_OK, issued.value);
+                advance();
+                return;
+            case "basicInfo":
+            case "writeDid":
+                // Ends on the updateUI stream
+                return;
+            default:
+                actuatorStepCount = issued.actuatorStepCount;
+                await(step, (LiveData<Object>) issued.liveData, token);
+        }
+    }
+
+    private synchronized void onIssueFailed(int token, Exception e) {
+        if (!isRunning || !isWaiting || token != attemptToken) {
+            return;
+        }
+        Log.d(TAG, "runAttempt " + steps[index].id + ": " + e.getMessage());
+        endAttempt(e instanceof DongleCommandScheduler.DeadlineExceededException ? STATUS_TIMEOUT : STATUS_ERROR,
+                e.getMessage());
+        advance();
+    }
+
+    private <T> void await(Step step, LiveData<T> liveData, final int token) {
+        armTimeout(step);
+        subscriptions.attach(OPERATION, step.ecuPos, liveData, new Observer<T>() {
+            @Override
+            public void onChanged(T value) {
+                onLiveData(token, value);
+            }
+        });
+    }
+
+    private void armTimeout(Step step) {
+        OperationWatchdog.getInstance().arm(timeout, step.timeoutMillis, OPERATION);
+        isWaiting = true;
+    }
+
+    private void armTimer(int phase, long millis) {
+        timerPhase = phase;
+        OperationWatchdog.getInstance().arm(timer, millis, OPERATION);
+        isWaiting = true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void onLiveData(int token, Object value) {
+        if (!isRunning || !isWaiting || token != attemptToken) {
+            return;
+        }
+        Step step = steps[index];
+        if (value == null) {
+            endAttempt(STATUS_ERROR, null);
+        } else if ("readVin".equals(step.op)) {
+            endAttempt(STATUS_OK, value);
+        } else if ("scanDtcs".equals(step.op)) {
+            JSONArray codes = VehicleSnapshotCapture.dtcsToJson(new ArrayList<>((ArrayList<ErrorCodeModel>) value));
+            JSONObject dtcs = new JSONObject();
+            try {
+                dtcs.put("count", codes.length());
+                dtcs.put("codes", codes);
+            } catch (JSONException e) {
+                Log.d(TAG, "onLiveData: " + e.getMessage());
+            }
+            endAttempt(STATUS_OK, dtcs);
+        } else if ("clearDtcs".equals(step.op)) {
+            String status = getStatus((String) value);
+            if ("DTCClear".equals(status)) {
+                endAttempt(STATUS_OK, status);
+            } else if ("DTCClearTimeOut".equals(status) || NRC_ERROR.matcher(status).matches()) {
+                endAttempt(STATUS_ERROR, status);
+            } else {
+                return;
+            }
+        } else if (!onActuatorUpdate(step, (String) value)) {
+            return;
+        }
+        advance();
+    }
+
+    /**
+     * @return whether the routine ended
+     */
+    private boolean onActuatorUpdate(Step step, String response) {
+        if (response.isEmpty() || response.charAt(0) != '{') {
+            if (NRC_ERROR.matcher(response).matches()) {
+                endAttempt(STATUS_ERROR, response);
+                return true;
+            }
+            return false;
+        }
+        try {
+            JSONObject update = new JSONObject(response);
+            boolean isDone = "done".equalsIgnoreCase(update.optString("processStatus"));
+            boolean isLastStep = update.has("StepNo") && update.getInt("StepNo") + 1 == actuatorStepCount;
+            if (!isDone && !isLastStep) {
+                // Still running, each update restarts the timeout
+                armTimeout(step);
+                return false;
+            }
+            JSONObject value = new JSONObject();
+            value.put("message", update.optString("message").trim());
+            value.put("status", update.optBoolean("status"));
+            value.put("stepNo", update.optInt("StepNo", -1));
+            endAttempt(update.optBoolean("status") ? STATUS_OK : STATUS_ERROR, value);
+            return true;
+        } catch (JSONException e) {
+            Log.d(TAG, "onActuatorUpdate: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private synchronized void onTimeout() {
+        if (!isRunning || !isWaiting) {
+            return;
+        }
+        endAttempt(STATUS_TIMEOUT, null);
+        advance();
+    }
+
+    private synchronized void onTimer() {
+        if (!isRunning || !isWaiting) {
+            return;
+        }
+        if (timerPhase == TIMER_RETRY) {
+            isWaiting = false;
+            isAttemptPending = true;
+        } else if (timerPhase == TIMER_DELAY) {
+            endAttempt(STATUS_OK, null);
+        } else if (pollParameter != null) {
+            String value = pollParameter.value;
+            // The lib replaces the value with a new string on every read and shows "-" until the first one
+            if (value == null || value.isEmpty() || value == pollBaseline || "-".equals(value)) {
+                armTimer(TIMER_POLL, READ_POLL_MILLIS);
+                return;
+            }
+            endAttempt(STATUS_OK, value);
+        }
+        advance();
+    }
+
+    private void endAttempt(String status, Object value) {
+        OperationWatchdog.getInstance().cancel(timeout);
+        OperationWatchdog.getInstance().cancel(timer);
+        subscriptions.detach(OPERATION);
+        attemptToken++;
+        pollParameter = null;
+        pollBaseline = null;
+        stopRead();
+        isWaiting = false;
+        isIssued = false;
+        Step step = steps[index];
+        results.put(step.id, new StepResult(status, value));
+        if (STATUS_OK.equals(status) && step.expect != null && !evaluate(step.expect, step.id)) {
+            status = STATUS_FAILED;
+        }
+        if (!STATUS_OK.equals(status) && attempt <= step.retries) {
+            if (step.retryDelayMillis > 0) {
+                armTimer(TIMER_RETRY, step.retryDelayMillis);
+            } else {
+                isAttemptPending = true;
+            }
+            return;
+        }
+        endStep(step, status, value);
+    }
+
+    /**
+     * Stop the group read a readDid attempt started, the way the read screen does. Queued
+     * behind the request that started it, so it also stops a read whose answer came too late.
+     */
+    private void stopRead() {
+        if (readEcuPos < 0) {
+            return;
+        }
+        final int ecuPos = readEcuPos;
+        final BALBTDongleApiImpl lib = balDongleLib;
+        readEcuPos = -1;
+        lib.runAsync(OPERATION, DongleCommandScheduler.NO_DEADLINE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                ECURecord ecuRecord = lib.getEcuRecord(ecuPos);
+                if (ecuRecord != null) {
+                    lib.resetConfig(ecuRecord);
+                }
+                return null;
+            }
+        }, new DongleCommandScheduler.Callback<Void>() {
+            @Override
+            public void onResult(Void result) {
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.d(TAG, "stopRead: " + e.getMessage());
+            }
+        });
+    }
+
+    private void endStep(Step step, String status, Object value) {
+        results.put(step.id, new StepResult(status, value));
+        previousStepId = step.id;
+        JSONObject summary = new JSONObject();
+        WritableMap event;
+        try {
+            summary.put("index", step.index);
+            summary.put("id", step.id);
+            summary.put("op", step.op);
+            summary.put("status", status);
+            summary.put("attempts", attempt);
+            summary.put("value", VehicleSnapshotCapture.nullable(value));
+            summary.put("durationMillis", SystemClock.elapsedRealtime() - stepStartTime);
+            summaries.put(summary);
+            event = VehicleSnapshotCapture.toMap(summary);
+        } catch (JSONException e) {
+            Log.d(TAG, "endStep: " + e.getMessage());
+            event = new WritableNativeMap();
+            event.putString("id", step.id);
+            event.putString("status", status);
+        }
+        event.putString("macro", name);
+        listener.onStep(event);
+
+        if (STATUS_OK.equals(status) || STATUS_SKIPPED.equals(status)) {
+            if (STATUS_OK.equals(status)) {
+                okCount++;
+            } else {
+                skippedCount++;
+            }
+            index++;
+            return;
+        }
+        failedCount++;
+        if ("continue".equals(step.onFailure)) {
+            index++;
+        } else if ("abort".equals(step.onFailure)) {
+            abortedAt = step.id;
+            finish(false);
+        } else {
+            index = indexById.get(step.onFailure);
+        }
+    }
+
+    private void finish(boolean isCancelled) {
+        OperationWatchdog.getInstance().cancel(timeout);
+        OperationWatchdog.getInstance().cancel(timer);
+        subscriptions.detach(OPERATION);
+        attemptToken++;
+        pollParameter = null;
+        pollBaseline = null;
+        stopRead();
+        isWaiting = false;
+        isIssued = false;
+        isAttemptPending = false;
+        isRunning = false;
+        String status = isCancelled ? "cancelled" : failedCount > 0 || abortedAt != null ? "failed" : "passed";
+        WritableMap result;
+        try {
+            JSONObject json = new JSONObject();
+            json.put("name", name);
+            json.put("status", status);
+            json.put("abortedAt", VehicleSnapshotCapture.nullable(abortedAt));
+            json.put("steps", summaries);
+            JSONObject totals = new JSONObject();
+            totals.put("ok", okCount);
+            totals.put("failed", failedCount);
+            totals.put("skipped", skippedCount);
+            totals.put("executed", Math.min(executedSteps, MAX_EXECUTED_STEPS));
+            json.put("totals", totals);
+            json.put("durationMillis", SystemClock.elapsedRealtime() - startTime);
+            result = VehicleSnapshotCapture.toMap(json);
+        } catch (JSONException e) {
+            Log.d(TAG, "finish: " + e.getMessage());
+            result = new WritableNativeMap();
+            result.putString("name", name);
+            result.putString("status", status);
+        }
+        listener.onFinished(result);
+    }
+
+    private boolean evaluate(JSONObject condition, String defaultStepId) {
+        StepResult result = results.get(condition.optString("step", defaultStepId == null ? "" : defaultStepId));
+        if (result == null) {
+            return false;
+        }
+        if (condition.has("status") && !condition.optString("status").equals(result.status)) {
+            return false;
+        }
+        Object value = resolve(result.value, condition.optString("path"));
+        Iterator<String> keys = condition.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object expected = condition.opt(key);
+            switch (key) {
+                case "equals":
+                    if (!valuesEqual(value, expected)) {
+                        return false;
+                    }
+                    break;
+                case "notEquals":
+                    if (valuesEqual(value, expected)) {
+                        return false;
+                    }
+                    break;
+                case "lessThan":
+                    if (!(toDouble(value) < toDouble(expected))) {
+                        return false;
+                    }
+                    break;
+                case "greaterThan":
+                    if (!(toDouble(value) > toDouble(expected))) {
+                        return false;
+                    }
+                    break;
+                case "contains":
+                    if (!contains(value, expected)) {
+                        return false;
+                    }
+                    break;
+                case "matches":
+                    if (value == null || value == JSONObject.NULL
+                            || !Pattern.compile(String.valueOf(expected)).matcher(String.valueOf(value)).find()) {
+                        return false;
+                    }
+                    break;
+                default:
+                    // step, path, status
+            }
+        }
+        return true;
+    }
+
+    private static Object resolve(Object value, String path) {
+        if (path.isEmpty()) {
+            return value;
+        }
+        for (String part : path.split("\\.")) {
+            if (value instanceof JSONObject) {
+                value = ((JSONObject) value).opt(part);
+            } else if (value instanceof JSONArray) {
+                try {
+                    value = ((JSONArray) value).opt(Integer.parseInt(part));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    private static boolean valuesEqual(Object value, Object expected) {
+        if (value == null || value == JSONObject.NULL) {
+            return expected == null || expected == JSONObject.NULL;
+        }
+        if (value instanceof Number && expected instanceof Number) {
+            return ((Number) value).doubleValue() == ((Number) expected).doubleValue();
+        }
+        return String.valueOf(value).equals(String.valueOf(expected));
+    }
+
+    private static boolean contains(Object value, Object expected) {
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            for (int i = 0; i < array.length(); i++) {
+                Object element = array.opt(i);
+                // DTCs are objects, so {"path": "codes", "contains": "P0300"} looks into their fields
+                if (element instanceof JSONObject) {
+                    Iterator<String> keys = ((JSONObject) element).keys();
+                    while (keys.hasNext()) {
+                        if (valuesEqual(((JSONObject) element).opt(keys.next()), expected)) {
+                            return true;
+                        }
+                    }
+                } else if (valuesEqual(element, expected)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return value != null && value != JSONObject.NULL && String.valueOf(value).contains(String.valueOf(expected));
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return Double.parseDouble(String.valueOf(value).trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static ReadParameterModel findParameter(List<ReadParameterModel> parameters, JSONObject spec) {
+        String did = spec.optString("did");
+        String description = spec.optString("description");
+        if (parameters != null) {
+            for (ReadParameterModel parameter : parameters) {
+                if (!did.isEmpty() ? did.equalsIgnoreCase(parameter.didHex) : description.equals(parameter.Desc)) {
+                    return parameter;
+                }
+            }
+        }
+        throw new IllegalArgumentException("No parameter " + (did.isEmpty() ? description : did));
+    }
+
+    private static int findRoutine(ArrayList<Routine> routines, JSONObject spec) {
+        String routineId = spec.optString("routineId");
+        if (routineId.isEmpty()) {
+            return spec.optInt("index", 0);
+        }
+        for (int i = 0; i < routines.size(); i++) {
+            if (routineId.equalsIgnoreCase(routines.get(i).getRoutineID())) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No routine " + routineId);
+    }
+
+    /**
+     * The lib wraps some responses as {@code {"status", "value"}}.
+     */
+    private static String getStatus(String response) {
+        String trimmed = response.trim();
+        if (trimmed.startsWith("{")) {
+            try {
+                return new JSONObject(trimmed).optString("value");
+            } catch (JSONException e) {
+                return response;
+            }
+        }
+        return response;
+    }
+}
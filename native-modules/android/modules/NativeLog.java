@@ -0,0 +1,281 @@
+package com.nostix;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Structured in-memory log for hot paths (progress callbacks, parameter polling, BIN data
+ * responses). Call sites declare their events once:
+ *
+ * <pre>
+ * private static final int LOG_PROGRESS = NativeLog.event(TAG, Log.DEBUG, "{r} emitted:{0},dropped:{1}");
+ * ...
+ * NativeLog.log(LOG_PROGRESS, emitted, dropped, eventName);
+ * </pre>
+ *
+ * Logging an event stores the event id, the time, up to two {@code long} args and one
+ * string into preallocated ring slots; nothing is formatted. Templates are only expanded
+ * when the ring is dumped ({@code {0}}/{@code {1}} for the longs, {@code {r}} for the
+ * string, cut to {@value #MAX_REF_LENGTH} chars). Only immutable args are taken, so a
+ * dump shows each event as it was when it was logged: objects are formatted by the call
+ * site, behind {@link #isLoggable} when that is costly.
+ * <p>
+ * Writers claim slots with a single atomic increment and never block. Dumping is best
+ * effort: a slot overwritten while it is being read is skipped.
+ */
+public final class NativeLog {
+
+    private static final String TAG = "NativeLog";
+    private static final int CAPACITY = 8192; // power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final int MAX_TAGS = 64;
+    private static final int MAX_EVENTS = 512;
+    private static final int MAX_REF_LENGTH = 120;
+    private static final String LOG_DIR = "BALAppLog";
+
+    // Ring slots
+    private static final long[] times = new long[CAPACITY];
+    private static final int[] events = new int[CAPACITY];
+    private static final long[] firstArgs = new long[CAPACITY];
+    private static final long[] secondArgs = new long[CAPACITY];
+    private static final String[] refs = new String[CAPACITY];
+    // Sequence number written to a slot once it is complete, -1 while being written
+    private static final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong sequence = new AtomicLong();
+
+    // Event and tag tables, append-only
+    private static final String[] eventTemplates = new String[MAX_EVENTS];
+    private static final int[] eventTags = new int[MAX_EVENTS];
+    private static final int[] eventLevels = new int[MAX_EVENTS];
+    private static int eventCount;
+    private static final String[] tagNames = new String[MAX_TAGS];
+    private static int tagCount;
+    private static final int[] tagSampleEvery = new int[MAX_TAGS];
+    private static final AtomicIntegerArray tagCounters = new AtomicIntegerArray(MAX_TAGS);
+    private static final AtomicLong sampledOut = new AtomicLong();
+
+    private static volatile int minLevel = Log.DEBUG;
+    // Events at or above this level are also formatted straight to logcat
+    private static volatile int logcatLevel = Log.WARN;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    private NativeLog() {
+    }
+
+    /**
+     * Declare an event. Meant for static initializers; the returned id is passed to
+     * {@link #log}.
+     */
+    public static synchronized int event(String tag, int level, String template) {
+        if (eventCount >= MAX_EVENTS) {
+            throw new IllegalStateException("Too many NativeLog events");
+        }
+        int id = eventCount++;
+        eventTemplates[id] = template;
+        eventTags[id] = tagId(tag);
+        eventLevels[id] = level;
+        return id;
+    }
+
+    public static void setMinLevel(int level) {
+        minLevel = level;
+    }
+
+    public static void setLogcatLevel(int level) {
+        logcatLevel = level;
+    }
+
+    /**
+     * Keep only every {@code every}-th event of a tag; 1 keeps all.
+     */
+    public static synchronized void setSampling(String tag, int every) {
+        tagSampleEvery[tagId(tag)] = Math.max(every, 1);
+    }
+
+    public static boolean isLoggable(int event) {
+        return eventLevels[event] >= minLevel;
+    }
+
+    public static void log(int event) {
+        append(event, 0, 0, null);
+    }
+
+    public static void log(int event, long first) {
+        append(event, first, 0, null);
+    }
+
+    public static void log(int event, long first, long second) {
+        append(event, first, second, null);
+    }
+
+    public static void log(int event, String ref) {
+        append(event, 0, 0, ref);
+    }
+
+    public static void log(int event, long first, String ref) {
+        append(event, first, 0, ref);
+    }
+
+    public static void log(int event, long first, long second, String ref) {
+        append(event, first, second, ref);
+    }
+
+    private static void append(int event, long first, long second, String ref) {
+        int level = eventLevels[event];
+        if (level < minLevel) {
+            return;
+        }
+        int tag = eventTags[event];
+        int every = tagSampleEvery[tag];
+        if (every > 1 && tagCounters.incrementAndGet(tag) % every != 0) {
+            sampledOut.incrementAndGet();
+            return;
+        }
+        long time = System.currentTimeMillis();
+        long seq = sequence.getAndIncrement();
+        int slot = (int) (seq & MASK);
+        published.set(slot, -1);
+        times[slot] = time;
+        events[slot] = event;
+        firstArgs[slot] = first;
+        secondArgs[slot] = second;
+        refs[slot] = ref;
+        published.set(slot, seq);
+        if (level >= logcatLevel) {
+            Log.println(level, tagNames[tag], format(eventTemplates[event], first, second, ref));
+        }
+    }
+
+    /**
+     * Format up to {@code maxEvents} of the newest events, oldest first.
+     */
+    public static List<String> snapshot(int maxEvents) {
+        List<String> lines = new ArrayList<>();
+        long end = sequence.get();
+        long start = Math.max(0, end - Math.min(maxEvents, CAPACITY));
+        SimpleDateFormat timeFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        Date date = new Date();
+        for (long seq = start; seq < end; seq++) {
+            int slot = (int) (seq & MASK);
+            if (published.get(slot) != seq) {
+                continue;
+            }
+            long time = times[slot];
+            int event = events[slot];
+            long first = firstArgs[slot];
+            long second = secondArgs[slot];
+            String ref = refs[slot];
+            if (published.get(slot) != seq) {
+                continue;
+            }
+            date.setTime(time);
+            lines.add(timeFormat.format(date) + " " + levelName(eventLevels[event]) + "/"
+                    + tagNames[eventTags[event]] + ": " + format(eventTemplates[event], first, second, ref));
+        }
+        return lines;
+    }
+
+    public static void dump(Writer writer, int maxEvents) throws IOException {
+        for (String line : snapshot(maxEvents)) {
+            writer.write(line);
+            writer.write('\n');
+        }
+        long dropped = sampledOut.get();
+        if (dropped > 0) {
+            writer.write("(" + dropped + " events dropped by sampling)\n");
+        }
+    }
+
+    /**
+     * Write the whole ring to {@code <dataDir>/BALAppLog/native_<time>.log}, next to the
+     * lib's app logs, so it is shipped with them.
+     */
+    public static File dumpToFile(File dataDir) throws IOException {
+        File dir = new File(dataDir, LOG_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        String name = "native_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".log";
+        File file = new File(dir, name);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            dump(writer, CAPACITY);
+        }
+        return file;
+    }
+
+    private static int tagId(String tag) {
+        synchronized (NativeLog.class) {
+            for (int i = 0; i < tagCount; i++) {
+                if (tagNames[i].equals(tag)) {
+                    return i;
+                }
+            }
+            if (tagCount >= MAX_TAGS) {
+                Log.w(TAG, "Too many tags, logging " + tag + " as " + tagNames[MAX_TAGS - 1]);
+                return MAX_TAGS - 1;
+            }
+            tagNames[tagCount] = tag;
+            tagSampleEvery[tagCount] = 1;
+            return tagCount++;
+        }
+    }
+
+    private static String format(String template, long first, long second, String ref) {
+        StringBuilder builder = new StringBuilder(template.length() + 32);
+        int length = template.length();
+        for (int i = 0; i < length; i++) {
+            char c = template.charAt(i);
+            if (c == '{' && i + 2 < length && template.charAt(i + 2) == '}') {
+                char key = template.charAt(i + 1);
+                if (key == '0' || key == '1') {
+                    builder.append(key == '0' ? first : second);
+                    i += 2;
+                    continue;
+                }
+                if (key == 'r') {
+                    String text = String.valueOf(ref);
+                    builder.append(text.length() > MAX_REF_LENGTH ? text.substring(0, MAX_REF_LENGTH) + "..." : text);
+                    i += 2;
+                    continue;
+                }
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static String levelName(int level) {
+        switch (level) {
+            case Log.VERBOSE:
+                return "V";
+            case Log.DEBUG:
+                return "D";
+            case Log.INFO:
+                return "I";
+            case Log.WARN:
+                return "W";
+            case Log.ERROR:
+                return "E";
+            default:
+                return "A";
+        }
+    }
+}
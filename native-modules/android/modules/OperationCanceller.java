@@ -0,0 +1,281 @@
+package com.nostix;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.bal.balnostix.base.ECURecord;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Cancellation tokens for the long-running operations started by the subscribeTo*
+ * entry points (cancelOperation).
+ * <p>
+ * Every subscribeTo* call begins a token for its operation; observers and timers drop
+ * whatever the lib delivers once the token is cancelled. Cancelling also stops the work
+ * on the link, which unsubscribing never did: stopFlashing detaches the lib service
+ * driving the operation (flashing, EE dump, ...) and resetConfig sends the dongle
+ * Cancel_Data. The dongle acknowledges with ConfigReset on the updateUI stream; the time
+ * from the cancel to that acknowledgement is reported as the time to quiesce. One
+ * acknowledgement per resetConfig a cancel sent is consumed here, so screens waiting for
+ * ConfigReset after their own resetConfig never see one caused by a cancel; every other
+ * ConfigReset is forwarded.
+ * <p>
+ * The dongle bootloader update is never aborted, an interrupted bootloader write leaves
+ * the dongle unusable.
+ */
+public class OperationCanceller {
+
+    private static final String TAG = "OperationCanceller";
+
+    public static final long DEFAULT_QUIESCE_TIMEOUT_MILLIS = 3000;
+    private static final String BOOTLOADER_OPERATION = "updateBootLoader";
+
+    public interface Listener {
+        /**
+         * Release what the module holds for the operation: its observer and timers.
+         */
+        void onCancelled(CancellationToken token);
+    }
+
+    public interface ResultListener {
+        void onResult(WritableMap result);
+    }
+
+    public static final class CancellationToken {
+        private final String operation;
+        private final int ecuPos;
+        private final long startedAt;
+        private volatile boolean isCancelled;
+
+        private CancellationToken(String operation, int ecuPos) {
+            this.operation = operation;
+            this.ecuPos = ecuPos;
+            this.startedAt = SystemClock.elapsedRealtime();
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public int getEcuPos() {
+            return ecuPos;
+        }
+
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+    }
+
+    private static final class PendingCancel {
+        final CancellationToken token;
+        final ResultListener listener;
+        final long cancelledAt;
+        final WritableMap result;
+        // Its resetConfig left the command thread; only then is a ConfigReset its acknowledgement
+        boolean isIssued;
+
+        PendingCancel(CancellationToken token, ResultListener listener, long cancelledAt, WritableMap result) {
+            this.token = token;
+            this.listener = listener;
+            this.cancelledAt = cancelledAt;
+            this.result = result;
+        }
+    }
+
+    private final Listener listener;
+    // Latest token per operation; a cancelled one stays until the operation begins again
+    private final Map<String, CancellationToken> tokens = new HashMap<>();
+    private final List<PendingCancel> pending = new ArrayList<>();
+    private final OperationWatchdog.Deadline deadline = OperationWatchdog.getInstance()
+            .newDeadline(new OperationWatchdog.ExpiryListener() {
+                @Override
+                public void onExpired(String type) {
+                    finishPending("timeout");
+                }
+            });
+    // ECU of the latest operation that had one, for operations that do not
+    private int lastEcuPos = -1;
+
+    public OperationCanceller(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Start a token for {@code operation}, replacing the one of its previous run.
+     */
+    public synchronized CancellationToken begin(String operation, int ecuPos) {
+        CancellationToken token = new CancellationToken(operation, ecuPos);
+        tokens.put(operation, token);
+        if (ecuPos >= 0) {
+            lastEcuPos = ecuPos;
+        }
+        return token;
+    }
+
+    public synchronized boolean isCancelled(String operation) {
+        CancellationToken token = tokens.get(operation);
+        return token != null && token.isCancelled;
+    }
+
+    /**
+     * Cancel {@code operation} and stop it on the link. {@code resultListener} gets
+     * {@code {operation, ecuPos, status, stoppedService, quiesceMillis, ranMillis}} once
+     * the dongle acknowledged, or at {@code timeoutMillis}.
+     */
+    public void cancel(BALBTDongleApiImpl balDongleLib, String operation, long timeoutMillis,
+            ResultListener resultListener) {
+        long cancelledAt = SystemClock.elapsedRealtime();
+        CancellationToken token;
+        int abortPos;
+        synchronized (this) {
+            token = tokens.get(operation);
+            if (token == null || token.isCancelled) {
+                resultListener.onResult(newResult(operation, -1, "idle", cancelledAt, 0));
+                return;
+            }
+            if (BOOTLOADER_OPERATION.equals(operation)) {
+                resultListener.onResult(newResult(operation, token.ecuPos, "refused", cancelledAt,
+                        cancelledAt - token.startedAt));
+                return;
+            }
+            token.isCancelled = true;
+            abortPos = token.ecuPos >= 0 ? token.ecuPos : lastEcuPos;
+        }
+        listener.onCancelled(token);
+        WritableMap result = newResult(operation, token.ecuPos, null, cancelledAt, cancelledAt - token.startedAt);
+        if (balDongleLib == null || abortPos < 0) {
+            // Nothing to address Cancel_Data to; the operation is only detached
+            result.putString("status", "detached");
+            result.putBoolean("stoppedService", false);
+            resultListener.onResult(result);
+            return;
+        }
+        boolean isStopped = false;
+        try {
+            final BALBTDongleApiImpl lib = balDongleLib;
+            final ECURecord ecuRecord = lib.getEcuRecord(abortPos);
+            isStopped = lib.stopFlashing(ecuRecord);
+            result.putBoolean("stoppedService", isStopped);
+            final PendingCancel cancel = new PendingCancel(token, resultListener, cancelledAt, result);
+            synchronized (this) {
+                pending.add(cancel);
+                OperationWatchdog.getInstance().arm(deadline, timeoutMillis, operation);
+            }
+            // Marked issued on the command thread, after whatever resetConfig a screen queued before it
+            lib.getScheduler().call(DongleCommandScheduler.LANE_INTERACTIVE, "cancelResetConfig",
+                    DongleCommandScheduler.NO_DEADLINE, new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            synchronized (OperationCanceller.this) {
+                                cancel.isIssued = true;
+                            }
+                            lib.resetConfig(ecuRecord);
+                            return null;
+                        }
+                    });
+        } catch (Exception e) {
+            Log.d(TAG, "cancel: " + e.getMessage());
+            synchronized (this) {
+                for (int i = pending.size() - 1; i >= 0; i--) {
+                    if (pending.get(i).token == token) {
+                        pending.remove(i);
+                    }
+                }
+            }
+            result.putString("status", "error");
+            result.putBoolean("stoppedService", isStopped);
+            resultListener.onResult(result);
+        }
+    }
+
+    /**
+     * Feed every updateUI response here.
+     *
+     * @return true if {@code response} acknowledged a cancel and should not be forwarded
+     */
+    public boolean onUpdateUI(String response) {
+        synchronized (this) {
+            if (pending.isEmpty() || response == null || !response.contains("ConfigReset")) {
+                return false;
+            }
+        }
+        try {
+            if (!"ConfigReset".equals(new JSONObject(response).optString("value"))) {
+                return false;
+            }
+        } catch (JSONException e) {
+            return false;
+        }
+        PendingCancel acknowledged = null;
+        synchronized (this) {
+            for (int i = 0; i < pending.size(); i++) {
+                if (pending.get(i).isIssued) {
+                    acknowledged = pending.remove(i);
+                    break;
+                }
+            }
+            if (acknowledged == null) {
+                return false;
+            }
+            if (pending.isEmpty()) {
+                OperationWatchdog.getInstance().cancel(deadline);
+            }
+        }
+        finish(acknowledged, "quiesced", SystemClock.elapsedRealtime());
+        return true;
+    }
+
+    public void cancelPending() {
+        finishPending("cancelled");
+    }
+
+    private boolean finishPending(String status) {
+        PendingCancel[] finished;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return false;
+            }
+            OperationWatchdog.getInstance().cancel(deadline);
+            finished = pending.toArray(new PendingCancel[0]);
+            pending.clear();
+        }
+        long now = SystemClock.elapsedRealtime();
+        for (PendingCancel cancel : finished) {
+            finish(cancel, status, now);
+        }
+        return true;
+    }
+
+    private static void finish(PendingCancel cancel, String status, long now) {
+        cancel.result.putString("status", status);
+        cancel.result.putDouble("quiesceMillis", now - cancel.cancelledAt);
+        try {
+            cancel.listener.onResult(cancel.result);
+        } catch (Exception e) {
+            Log.d(TAG, "finish: " + e.getMessage());
+        }
+    }
+
+    private static WritableMap newResult(String operation, int ecuPos, String status, long cancelledAt, long ranMillis) {
+        WritableMap result = new WritableNativeMap();
+        result.putString("operation", operation);
+        result.putInt("ecuPos", ecuPos);
+        if (status != null) {
+            result.putString("status", status);
+            result.putBoolean("stoppedService", false);
+        }
+        result.putDouble("quiesceMillis", SystemClock.elapsedRealtime() - cancelledAt);
+        result.putDouble("ranMillis", ranMillis);
+        return result;
+    }
+}
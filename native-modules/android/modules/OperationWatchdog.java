@@ -0,0 +1,174 @@
+package com.nostix;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+/**
+ * Process-wide hashed-wheel timer for operation deadlines (flash, boot, eeDump,
+ * readBinData, actuator). All deadlines share one background thread; the wheel only
+ * ticks while at least one deadline is armed.
+ * <p>
+ * A {@link Deadline} is allocated once per owner and re-armed in place: arming unlinks
+ * it from its current slot and links it into the new one, so re-arming on every
+ * progress callback is O(1) and allocation-free. Expiry callbacks run on the watchdog
+ * thread.
+ */
+public class OperationWatchdog {
+
+    private static final String TAG = "OperationWatchdog";
+    private static final long TICK_MS = 50;
+    private static final int WHEEL_SIZE = 256; // 12.8 s per round
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private static OperationWatchdog instance;
+
+    public interface ExpiryListener {
+        void onExpired(String type);
+    }
+
+    public static final class Deadline {
+        private final ExpiryListener listener;
+        private String type;
+        private long remainingRounds;
+        private int slot = -1;
+        private Deadline prev;
+        private Deadline next;
+        // Bumped on every arm/cancel so a stale expiry is not dispatched
+        private int generation;
+        private int expiredGeneration;
+        private Deadline nextExpired;
+
+        private Deadline(ExpiryListener listener) {
+            this.listener = listener;
+        }
+    }
+
+    private final Deadline[] wheel = new Deadline[WHEEL_SIZE];
+    private final Handler handler;
+    private final Runnable tickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onTick();
+        }
+    };
+    private long currentTick;
+    private int armedCount;
+    private boolean isTicking;
+
+    private OperationWatchdog() {
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    public static synchronized OperationWatchdog getInstance() {
+        if (instance == null) {
+            instance = new OperationWatchdog();
+        }
+        return instance;
+    }
+
+    public Deadline newDeadline(ExpiryListener listener) {
+        return new Deadline(listener);
+    }
+
+    public synchronized void arm(Deadline deadline, long timeoutInMillis, String type) {
+        unlink(deadline);
+        long ticks = Math.max(1, (timeoutInMillis + TICK_MS - 1) / TICK_MS);
+        int slot = (int) ((currentTick + ticks) & WHEEL_MASK);
+        deadline.type = type;
+        deadline.remainingRounds = (ticks - 1) / WHEEL_SIZE;
+        deadline.generation++;
+        link(deadline, slot);
+        if (!isTicking) {
+            isTicking = true;
+            handler.postDelayed(tickRunnable, TICK_MS);
+        }
+    }
+
+    public synchronized void cancel(Deadline deadline) {
+        deadline.generation++;
+        unlink(deadline);
+    }
+
+    public synchronized boolean isArmed(Deadline deadline) {
+        return deadline.slot >= 0;
+    }
+
+    public synchronized int getArmedCount() {
+        return armedCount;
+    }
+
+    private void onTick() {
+        Deadline expired = null;
+        synchronized (this) {
+            currentTick++;
+            Deadline deadline = wheel[(int) (currentTick & WHEEL_MASK)];
+            while (deadline != null) {
+                Deadline next = deadline.next;
+                if (deadline.remainingRounds > 0) {
+                    deadline.remainingRounds--;
+                } else {
+                    unlink(deadline);
+                    deadline.expiredGeneration = deadline.generation;
+                    deadline.nextExpired = expired;
+                    expired = deadline;
+                }
+                deadline = next;
+            }
+            if (armedCount > 0) {
+                handler.postDelayed(tickRunnable, TICK_MS);
+            } else {
+                isTicking = false;
+            }
+        }
+        while (expired != null) {
+            Deadline deadline = expired;
+            expired = deadline.nextExpired;
+            deadline.nextExpired = null;
+            String type;
+            synchronized (this) {
+                if (deadline.generation != deadline.expiredGeneration || deadline.slot >= 0) {
+                    continue;
+                }
+                type = deadline.type;
+            }
+            try {
+                deadline.listener.onExpired(type);
+            } catch (Exception e) {
+                Log.e(TAG, "onExpired: " + e.getMessage());
+            }
+        }
+    }
+
+    private void link(Deadline deadline, int slot) {
+        Deadline head = wheel[slot];
+        deadline.slot = slot;
+        deadline.prev = null;
+        deadline.next = head;
+        if (head != null) {
+            head.prev = deadline;
+        }
+        wheel[slot] = deadline;
+        armedCount++;
+    }
+
+    private void unlink(Deadline deadline) {
+        if (deadline.slot < 0) {
+            return;
+        }
+        if (deadline.prev != null) {
+            deadline.prev.next = deadline.next;
+        } else {
+            wheel[deadline.slot] = deadline.next;
+        }
+        if (deadline.next != null) {
+            deadline.next.prev = deadline.prev;
+        }
+        deadline.prev = null;
+        deadline.next = null;
+        deadline.slot = -1;
+        armedCount--;
+    }
+}
@@ -0,0 +1,101 @@
+package com.nostix;
+
+import android.os.SystemClock;
+
+import com.bal.balnostix.base.ECURecord;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+/**
+ * Rate limiter for one progress stream (flash, boot, VIN/PC/BIN write).
+ * Intermediate updates are throttled to the ECU's update frame time on the monotonic
+ * clock; terminal states (100 or -1 on either bar) are always delivered. Only
+ * primitives are kept between callbacks, so offering an update allocates nothing.
+ */
+public class ProgressChannel {
+
+    public static final int DEFAULT_UPDATE_FRAMES_TIME = 720;
+    // Head start given to a frame whose progress moved, when the ECU asks for per-frame updates
+    private static final int UPDATE_PER_FRAME_BONUS = 60;
+
+    private final String eventName;
+    private final boolean isPerFrameSupported;
+    private int updateFramesTime = DEFAULT_UPDATE_FRAMES_TIME;
+    private boolean isUpdatePerFrame;
+    private long lastEmitTime;
+    private boolean hasPrevious;
+    private int previousMainProgress;
+    private int previousSubProgress;
+    private long emittedCount;
+    private long droppedCount;
+
+    public ProgressChannel(String eventName, boolean isPerFrameSupported) {
+        this.eventName = eventName;
+        this.isPerFrameSupported = isPerFrameSupported;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    /**
+     * Take the frame time and per-frame flag from the ECU and start a fresh operation.
+     */
+    public synchronized void configure(ECURecord ecuRecord) {
+        if (ecuRecord != null) {
+            updateFramesTime = ecuRecord.getUpdateFrameTime();
+            isUpdatePerFrame = isPerFrameSupported && ecuRecord.isUpdatePerFrame();
+        }
+        lastEmitTime = 0;
+        hasPrevious = false;
+        emittedCount = 0;
+        droppedCount = 0;
+    }
+
+    /**
+     * @return true if this update should be forwarded to JS
+     */
+    public synchronized boolean offer(int mainProgress, int subProgress) {
+        long now = SystemClock.elapsedRealtime();
+        long millis = now - lastEmitTime;
+        if (hasPrevious && isUpdatePerFrame
+                && (mainProgress != previousMainProgress || subProgress != previousSubProgress)) {
+            millis += UPDATE_PER_FRAME_BONUS;
+        }
+        hasPrevious = true;
+        previousMainProgress = mainProgress;
+        previousSubProgress = subProgress;
+        if (millis > updateFramesTime || isTerminal(mainProgress, subProgress)) {
+            lastEmitTime = now;
+            emittedCount++;
+            return true;
+        }
+        droppedCount++;
+        return false;
+    }
+
+    public synchronized long getEmittedCount() {
+        return emittedCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized WritableMap getStats() {
+        WritableMap stats = new WritableNativeMap();
+        stats.putDouble("emitted", emittedCount);
+        stats.putDouble("dropped", droppedCount);
+        stats.putInt("updateFrameTime", updateFramesTime);
+        stats.putBoolean("isUpdatePerFrame", isUpdatePerFrame);
+        return stats;
+    }
+
+    public static boolean isTerminal(int mainProgress, int subProgress) {
+        return mainProgress == 100 || subProgress == 100 || isFailed(mainProgress, subProgress);
+    }
+
+    public static boolean isFailed(int mainProgress, int subProgress) {
+        return mainProgress == -1 || subProgress == -1;
+    }
+}
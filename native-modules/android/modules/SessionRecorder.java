@@ -0,0 +1,492 @@
+package com.nostix;
+
+import android.util.Log;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only recorder for analytics and live parameter samples.
+ * <p>
+ * A session is a directory of fixed-size segment files, each memory-mapped once when it
+ * is opened, so appending a sample is a few stores into the mapping and never a write
+ * syscall. Samples are encoded per series: timestamps as zigzag varint delta-of-deltas,
+ * values XORed with the previous value of the series and stored as a control byte plus
+ * only the non-zero middle bytes. Encoder state restarts in every segment, so each
+ * segment decodes on its own.
+ * <p>
+ * The segment header carries the written length and the first/last timestamp. Those
+ * headers are the time index: a range query only decodes segments that overlap it, and
+ * a session cut off by a crash is still readable up to its last complete record.
+ */
+public class SessionRecorder {
+
+    private static final String TAG = "SessionRecorder";
+
+    public static final String SESSIONS_DIR = "BALSessions";
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_SERIES = 256;
+    // Longest possible record: type + id + timestamp + control + 8 value bytes
+    private static final int MAX_SAMPLE_RECORD = 1 + 5 + 10 + 1 + 8;
+
+    private static final int MAGIC = 0x4E585352; // "NXSR"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH_OFFSET = 8;
+    private static final int HEADER_COUNT_OFFSET = 12;
+    private static final int HEADER_FIRST_TIME_OFFSET = 16;
+    private static final int HEADER_LAST_TIME_OFFSET = 24;
+    private static final int HEADER_SIZE = 32;
+
+    private static final byte RECORD_DEFINE = 1;
+    private static final byte RECORD_SAMPLE = 2;
+
+    // Ids are the directory names start() creates (without milliseconds before they were
+    // added); anything else could name a path outside
+    private static final Pattern SESSION_ID = Pattern.compile("\\d{8}_\\d{6}(_\\d{3})?");
+
+    private final File sessionsDir;
+
+    private String sessionId;
+    private File sessionDir;
+    private int segmentIndex;
+    private MappedByteBuffer segment;
+    private int segmentRecordCount;
+    private long sessionSampleCount;
+    private long startTime;
+
+    private final Map<String, Integer> seriesIds = new HashMap<>();
+    private final List<String> seriesNames = new ArrayList<>();
+    // Per-series encoder state, reset for every segment
+    private final int[] segmentSampleCount = new int[MAX_SERIES];
+    private final long[] previousTime = new long[MAX_SERIES];
+    private final long[] previousDelta = new long[MAX_SERIES];
+    private final long[] previousBits = new long[MAX_SERIES];
+    private long droppedSamples;
+
+    public SessionRecorder(File dataDir) {
+        this.sessionsDir = new File(dataDir, SESSIONS_DIR);
+    }
+
+    public synchronized boolean isRecording() {
+        return segment != null;
+    }
+
+    public synchronized String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Start a new session, stopping the current one first. The session always gets a new
+     * directory, an existing one is never reused.
+     *
+     * @return the session id (its directory name)
+     */
+    public synchronized String start() throws IOException {
+        stop();
+        if (!sessionsDir.isDirectory() && !sessionsDir.mkdirs()) {
+            throw new IOException("Unable to create " + sessionsDir);
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS", Locale.US);
+        long time = System.currentTimeMillis();
+        String id = format.format(new Date(time));
+        File dir = new File(sessionsDir, id);
+        // Taken by a session started within the same millisecond (or a clock set back)
+        while (!dir.mkdir()) {
+            if (!dir.exists()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            time++;
+            id = format.format(new Date(time));
+            dir = new File(sessionsDir, id);
+        }
+        sessionId = id;
+        sessionDir = dir;
+        segmentIndex = -1;
+        segmentRecordCount = 0;
+        sessionSampleCount = 0;
+        droppedSamples = 0;
+        startTime = System.currentTimeMillis();
+        seriesIds.clear();
+        seriesNames.clear();
+        openNextSegment();
+        return id;
+    }
+
+    /**
+     * Flush the current segment to disk and close the session.
+     *
+     * @return summary of the session, or null if nothing was recording
+     */
+    public synchronized WritableMap stop() {
+        if (segment == null) {
+            return null;
+        }
+        segment.force();
+        segment = null;
+        WritableMap summary = new WritableNativeMap();
+        summary.putString("sessionId", sessionId);
+        summary.putDouble("startTime", startTime);
+        summary.putDouble("samples", sessionSampleCount);
+        summary.putDouble("droppedSamples", droppedSamples);
+        summary.putInt("segments", segmentIndex + 1);
+        summary.putInt("series", seriesNames.size());
+        return summary;
+    }
+
+    /**
+     * Append one sample. A no-op when no session is recording.
+     */
+    public synchronized void record(String series, long timeInMillis, double value) {
+        if (segment == null) {
+            return;
+        }
+        try {
+            Integer id = seriesIds.get(series);
+            if (id == null) {
+                if (seriesNames.size() >= MAX_SERIES) {
+                    droppedSamples++;
+                    return;
+                }
+                id = seriesNames.size();
+                seriesIds.put(series, id);
+                seriesNames.add(series);
+            }
+            byte[] name = null;
+            if (segmentSampleCount[id] == 0) {
+                name = series.getBytes(StandardCharsets.UTF_8);
+            }
+            int needed = MAX_SAMPLE_RECORD + (name != null ? 1 + 5 + 5 + name.length : 0);
+            if (segment.remaining() < needed) {
+                openNextSegment();
+                name = series.getBytes(StandardCharsets.UTF_8);
+            }
+            if (segmentSampleCount[id] == 0) {
+                segment.put(RECORD_DEFINE);
+                putVarint(segment, id);
+                putVarint(segment, name.length);
+                segment.put(name);
+            }
+            writeSample(id, timeInMillis, value);
+        } catch (IOException e) {
+            Log.d(TAG, "record: " + e.getMessage());
+            droppedSamples++;
+        }
+    }
+
+    public synchronized WritableArray listSessions() {
+        WritableArray sessions = new WritableNativeArray();
+        File[] dirs = sessionsDir.listFiles();
+        if (dirs == null) {
+            return sessions;
+        }
+        Arrays.sort(dirs);
+        for (File dir : dirs) {
+            if (!dir.isDirectory()) {
+                continue;
+            }
+            long samples = 0;
+            long bytes = 0;
+            long firstTime = Long.MAX_VALUE;
+            long lastTime = Long.MIN_VALUE;
+            File[] segments = listSegments(dir);
+            for (File file : segments) {
+                SegmentHeader header = readHeader(file);
+                if (header == null) {
+                    continue;
+                }
+                samples += header.sampleCount;
+                bytes += header.length;
+                if (header.sampleCount > 0) {
+                    firstTime = Math.min(firstTime, header.firstTime);
+                    lastTime = Math.max(lastTime, header.lastTime);
+                }
+            }
+            WritableMap item = new WritableNativeMap();
+            item.putString("sessionId", dir.getName());
+            item.putString("path", dir.getAbsolutePath());
+            item.putInt("segments", segments.length);
+            item.putDouble("samples", samples);
+            item.putDouble("bytes", bytes);
+            if (samples > 0) {
+                item.putDouble("firstTime", firstTime);
+                item.putDouble("lastTime", lastTime);
+            } else {
+                item.putNull("firstTime");
+                item.putNull("lastTime");
+            }
+            item.putBoolean("isRecording", dir.getName().equals(sessionId) && segment != null);
+            sessions.pushMap(item);
+        }
+        return sessions;
+    }
+
+    public synchronized boolean deleteSession(String id) {
+        if (!isSessionId(id) || (id.equals(sessionId) && segment != null)) {
+            return false;
+        }
+        File dir = new File(sessionsDir, id);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        return dir.delete();
+    }
+
+    /**
+     * Write the samples of a session within [fromTime, toTime] as CSV
+     * ({@code time,series,value}). Segments whose header range does not overlap are
+     * skipped without being read. Safe to call while the session is recording: only the
+     * part of each segment that was written when the header was read is decoded.
+     *
+     * @return the CSV file, inside the session directory
+     */
+    public File exportCsv(String id, long fromTime, long toTime) throws IOException {
+        if (!isSessionId(id)) {
+            throw new IOException("Invalid session id " + id);
+        }
+        File dir = new File(sessionsDir, id);
+        if (!dir.isDirectory()) {
+            throw new IOException("No session " + id);
+        }
+        File csv = new File(dir, id + ".csv");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csv))) {
+            writer.write("time,series,value\n");
+            for (File file : listSegments(dir)) {
+                SegmentHeader header = readHeader(file);
+                if (header == null || header.sampleCount == 0
+                        || header.lastTime < fromTime || header.firstTime > toTime) {
+                    continue;
+                }
+                decodeSegment(file, header.length, fromTime, toTime, writer);
+            }
+        }
+        return csv;
+    }
+
+    private static boolean isSessionId(String id) {
+        return id != null && SESSION_ID.matcher(id).matches();
+    }
+
+    private void openNextSegment() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        segmentIndex++;
+        File file = new File(sessionDir, String.format(Locale.US, "seg_%05d.bin", segmentIndex));
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            // The mapping stays valid after the channel is closed
+            segment = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, FORMAT_VERSION);
+        segment.putInt(HEADER_LENGTH_OFFSET, HEADER_SIZE);
+        segment.putInt(HEADER_COUNT_OFFSET, 0);
+        segment.putLong(HEADER_FIRST_TIME_OFFSET, 0);
+        segment.putLong(HEADER_LAST_TIME_OFFSET, 0);
+        segment.position(HEADER_SIZE);
+        segmentRecordCount = 0;
+        Arrays.fill(segmentSampleCount, 0);
+    }
+
+    private void writeSample(int id, long time, double value) {
+        segment.put(RECORD_SAMPLE);
+        putVarint(segment, id);
+        int count = segmentSampleCount[id];
+        if (count == 0) {
+            putVarLong(segment, zigzag(time));
+        } else {
+            long delta = time - previousTime[id];
+            putVarLong(segment, zigzag(count == 1 ? delta : delta - previousDelta[id]));
+            previousDelta[id] = delta;
+        }
+        previousTime[id] = time;
+
+        long bits = Double.doubleToRawLongBits(value);
+        long xor = count == 0 ? bits : bits ^ previousBits[id];
+        previousBits[id] = bits;
+        if (xor == 0) {
+            segment.put((byte) 0);
+        } else {
+            int leading = Math.min(Long.numberOfLeadingZeros(xor) / 8, 7);
+            int trailing = Math.min(Long.numberOfTrailingZeros(xor) / 8, 7 - leading);
+            int meaningful = 8 - leading - trailing;
+            segment.put((byte) (0x80 | (leading << 3) | trailing));
+            for (int i = meaningful - 1; i >= 0; i--) {
+                segment.put((byte) (xor >>> ((trailing + i) * 8)));
+            }
+        }
+        segmentSampleCount[id] = count + 1;
+
+        // Header last: a reader never sees a length that covers a partial record
+        if (segmentRecordCount == 0) {
+            segment.putLong(HEADER_FIRST_TIME_OFFSET, time);
+        }
+        segmentRecordCount++;
+        sessionSampleCount++;
+        segment.putLong(HEADER_LAST_TIME_OFFSET, Math.max(time, segment.getLong(HEADER_LAST_TIME_OFFSET)));
+        segment.putInt(HEADER_COUNT_OFFSET, segmentRecordCount);
+        segment.putInt(HEADER_LENGTH_OFFSET, segment.position());
+    }
+
+    private static void decodeSegment(File file, int length, long fromTime, long toTime, BufferedWriter writer)
+            throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        buffer.position(HEADER_SIZE);
+        Map<Integer, String> names = new HashMap<>();
+        int[] count = new int[MAX_SERIES];
+        long[] time = new long[MAX_SERIES];
+        long[] delta = new long[MAX_SERIES];
+        long[] bits = new long[MAX_SERIES];
+        while (buffer.position() < length) {
+            byte type = buffer.get();
+            int id = getVarint(buffer);
+            if (type == RECORD_DEFINE) {
+                byte[] name = new byte[getVarint(buffer)];
+                buffer.get(name);
+                names.put(id, new String(name, StandardCharsets.UTF_8));
+                continue;
+            }
+            if (type != RECORD_SAMPLE || id >= MAX_SERIES) {
+                throw new IOException("Corrupt segment " + file.getName() + " at " + buffer.position());
+            }
+            long encodedTime = unzigzag(getVarLong(buffer));
+            if (count[id] == 0) {
+                time[id] = encodedTime;
+            } else {
+                delta[id] = count[id] == 1 ? encodedTime : delta[id] + encodedTime;
+                time[id] += delta[id];
+            }
+            int control = buffer.get() & 0xFF;
+            long xor = 0;
+            if (control != 0) {
+                int leading = (control >>> 3) & 0x7;
+                int trailing = control & 0x7;
+                for (int i = 8 - leading - trailing - 1; i >= 0; i--) {
+                    xor |= (buffer.get() & 0xFFL) << ((trailing + i) * 8);
+                }
+            }
+            bits[id] = count[id] == 0 ? xor : bits[id] ^ xor;
+            count[id]++;
+            if (time[id] >= fromTime && time[id] <= toTime) {
+                writer.write(Long.toString(time[id]));
+                writer.write(',');
+                writer.write(escapeCsv(names.get(id)));
+                writer.write(',');
+                writer.write(Double.toString(Double.longBitsToDouble(bits[id])));
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static class SegmentHeader {
+        int length;
+        int sampleCount;
+        long firstTime;
+        long lastTime;
+    }
+
+    private static SegmentHeader readHeader(File file) {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            if (randomAccessFile.length() < HEADER_SIZE || randomAccessFile.readInt() != MAGIC
+                    || randomAccessFile.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            SegmentHeader header = new SegmentHeader();
+            header.length = randomAccessFile.readInt();
+            header.sampleCount = randomAccessFile.readInt();
+            header.firstTime = randomAccessFile.readLong();
+            header.lastTime = randomAccessFile.readLong();
+            return header;
+        } catch (IOException e) {
+            Log.d(TAG, "readHeader: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static File[] listSegments(File dir) {
+        File[] segments = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File parent, String name) {
+                return name.startsWith("seg_") && name.endsWith(".bin");
+            }
+        });
+        if (segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static String escapeCsv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        putVarLong(buffer, value & 0xFFFFFFFFL);
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        return (int) getVarLong(buffer);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
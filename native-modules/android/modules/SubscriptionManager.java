@@ -0,0 +1,198 @@
+package com.nostix;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the LiveData observers BluetoothCustomModule attaches with observeForever.
+ * There is at most one observer per operation stream: attaching again first detaches
+ * the previous LiveData, so a re-subscribe can never leave a duplicate observer behind.
+ * Attach/detach requests are queued and applied together in a single main-thread post.
+ * <p>
+ * Every subscription keeps the dongle session it was attached for; while its observer
+ * runs, {@link #getDeliveringSessionId()} returns that session, so an emission the
+ * LiveData queued before a session switch is still reported as the previous session's.
+ */
+public class SubscriptionManager {
+
+    private static final String TAG = "SubscriptionManager";
+
+    private class Subscription implements Observer<Object> {
+        final String operation;
+        final int ecuPos;
+        final String sessionId;
+        final LiveData liveData;
+        final Observer observer;
+
+        Subscription(String operation, int ecuPos, String sessionId, LiveData liveData, Observer observer) {
+            this.operation = operation;
+            this.ecuPos = ecuPos;
+            this.sessionId = sessionId;
+            this.liveData = liveData;
+            this.observer = observer;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onChanged(Object value) {
+            String previous = deliveringSessionId.get();
+            deliveringSessionId.set(sessionId);
+            try {
+                observer.onChanged(value);
+            } finally {
+                deliveringSessionId.set(previous);
+            }
+        }
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Desired state, updated immediately on the calling thread
+    private final Map<String, Subscription> subscriptions = new HashMap<>();
+    // Changes not yet applied on the main thread
+    private final List<Subscription> pendingDetach = new ArrayList<>();
+    private final List<Subscription> pendingAttach = new ArrayList<>();
+    private boolean isFlushScheduled;
+    // Session of the subscriptions attached from now on
+    private String sessionId;
+    private final ThreadLocal<String> deliveringSessionId = new ThreadLocal<>();
+    private int liveObserverCount;
+    private long attachCount;
+    private long detachCount;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Observe {@code liveData} for {@code operation}, replacing any observer already
+     * registered for that operation.
+     */
+    public synchronized <T> void attach(String operation, int ecuPos, LiveData<T> liveData, Observer<T> observer) {
+        Subscription previous = subscriptions.remove(operation);
+        if (previous != null) {
+            queueDetach(previous);
+        }
+        Subscription subscription = new Subscription(operation, ecuPos, sessionId, liveData, observer);
+        subscriptions.put(operation, subscription);
+        pendingAttach.add(subscription);
+        scheduleFlush();
+    }
+
+    public synchronized void detach(String operation) {
+        Subscription subscription = subscriptions.remove(operation);
+        if (subscription != null) {
+            queueDetach(subscription);
+            scheduleFlush();
+        }
+    }
+
+    public synchronized void detachAll() {
+        for (Subscription subscription : subscriptions.values()) {
+            queueDetach(subscription);
+        }
+        subscriptions.clear();
+        scheduleFlush();
+    }
+
+    /**
+     * Attribute the subscriptions attached from now on to {@code sessionId}; those already
+     * attached keep theirs.
+     */
+    public synchronized void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * @return the session of the subscription whose observer is running on this thread,
+     *         or null outside of one
+     */
+    public String getDeliveringSessionId() {
+        return deliveringSessionId.get();
+    }
+
+    public synchronized boolean isAttached(String operation) {
+        return subscriptions.containsKey(operation);
+    }
+
+    public synchronized WritableMap getStats() {
+        WritableArray active = new WritableNativeArray();
+        for (Subscription subscription : subscriptions.values()) {
+            WritableMap item = new WritableNativeMap();
+            item.putString("operation", subscription.operation);
+            item.putInt("ecuPos", subscription.ecuPos);
+            active.pushMap(item);
+        }
+        WritableMap stats = new WritableNativeMap();
+        stats.putArray("subscriptions", active);
+        stats.putInt("liveObservers", liveObserverCount);
+        stats.putDouble("attachCount", attachCount);
+        stats.putDouble("detachCount", detachCount);
+        return stats;
+    }
+
+    private void queueDetach(Subscription subscription) {
+        // Not attached yet: drop the pending attach instead of attaching and detaching
+        if (!pendingAttach.remove(subscription)) {
+            pendingDetach.add(subscription);
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!isFlushScheduled) {
+            isFlushScheduled = true;
+            mainHandler.post(flushRunnable);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void flush() {
+        Subscription[] toDetach;
+        Subscription[] toAttach;
+        synchronized (this) {
+            isFlushScheduled = false;
+            toDetach = pendingDetach.toArray(new Subscription[0]);
+            toAttach = pendingAttach.toArray(new Subscription[0]);
+            pendingDetach.clear();
+            pendingAttach.clear();
+        }
+        for (Subscription subscription : toDetach) {
+            try {
+                subscription.liveData.removeObserver(subscription);
+                synchronized (this) {
+                    liveObserverCount--;
+                    detachCount++;
+                }
+            } catch (Exception e) {
+                Log.d(TAG, "detach " + subscription.operation + ": " + e.getMessage());
+            }
+        }
+        for (Subscription subscription : toAttach) {
+            try {
+                subscription.liveData.observeForever(subscription);
+                synchronized (this) {
+                    liveObserverCount++;
+                    attachCount++;
+                }
+            } catch (Exception e) {
+                Log.d(TAG, "attach " + subscription.operation + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -33,7 +33,6 @@ public class USBModule extends ReactContextBaseJavaModule implements LifecycleEv
     UsbDevice usbDevice;
     UsbComManager usbComManager;
     private final ReactContext reactContext;
-    BluetoothCustomModule bluetoothCustomModule = new BluetoothCustomModule(getReactApplicationContext());
     String deviceName = "";
     public static final String TAG = "USBModule";
     private static final String INTENT_ACTION_GRANT_USB = "com.example.demouart" + ".GRANT_USB";
@@ -42,42 +41,30 @@ public class USBModule extends ReactContextBaseJavaModule implements LifecycleEv
     PendingIntent permissionintent;
 
 
-    public static BALBTDongleApiImpl balDongleLib;
     USBModule(ReactApplicationContext context) {
         super(context);
         this.reactContext = context;
     }
-    public static BALBTDongleApiImpl getBalDongleLib() {
-        return balDongleLib;
-    }
-
-    public void setBalDongleLib(BALBTDongleApiImpl balDongleLib) {
-        this.balDongleLib = balDongleLib;
-    }
     @ReactMethod
     @SuppressLint("MissingPermission")
     @SuppressWarnings("unused")
     public void initBalUSBDongle( String baseURL,Promise promise){
-        if (this.balDongleLib != null) {
-            Log.i(TAG, "balDongleLib.stop()" );
-            this.balDongleLib.stop();
-            this.balDongleLib=null;
-        }
         Log.i(TAG, "usbComManager.getReadEndPoint() ="+(usbComManager.getReadEndPoint()!=null) +  "usbComManager.getWriteEndPoint() ="+(usbComManager.getWriteEndPoint()!=null));
-        this.balDongleLib = new BALBTDongleApiImpl(usbComManager.getUsbConnection(),usbComManager.getReadEndPoint(), usbComManager.getWriteEndPoint());
-        //bluetoothCustomModule=this.reactContext.getNativeModule(BluetoothCustomModule);
-        bluetoothCustomModule.setBalDongleLib(this.balDongleLib);
-        bluetoothCustomModule.subscribeToUpdateUI();
-        this.balDongleLib.setClientInfo("BALNostix+ -" + baseURL, BuildConfig.APPLICATION_ID, BuildConfig.VERSION_NAME, BuildConfig.VERSION_CODE);
+        // The session stops the previous lib and hands this one to BluetoothModule, which
+        // subscribes to updateUI; the USB connection itself stays with usbComManager
+        BALBTDongleApiImpl balDongleLib = DongleSession.getInstance().open(
+                new BALBTDongleApiImpl(usbComManager.getUsbConnection(),usbComManager.getReadEndPoint(), usbComManager.getWriteEndPoint()),
+                DongleSession.TRANSPORT_USB, deviceName, null);
+        balDongleLib.setClientInfo("BALNostix+ -" + baseURL, BuildConfig.APPLICATION_ID, BuildConfig.VERSION_NAME, BuildConfig.VERSION_CODE);
 
 
-        Boolean status = this.balDongleLib.initBTDongleComm(deviceName);
+        Boolean status = balDongleLib.initBTDongleComm(deviceName);
         Log.i(TAG, "initBalUSBDongle : initBTDongleComm:"+status +" USB NAme="+ deviceName);
 
         try {
-            Log.i(TAG, "initBalUSBDongle: this.balDongleLib.isConnected() " + this.balDongleLib.isConnected());
-            this.balDongleLib.setPackageDir(reactContext);
-            if (this.balDongleLib.isConnected()) {
+            Log.i(TAG, "initBalUSBDongle: balDongleLib.isConnected() " + balDongleLib.isConnected());
+            balDongleLib.setPackageDir(reactContext);
+            if (balDongleLib.isConnected()) {
                 promise.resolve(true);
             } else {
                 promise.resolve(false);
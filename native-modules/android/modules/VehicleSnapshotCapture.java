@@ -0,0 +1,514 @@
+package com.nostix;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+
+import com.bal.balnostix.base.ECURecord;
+import com.bal.balnostix.base.EcuBasicInfo;
+import com.bal.balnostix.base.ErrorCodeModel;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+/**
+ * Captures a whole-vehicle snapshot in one call (captureVehicleSnapshot): the VIN, then
+ * for each ECU its basic info, its DTCs and whether a boot update is required.
+ * <p>
+ * Every step starts from the previous step's callback, so the link goes from one request
+ * to the next without a JS round trip in between. Requests are queued on the lib's
+ * command thread, the callbacks never wait for it. Each step has its own deadline on the
+ * shared {@link OperationWatchdog}; a step that fails or times out is recorded with that
+ * status and the capture moves on. If the ECU record itself cannot be read, the basic
+ * info step fails and the ECU's remaining steps are recorded as skipped, so each failure
+ * is counted once. Basic info has no LiveData of its own, the lib reports it on the
+ * updateUI stream, which the module forwards to {@link #onUpdateUI}.
+ * <p>
+ * The result is written to {@code BALVehicleSnapshots/<vin>_<time>.json}, at most
+ * {@link #MAX_SNAPSHOTS_PER_VIN} per VIN, and carries the path of the previous snapshot of
+ * the same VIN so the two can be compared.
+ */
+public class VehicleSnapshotCapture {
+
+    private static final String TAG = "VehicleSnapshotCapture";
+
+    public static final String SNAPSHOT_DIR = "BALVehicleSnapshots";
+    public static final String OPERATION = "vehicleSnapshot";
+    public static final long DEFAULT_STEP_TIMEOUT_MILLIS = 10000;
+    private static final int MAX_SNAPSHOTS_PER_VIN = 20;
+
+    private static final int STEP_VIN = 0;
+    private static final int STEP_BASIC_INFO = 1;
+    private static final int STEP_DTCS = 2;
+    private static final int STEP_BOOT = 3;
+    private static final String[] STEP_NAMES = { "vin", "basicInfo", "dtcs", "bootUpdateRequired" };
+
+    public interface Listener {
+        void onProgress(WritableMap progress);
+
+        void onFinished(WritableMap snapshot);
+    }
+
+    private final SubscriptionManager subscriptions;
+    private final File dir;
+    private final OperationWatchdog.Deadline deadline = OperationWatchdog.getInstance()
+            .newDeadline(new OperationWatchdog.ExpiryListener() {
+                @Override
+                public void onExpired(String type) {
+                    onTimeout();
+                }
+            });
+
+    private BALBTDongleApiImpl balDongleLib;
+    private Listener listener;
+    private int[] positions;
+    private long stepTimeoutMillis;
+    private boolean isRunning;
+    private int step;
+    private int ecuIndex;
+    // Bumped for every step, so a late callback of a finished step is ignored
+    private int stepToken;
+    private ECURecord ecuRecord;
+    private JSONObject snapshot;
+    private JSONObject currentEcu;
+    private long startTime;
+    private int timeouts;
+    private int errors;
+    private int totalCodes;
+
+    public VehicleSnapshotCapture(SubscriptionManager subscriptions, File dataDir) {
+        this.subscriptions = subscriptions;
+        this.dir = new File(dataDir, SNAPSHOT_DIR);
+    }
+
+    /**
+     * Start a capture, cancelling the one in progress.
+     */
+    public synchronized void start(BALBTDongleApiImpl balDongleLib, int[] positions, long stepTimeoutMillis,
+            Listener listener) {
+        if (isRunning) {
+            finish(true);
+        }
+        this.balDongleLib = balDongleLib;
+        this.positions = positions;
+        this.stepTimeoutMillis = stepTimeoutMillis;
+        this.listener = listener;
+        snapshot = new JSONObject();
+        try {
+            snapshot.put("capturedAt", System.currentTimeMillis());
+            snapshot.put("stepTimeoutMillis", stepTimeoutMillis);
+            snapshot.put("ecus", new JSONArray());
+        } catch (JSONException e) {
+            Log.d(TAG, "start: " + e.getMessage());
+        }
+        step = STEP_VIN;
+        ecuIndex = 0;
+        timeouts = 0;
+        errors = 0;
+        totalCodes = 0;
+        startTime = SystemClock.elapsedRealtime();
+        isRunning = true;
+        runStep();
+    }
+
+    public synchronized void cancel() {
+        if (isRunning) {
+            finish(true);
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * Updates of the lib's updateUI stream; ends the basic info step.
+     */
+    public synchronized void onUpdateUI(String response) {
+        // No record yet: the basic info request has not been sent
+        if (!isRunning || step != STEP_BASIC_INFO || ecuRecord == null || response == null) {
+            return;
+        }
+        String value;
+        try {
+            value = new JSONObject(response).optString("value");
+        } catch (JSONException e) {
+            return;
+        }
+        if ("readEcuBasicnfo".equals(value)) {
+            completeStep(stepToken, "ok", basicInfoToJson(ecuRecord));
+        } else if ("BIOError".equals(value)) {
+            completeStep(stepToken, "error", null);
+        }
+    }
+
+    private void runStep() {
+        if (!isRunning) {
+            return;
+        }
+        if (step != STEP_VIN && ecuIndex >= positions.length) {
+            finish(false);
+            return;
+        }
+        int token = ++stepToken;
+        if (step == STEP_BASIC_INFO) {
+            ecuRecord = null;
+            currentEcu = new JSONObject();
+            try {
+                currentEcu.put("ecuPos", positions[ecuIndex]);
+                snapshot.getJSONArray("ecus").put(currentEcu);
+            } catch (JSONException e) {
+                Log.d(TAG, "runStep: " + e.getMessage());
+            }
+        } else if (step != STEP_VIN && ecuRecord == null) {
+            // The basic info step already failed, and was counted, for this ECU
+            Log.d(TAG, "runStep " + STEP_NAMES[step] + ": No ECU record at " + positions[ecuIndex]);
+            completeStep(token, "skipped", null);
+            return;
+        }
+        // Covers the wait for the command thread as well as the answer
+        OperationWatchdog.getInstance().arm(deadline, stepTimeoutMillis, OPERATION);
+        issue(token);
+    }
+
+    /**
+     * Queue the request of the current step; basic info first looks up the ECU record.
+     */
+    private void issue(final int token) {
+        final BALBTDongleApiImpl lib = balDongleLib;
+        final int currentStep = step;
+        final int pos = step == STEP_VIN ? -1 : positions[ecuIndex];
+        final ECURecord record = ecuRecord;
+        lib.runAsync(OPERATION, stepTimeoutMillis, new Callable<Object>() {
+            @Override
+            public Object call() {
+                switch (currentStep) {
+                    case STEP_VIN:
+                        return lib.readVIN();
+                    case STEP_BASIC_INFO:
+                        if (record == null) {
+                            return lib.getEcuRecord(pos);
+                        }
+                        lib.readEcuBasicnfo(record);
+                        return null;
+                    case STEP_DTCS:
+                        return lib.scanDtcErrorCode(record);
+                    default:
+                        // Answered by the lib without waiting on a callback
+                        return lib.isBootUpdateRequired(record);
+                }
+            }
+        }, new DongleCommandScheduler.Callback<Object>() {
+            @Override
+            public void onResult(Object result) {
+                onIssued(token, result);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                onIssueFailed(token, e);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void onIssued(final int token, Object result) {
+        if (!isRunning || token != stepToken) {
+            return;
+        }
+        try {
+            if (step == STEP_BOOT) {
+                completeStep(token, "ok", result);
+                return;
+            }
+            if (step == STEP_BASIC_INFO) {
+                if (ecuRecord == null) {
+                    if (result == null) {
+                        throw new NullPointerException("No ECU record at " + positions[ecuIndex]);
+                    }
+                    ecuRecord = (ECURecord) result;
+                    currentEcu.put("ecuName", ecuRecord.getCuName());
+                    issue(token);
+                }
+                // The answer comes on the updateUI stream
+                return;
+            }
+            if (result == null) {
+                throw new NullPointerException(STEP_NAMES[step] + " is throwing null");
+            }
+            subscriptions.attach(OPERATION, step == STEP_VIN ? -1 : positions[ecuIndex], (LiveData<Object>) result,
+                    new Observer<Object>() {
+                        @Override
+                        public void onChanged(Object value) {
+                            onStepResult(token, value);
+                        }
+                    });
+        } catch (Exception e) {
+            Log.d(TAG, "runStep " + STEP_NAMES[step] + ": " + e.getMessage());
+            completeStep(token, "error", null);
+        }
+    }
+
+    private synchronized void onIssueFailed(int token, Exception e) {
+        if (!isRunning || token != stepToken) {
+            return;
+        }
+        Log.d(TAG, "runStep " + STEP_NAMES[step] + ": " + e.getMessage());
+        if (e instanceof DongleCommandScheduler.DeadlineExceededException) {
+            timeouts++;
+            completeStep(token, "timeout", null);
+        } else {
+            completeStep(token, "error", null);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void onStepResult(int token, Object value) {
+        if (!isRunning || token != stepToken) {
+            return;
+        }
+        if (value == null) {
+            completeStep(token, "error", null);
+        } else if (step == STEP_DTCS) {
+            JSONArray codes = dtcsToJson(new ArrayList<>((ArrayList<ErrorCodeModel>) value));
+            totalCodes += codes.length();
+            completeStep(token, "ok", codes);
+        } else {
+            completeStep(token, "ok", value);
+        }
+    }
+
+    private synchronized void onTimeout() {
+        if (!isRunning) {
+            return;
+        }
+        timeouts++;
+        completeStep(stepToken, "timeout", null);
+    }
+
+    private void completeStep(int token, String status, Object value) {
+        if (token != stepToken) {
+            return;
+        }
+        OperationWatchdog.getInstance().cancel(deadline);
+        subscriptions.detach(OPERATION);
+        if ("error".equals(status)) {
+            errors++;
+        }
+        recordStep(status, value);
+        nextStep();
+        runStep();
+    }
+
+    private void recordStep(String status, Object value) {
+        try {
+            JSONObject result = new JSONObject();
+            result.put("status", status);
+            result.put("value", value == null ? JSONObject.NULL : value);
+            if (step == STEP_VIN) {
+                snapshot.put(STEP_NAMES[step], result);
+            } else {
+                currentEcu.put(STEP_NAMES[step], result);
+            }
+        } catch (JSONException | NullPointerException e) {
+            Log.d(TAG, "recordStep: " + e.getMessage());
+        }
+        WritableMap progress = new WritableNativeMap();
+        progress.putString("step", STEP_NAMES[step]);
+        progress.putString("status", status);
+        progress.putInt("ecuPos", step == STEP_VIN || ecuIndex >= positions.length ? -1 : positions[ecuIndex]);
+        progress.putInt("completedEcus", ecuIndex);
+        progress.putInt("totalEcus", positions.length);
+        listener.onProgress(progress);
+    }
+
+    private void nextStep() {
+        if (step == STEP_VIN || step == STEP_BOOT) {
+            if (step == STEP_BOOT) {
+                ecuIndex++;
+            }
+            step = STEP_BASIC_INFO;
+        } else {
+            step++;
+        }
+    }
+
+    private void finish(boolean isCancelled) {
+        OperationWatchdog.getInstance().cancel(deadline);
+        subscriptions.detach(OPERATION);
+        stepToken++;
+        isRunning = false;
+        WritableMap result;
+        try {
+            JSONObject totals = new JSONObject();
+            totals.put("ecus", snapshot.getJSONArray("ecus").length());
+            totals.put("dtcs", totalCodes);
+            totals.put("timeouts", timeouts);
+            totals.put("errors", errors);
+            snapshot.put("totals", totals);
+            snapshot.put("cancelled", isCancelled);
+            snapshot.put("durationMillis", SystemClock.elapsedRealtime() - startTime);
+            result = toMap(snapshot);
+            if (!isCancelled) {
+                persist(result);
+            }
+        } catch (JSONException e) {
+            Log.d(TAG, "finish: " + e.getMessage());
+            result = new WritableNativeMap();
+            result.putBoolean("cancelled", isCancelled);
+        }
+        listener.onFinished(result);
+    }
+
+    private void persist(WritableMap result) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.d(TAG, "persist: Unable to create " + dir);
+            return;
+        }
+        JSONObject vin = snapshot.optJSONObject("vin");
+        String vinNumber = vin != null && "ok".equals(vin.optString("status")) ? vin.optString("value") : "unknown";
+        final String prefix = vinNumber.replaceAll("[^A-Za-z0-9]", "_") + "_";
+        String[] previous = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.endsWith(".json");
+            }
+        });
+        if (previous == null) {
+            previous = new String[0];
+        }
+        // The time in the name sorts chronologically
+        Arrays.sort(previous);
+        if (previous.length > 0) {
+            result.putString("previousPath", new File(dir, previous[previous.length - 1]).getAbsolutePath());
+        } else {
+            result.putNull("previousPath");
+        }
+        File file = new File(dir, prefix + new SimpleDateFormat("yyyyMMdd_HHmmss_SSS", Locale.US).format(new Date()) + ".json");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write(snapshot.toString());
+            result.putString("path", file.getAbsolutePath());
+        } catch (IOException e) {
+            Log.d(TAG, "persist: " + e.getMessage());
+            file.delete();
+            result.putNull("path");
+            return;
+        }
+        for (int i = 0; i <= previous.length - MAX_SNAPSHOTS_PER_VIN; i++) {
+            new File(dir, previous[i]).delete();
+        }
+    }
+
+    static JSONObject basicInfoToJson(ECURecord ecuRecord) {
+        JSONObject basicInfo = new JSONObject();
+        try {
+            EcuBasicInfo info = ecuRecord.getEcuBasicInfo();
+            if (info != null) {
+                basicInfo.put("osVersion", nullable(info.OSVersion));
+                basicInfo.put("blVersion", nullable(info.BLVersion));
+                basicInfo.put("appVersion", nullable(info.APPVersion));
+                basicInfo.put("calVersion", nullable(info.CALVersion));
+                basicInfo.put("cfgVersion", nullable(info.CFGVersion));
+                basicInfo.put("hwPartNo", nullable(info.HWPartNo));
+                basicInfo.put("hwSerialNo", nullable(info.HWSerialNo));
+                basicInfo.put("vin", nullable(info.VIN));
+                basicInfo.put("fingerPrint", nullable(info.FingerPrint));
+                basicInfo.put("designIssue", nullable(info.DesignIssue));
+                basicInfo.put("softwarePartInfo", nullable(info.SoftwarePartInfo));
+            }
+            basicInfo.put("softwareVersion", nullable(ecuRecord.getSoftwareVersion()));
+            basicInfo.put("calibrationVersion", nullable(ecuRecord.getCalibrationVersion()));
+            basicInfo.put("btlVersion", nullable(ecuRecord.getBtlVersion()));
+        } catch (JSONException e) {
+            Log.d(TAG, "basicInfoToJson: " + e.getMessage());
+        }
+        return basicInfo;
+    }
+
+    static JSONArray dtcsToJson(ArrayList<ErrorCodeModel> errorCodeModels) {
+        JSONArray codes = new JSONArray();
+        for (ErrorCodeModel errorCode : errorCodeModels) {
+            try {
+                JSONObject code = new JSONObject();
+                code.put("code", nullable(errorCode.getCode()));
+                code.put("name", nullable(errorCode.getFaultName()));
+                code.put("status", nullable(errorCode.getStatus()));
+                codes.put(code);
+            } catch (JSONException e) {
+                Log.d(TAG, "dtcsToJson: " + e.getMessage());
+            }
+        }
+        return codes;
+    }
+
+    static Object nullable(Object value) {
+        return value == null ? JSONObject.NULL : value;
+    }
+
+    static WritableMap toMap(JSONObject json) throws JSONException {
+        WritableMap map = new WritableNativeMap();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = json.get(key);
+            if (value instanceof JSONObject) {
+                map.putMap(key, toMap((JSONObject) value));
+            } else if (value instanceof JSONArray) {
+                map.putArray(key, toArray((JSONArray) value));
+            } else if (value instanceof Boolean) {
+                map.putBoolean(key, (Boolean) value);
+            } else if (value instanceof Number) {
+                map.putDouble(key, ((Number) value).doubleValue());
+            } else if (value == JSONObject.NULL) {
+                map.putNull(key);
+            } else {
+                map.putString(key, value.toString());
+            }
+        }
+        return map;
+    }
+
+    static WritableArray toArray(JSONArray json) throws JSONException {
+        WritableArray array = new WritableNativeArray();
+        for (int i = 0; i < json.length(); i++) {
+            Object value = json.get(i);
+            if (value instanceof JSONObject) {
+                array.pushMap(toMap((JSONObject) value));
+            } else if (value instanceof JSONArray) {
+                array.pushArray(toArray((JSONArray) value));
+            } else if (value instanceof Boolean) {
+                array.pushBoolean((Boolean) value);
+            } else if (value instanceof Number) {
+                array.pushDouble(((Number) value).doubleValue());
+            } else if (value == JSONObject.NULL) {
+                array.pushNull();
+            } else {
+                array.pushString(value.toString());
+            }
+        }
+        return array;
+    }
+}
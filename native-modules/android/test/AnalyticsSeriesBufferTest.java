@@ -0,0 +1,49 @@
+package com.nostix;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+public class AnalyticsSeriesBufferTest {
+
+    private static final double DELTA = 0;
+
+    private static AnalyticsSeriesBuffer fullBuffer() {
+        AnalyticsSeriesBuffer buffer = new AnalyticsSeriesBuffer(3);
+        buffer.record("{\"a\": 1}");
+        buffer.record("{\"a\": 2}");
+        buffer.record("{\"a\": 3}");
+        return buffer;
+    }
+
+    @Test
+    public void unparsableSampleKeepsOldestRow() {
+        AnalyticsSeriesBuffer buffer = fullBuffer();
+
+        buffer.record("not a sample");
+        buffer.record("{\"a\": \"n/a\"}");
+
+        assertArrayEquals(new double[] { 1, 2, 3 }, buffer.getBufferedValues("a"), DELTA);
+    }
+
+    @Test
+    public void partiallyBadSampleKeepsOldestRow() {
+        AnalyticsSeriesBuffer buffer = fullBuffer();
+
+        // The second item has no value, after the first one parsed
+        buffer.record("[{\"name\": \"a\", \"value\": 9}, {\"name\": \"b\"}]");
+
+        assertArrayEquals(new double[] { 1, 2, 3 }, buffer.getBufferedValues("a"), DELTA);
+        assertArrayEquals(new double[] { Double.NaN, Double.NaN, Double.NaN }, buffer.getBufferedValues("b"), DELTA);
+    }
+
+    @Test
+    public void goodSampleReplacesOldestRow() {
+        AnalyticsSeriesBuffer buffer = fullBuffer();
+
+        buffer.record("bad");
+        buffer.record("{\"a\": 4}");
+
+        assertArrayEquals(new double[] { 2, 3, 4 }, buffer.getBufferedValues("a"), DELTA);
+    }
+}
@@ -10,7 +10,8 @@ import fs from "fs-extra";
  * Expo Config Plugin for Native Modules (BluetoothModule, USBModule)
  *
  * This plugin automatically:
- * 1. Copies native Java modules from native-modules/ to android/
+ * 1. Copies native Java modules from native-modules/ to android/, and their
+ *    JVM unit tests to android/app/src/test/
  * 2. Copies BalDongleLib AAR to android/app/libs/
  * 3. Updates build.gradle with dependencies
  * 4. Updates versionCode and versionName from environment variables
@@ -96,6 +97,21 @@ const withNativeModuleFiles: ConfigPlugin = (config) => {
         console.log("   ✓ Copied usb/");
       }
 
+      // Copy JVM unit tests (./gradlew testDevDebugUnitTest)
+      const testDir = path.join(sourceDir, "test");
+      if (fs.existsSync(testDir)) {
+        await fs.copy(
+          testDir,
+          path.join(
+            androidProjectRoot,
+            "app/src/test/java",
+            CUSTOM_PACKAGE_NAME.replace(/\./g, "/")
+          ),
+          { overwrite: true }
+        );
+        console.log("   ✓ Copied test/");
+      }
+
       console.log("✅ Native module files copied successfully");
 
       return modConfig;
@@ -257,6 +273,9 @@ const withNativeModuleDependencies: ConfigPlugin = (config) => {
         'implementation fileTree(dir: "libs", include: ["*.jar", "*.aar"])',
         'implementation "androidx.lifecycle:lifecycle-livedata-ktx:2.5.1"',
         'implementation "com.google.code.gson:gson:2.10.1"',
+        'testImplementation "junit:junit:4.13.2"',
+        // android.jar only stubs org.json on the JVM
+        'testImplementation "org.json:json:20231013"',
       ];
 
       console.log("📝 Checking native module dependencies...");
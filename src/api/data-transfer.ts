@@ -1,9 +1,9 @@
 import dayjs from "dayjs";
 import { Directory, File, Paths } from "expo-file-system";
 import { createMMKV } from "react-native-mmkv";
-import { zip } from "react-native-zip-archive";
 import useSWRMutation from "swr/mutation";
 import { ENV } from "@/config/env";
+import { createNativeArchive } from "@/lib/native-archive";
 
 const storage = createMMKV();
 
@@ -119,7 +119,6 @@ async function uploadAppLogsMutation(
     const documentPath = Paths.document.uri.replace("file://", "");
     const logBalPath = documentPath.replace("files", "BALLog");
     const logAppPath = documentPath.replace("files", "BALAppLog");
-    const logAllPath = `${documentPath}/BALAllLog`;
     const logZipPath = `${documentPath}/logFile.zip`;
 
     // Check if directories exist using new API
@@ -136,36 +135,18 @@ async function uploadAppLogsMutation(
       };
     }
 
-    const logAllDir = new Directory(`file://${logAllPath}`);
-
-    // Ensure BALAllLog directory exists
-    if (!logAllDir.exists) {
-      logAllDir.create();
-    }
-
-    // Zip individual log directories
-    if (appExists) {
-      const timestamp = dayjs().format("YYYY-MM-DDTHH-mm-ss-SSSZ");
-      await zip(
-        `file://${logAppPath}`,
-        `file://${logAllPath}/BALAppLog_${timestamp}.zip`
-      );
-      // Delete original directory after zipping
-      appDir.delete();
-    }
-
-    if (balExists) {
-      const timestamp = dayjs().format("YYYY-MM-DDTHH-mm-ss-SSSZ");
-      await zip(
-        `file://${logBalPath}`,
-        `file://${logAllPath}/BALLog_${timestamp}.zip`
-      );
-      // Delete original directory after zipping
-      balDir.delete();
-    }
-
-    // Zip the entire BALAllLog directory
-    await zip(`file://${logAllPath}`, `file://${logZipPath}`);
+    // One native streaming pass: each log directory becomes an inner zip
+    // of logFile.zip and is deleted once the archive is complete
+    const timestamp = dayjs().format("YYYY-MM-DDTHH-mm-ss-SSSZ");
+    const sources = [
+      ...(appExists
+        ? [{ path: logAppPath, nestedName: `BALAppLog_${timestamp}.zip` }]
+        : []),
+      ...(balExists
+        ? [{ path: logBalPath, nestedName: `BALLog_${timestamp}.zip` }]
+        : []),
+    ];
+    await createNativeArchive(sources, logZipPath, { deleteSources: true });
 
     console.log("[DataTransferAPI] Logs zipped, preparing upload:", {
       serialNumber: arg.serialNumber,
@@ -200,9 +181,6 @@ async function uploadAppLogsMutation(
     const data = await response.json();
 
     // Clean up files after upload attempt
-    if (logAllDir.exists) {
-      logAllDir.delete();
-    }
     const zipFile = new File(`file://${logZipPath}`);
     if (zipFile.exists) {
       zipFile.delete();
@@ -230,6 +208,7 @@ async function uploadAppLogsMutation(
       const logAllPath = `${documentPath}/BALAllLog`;
       const logZipPath = `${documentPath}/logFile.zip`;
 
+      // Staging folder left behind by builds that zipped on the JS side
       const logAllDir = new Directory(`file://${logAllPath}`);
       if (logAllDir.exists) {
         logAllDir.delete();
@@ -2,6 +2,7 @@ import axios from "axios";
 import { createMMKV } from "react-native-mmkv";
 import { ENV } from "@/config/env";
 import { checkIfNrcError } from "@/lib/utils";
+import type { ReadBinDataSummary } from "@/types/bluetooth.types";
 
 // Configuration
 const BASE_URL = ENV.SAP_URL;
@@ -387,6 +388,67 @@ export async function uploadBINFromJSON(
   }
 }
 
+/**
+ * Upload BIN from a readBinData response decoded by the native module
+ */
+// biome-ignore lint: SAP API requires 5 parameters for comprehensive payload
+export async function uploadBINFromSummary(
+  vinNumber: string,
+  summary: ReadBinDataSummary,
+  dealerCode: string,
+  serialNumber: string,
+  callbacks: UploadCallbacks = {}
+): Promise<SAPResponse | { message: string } | undefined> {
+  try {
+    switch (summary.kind) {
+      case "bin":
+        return await sendVinCompSerialDirect(
+          vinNumber,
+          summary.bin ?? "",
+          dealerCode,
+          serialNumber,
+          callbacks,
+          summary.status ?? null
+        );
+      case "noRecord":
+        // No VCU or BMS record found
+        return await sendVinCompSerialDirect(
+          vinNumber,
+          "",
+          dealerCode,
+          serialNumber,
+          callbacks,
+          6
+        );
+      case "nrc":
+        // NRC response from ECU
+        return await sendVinCompSerialDirect(
+          vinNumber,
+          "",
+          dealerCode,
+          serialNumber,
+          callbacks,
+          7
+        );
+      case "invalid":
+        callbacks.onError?.(summary.error);
+        return;
+      default:
+        // Unknown status format
+        return await sendVinCompSerialDirect(
+          vinNumber,
+          "",
+          dealerCode,
+          serialNumber,
+          callbacks,
+          8
+        );
+    }
+  } catch (sapError) {
+    callbacks.onError?.(sapError);
+  }
+}
+
 /**
  * Clear all failed requests - V4 uses remove()
  */
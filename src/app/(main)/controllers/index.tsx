@@ -158,19 +158,19 @@ export default function ControllersScreen() {
       // Fetch UDS parameters for this ECU
       BluetoothModule.UDSParameter(ecuIndex);
 
-      // Get updated ECU record with latest data
-      const updatedECUData =
-        await BluetoothModule.getUpdatedEcuRecords(ecuIndex);
+      // Only the ECU record fields that changed since it was last sent
+      const changedECUData =
+        await BluetoothModule.getEcuRecordChanges(ecuIndex);
 
       console.log(
-        `[Controllers] ECU data fetched - Name: ${updatedECUData?.ecuName}`
+        `[Controllers] ECU data fetched - Changed fields: ${Object.keys(changedECUData).join(", ")}`
       );
 
       // Update store with latest ECU data
       const updatedController = setControllersUpdatedData(
         controllersData,
         ecuIndex,
-        updatedECUData as unknown as Partial<ControllerData>
+        changedECUData as unknown as Partial<ControllerData>
       );
 
       if (updatedController) {
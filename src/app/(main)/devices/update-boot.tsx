@@ -15,6 +15,7 @@ import { PrimaryButton } from "@/components/ui/button";
 import { CustomHeader } from "@/components/ui/header";
 import { OverlayView } from "@/components/ui/overlay";
 import { colors } from "@/constants/colors";
+import { getHexPreflightError } from "@/lib/hex-preflight";
 import { toastSuccess } from "@/lib/toast";
 import { useAuthStore } from "@/store/auth-store";
 import { useDataTransferStore } from "@/store/data-transfer-store";
@@ -97,6 +98,17 @@ export default function UpdateBootScreen() {
   const getBootFlashingUpdate = async () => {
     try {
       setShowOverlay(false);
+
+      // Reject a corrupt or truncated bootloader hex before the flash starts
+      const preflightError = await getHexPreflightError(
+        selectedEcu?.index || 0,
+        "btl"
+      );
+      if (preflightError) {
+        handleFailure(preflightError);
+        return;
+      }
+
       setIsFlashing(true);
       isProcessingRef.current = true;
       startTimeRef.current = new Date();
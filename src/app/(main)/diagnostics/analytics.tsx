@@ -1,25 +1,36 @@
 import { useRouter } from "expo-router";
 import { useEffect, useRef, useState } from "react";
-import {
-  type EmitterSubscription,
-  NativeEventEmitter,
-  NativeModules,
-  Text,
-  View,
-} from "react-native";
+import { NativeModules, Text, useWindowDimensions, View } from "react-native";
 
 import { CustomHeader } from "@/components/ui/header";
 import { useDataTransferStore } from "@/store/data-transfer-store";
+import type { AnalyticsWindow } from "@/types/bluetooth.types";
 
 const { BluetoothModule } = NativeModules;
 
+// Time span shown by the graph
+const ANALYTICS_WINDOW_MS = 60_000;
+// Horizontal padding of the screen and the card around the graph
+const GRAPH_HORIZONTAL_PADDING = 80;
+
 export default function AnalyticsScreen() {
   const router = useRouter();
   const { selectedEcu, isDonglePhase3State } = useDataTransferStore();
 
-  const [analyticsData, setAnalyticsData] = useState<unknown>(null);
-  const eventSubscriptionRef = useRef<EmitterSubscription | null>(null);
-  const isProcessingRef = useRef(false);
+  const { width } = useWindowDimensions();
+  const [analyticsData, setAnalyticsData] = useState<AnalyticsWindow | null>(
+    null
+  );
+  const frameRef = useRef<number | null>(null);
+  const versionRef = useRef(-1);
+  const isPullingRef = useRef(false);
+  const hasSamplesRef = useRef(false);
+  const isActiveRef = useRef(false);
+  const maxPointsRef = useRef(width);
+  maxPointsRef.current = Math.max(
+    Math.round(width - GRAPH_HORIZONTAL_PADDING),
+    3
+  );
 
   // biome-ignore lint/correctness/useExhaustiveDependencies: Complex setup with cleanup
   useEffect(() => {
@@ -31,8 +42,10 @@ export default function AnalyticsScreen() {
     getAnalytics();
 
     return () => {
-      if (eventSubscriptionRef.current) {
-        eventSubscriptionRef.current.remove();
+      isActiveRef.current = false;
+      if (frameRef.current !== null) {
+        cancelAnimationFrame(frameRef.current);
+        frameRef.current = null;
       }
 
       // const Module = dataTransferMode === "USB" ? USBModule : BluetoothModule;
@@ -44,42 +57,57 @@ export default function AnalyticsScreen() {
     };
   }, [selectedEcu]);
 
+  // Pull at most one downsampled window per frame; the native side buffers every sample
+  const pullAnalyticsWindow = async () => {
+    if (!isPullingRef.current) {
+      isPullingRef.current = true;
+      try {
+        const analyticsWindow: AnalyticsWindow =
+          await BluetoothModule.getAnalyticsWindow(
+            ANALYTICS_WINDOW_MS,
+            maxPointsRef.current,
+            versionRef.current
+          );
+        versionRef.current = analyticsWindow.version;
+        if (
+          isActiveRef.current &&
+          analyticsWindow.changed &&
+          ((analyticsWindow.totalSamples ?? 0) > 0 ||
+            analyticsWindow.lastSample != null)
+        ) {
+          hasSamplesRef.current = true;
+          setAnalyticsData(analyticsWindow);
+        }
+      } catch (error) {
+        console.error("Analytics window error:", error);
+      } finally {
+        isPullingRef.current = false;
+      }
+    }
+    if (isActiveRef.current) {
+      frameRef.current = requestAnimationFrame(pullAnalyticsWindow);
+    }
+  };
+
   const getAnalytics = async () => {
     try {
       // const Module = dataTransferMode === "USB" ? USBModule : BluetoothModule;
 
-      // Subscribe to analytics updates
-      const eventEmitter = new NativeEventEmitter(BluetoothModule);
-      eventSubscriptionRef.current = eventEmitter.addListener(
-        "analytics",
-        (response: { name: string; value: unknown }) => {
-          console.log("Analytics response:", response);
-          if (response.name === "analytics") {
-            setAnalyticsData(response);
-            isProcessingRef.current = false;
-          }
-        }
-      );
-
       // Start analytics graph subscription
       await BluetoothModule.subscribeToAnalyticsGraph();
-      isProcessingRef.current = true;
+      isActiveRef.current = true;
+      versionRef.current = -1;
+      hasSamplesRef.current = false;
+      frameRef.current = requestAnimationFrame(pullAnalyticsWindow);
 
       // Timeout mechanism
-      const timeout = 10_000;
-      const startTime = Date.now();
-
-      while (isProcessingRef.current && Date.now() - startTime < timeout) {
-        await new Promise((resolve) => setTimeout(resolve, 10));
-      }
-
-      if (isProcessingRef.current) {
-        isProcessingRef.current = false;
-        console.log("Analytics timeout");
-      }
+      setTimeout(() => {
+        if (!hasSamplesRef.current) {
+          console.log("Analytics timeout");
+        }
+      }, 10_000);
     } catch (error) {
       console.error("Analytics error:", error);
-      isProcessingRef.current = false;
     }
   };
 
@@ -131,8 +159,23 @@ export default function AnalyticsScreen() {
             <Text className="mb-3 font-primarySemiBold text-base text-textPrimary">
               Analytics Data
             </Text>
-            <Text className="font-primaryRegular text-sm text-textSecondary">
-              {JSON.stringify(analyticsData, null, 2)}
+            {(analyticsData.totalSamples ?? 0) === 0 &&
+              analyticsData.lastSample != null && (
+                // Nothing could be plotted; show the raw payload instead
+                <Text className="font-primaryRegular text-sm text-textSecondary">
+                  {analyticsData.lastSample}
+                </Text>
+              )}
+            {analyticsData.series?.map((series) => (
+              <Text
+                className="font-primaryRegular text-sm text-textSecondary"
+                key={series.name}
+              >
+                {`${series.name}: ${series.last ?? "-"} (${series.v.length}/${series.rawPoints} points)`}
+              </Text>
+            ))}
+            <Text className="mt-3 font-primaryRegular text-textSecondary text-xs">
+              {`Samples: ${analyticsData.totalSamples ?? 0}, buffered: ${analyticsData.bufferedSamples ?? 0}/${analyticsData.capacity ?? 0}`}
             </Text>
           </View>
         ) : (
@@ -42,6 +42,10 @@ import {
 } from "@/lib/offline-analytics";
 import { toastInfo } from "@/lib/toast";
 import { useDataTransferStore } from "@/store/data-transfer-store";
+import type {
+  EeDumpCompletePayload,
+  EeDumpProgressPayload,
+} from "@/types/bluetooth.types";
 
 const { BluetoothModule } = NativeModules;
 const { width: SCREEN_WIDTH } = Dimensions.get("window");
@@ -577,6 +581,19 @@ export default function ECUDumpScreen() {
         "eeDump",
         handleDumpResponse
       );
+      // Raw chunks are captured natively; this keepalive stands in for them
+      const progressSubscription = eventEmitter.addListener(
+        "eeDumpProgress",
+        (_response: EeDumpProgressPayload) => {
+          lastResponseTime = dayjs().valueOf();
+        }
+      );
+      const completeSubscription = eventEmitter.addListener(
+        "eeDumpComplete",
+        (response: EeDumpCompletePayload) => {
+          console.log("[ECUDump] Dump stream summary:", response.value);
+        }
+      );
 
       startCollection();
 
@@ -602,6 +619,8 @@ export default function ECUDumpScreen() {
         backHandler.remove();
         unsubscribeBeforeRemove();
         subscription.remove();
+        progressSubscription.remove();
+        completeSubscription.remove();
 
         BluetoothModule.unsubscribeToDump();
         BluetoothModule.stopAllTimersFromReact();
@@ -16,9 +16,11 @@ import { PrimaryButton, WhiteButton } from "@/components/ui/button";
 import { CustomHeader } from "@/components/ui/header";
 import { OverlayLoading } from "@/components/ui/overlay";
 import { toastError } from "@/lib/toast";
+import { applyDtcDiff, hasDtcSession } from "@/lib/dtc-list";
 import { checkIfNrcError } from "@/lib/utils";
 import { useAuthStore } from "@/store/auth-store";
 import { useDataTransferStore } from "@/store/data-transfer-store";
+import type { ErrorCodesDiff } from "@/types/bluetooth.types";
 import type { ErrorCode } from "@/types/ecu";
 
 const { BluetoothModule, USBModule } = NativeModules;
@@ -80,6 +82,9 @@ export default function ErrorCodesScreen() {
   // Get error codes
   const getErrorCode = async () => {
     setLoading(true);
+    if (!hasDtcSession(selectedEcu.index)) {
+      BluetoothModule.resetDtcDiff(selectedEcu.index);
+    }
     BluetoothModule.subscribeToErrorCodesList(selectedEcu.index);
     isGetErrorCodeInProcess = true;
     let totalTime = 0;
@@ -142,32 +147,21 @@ export default function ErrorCodesScreen() {
     }
   };
 
-  const handleGetErrorCodesResponse = (value: ErrorCode[] | string) => {
+  const handleGetErrorCodesResponse = (value: ErrorCodesDiff | string) => {
     if (value === "Error_Out") {
       handlePopUp(
         `TimeOut, Controller did not respond. Please check the ${selectedEcu?.ecuName} and the BT dongle`
       );
-    } else if (Array.isArray(value)) {
-      console.log("[ErrorCodes] Error Codes received:", value);
-
-      // Remove duplicates based on 'text' field
-      const uniqueErrorCodes = value.reduce(
-        (acc: ErrorCodeWithImage[], item: ErrorCode) => {
-          const isDuplicate = acc.some(
-            (existingItem) => existingItem.text === item.text
-          );
-          if (!isDuplicate) {
-            acc.push({
-              ...item,
-              image: danger,
-            });
-          }
-          return acc;
-        },
-        []
-      );
+    } else if (value != null && typeof value === "object") {
+      console.log("[ErrorCodes] Error Codes diff received:", value);
+
+      // Native diff is keyed by code, so the list is already de-duplicated
+      const currentErrorCodes = applyDtcDiff(value).map((item) => ({
+        ...item,
+        image: danger,
+      }));
 
-      setErrorCodes(uniqueErrorCodes);
+      setErrorCodes(currentErrorCodes);
     }
     setLoading(false);
     BluetoothModule.unsubscribeToErrorCodesList();
@@ -176,7 +170,7 @@ export default function ErrorCodesScreen() {
 
   const onResponse = (response: {
     name: string;
-    value: string | null | ErrorCode[];
+    value: string | null | ErrorCodesDiff;
   }) => {
     if (
       response.name === "clearCode" &&
@@ -187,7 +181,7 @@ export default function ErrorCodesScreen() {
     }
 
     if (response.name === "getErrorCodes") {
-      handleGetErrorCodesResponse(response.value as ErrorCode[] | string);
+      handleGetErrorCodesResponse(response.value as ErrorCodesDiff | string);
     }
   };
 
@@ -22,6 +22,7 @@ import { OverlayView } from "@/components/ui/overlay";
 import { colors } from "@/constants/colors";
 import { metrics } from "@/constants/metrics";
 import { getHexFileNameFromGroupA } from "@/lib/hex-file-helper";
+import { getHexPreflightError } from "@/lib/hex-preflight";
 import { toastError } from "@/lib/toast";
 import { useAuthStore } from "@/store/auth-store";
 import { useDataTransferStore } from "@/store/data-transfer-store";
@@ -387,6 +388,16 @@ export default function ControllerFlashScreen() {
     }
 
     try {
+      // Reject a corrupt or truncated hex file before the flash starts
+      const preflightError = await getHexPreflightError(
+        selectedEcu.index,
+        "app"
+      );
+      if (preflightError) {
+        handleFailure(preflightError);
+        return;
+      }
+
       // const moduleToUse =
       //   dataTransferMode === "Bluetooth" ? BluetoothModule : USBModule;
       const eventEmitter = new NativeEventEmitter(BluetoothModule);
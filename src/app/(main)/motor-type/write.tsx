@@ -23,15 +23,25 @@ import { ShadowBox } from "@/components/ui/shadow-box";
 import { metrics } from "@/constants/metrics";
 import { toastError, toastInfo } from "@/lib/toast";
 import { checkIfNrcError } from "@/lib/utils";
+import {
+  indexWriteParameterSchema,
+  mergeWriteParameterValues,
+  type WriteParameterSchemaMap,
+} from "@/lib/write-parameters";
 import { useAuthStore } from "@/store/auth-store";
 import { useDataTransferStore } from "@/store/data-transfer-store";
+import type {
+  WriteParameterSchema,
+  WriteParametersPayload,
+} from "@/types/bluetooth.types";
 
 const { BluetoothModule, USBModule } = NativeModules;
 
 type WriteParameter = {
+  didHex?: string;
   description: string;
   value: string;
-  hint: string;
+  hint: string | string[];
   maxValue?: string;
   minValue?: string;
   valueType?: string;
@@ -99,6 +109,8 @@ export default function ManualWriteMotorTypeScreen() {
 
   const subscriptionRef = useRef<{ remove: () => void } | null>(null);
   const updateUISubscriptionRef = useRef<{ remove: () => void } | null>(null);
+  const schemaSubscriptionRef = useRef<{ remove: () => void } | null>(null);
+  const writeParameterSchemaRef = useRef<WriteParameterSchemaMap>(new Map());
   const isFlashingUpdatedRef = useRef(false);
 
   // Filter to show only Motor_Type_Identification and MCU_OffsetLearn_Trigger
@@ -215,16 +227,33 @@ export default function ManualWriteMotorTypeScreen() {
     }
   };
 
+  const onWriteParameterSchema = (response: unknown) => {
+    try {
+      const resp = response as {
+        name: string;
+        success: boolean;
+        data: WriteParameterSchema[];
+      };
+      if (resp.name === "writeparameterschema" && resp.success) {
+        writeParameterSchemaRef.current = indexWriteParameterSchema(resp.data);
+      }
+    } catch {
+      console.log("Write parameter schema error:", response);
+    }
+  };
+
   const onWriteParameterResponse = (response: unknown) => {
     try {
       const resp = response as {
         name: string;
         success: boolean;
-        data: WriteParameter[];
+        data: WriteParametersPayload["data"];
       };
       if (resp.name === "writeparameters" && resp.success) {
         setLoading(false);
-        setWriteParameter([...resp.data]);
+        setWriteParameter(
+          mergeWriteParameterValues(writeParameterSchemaRef.current, resp.data)
+        );
       }
     } catch {
       console.log("Write parameter response error:", response);
@@ -328,6 +357,10 @@ export default function ManualWriteMotorTypeScreen() {
       dataTransferMode === "USB" ? USBModule : BluetoothModule;
     const eventEmitter = new NativeEventEmitter(moduleToUse);
 
+    schemaSubscriptionRef.current = eventEmitter.addListener(
+      "writeparameterschema",
+      onWriteParameterSchema
+    );
     subscriptionRef.current = eventEmitter.addListener(
       "writeparameters",
       onWriteParameterResponse
@@ -338,6 +371,7 @@ export default function ManualWriteMotorTypeScreen() {
     );
 
     return () => {
+      schemaSubscriptionRef.current?.remove();
       subscriptionRef.current?.remove();
       updateUISubscriptionRef.current?.remove();
       // biome-ignore lint/suspicious/noExplicitAny: USB module doesn't have stopReadParametersTimer
@@ -361,10 +395,13 @@ export default function ManualWriteMotorTypeScreen() {
     const hint = item?.hint?.toString()?.toUpperCase();
     if (hint && hint !== "NULL" && hint !== "NONE" && hint !== "") {
       try {
-        const finalValueArray = item.hint.split(",").map((element) => {
-          const [value, label] = element.trim().split("=");
-          return { label: label.trim(), value: value.trim() };
-        });
+        const finalValueArray = item.hint
+          .toString()
+          .split(",")
+          .map((element) => {
+            const [value, label] = element.trim().split("=");
+            return { label: label.trim(), value: value.trim() };
+          });
         setDropdownItems(finalValueArray);
         setHasOptions(true);
       } catch {
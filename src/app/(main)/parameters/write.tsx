@@ -1,7 +1,7 @@
 import Icon from "@expo/vector-icons/Feather";
 import { captureException, captureMessage } from "@sentry/react-native";
 import { router, useFocusEffect } from "expo-router";
-import { useCallback, useEffect, useState } from "react";
+import { useCallback, useEffect, useRef, useState } from "react";
 import {
   BackHandler,
   FlatList,
@@ -22,8 +22,17 @@ import { OverlayLoading } from "@/components/ui/overlay";
 import { ShadowBox } from "@/components/ui/shadow-box";
 import { toastError, toastInfo } from "@/lib/toast";
 import { checkIfNrcError } from "@/lib/utils";
+import {
+  indexWriteParameterSchema,
+  mergeWriteParameterValues,
+  type WriteParameterSchemaMap,
+} from "@/lib/write-parameters";
 import { useAuthStore } from "@/store/auth-store";
 import { useDataTransferStore } from "@/store/data-transfer-store";
+import type {
+  WriteParameterSchema,
+  WriteParametersPayload,
+} from "@/types/bluetooth.types";
 import type { DIDParameter } from "@/types/ecu";
 
 const { BluetoothModule, USBModule } = NativeModules;
@@ -66,7 +75,7 @@ type DropdownItem = {
 type WriteParameterResponse = {
   name: string;
   success?: boolean;
-  data?: DIDParameter[];
+  data?: WriteParameterSchema[] | WriteParametersPayload["data"];
   value?: string;
 };
 
@@ -106,6 +115,8 @@ export default function WriteParametersScreen() {
     string | null
   >(null);
 
+  const writeParameterSchemaRef = useRef<WriteParameterSchemaMap>(new Map());
+
   const eventEmitter = new NativeEventEmitter(
     dataTransferMode === "USB" ? USBModule : BluetoothModule
   );
@@ -371,6 +382,17 @@ export default function WriteParametersScreen() {
 
   const onResponse = (response: WriteParameterResponse) => {
     try {
+      if (
+        response.name === "writeparameterschema" &&
+        response.success &&
+        response.data
+      ) {
+        writeParameterSchemaRef.current = indexWriteParameterSchema(
+          response.data as WriteParameterSchema[]
+        );
+        return;
+      }
+
       if (
         response.name === "writeparameters" &&
         response.success &&
@@ -380,7 +402,12 @@ export default function WriteParametersScreen() {
         //   "[WriteParameters] Write Parameters Response:",
         //   response.data
         // );
-        handleWriteParametersResponse(response.data);
+        handleWriteParametersResponse(
+          mergeWriteParameterValues(
+            writeParameterSchemaRef.current,
+            response.data as WriteParametersPayload["data"]
+          )
+        );
         return;
       }
 
@@ -395,12 +422,17 @@ export default function WriteParametersScreen() {
 
   // biome-ignore lint/correctness/useExhaustiveDependencies: Event listeners need editData dependency
   useEffect(() => {
+    const schemaListener = eventEmitter.addListener(
+      "writeparameterschema",
+      onResponse
+    );
     const nativeListener = eventEmitter.addListener(
       "writeparameters",
       onResponse
     );
     const updateUiListener = eventEmitter.addListener("updateUI", onResponse);
     return () => {
+      schemaListener.remove();
       nativeListener.remove();
       updateUiListener.remove();
       BluetoothModule.stopReadParametersTimer();
@@ -22,6 +22,7 @@ import { toastError } from "@/lib/toast";
 import { useAuthStore } from "@/store/auth-store";
 import { useDataTransferStore } from "@/store/data-transfer-store";
 import type { ECURecord, ECURecordExtended } from "@/types/bluetooth.types";
+import type { CachedArtifact } from "@/types/test.types";
 
 const { BluetoothModule, TestModule } = NativeModules;
 
@@ -148,10 +149,22 @@ export default function ReadVINScreen() {
   // Validate URL
   const validateURL = (url: string) => URL_VALIDATION_PATTERN.test(url);
 
-  // Download file
+  // Hex and XML files of an ECU that have a valid URL
+  const getArtifacts = (ecuRecord: ECURecord): CachedArtifact[] =>
+    [
+      { url: ecuRecord.appHexUrl, fileName: ecuRecord.appHexFileName },
+      { url: ecuRecord.didsXmlUrl, fileName: ecuRecord.didsXmlFileName },
+      { url: ecuRecord.dtcsXmlUrl, fileName: ecuRecord.dtcsXmlFileName },
+      { url: ecuRecord.btlHexUrl, fileName: ecuRecord.btlHexFileName },
+    ].filter(
+      (artifact) =>
+        !!artifact.url && !!artifact.fileName && validateURL(artifact.url)
+    );
+
+  // Download file; a failed download leaves nothing behind to be cached
   const downloadFile = async (url: string, outputFilePath: string) => {
+    const file = new File(outputFilePath);
     try {
-      const file = new File(outputFilePath);
       const result = await File.downloadFileAsync(url, file);
 
       if (result.exists) {
@@ -168,6 +181,9 @@ export default function ReadVINScreen() {
       }
     } catch (error) {
       console.log("Error downloading file:", error);
+      if (file.exists) {
+        file.delete();
+      }
     }
   };
 
@@ -222,6 +238,14 @@ export default function ReadVINScreen() {
 
         setTotalFilesToDownload(ecuRecords.length);
 
+        // Artifacts shared with earlier vehicles are linked in from the native cache
+        const artifacts = ecuRecords.flatMap(getArtifacts);
+        const cachedUrls = new Set<string>(
+          await TestModule.getCachedArtifacts(
+            artifacts.map((artifact) => artifact.url)
+          )
+        );
+
         const extendedEcuRecords: ECURecordExtended[] = [];
 
         for (const ecuRecord of ecuRecords) {
@@ -246,30 +270,14 @@ export default function ReadVINScreen() {
 
           extendedEcuRecords.push(extendedEcuRecord);
 
-          // Download files
-          if (ecuRecord.appHexUrl && validateURL(ecuRecord.appHexUrl)) {
-            await downloadFile(
-              ecuRecord.appHexUrl,
-              `${outputDir.uri}/${ecuRecord.appHexFileName}`
-            );
-          }
-          if (ecuRecord.didsXmlUrl && validateURL(ecuRecord.didsXmlUrl)) {
-            await downloadFile(
-              ecuRecord.didsXmlUrl,
-              `${outputDir.uri}/${ecuRecord.didsXmlFileName}`
-            );
-          }
-          if (ecuRecord.dtcsXmlUrl && validateURL(ecuRecord.dtcsXmlUrl)) {
-            await downloadFile(
-              ecuRecord.dtcsXmlUrl,
-              `${outputDir.uri}/${ecuRecord.dtcsXmlFileName}`
-            );
-          }
-          if (ecuRecord.btlHexUrl && validateURL(ecuRecord.btlHexUrl)) {
-            await downloadFile(
-              ecuRecord.btlHexUrl,
-              `${outputDir.uri}/${ecuRecord.btlHexFileName}`
-            );
+          // Download files that are not cached yet
+          for (const artifact of getArtifacts(ecuRecord)) {
+            if (!cachedUrls.has(artifact.url)) {
+              await downloadFile(
+                artifact.url,
+                `${outputDir.uri}/${artifact.fileName}`
+              );
+            }
           }
           setTotalFilesDownloaded((prev) => prev + 1);
         }
@@ -299,7 +307,10 @@ export default function ReadVINScreen() {
 
         // Copy files to location
         const outputPath = outputDir.uri.replace("file://", "");
-        const res = await TestModule.copyFilesToLocation(outputPath);
+        const res = await TestModule.copyFilesToLocation(
+          outputPath,
+          artifacts
+        );
 
         if (outputDir.exists) {
           outputDir.delete();
@@ -10,7 +10,7 @@ import {
   Text,
   View,
 } from "react-native";
-import { uploadBINFromJSON } from "@/api/sap";
+import { uploadBINFromJSON, uploadBINFromSummary } from "@/api/sap";
 import { file } from "@/assets/images";
 import { CustomHeader } from "@/components/ui/header";
 import { ShadowBox } from "@/components/ui/shadow-box";
@@ -22,6 +22,7 @@ import {
 import { useAuthStore } from "@/store/auth-store";
 import { useDataTransferStore } from "@/store/data-transfer-store";
 import type { ECURecord } from "@/types";
+import type { ReadBinDataPayload } from "@/types/bluetooth.types";
 
 const { BluetoothModule } = NativeModules;
 const eventEmitter = new NativeEventEmitter(BluetoothModule);
@@ -144,7 +145,7 @@ export default function SendBinDataScreen() {
 
   // Handle BIN data response
   const onBinDataResponse = useCallback(
-    async (response: { name: string; value: string }) => {
+    async (response: ReadBinDataPayload) => {
       console.log("BIN data response received:", response);
       if (response.name !== "readBinData") {
         return;
@@ -159,14 +160,14 @@ export default function SendBinDataScreen() {
           binTimeoutIdRef.current = null;
         }
 
-        if (!response.value || response.value === "null") {
+        if (!response.value) {
           cleanupAndNavigate();
           return;
         }
 
-        // Send to SAP API - payload preparation happens inside the API
+        // Send to SAP API - the response was decoded natively
         try {
-          await uploadBINFromJSON(
+          await uploadBINFromSummary(
             vin,
             response.value,
             userInfo?.dealer_code ?? "",
@@ -0,0 +1,84 @@
+import type { ErrorCodesDiff } from "@/types/bluetooth.types";
+import type { ErrorCode } from "@/types/ecu";
+
+type DtcText = {
+  description: string;
+  remedy: string;
+};
+
+type DtcSession = {
+  codes: Map<string, Omit<ErrorCode, "description" | "remedy">>;
+  // Native sends description/remedy only the first time a code is seen per session
+  texts: Map<string, DtcText>;
+};
+
+const sessions = new Map<number, DtcSession>();
+
+/**
+ * Whether this JS runtime already holds DTC state for the ECU.
+ * If not, the native diff must be reset so it re-sends the full text.
+ */
+export function hasDtcSession(ecuPos: number): boolean {
+  return sessions.has(ecuPos);
+}
+
+/**
+ * Reset the native diff of the ECUs this runtime has no DTC state for,
+ * before passing them to scanAllDtcs
+ */
+export function prepareDtcSweep(
+  positions: number[],
+  resetDtcDiff: (pos: number) => void
+): void {
+  for (const pos of positions) {
+    if (!hasDtcSession(pos)) {
+      resetDtcDiff(pos);
+    }
+  }
+}
+
+/**
+ * Apply an added/changed/removed DTC diff and return the full current list
+ */
+export function applyDtcDiff(diff: ErrorCodesDiff): ErrorCode[] {
+  let session = sessions.get(diff.ecuPos);
+  if (!session || diff.reset) {
+    session = { codes: new Map(), texts: new Map() };
+    sessions.set(diff.ecuPos, session);
+  }
+
+  for (const code of diff.removed) {
+    session.codes.delete(code);
+  }
+  for (const item of diff.added) {
+    if (item.description !== undefined || item.remedy !== undefined) {
+      session.texts.set(item.text, {
+        description: item.description ?? "",
+        remedy: item.remedy ?? "",
+      });
+    }
+    session.codes.set(item.text, {
+      text: item.text,
+      name: item.name,
+      status: item.status,
+    });
+  }
+  for (const item of diff.changed) {
+    session.codes.set(item.text, {
+      text: item.text,
+      name: item.name,
+      status: item.status,
+    });
+  }
+
+  const errorCodes: ErrorCode[] = [];
+  for (const code of session.codes.values()) {
+    const text = session.texts.get(code.text);
+    errorCodes.push({
+      ...code,
+      description: text?.description ?? "",
+      remedy: text?.remedy ?? "",
+    });
+  }
+  return errorCodes;
+}
@@ -10,7 +10,7 @@
 import dayjs from "dayjs";
 import { Directory, File, Paths } from "expo-file-system";
 import { createMMKV } from "react-native-mmkv";
-import { zip } from "react-native-zip-archive";
+import { createNativeArchive } from "@/lib/native-archive";
 
 // ============================================
 // Types
@@ -211,8 +211,8 @@ export async function createZipAndQueueJob(
 
     console.log(`[EEDUMP] Creating zip: ${zipFileName}`);
 
-    // Create zip (react-native-zip-archive uses plain paths)
-    await zip(eeDumpPath, zipFilePath);
+    // Create zip natively (streamed on a background thread, plain paths)
+    await createNativeArchive([{ path: eeDumpPath }], zipFilePath);
 
     // Clean up source files after zipping
     cleanupPreviousEEDump();
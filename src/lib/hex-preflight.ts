@@ -0,0 +1,30 @@
+import { NativeModules } from "react-native";
+import type { HexPreflightResult } from "@/types/bluetooth.types";
+
+const { BluetoothModule } = NativeModules;
+
+/**
+ * Check an ECU's hex file natively before flashing it (record checksums,
+ * truncation, overlapping data).
+ *
+ * @returns a failure message if the file is corrupt, null otherwise. A file
+ * that could not be checked is not reported, so the flash goes ahead as before.
+ */
+export async function getHexPreflightError(
+  ecuIndex: number,
+  kind: "app" | "btl"
+): Promise<string | null> {
+  try {
+    const result: HexPreflightResult = await BluetoothModule.preflightHexFile(
+      ecuIndex,
+      kind
+    );
+    console.log("[HexPreflight]", kind, result);
+    if (result.checked && result.valid === false) {
+      return `Hex file is corrupt, please download it again (${result.error})`;
+    }
+  } catch (error) {
+    console.log("[HexPreflight] error:", error);
+  }
+  return null;
+}
@@ -0,0 +1,54 @@
+import { NativeEventEmitter, NativeModules } from "react-native";
+import type {
+  ArchiveProgressPayload,
+  ArchiveSource,
+} from "@/types/bluetooth.types";
+
+const { BluetoothModule } = NativeModules;
+
+let archiveCounter = 0;
+
+/**
+ * Zip folders on the native side (streamed, off the JS and UI threads).
+ * A source with `nestedName` is packed as an inner zip of that name.
+ *
+ * @param destination Plain file path of the archive to create
+ * @returns the archive path
+ */
+export async function createNativeArchive(
+  sources: ArchiveSource[],
+  destination: string,
+  options: {
+    deleteSources?: boolean;
+    onProgress?: (progress: ArchiveProgressPayload) => void;
+  } = {}
+): Promise<string> {
+  archiveCounter += 1;
+  const id = `archive_${Date.now()}_${archiveCounter}`;
+  const { onProgress } = options;
+
+  const subscription = onProgress
+    ? new NativeEventEmitter(BluetoothModule).addListener(
+        "archiveProgress",
+        (progress: ArchiveProgressPayload) => {
+          if (progress.id === id) {
+            onProgress(progress);
+          }
+        }
+      )
+    : null;
+
+  try {
+    return await BluetoothModule.createArchive({
+      id,
+      destination: destination.replace("file://", ""),
+      sources: sources.map((source) => ({
+        ...source,
+        path: source.path.replace("file://", ""),
+      })),
+      deleteSources: options.deleteSources ?? false,
+    });
+  } finally {
+    subscription?.remove();
+  }
+}
@@ -0,0 +1,39 @@
+import type {
+  WriteParameterSchema,
+  WriteParametersPayload,
+} from "@/types/bluetooth.types";
+
+export type WriteParameterSchemaMap = Map<string, WriteParameterSchema>;
+
+/**
+ * Index the one-time write parameter schema by didHex
+ */
+export function indexWriteParameterSchema(
+  schema: WriteParameterSchema[]
+): WriteParameterSchemaMap {
+  const schemaByDid: WriteParameterSchemaMap = new Map();
+  for (const item of schema) {
+    schemaByDid.set(item.didHex, item);
+  }
+  return schemaByDid;
+}
+
+/**
+ * Merge value-only write parameter updates with the cached schema.
+ * Values whose didHex has no schema entry yet are skipped.
+ */
+export function mergeWriteParameterValues(
+  schemaByDid: WriteParameterSchemaMap,
+  values: WriteParametersPayload["data"]
+): Array<WriteParameterSchema & { value: string; newValue: string }> {
+  const merged: Array<
+    WriteParameterSchema & { value: string; newValue: string }
+  > = [];
+  for (const item of values) {
+    const schema = schemaByDid.get(item.didHex);
+    if (schema) {
+      merged.push({ ...schema, value: item.value, newValue: item.newValue });
+    }
+  }
+  return merged;
+}
@@ -23,6 +23,7 @@ export type ErrorCodeModel = {
  */
 export type FlashingUpdatePayload = {
   name: string;
+  sessionId?: string;
   value?: {
     mainProgress: number; // -1 for timeout, 0-100 for progress
     subProgress: number;
@@ -35,6 +36,7 @@ export type FlashingUpdatePayload = {
  */
 export type BootUpdatePayload = {
   name: string;
+  sessionId?: string;
   value?: {
     mainProgress: number;
     subProgress: number;
@@ -47,6 +49,7 @@ export type BootUpdatePayload = {
  */
 export type WriteVinUpdatePayload = {
   name: string;
+  sessionId?: string;
   value?: {
     mainProgress: number;
     subProgress: number;
@@ -59,6 +62,7 @@ export type WriteVinUpdatePayload = {
  */
 export type WritePCUpdatePayload = {
   name: string;
+  sessionId?: string;
   value?: string | null;
 };
 
@@ -67,6 +71,7 @@ export type WritePCUpdatePayload = {
  */
 export type WriteBinUpdatePayload = {
   name: string;
+  sessionId?: string;
   value?: {
     mainProgress: number;
     subProgress: number;
@@ -75,19 +80,407 @@ export type WriteBinUpdatePayload = {
 };
 
 /**
- * Analytics graph data payload
+ * One analytics series, downsampled (LTTB) to the requested point count
  */
-export type AnalyticsGraphPayload = {
+export type AnalyticsSeries = {
   name: string;
-  value?: any; // Define specific analytics structure as needed
+  t: number[]; // Sample times, epoch ms
+  v: number[];
+  rawPoints: number; // Points in the window before downsampling
+  last: number | null;
 };
 
 /**
- * Error codes list payload
+ * Window pulled from the native analytics ring buffer.
+ * Only `changed` and `version` are set when nothing new was recorded.
+ */
+export type AnalyticsWindow = {
+  changed: boolean;
+  version: number;
+  totalSamples?: number;
+  unparsedSamples?: number;
+  bufferedSamples?: number;
+  capacity?: number;
+  lastSample?: string | null;
+  series?: AnalyticsSeries[];
+};
+
+/**
+ * Sent at most every 5 s while the EE dump only produces raw chunks, which are
+ * captured natively instead of being forwarded on "eeDump"
+ */
+export type EeDumpProgressPayload = {
+  name: string;
+  sessionId?: string;
+  value: {
+    chunks: number;
+    rawBytes: number;
+  };
+};
+
+/**
+ * Sent once when an EE dump subscription ends. Status chunks that did not
+ * change the progress are not forwarded on "eeDump"; non-status chunks are
+ * captured natively to rawPath.
+ */
+export type EeDumpCompletePayload = {
+  name: string;
+  sessionId?: string;
+  value?: {
+    chunks: number;
+    forwarded: number;
+    suppressed: number;
+    rawBytes: number;
+    rawPath: string | null;
+    crc32: string | null;
+  } | null;
+};
+
+/**
+ * Folder to add to a native archive
+ */
+export type ArchiveSource = {
+  path: string;
+  // Pack the folder as an inner zip with this name instead of plain entries
+  nestedName?: string;
+};
+
+/**
+ * Progress of a native archive ("archiveProgress" event)
+ */
+export type ArchiveProgressPayload = {
+  id: string;
+  bytes: number;
+  totalBytes: number;
+  files: number;
+  totalFiles: number;
+};
+
+/**
+ * Native index of the log and dump folders
+ */
+export type LogIndex = {
+  dirs: Array<{
+    name: "BALAppLog" | "BALLog" | "EEDUMP";
+    path: string;
+    bytes: number;
+    files: Array<{ path: string; size: number; modified: number }>;
+  }>;
+};
+
+/**
+ * Recorded analytics / live parameter session on the device
+ */
+export type RecordedSession = {
+  sessionId: string;
+  path: string;
+  segments: number;
+  samples: number;
+  bytes: number;
+  firstTime: number | null;
+  lastTime: number | null;
+  isRecording: boolean;
+};
+
+/**
+ * Summary returned when a recording is stopped
+ */
+export type RecordedSessionSummary = {
+  sessionId: string;
+  startTime: number;
+  samples: number;
+  droppedSamples: number;
+  segments: number;
+  series: number;
+};
+
+/**
+ * DTC entry in an error codes diff. Description and remedy are only
+ * present the first time a code is seen for the ECU in the session.
+ */
+export type ErrorCodeDiffEntry = {
+  name: string;
+  text: string;
+  status: "Current" | "History" | "Both";
+  description?: string;
+  remedy?: string;
+};
+
+/**
+ * Incremental error codes update for one ECU
+ */
+export type ErrorCodesDiff = {
+  ecuPos: number;
+  // True when the native session was reset; drop any cached codes and text
+  reset: boolean;
+  added: ErrorCodeDiffEntry[];
+  changed: Omit<ErrorCodeDiffEntry, "description" | "remedy">[];
+  removed: string[];
+};
+
+/**
+ * Error codes list payload ("Error_Out" on timeout)
  */
 export type ErrorCodesListPayload = {
   name: string;
-  value?: ErrorCodeModel[] | null;
+  sessionId?: string;
+  value?: ErrorCodesDiff | "Error_Out" | null;
+};
+
+/**
+ * One ECU of a scanAllDtcs sweep. `count` and `diff` are only set when the
+ * ECU answered; the diff applies to the same session as getErrorCodes.
+ */
+export type DtcSweepResult = {
+  ecuPos: number;
+  ecuName: string | null;
+  status: "ok" | "error" | "timeout";
+  completed: number;
+  total: number;
+  count?: number;
+  diff?: ErrorCodesDiff;
+};
+
+export type DtcSweepPayload = {
+  name: string;
+  sessionId?: string;
+  value?: DtcSweepResult | null;
+};
+
+/**
+ * Sent once when a sweep ends, also when it was cancelled
+ */
+export type DtcSweepSummary = {
+  requested: number;
+  scanned: number;
+  failed: number;
+  timedOut: number;
+  totalCodes: number;
+  ecusWithCodes: number;
+  cancelled: boolean;
+  durationMillis: number;
+};
+
+export type DtcSweepFinishedPayload = {
+  name: string;
+  sessionId?: string;
+  value?: DtcSweepSummary | null;
+};
+
+/**
+ * Result of one step of a vehicle snapshot; value is null unless status is "ok".
+ * "skipped" marks the steps of an ECU whose record could not be read
+ */
+export type VehicleSnapshotStep<T> = {
+  status: "ok" | "error" | "timeout" | "skipped";
+  value: T | null;
+};
+
+/**
+ * Basic info read from an ECU during a vehicle snapshot
+ */
+export type VehicleSnapshotBasicInfo = {
+  osVersion?: string | null;
+  blVersion?: string | null;
+  appVersion?: string | null;
+  calVersion?: string | null;
+  cfgVersion?: string | null;
+  hwPartNo?: string | null;
+  hwSerialNo?: string | null;
+  vin?: string | null;
+  fingerPrint?: string | null;
+  designIssue?: string | null;
+  softwarePartInfo?: string | null;
+  softwareVersion: string | null;
+  calibrationVersion: string | null;
+  btlVersion: string | null;
+};
+
+export type VehicleSnapshotDtc = {
+  code: string | null;
+  name: string | null;
+  status: string | null;
+};
+
+/**
+ * One ECU of a vehicle snapshot. Steps after a cancel are missing
+ */
+export type VehicleSnapshotEcu = {
+  ecuPos: number;
+  ecuName?: string | null;
+  basicInfo?: VehicleSnapshotStep<VehicleSnapshotBasicInfo>;
+  dtcs?: VehicleSnapshotStep<VehicleSnapshotDtc[]>;
+  bootUpdateRequired?: VehicleSnapshotStep<boolean>;
+};
+
+/**
+ * captureVehicleSnapshot result. `path` and `previousPath` point to the
+ * saved JSON of this and the previous snapshot of the same VIN; a cancelled
+ * snapshot is not saved
+ */
+export type VehicleSnapshot = {
+  capturedAt: number;
+  stepTimeoutMillis: number;
+  vin?: VehicleSnapshotStep<string>;
+  ecus: VehicleSnapshotEcu[];
+  totals: {
+    ecus: number;
+    dtcs: number;
+    timeouts: number;
+    errors: number;
+  };
+  cancelled: boolean;
+  durationMillis: number;
+  path?: string | null;
+  previousPath?: string | null;
+};
+
+/**
+ * Sent after every step of a vehicle snapshot; ecuPos is -1 for the VIN
+ */
+export type VehicleSnapshotProgress = {
+  step: "vin" | "basicInfo" | "dtcs" | "bootUpdateRequired";
+  status: "ok" | "error" | "timeout" | "skipped";
+  ecuPos: number;
+  completedEcus: number;
+  totalEcus: number;
+};
+
+export type VehicleSnapshotProgressPayload = {
+  name: string;
+  sessionId?: string;
+  value?: VehicleSnapshotProgress | null;
+};
+
+/**
+ * Checks the result of a macro step. `step` defaults to the step itself for
+ * expect and to the previous step for when; every comparison given must hold
+ */
+export type MacroCondition = {
+  step?: string;
+  path?: string;
+  status?: MacroStepStatus;
+  equals?: string | number | boolean | null;
+  notEquals?: string | number | boolean | null;
+  lessThan?: number;
+  greaterThan?: number;
+  contains?: string | number;
+  matches?: string;
+};
+
+export type MacroStepStatus = "ok" | "error" | "timeout" | "failed" | "skipped";
+
+type MacroStepBase = {
+  id?: string;
+  ecuPos?: number;
+  timeoutMillis?: number;
+  retries?: number;
+  retryDelayMillis?: number;
+  when?: MacroCondition;
+  expect?: MacroCondition;
+  /** "abort" (default), "continue", or the id of the step to jump to */
+  onFailure?: string;
+};
+
+export type MacroStep = MacroStepBase &
+  (
+    | { op: "readVin" | "basicInfo" | "scanDtcs" | "bootUpdateRequired" }
+    | { op: "clearDtcs"; errorCodeType?: "Current" | "History" | "Both" }
+    | { op: "readDid"; group: string; did?: string; description?: string }
+    | { op: "writeDid"; value: string; did?: string; description?: string }
+    | { op: "actuator"; index?: number; routineId?: string }
+    | { op: "delay"; millis: number }
+  );
+
+/**
+ * Declarative sequence run natively by runMacro (JSON.stringify it)
+ */
+export type MacroDefinition = {
+  name?: string;
+  /** Default per step timeout, 10 s if not set */
+  timeoutMillis?: number;
+  steps: MacroStep[];
+};
+
+/**
+ * One finished macro step. value is the VIN, basic info, {count, codes},
+ * the DID value, the lib's response or the boot flag, depending on op
+ */
+export type MacroStepSummary = {
+  index: number;
+  id: string;
+  op: MacroStep["op"];
+  status: MacroStepStatus;
+  attempts: number;
+  value: unknown;
+  durationMillis: number;
+};
+
+export type MacroStepPayload = {
+  name: string;
+  sessionId?: string;
+  value?: (MacroStepSummary & { macro: string }) | null;
+};
+
+export type MacroResult = {
+  name: string;
+  status: "passed" | "failed" | "cancelled";
+  abortedAt: string | null;
+  steps: MacroStepSummary[];
+  totals: {
+    ok: number;
+    failed: number;
+    skipped: number;
+    executed: number;
+  };
+  durationMillis: number;
+};
+
+/**
+ * Operations started by a subscribeTo* method, by the name cancelOperation
+ * takes (the name of their event, except updateBootLoader)
+ */
+export type CancellableOperation =
+  | "readVin"
+  | "clearCode"
+  | "eeDump"
+  | "readBinData"
+  | "getErrorCodes"
+  | "analytics"
+  | "actuator"
+  | "updateBootLoader"
+  | "updateBoot"
+  | "updateFlash"
+  | "updateWriteVin"
+  | "updateWritePC"
+  | "updateWriteBin";
+
+/**
+ * - quiesced: the dongle acknowledged Cancel_Data (ConfigReset)
+ * - timeout: no acknowledgement within the timeout
+ * - detached: no ECU to address the cancel to; only the observer was removed
+ * - idle: the operation was not running
+ * - refused: the dongle bootloader update cannot be interrupted safely
+ * - cancelled: the module was destroyed while waiting
+ * - error: the lib threw while stopping the operation
+ */
+export type OperationCancelResult = {
+  operation: CancellableOperation;
+  ecuPos: number;
+  status:
+    | "quiesced"
+    | "timeout"
+    | "detached"
+    | "idle"
+    | "refused"
+    | "cancelled"
+    | "error";
+  /** Whether stopFlashing found a lib service running and detached it */
+  stoppedService: boolean;
+  /** From the cancel to the acknowledgement (or to giving up) */
+  quiesceMillis: number;
+  /** How long the operation had been running */
+  ranMillis: number;
 };
 
 /**
@@ -95,6 +488,7 @@ export type ErrorCodesListPayload = {
  */
 export type ClearCodePayload = {
   name: string;
+  sessionId?: string;
   value?: string | null;
 };
 
@@ -103,6 +497,7 @@ export type ClearCodePayload = {
  */
 export type ReadVinPayload = {
   name: string;
+  sessionId?: string;
   value?: string | null;
 };
 
@@ -111,6 +506,7 @@ export type ReadVinPayload = {
  */
 export type DumpPayload = {
   name: string;
+  sessionId?: string;
   value?:
     | {
         status: boolean;
@@ -128,7 +524,26 @@ export type DumpPayload = {
  */
 export type ReadBinDataPayload = {
   name: string;
-  value?: string | null;
+  sessionId?: string;
+  value?: ReadBinDataSummary | null;
+};
+
+/**
+ * readBinData response as decoded natively. The raw response is saved at rawPath.
+ * - bin: BinUploadData was present; bin and status are its fields
+ * - noRecord: JSON without BinUploadData (no VCU or BMS record)
+ * - nrc: negative response from the ECU
+ * - unknown: any other response
+ * - invalid: malformed JSON
+ */
+export type ReadBinDataSummary = {
+  kind: "bin" | "noRecord" | "nrc" | "unknown" | "invalid";
+  bin?: string;
+  status?: number | null;
+  nrc?: string;
+  error?: string;
+  rawLength: number;
+  rawPath: string | null;
 };
 
 /**
@@ -136,6 +551,7 @@ export type ReadBinDataPayload = {
  */
 export type ActuatorPayload = {
   name: string;
+  sessionId?: string;
   value?:
     | {
         status: boolean;
@@ -153,6 +569,7 @@ export type ActuatorPayload = {
  */
 export type ReadParametersPayload = {
   name: "readparameters";
+  sessionId?: string;
   success: boolean;
   data: Array<{
     detail: string;
@@ -161,31 +578,176 @@ export type ReadParametersPayload = {
 };
 
 /**
- * Write parameters list
+ * Static write parameter metadata, sent once per getWriteParameter call
+ */
+export type WriteParameterSchema = {
+  didHex: string;
+  description: string;
+  valueType: string;
+  maxValue: string;
+  minValue: string;
+  isCallProPackStatusUploadApi: boolean;
+  isRedColorEnable: boolean;
+  showProgress: boolean;
+  isResultRaw: boolean;
+  checkDid: string;
+  resultToPass: string;
+  resultToFail: string;
+  timeoutInMs: number;
+  hint: string[];
+};
+
+/**
+ * Write parameters schema (one-time, keyed by didHex)
+ */
+export type WriteParameterSchemaPayload = {
+  name: "writeparameterschema";
+  sessionId?: string;
+  success: boolean;
+  data: WriteParameterSchema[];
+};
+
+/**
+ * Write parameters values (periodic, only when a value changed)
  */
 export type WriteParametersPayload = {
   name: "writeparameters";
+  sessionId?: string;
   success: boolean;
   data: Array<{
-    description: string;
-    value: string;
     didHex: string;
+    value: string;
     newValue: string;
-    valueType: string;
-    maxValue: string;
-    minValue: string;
-    isCallProPackStatusUploadApi: boolean;
-    isRedColorEnable: boolean;
-    showProgress: boolean;
-    isResultRaw: boolean;
-    checkDid: string;
-    resultToPass: string;
-    resultToFail: string;
-    timeoutInMs: number;
-    hint: string[];
   }>;
 };
 
+/**
+ * Counters of a throttled progress stream for the current operation
+ */
+export type ProgressChannelStats = {
+  emitted: number;
+  dropped: number;
+  updateFrameTime: number;
+  isUpdatePerFrame: boolean;
+};
+
+/**
+ * Result of preflightHexFile. `checked` is false when the hex file could not
+ * be found or read; `valid` is only set when it was checked.
+ */
+export type HexPreflightResult = {
+  path: string;
+  checked: boolean;
+  valid?: boolean;
+  /** Why the file was rejected, e.g. "line 120: checksum mismatch" */
+  error?: string;
+  line?: number;
+  /** Metadata reused from the sidecar of an unchanged file */
+  cached?: boolean;
+  records?: number;
+  dataBytes?: number;
+  /** CRC32 of the data in address order, 8 hex digits */
+  crc32?: string;
+  startAddress?: number | null;
+  rangeCount?: number;
+  /** First 64 contiguous address ranges */
+  ranges?: Array<{ start: number; length: number }>;
+  /** Data image in address order, and its JSON metadata sidecar */
+  imagePath?: string;
+  metadataPath?: string;
+};
+
+/**
+ * Counters of the native DID group / actuator routine cache. `generation`
+ * changes whenever copyFilesToLocation replaces the downloaded files.
+ */
+export type MetadataCacheStats = {
+  hits: number;
+  misses: number;
+  entries: number;
+  generation: number;
+};
+
+/**
+ * Which of an ECU's XML files a dictionary was compiled from
+ */
+export type DictionaryKind = "dids" | "dtcs";
+
+/**
+ * A DID or DTC from a compiled dictionary. Fields hold the attributes and
+ * text of the XML element and everything beneath it (scaling, enum values)
+ * in document order, named by path, e.g. `@name` or `Enum@value`.
+ */
+export type DictionaryRecord = {
+  key: string;
+  element: string;
+  group: string;
+  fields: { name: string; value: string }[];
+};
+
+export type DictionaryGroup = {
+  name: string;
+  count: number;
+};
+
+/**
+ * Native LiveData observer accounting
+ */
+export type SubscriptionStats = {
+  subscriptions: Array<{ operation: string; ecuPos: number }>;
+  liveObservers: number;
+  attachCount: number;
+  detachCount: number;
+};
+
+/**
+ * Counters of one dongle command lane. Waits and runs are in milliseconds;
+ * `expired` commands missed their deadline while queued, `overran` ones
+ * while running, `dropped` ones were preempted by stop/stopFlashing.
+ */
+export type DongleSchedulerLaneStats = {
+  depth: number;
+  submitted: number;
+  completed: number;
+  expired: number;
+  dropped: number;
+  overran: number;
+  averageWaitMillis: number;
+  maxWaitMillis: number;
+  averageRunMillis: number;
+};
+
+/**
+ * A native dongle session, one per vehicle. `generation` counts the
+ * connections opened in the session, `clients` the native modules that
+ * attached since the app started (one more per JS reload).
+ */
+export type DongleSessionInfo = {
+  sessionId: string;
+  active: boolean; // The session the native module drives
+  open: boolean;
+  transport: "Bluetooth" | "USB" | null;
+  deviceName: string | null;
+  connected: boolean;
+  openMillis: number;
+  generation: number;
+  clients: number;
+};
+
+/**
+ * State of the native command scheduler serialising dongle calls
+ */
+export type DongleSchedulerStats = {
+  lanes: {
+    interactive: DongleSchedulerLaneStats;
+    flashing: DongleSchedulerLaneStats;
+    background: DongleSchedulerLaneStats;
+  };
+  running: string | null;
+  runningLane: "interactive" | "flashing" | "background" | null;
+  runningMillis: number;
+};
+
 /**
  * UI update data payload
  */
@@ -238,7 +800,7 @@ export type ECURecord = {
   oldHexFileName: string;
   isCheckBIOError: boolean;
   readParamAutoRefreshShownInGroupName: string;
-  // VIN number is only included in getEcuRecords, not in getUpdatedEcuRecords
+  // VIN number passed to the last getEcuRecords call
   vinNumber?: string;
   // Motor type related
   isWriteMotorType: boolean;
@@ -349,6 +911,34 @@ export interface BluetoothModuleType extends NativeModule {
    */
   balDongleLibStop(): void;
 
+  /**
+   * The dongle connection kept by the native side across JS reloads; when
+   * `open` and `connected`, there is no need to call initBalDongle or
+   * initBalUSBDongle again
+   */
+  getDongleSession(): Promise<DongleSessionInfo>;
+
+  /**
+   * Every dongle session, in the order they were created
+   */
+  getDongleSessions(): Promise<DongleSessionInfo[]>;
+
+  /**
+   * Drive another dongle session, creating it if needed; initBalDongle and
+   * initBalUSBDongle then connect it. The other sessions stay connected but
+   * only the selected one is driven and observed, sessions do not run
+   * operations concurrently. Rejects while a flash, dump, actuator routine,
+   * DTC sweep, snapshot or macro runs on the current session.
+   * @param sessionId - e.g. one per vehicle; "" selects "default"
+   */
+  selectDongleSession(sessionId: string): Promise<DongleSessionInfo>;
+
+  /**
+   * Close a dongle session's connection and drop it from getDongleSessions;
+   * the selected session is only closed
+   */
+  closeDongleSession(sessionId: string): void;
+
   /**
    * Initialize BAL dongle connection via Bluetooth
    * @param btAddress - Bluetooth MAC address
@@ -458,6 +1048,105 @@ export interface BluetoothModuleType extends NativeModule {
    */
   unsubscribeToErrorCodesList(): void;
 
+  /**
+   * Forget the DTCs already sent for an ECU, so the next scan re-sends
+   * every code with its description and remedy
+   * @param pos - ECU record index
+   */
+  resetDtcDiff(pos: number): void;
+
+  /**
+   * Scan the DTCs of several ECUs back to back over the link. Emits one
+   * 'dtcSweep' event per ECU as it completes and 'dtcSweepFinished' with the
+   * totals. Starting a sweep or a single-ECU scan cancels a running sweep
+   * @param positions - ECU record indexes, scanned in this order
+   */
+  scanAllDtcs(positions: number[]): void;
+
+  /**
+   * Stop a running sweep; 'dtcSweepFinished' is sent with cancelled: true
+   */
+  cancelDtcSweep(): void;
+
+  /**
+   * Read the VIN, then basic info, DTCs and boot update status of each ECU
+   * in one call, saving the result on the device. Emits
+   * 'vehicleSnapshotProgress' after every step; a step that fails or times
+   * out is recorded and the capture goes on. Cancels a running DTC sweep
+   * @param positions - ECU record indexes, read in this order
+   * @param stepTimeoutMillis - Per step timeout, 0 for the default (10 s)
+   */
+  captureVehicleSnapshot(
+    positions: number[],
+    stepTimeoutMillis: number
+  ): Promise<VehicleSnapshot>;
+
+  /**
+   * Stop a running capture; it resolves with cancelled: true
+   */
+  cancelVehicleSnapshot(): void;
+
+  /**
+   * Run a MacroDefinition natively, step after step, without waiting on JS
+   * between steps. Emits 'macroStep' once per finished step. Rejects if the
+   * macro is invalid; cancels a running DTC sweep, snapshot or macro
+   * @param macroJson - JSON.stringify(macro)
+   */
+  runMacro(macroJson: string): Promise<MacroResult>;
+
+  /**
+   * Stop a running macro; it resolves with status "cancelled"
+   */
+  cancelMacro(): void;
+
+  /**
+   * Abort a running subscribeTo* operation on the dongle, not only its
+   * observer, and wait until the link is free
+   * @param timeoutMillis - how long to wait for the dongle to acknowledge; 0 for 3 s
+   */
+  cancelOperation(
+    operation: CancellableOperation,
+    timeoutMillis: number
+  ): Promise<OperationCancelResult>;
+
+  // ============================================================================
+  // ECU Dictionaries
+  // ============================================================================
+
+  /**
+   * Look up DIDs or DTCs in the dictionary compiled from the ECU's XML by
+   * copyFilesToLocation. Keys ignore case and a `0x` prefix.
+   * @param pos - ECU record index
+   * @param kind - DID or DTC dictionary
+   * @param keys - Identifiers to look up
+   * @returns Promise with the matching records per key, or null if the
+   * dictionary has not been compiled
+   */
+  lookupDictionary(
+    pos: number,
+    kind: DictionaryKind,
+    keys: string[]
+  ): Promise<Record<string, DictionaryRecord[]> | null>;
+
+  /**
+   * List the groups of a compiled dictionary with their record counts
+   * @returns Promise with the groups in XML order, or null if not compiled
+   */
+  getDictionaryGroups(
+    pos: number,
+    kind: DictionaryKind
+  ): Promise<DictionaryGroup[] | null>;
+
+  /**
+   * List the records of one dictionary group, sorted by key
+   * @returns Promise with the records, or null if not compiled
+   */
+  listDictionaryGroup(
+    pos: number,
+    kind: DictionaryKind,
+    group: string
+  ): Promise<DictionaryRecord[] | null>;
+
   /**
    * Subscribe to clear error codes operation
    * @param pos - ECU record index
@@ -485,6 +1174,16 @@ export interface BluetoothModuleType extends NativeModule {
    */
   unSubscribeToFlashingUpdate(): void;
 
+  /**
+   * Validate the ECU's app or bootloader hex file before flashing it
+   * @param pos - ECU record index
+   * @param kind - "app" or "btl"
+   */
+  preflightHexFile(
+    pos: number,
+    kind: "app" | "btl"
+  ): Promise<HexPreflightResult>;
+
   /**
    * Subscribe to boot flashing progress updates
    * @param pos - ECU record index
@@ -594,7 +1293,8 @@ export interface BluetoothModuleType extends NativeModule {
 
   /**
    * Get write parameters for ECU
-   * Emits periodic updates on 'writeparameters' channel
+   * Emits the static metadata once on 'writeparameterschema', then
+   * value-only updates on 'writeparameters' whenever a value changes
    * @param pos - ECU record index
    */
   getWriteParameter(pos: number): void;
@@ -624,7 +1324,10 @@ export interface BluetoothModuleType extends NativeModule {
   // ============================================================================
 
   /**
-   * Get ECU records from JSON configuration
+   * Get ECU records from JSON configuration. The JSON is parsed off the
+   * native modules thread; if the same JSON was already parsed for this VIN
+   * (e.g. before an app restart), the records come from a persisted snapshot
+   * while the native library parses in the background
    * @param ecuRecordJson - JSON string with ECU definitions
    * @param vinNumber - VIN number associated with vehicle
    * @returns Promise with array of ECU records
@@ -638,6 +1341,14 @@ export interface BluetoothModuleType extends NativeModule {
    */
   getUpdatedEcuRecords(pos: number): Promise<ECURecord>;
 
+  /**
+   * Get only the ECU record fields that changed since the record was last sent
+   * by getEcuRecords, getUpdatedEcuRecords or this method
+   * @param pos - ECU record index
+   * @returns Promise with the changed fields (empty object if nothing changed)
+   */
+  getEcuRecordChanges(pos: number): Promise<Partial<ECURecord>>;
+
   // ============================================================================
   // Special Functions
   // ============================================================================
@@ -673,6 +1384,30 @@ export interface BluetoothModuleType extends NativeModule {
    */
   deleteBalLogs(): void;
 
+  /**
+   * List the files in BALAppLog, BALLog and EEDUMP (oldest first)
+   */
+  getLogIndex(): Promise<LogIndex>;
+
+  /**
+   * Delete log files older than maxAgeInMillis, then the oldest files until
+   * each log folder is below maxBytes
+   * @returns Promise with the number of files deleted
+   */
+  rotateLogs(maxBytes: number, maxAgeInMillis: number): Promise<number>;
+
+  /**
+   * Stream folders into a zip on a background thread, reporting progress on
+   * the "archiveProgress" event
+   * @returns Promise with the archive path
+   */
+  createArchive(options: {
+    id: string;
+    destination: string;
+    sources: ArchiveSource[];
+    deleteSources: boolean;
+  }): Promise<string>;
+
   // ============================================================================
   // Actuator Operations
   // ============================================================================
@@ -701,7 +1436,7 @@ export interface BluetoothModuleType extends NativeModule {
   // ============================================================================
 
   /**
-   * Subscribe to analytics graph data
+   * Start buffering analytics graph data natively (no per-sample events)
    */
   subscribeToAnalyticsGraph(): void;
 
@@ -710,6 +1445,59 @@ export interface BluetoothModuleType extends NativeModule {
    */
   unSubscribeToAnalyticsGraph(): void;
 
+  /**
+   * Pull the latest analytics samples from the native ring buffer
+   * @param windowInMillis - Time span to return, 0 for the whole buffer
+   * @param maxPoints - Maximum points per series (e.g. chart width in px)
+   * @param sinceVersion - Version from the previous window, -1 to always return data
+   * @returns Promise with the downsampled series
+   */
+  getAnalyticsWindow(
+    windowInMillis: number,
+    maxPoints: number,
+    sinceVersion: number
+  ): Promise<AnalyticsWindow>;
+
+  // ============================================================================
+  // Session Recording
+  // ============================================================================
+
+  /**
+   * Start recording analytics samples ("analytics/<series>") and numeric live
+   * parameters ("param/<name>") to a session under the app data dir
+   * @returns Promise with the session id
+   */
+  startSessionRecording(): Promise<string>;
+
+  /**
+   * Stop the current recording
+   * @returns Promise with the session summary, or null if none was running
+   */
+  stopSessionRecording(): Promise<RecordedSessionSummary | null>;
+
+  /**
+   * List recorded sessions, oldest first
+   */
+  getRecordedSessions(): Promise<RecordedSession[]>;
+
+  /**
+   * Delete a recorded session (not the one currently recording)
+   * @returns Promise with true if it was deleted
+   */
+  deleteRecordedSession(sessionId: string): Promise<boolean>;
+
+  /**
+   * Export a session's samples as CSV (time,series,value)
+   * @param fromTime - Epoch ms, 0 for the start of the session
+   * @param toTime - Epoch ms, 0 for the end of the session
+   * @returns Promise with the CSV file path
+   */
+  exportSessionCsv(
+    sessionId: string,
+    fromTime: number,
+    toTime: number
+  ): Promise<string>;
+
   // ============================================================================
   // EE Dump Operations
   // ============================================================================
@@ -725,13 +1513,58 @@ export interface BluetoothModuleType extends NativeModule {
    */
   unsubscribeToDump(): void;
 
+  // ============================================================================
+  // Progress Streams
+  // ============================================================================
+
+  /**
+   * Get emitted vs dropped counts of the throttled progress streams
+   * @returns Promise with stats keyed by event name
+   * (updateFlash, updateBoot, updateWriteVin, updateWritePC, updateWriteBin)
+   */
+  getProgressStats(): Promise<Record<string, ProgressChannelStats>>;
+
+  /**
+   * Format the native log ring into BALAppLog/native_<time>.log
+   * @returns Promise with the written file path
+   */
+  dumpNativeLog(): Promise<string>;
+
+  /**
+   * Set native log levels (android.util.Log values: 2 verbose ... 6 error)
+   * @param minLevel - Events below this level are not recorded
+   * @param logcatLevel - Events at or above this level are also sent to logcat
+   */
+  setNativeLogLevel(minLevel: number, logcatLevel: number): void;
+
+  /**
+   * Keep only every `every`-th native log event of a tag (1 keeps all)
+   */
+  setNativeLogSampling(tag: string, every: number): void;
+
+  /**
+   * Get the LiveData observers currently registered by the native module
+   * @returns Promise with active subscriptions and attach/detach counters
+   */
+  getSubscriptionStats(): Promise<SubscriptionStats>;
+
+  /**
+   * Hit/miss counters of the memoized DID group and actuator routine lists
+   */
+  getMetadataCacheStats(): Promise<MetadataCacheStats>;
+
+  /**
+   * Queue depths, waits and deadline misses of the dongle command lanes
+   */
+  getSchedulerStats(): Promise<DongleSchedulerStats>;
+
   // ============================================================================
   // Timer Management
   // ============================================================================
 
   /**
    * Stop all timers from React Native side
-   * Stops all active countdown timers including flashing, parsing, and actuator timers
+   * Cancels the flashing/operation and actuator deadlines on the native watchdog
    */
   stopAllTimersFromReact(): void;
 }
@@ -747,36 +1580,51 @@ export type BluetoothModuleEventName =
   | "updateFlashing" // Flashing progress updates
   | "updateBoot" // Boot update progress
   | "errorCodes" // Error codes list updates
+  | "dtcSweep" // One ECU of a scanAllDtcs sweep
+  | "dtcSweepFinished" // scanAllDtcs totals
+  | "vehicleSnapshotProgress" // captureVehicleSnapshot step results
+  | "macroStep" // runMacro step summaries
   | "updateWriteVin" // VIN write operation updates
   | "updateWritePC" // Programming constants write updates
   | "updateWriteBin" // BIN write operation updates
-  | "analytics" // Analytics graph data
   | "readVin" // Read VIN result
   | "clearCode" // Clear code operation result
   | "eeDump" // EEPROM dump progress
+  | "eeDumpProgress" // EEPROM dump keepalive while raw chunks are captured
+  | "eeDumpComplete" // EEPROM dump stream summary
   | "readBinData" // Read BIN data result
   | "actuator" // Actuator routine progress
   | "readparameters" // Read parameters list (periodic updates)
-  | "writeparameters"; // Write parameters list (periodic updates)
+  | "writeparameterschema" // Write parameters static metadata (once)
+  | "writeparameters" // Write parameters values (periodic updates)
+  | "archiveProgress"; // Native archive progress
 
 /**
- * Event payload type mapping for type-safe event listeners
+ * Event payload type mapping for type-safe event listeners. `sessionId` is
+ * the dongle session the event came from.
  */
 export type BluetoothModuleEvents = {
   updateFlashing: FlashingUpdatePayload;
   updateBoot: BootUpdatePayload;
   errorCodes: ErrorCodesListPayload;
+  dtcSweep: DtcSweepPayload;
+  dtcSweepFinished: DtcSweepFinishedPayload;
+  vehicleSnapshotProgress: VehicleSnapshotProgressPayload;
+  macroStep: MacroStepPayload;
   updateWriteVin: WriteVinUpdatePayload;
   updateWritePC: WritePCUpdatePayload;
   updateWriteBin: WriteBinUpdatePayload;
-  analytics: AnalyticsGraphPayload;
   readVin: ReadVinPayload;
   clearCode: ClearCodePayload;
   eeDump: DumpPayload;
+  eeDumpProgress: EeDumpProgressPayload;
+  eeDumpComplete: EeDumpCompletePayload;
   readBinData: ReadBinDataPayload;
   actuator: ActuatorPayload;
   readparameters: ReadParametersPayload;
+  writeparameterschema: WriteParameterSchemaPayload;
   writeparameters: WriteParametersPayload;
+  archiveProgress: ArchiveProgressPayload;
 };
 
 // ============================================================================
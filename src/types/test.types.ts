@@ -7,6 +7,27 @@
 
 import type { NativeModule } from "react-native";
 
+/**
+ * Payload of the "copyFilesProgress" event, sent after each file
+ */
+export type CopyFilesProgressPayload = {
+  file: string;
+  /** Unchanged since the last copy, so it was not rewritten */
+  skipped: boolean;
+  files: number;
+  totalFiles: number;
+  bytes: number;
+  totalBytes: number;
+};
+
+/**
+ * A hex or XML file of the vehicle and the URL it is downloaded from
+ */
+export type CachedArtifact = {
+  url: string;
+  fileName: string;
+};
+
 /**
  * TestModule interface
  * Provides utility methods for file operations and device information
@@ -16,12 +37,18 @@ export interface TestModuleType extends NativeModule {
    * Copies files from source directory to app's internal storage
    *
    * @param sourcePath - Absolute path to source directory containing files to copy
+   * @param artifacts - Hex and XML files of the vehicle; downloaded ones are added to
+   * the artifact cache, missing ones are taken from it
    * @returns Promise that resolves to true if copy successful, false otherwise
    *
    * @description
-   * - Copies all files from sourcePath to internal storage at /data/data/com.nostix/balDownload/
-   * - Deletes existing destination directory before copying
-   * - Recursively deletes old files to ensure clean state
+   * - Mirrors the files in sourcePath to internal storage at /data/data/com.nostix/balDownload/
+   * - Builds the new folder in balDownload.staging and swaps it in once complete
+   * - Files whose size and SHA-256 match the previous copy are linked, not rewritten
+   * - Runs off the JS thread and emits "copyFilesProgress" after each file
+   * - Downloads are stored once by SHA-256 in a shared cache (512 MiB, least recently used evicted)
+   * - Then compiles the DID/DTC XML files into binary dictionaries (see BluetoothModule.lookupDictionary);
+   *   a dictionary that fails to compile does not fail the copy
    *
    * @example
    * ```typescript
@@ -32,7 +59,7 @@ export interface TestModuleType extends NativeModule {
    *
    * // Copy downloaded files to internal storage
    * const sourcePath = '/data/user/0/com.nostix/files/balDownload';
-   * const success = await TestModule.copyFilesToLocation(sourcePath);
+   * const success = await TestModule.copyFilesToLocation(sourcePath, artifacts);
    *
    * if (success) {
    *   console.log('Files copied successfully');
@@ -41,9 +68,19 @@ export interface TestModuleType extends NativeModule {
    * }
    * ```
    *
-   * @throws IOException if file operations fail
+   * Never rejects; resolves false if any file fails, leaving balDownload unchanged
+   */
+  copyFilesToLocation(
+    sourcePath: string,
+    artifacts: CachedArtifact[]
+  ): Promise<boolean>;
+
+  /**
+   * Returns the URLs whose file is already in the artifact cache and still
+   * matches the server (ETag or Content-Length, checked with a HEAD request).
+   * Their download can be skipped; copyFilesToLocation links them in.
    */
-  copyFilesToLocation(sourcePath: string): Promise<boolean>;
+  getCachedArtifacts(urls: string[]): Promise<string[]>;
 
   /**
    * Gets the Android device's unique identifier
@@ -100,6 +137,7 @@ declare module "react-native" {
  *    - Used after downloading hex files, XML configs, and JSON response
  *    - Ensures files are in app's internal storage for native library access
  *    - Automatically handles cleanup of old files
+ *    - Re-downloading the same files only reads them; nothing is rewritten
  *
  * 2. Android ID:
  *    - Can be used for device identification
@@ -111,7 +149,7 @@ declare module "react-native" {
  *    - getAndroidID rejects promise with error code on failure
  *
  * 4. Platform Support:
- *    - Android only (requires API 29+ for FileUtils.copy)
+ *    - Android only
  *    - iOS not supported
  *
  * 5. Permissions: